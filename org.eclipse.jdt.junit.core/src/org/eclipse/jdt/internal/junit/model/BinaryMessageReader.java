@@ -0,0 +1,188 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.jdt.internal.junit.model;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.eclipse.jdt.internal.junit.runner.MessageIds;
+
+/**
+ * Reads the messages sent by a RemoteTestRunner that uses the binary protocol,
+ * and returns them in the format of the text protocol.
+ *
+ * @see MessageIds#BINARY_PROTOCOL_VERSION
+ */
+class BinaryMessageReader {
+
+	private final DataInputStream fInput;
+	private final String fLineDelimiter;
+
+	private byte[] fFrame= new byte[8 * 1024];
+	private int fFrameSize= 0;
+	private int fPosition= 0;
+
+	/**
+	 * The names of the tests sent by the runner, indexed by test id
+	 */
+	private String[] fTestNames= new String[1024];
+
+	/**
+	 * Tells whether the runner uses the binary protocol. Looks at the first byte
+	 * without consuming it.
+	 *
+	 * @param input the stream from the runner, must support marks
+	 * @return <code>true</code> if the stream starts with the binary protocol header
+	 * @throws IOException if the stream cannot be read
+	 */
+	static boolean isBinaryStream(InputStream input) throws IOException {
+		input.mark(1);
+		int first= input.read();
+		input.reset();
+		return first == MessageIds.BINARY_PROTOCOL_MARKER;
+	}
+
+	/**
+	 * Creates a reader and reads the protocol header.
+	 *
+	 * @param input the stream from the runner, positioned at the protocol header
+	 * @throws IOException if the header cannot be read or the protocol version is not supported
+	 */
+	BinaryMessageReader(InputStream input) throws IOException {
+		fInput= new DataInputStream(input);
+		if (fInput.readByte() != MessageIds.BINARY_PROTOCOL_MARKER || fInput.readInt() != MessageIds.BINARY_PROTOCOL_MAGIC)
+			throw new IOException("Invalid binary protocol header"); //$NON-NLS-1$
+		int version= fInput.readInt();
+		if (version != MessageIds.BINARY_PROTOCOL_VERSION)
+			throw new IOException("Unsupported binary protocol version " + version); //$NON-NLS-1$
+
+		int length= 0;
+		for (int shift= 0;; shift+= 7) {
+			int b= fInput.readUnsignedByte();
+			length|= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0)
+				break;
+		}
+		byte[] delimiter= new byte[length];
+		fInput.readFully(delimiter);
+		fLineDelimiter= new String(delimiter, "UTF-8"); //$NON-NLS-1$
+	}
+
+	/**
+	 * Returns the line delimiter used by the runner.
+	 *
+	 * @return the line delimiter to append to each message of a multi-line message
+	 */
+	String getLineDelimiter() {
+		return fLineDelimiter;
+	}
+
+	/**
+	 * Reads the next message.
+	 *
+	 * @return the message in the text protocol format, or <code>null</code> if the stream has ended
+	 * @throws IOException if the stream cannot be read or is corrupt
+	 */
+	String readMessage() throws IOException {
+		while (fPosition == fFrameSize) {
+			if (!readFrame())
+				return null;
+		}
+
+		int opcode= readByte();
+		int form= opcode & MessageIds.BINARY_FORM_MASK;
+		int index= opcode & ~MessageIds.BINARY_FORM_MASK;
+		if (index > MessageIds.BINARY_MESSAGE_IDS.length)
+			throw new IOException("Invalid binary message opcode " + opcode); //$NON-NLS-1$
+		String header= index == 0 ? "" : MessageIds.BINARY_MESSAGE_IDS[index - 1]; //$NON-NLS-1$
+
+		switch (form) {
+			case MessageIds.BINARY_FORM_STRING:
+				return header + readString();
+
+			case MessageIds.BINARY_FORM_NEW_TEST: {
+				int id= readNumber();
+				String name= readString();
+				if (id >= fTestNames.length) {
+					String[] names= new String[Math.max(id + 1, fTestNames.length * 2)];
+					System.arraycopy(fTestNames, 0, names, 0, fTestNames.length);
+					fTestNames= names;
+				}
+				fTestNames[id]= name;
+				return header + id + ',' + name;
+			}
+
+			case MessageIds.BINARY_FORM_KNOWN_TEST: {
+				int id= readNumber();
+				if (id >= fTestNames.length || fTestNames[id] == null)
+					throw new IOException("Unknown test id " + id); //$NON-NLS-1$
+				return header + id + ',' + fTestNames[id];
+			}
+
+			default:
+				throw new IOException("Invalid binary message opcode " + opcode); //$NON-NLS-1$
+		}
+	}
+
+	/**
+	 * Closes the stream.
+	 *
+	 * @throws IOException if closing fails
+	 */
+	void close() throws IOException {
+		fInput.close();
+	}
+
+	private boolean readFrame() throws IOException {
+		int size;
+		try {
+			size= fInput.readInt();
+		} catch (EOFException e) {
+			return false;
+		}
+		if (size < 0)
+			throw new IOException("Invalid binary frame size " + size); //$NON-NLS-1$
+		if (size > fFrame.length)
+			fFrame= new byte[Math.max(size, fFrame.length * 2)];
+		fInput.readFully(fFrame, 0, size);
+		fFrameSize= size;
+		fPosition= 0;
+		return true;
+	}
+
+	private int readByte() throws IOException {
+		if (fPosition >= fFrameSize)
+			throw new EOFException();
+		return fFrame[fPosition++] & 0xFF;
+	}
+
+	private int readNumber() throws IOException {
+		int value= 0;
+		for (int shift= 0; shift < 32; shift+= 7) {
+			int b= readByte();
+			value|= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0)
+				return value;
+		}
+		throw new IOException("Invalid binary number"); //$NON-NLS-1$
+	}
+
+	private String readString() throws IOException {
+		int length= readNumber();
+		if (length < 0 || length > fFrameSize - fPosition)
+			throw new EOFException();
+		String string= new String(fFrame, fPosition, length, "UTF-8"); //$NON-NLS-1$
+		fPosition+= length;
+		return string;
+	}
+}
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2000, 2011 IBM Corporation and others.
+ * Copyright (c) 2000, 2014 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -18,6 +18,7 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.lang.reflect.InvocationTargetException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedList;
@@ -244,33 +245,7 @@ public final class JUnitModel {
 		ILaunchManager launchManager= DebugPlugin.getDefault().getLaunchManager();
 		launchManager.addLaunchListener(fLaunchListener);
 
-/*
- * TODO: restore on restart:
- * - only import headers!
- * - only import last n sessions; remove all other files in historyDirectory
- */
-//		File historyDirectory= JUnitPlugin.getHistoryDirectory();
-//		File[] swapFiles= historyDirectory.listFiles();
-//		if (swapFiles != null) {
-//			Arrays.sort(swapFiles, new Comparator() {
-//				public int compare(Object o1, Object o2) {
-//					String name1= ((File) o1).getName();
-//					String name2= ((File) o2).getName();
-//					return name1.compareTo(name2);
-//				}
-//			});
-//			for (int i= 0; i < swapFiles.length; i++) {
-//				final File file= swapFiles[i];
-//				SafeRunner.run(new ISafeRunnable() {
-//					public void run() throws Exception {
-//						importTestRunSession(file );
-//					}
-//					public void handleException(Throwable exception) {
-//						JUnitPlugin.log(exception);
-//					}
-//				});
-//			}
-//		}
+		restoreTestRunSessions();
 
 		addTestRunSessionListener(new LegacyTestRunSessionListener());
 	}
@@ -282,11 +257,21 @@ public final class JUnitModel {
 		ILaunchManager launchManager= DebugPlugin.getDefault().getLaunchManager();
 		launchManager.removeLaunchListener(fLaunchListener);
 
+		// keep the journals of the sessions in the history, they are restored on the next start
+		HashSet journals= new HashSet();
+		synchronized (this) {
+			for (Iterator iter= fTestRunSessions.iterator(); iter.hasNext();) {
+				File journal= ((TestRunSession) iter.next()).getJournalFile();
+				if (journal != null)
+					journals.add(journal);
+			}
+		}
 		File historyDirectory= JUnitCorePlugin.getHistoryDirectory();
 		File[] swapFiles= historyDirectory.listFiles();
 		if (swapFiles != null) {
 			for (int i= 0; i < swapFiles.length; i++) {
-				swapFiles[i].delete();
+				if (! journals.contains(swapFiles[i]))
+					swapFiles[i].delete();
 			}
 		}
 
@@ -304,6 +289,40 @@ public final class JUnitModel {
 	}
 
 
+	/**
+	 * Restores the test run sessions of the previous workbench session from the journals in the
+	 * history directory. Only the indexes of the journals are read, other history files are
+	 * deleted.
+	 */
+	private void restoreTestRunSessions() {
+		File[] files= JUnitCorePlugin.getHistoryDirectory().listFiles();
+		if (files == null)
+			return;
+
+		// file names start with the start time of the session
+		Arrays.sort(files);
+		int maxCount= Platform.getPreferencesService().getInt(JUnitCorePlugin.CORE_PLUGIN_ID, JUnitPreferencesConstants.MAX_TEST_RUNS, 10, null);
+		LinkedList journals= new LinkedList();
+		for (int i= files.length - 1; i >= 0; i--) {
+			File file= files[i];
+			if (journals.size() < maxCount && file.getName().endsWith(TestRunSessionJournal.EXTENSION)) {
+				journals.addFirst(file);
+			} else {
+				file.delete();
+			}
+		}
+
+		for (Iterator iter= journals.iterator(); iter.hasNext();) {
+			File journal= (File) iter.next();
+			try {
+				addTestRunSession(TestRunSessionJournal.importTestRunSession(journal));
+			} catch (IOException e) {
+				JUnitCorePlugin.log(e);
+				journal.delete();
+			}
+		}
+	}
+
 	public void addTestRunSessionListener(ITestRunSessionListener listener) {
 		fTestRunSessionListeners.add(listener);
 	}
@@ -360,11 +379,21 @@ public final class JUnitModel {
 	/**
 	 * Imports a test run session from the given file.
 	 *
-	 * @param file a file containing a test run session transcript
+	 * @param file a file containing a test run session transcript, or a test run session journal.
+	 *            The test elements of a journal are read when they are needed.
 	 * @return the imported test run session
 	 * @throws CoreException if the import failed
 	 */
 	public static TestRunSession importTestRunSession(File file) throws CoreException {
+		if (TestRunSessionJournal.isJournal(file)) {
+			try {
+				TestRunSession session= TestRunSessionJournal.importTestRunSession(file);
+				JUnitCorePlugin.getModel().addTestRunSession(session);
+				return session;
+			} catch (IOException e) {
+				throwImportError(file, e);
+			}
+		}
 		try {
 			SAXParserFactory parserFactory= SAXParserFactory.newInstance();
 //			parserFactory.setValidating(true); // TODO: add DTD and debug flag
@@ -477,10 +506,20 @@ public final class JUnitModel {
 	 * Exports the given test run session.
 	 *
 	 * @param testRunSession the test run session
-	 * @param file the destination
+	 * @param file the destination. If the file name ends with <code>.journal</code>, a test run
+	 *            session journal is written instead of XML
 	 * @throws CoreException if an error occurred
 	 */
 	public static void exportTestRunSession(TestRunSession testRunSession, File file) throws CoreException {
+		if (file.getName().endsWith(TestRunSessionJournal.EXTENSION)) {
+			try {
+				TestRunSessionJournal.write(testRunSession, file);
+			} catch (IOException e) {
+				throwExportError(file, e);
+			}
+			return;
+		}
+
 		FileOutputStream out= null;
 		try {
 			out= new FileOutputStream(file);
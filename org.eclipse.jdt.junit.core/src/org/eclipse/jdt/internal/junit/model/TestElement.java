@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2000, 2013 IBM Corporation and others.
+ * Copyright (c) 2000, 2014 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -294,6 +294,26 @@ public abstract class TestElement implements ITestElement {
 		setStatus(status);
 	}
 
+	/**
+	 * Restores the state of an element that has been read from a journal, without
+	 * notifying the parent.
+	 *
+	 * @param status the status
+	 * @param trace the failure trace, or <code>null</code>
+	 * @param expected the expected value, or <code>null</code>
+	 * @param actual the actual value, or <code>null</code>
+	 * @param assumptionFailed whether an assumption failed
+	 * @param time the value of {@link #fTime}
+	 */
+	void restoreState(Status status, String trace, String expected, String actual, boolean assumptionFailed, double time) {
+		fStatus= status;
+		fTrace= trace;
+		fExpected= expected;
+		fActual= actual;
+		fAssumptionFailed= assumptionFailed;
+		fTime= time;
+	}
+
 	public Status getStatus() {
 		return fStatus;
 	}
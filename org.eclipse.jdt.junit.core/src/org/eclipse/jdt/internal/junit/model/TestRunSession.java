@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2000, 2013 IBM Corporation and others.
+ * Copyright (c) 2000, 2014 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -12,13 +12,16 @@
 package org.eclipse.jdt.internal.junit.model;
 
 import java.io.File;
+import java.io.IOException;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.eclipse.jdt.junit.model.ITestElement;
 import org.eclipse.jdt.junit.model.ITestElementContainer;
@@ -86,7 +89,7 @@ public class TestRunSession implements ITestRunSession {
 	/**
 	 * Map from testId to testElement.
 	 */
-	private HashMap/*<String, TestElement>*/ fIdToTest;
+	private Map/*<String, TestElement>*/ fIdToTest;
 
 	/**
 	 * The TestSuites for which additional children are expected.
@@ -98,6 +101,21 @@ public class TestRunSession implements ITestRunSession {
 	 */
 	private TestSuiteElement fUnrootedSuite;
 
+	/**
+	 * The journal written during the test run, or <code>null</code>.
+	 */
+	private TestRunSessionJournal fJournal;
+
+	/**
+	 * The journal this session has been imported from, or <code>null</code>.
+	 */
+	private File fImportedJournal;
+
+	/**
+	 * <code>true</code> if test elements may still have to be read from a journal.
+	 */
+	private volatile boolean fHasUnloadedTestElements;
+
  	/**
  	 * Number of tests started during this test run.
  	 */
@@ -221,6 +239,7 @@ public class TestRunSession implements ITestRunSession {
 		fTestRoot= new TestRoot(this);
 		fTestResult= null;
 		fIdToTest= new HashMap();
+		fHasUnloadedTestElements= false;
 	}
 
 	/* (non-Javadoc)
@@ -362,13 +381,15 @@ public class TestRunSession implements ITestRunSession {
 		}
 
 		try {
-			File swapFile= getSwapFile();
-
-			JUnitModel.exportTestRunSession(this, swapFile);
+			if (getJournalFile() == null) {
+				File swapFile= getSwapFile();
+				JUnitModel.exportTestRunSession(this, swapFile);
+			}
 			fTestResult= fTestRoot.getTestResult(true);
 			fTestRoot= null;
 			fTestRunnerClient= null;
 			fIdToTest= new HashMap();
+			fHasUnloadedTestElements= false;
 			fIncompleteTestSuites= null;
 			fUnrootedSuite= null;
 
@@ -388,20 +409,54 @@ public class TestRunSession implements ITestRunSession {
 		File swapFile= getSwapFile();
 		if (swapFile.exists())
 			swapFile.delete();
+		if (fJournal != null) {
+			fJournal.close();
+			File journalFile= fJournal.getFile();
+			if (journalFile.exists())
+				journalFile.delete();
+		} else if (fImportedJournal != null && JUnitCorePlugin.getHistoryDirectory().equals(fImportedJournal.getParentFile())) {
+			// restored from the history
+			fImportedJournal.delete();
+		}
 	}
 
 	private File getSwapFile() throws IllegalStateException {
+		return getHistoryFile(".xml"); //$NON-NLS-1$
+	}
+
+	private File getHistoryFile(String extension) throws IllegalStateException {
 		File historyDir= JUnitCorePlugin.getHistoryDirectory();
 		String isoTime= new SimpleDateFormat("yyyyMMdd-HHmmss.SSS").format(new Date(getStartTime())); //$NON-NLS-1$
-		String swapFileName= isoTime + ".xml"; //$NON-NLS-1$
+		String swapFileName= isoTime + extension;
 		return new File(historyDir, swapFileName);
 	}
 
+	/**
+	 * @return a complete journal of this session, or <code>null</code> if there is none
+	 */
+	File getJournalFile() {
+		if (fJournal != null)
+			return fJournal.isComplete() ? fJournal.getFile() : null;
+		return fImportedJournal;
+	}
+
 
 	public synchronized void swapIn() {
 		if (fTestRoot != null)
 			return;
 
+		File journalFile= getJournalFile();
+		if (journalFile != null) {
+			try {
+				swapIn(journalFile, new TestRunSessionJournal.Loader(journalFile));
+			} catch (IOException e) {
+				JUnitCorePlugin.log(e);
+				fTestRoot= new TestRoot(this);
+				fTestResult= null;
+			}
+			return;
+		}
+
 		try {
 			JUnitModel.importIntoTestRunSession(getSwapFile(), this);
 		} catch (IllegalStateException e) {
@@ -415,6 +470,31 @@ public class TestRunSession implements ITestRunSession {
 		}
 	}
 
+	/**
+	 * Swaps in the test elements from a journal. The test elements are read when they are needed.
+	 *
+	 * @param journalFile the journal
+	 * @param loader the loader of the journal
+	 */
+	synchronized void swapIn(File journalFile, TestRunSessionJournal.Loader loader) {
+		if (fJournal == null)
+			fImportedJournal= journalFile;
+		fTestRoot= new TestRoot(this);
+		fTestResult= null;
+		fIdToTest= Collections.synchronizedMap(new HashMap());
+		fHasUnloadedTestElements= true;
+		loader.initRoot(fTestRoot);
+	}
+
+	/**
+	 * Registers a test element that has been read from a journal.
+	 *
+	 * @param testElement the test element
+	 */
+	void testElementLoaded(TestElement testElement) {
+		fIdToTest.put(testElement.getId(), testElement);
+	}
+
 	public void stopTestRun() {
 		if (isRunning() || ! isKeptAlive())
 			fIsStopped= true;
@@ -500,7 +580,14 @@ public class TestRunSession implements ITestRunSession {
 	}
 
 	public TestElement getTestElement(String id) {
-		return (TestElement) fIdToTest.get(id);
+		TestElement testElement= (TestElement) fIdToTest.get(id);
+		if (testElement == null && fHasUnloadedTestElements) {
+			TestRoot testRoot= getTestRoot();
+			testRoot.loadAllChildren();
+			fHasUnloadedTestElements= false;
+			testElement= (TestElement) fIdToTest.get(id);
+		}
+		return testElement;
 	}
 
 	private TestElement addTreeEntry(String treeEntry) {
@@ -540,6 +627,8 @@ public class TestRunSession implements ITestRunSession {
 			testElement= new TestCaseElement(parent, id, testName);
 		}
 		fIdToTest.put(id, testElement);
+		if (fJournal != null)
+			fJournal.elementAdded(testElement);
 		return testElement;
 	}
 
@@ -590,6 +679,7 @@ public class TestRunSession implements ITestRunSession {
 
 			fStartTime= System.currentTimeMillis();
 			fIsRunning= true;
+			startJournal();
 
 			Object[] listeners= fSessionListeners.getListeners();
 			for (int i= 0; i < listeners.length; ++i) {
@@ -599,6 +689,7 @@ public class TestRunSession implements ITestRunSession {
 
 		public void testRunEnded(long elapsedTime) {
 			fIsRunning= false;
+			finishJournal();
 
 			Object[] listeners= fSessionListeners.getListeners();
 			for (int i= 0; i < listeners.length; ++i) {
@@ -609,6 +700,7 @@ public class TestRunSession implements ITestRunSession {
 		public void testRunStopped(long elapsedTime) {
 			fIsRunning= false;
 			fIsStopped= true;
+			finishJournal();
 
 			Object[] listeners= fSessionListeners.getListeners();
 			for (int i= 0; i < listeners.length; ++i) {
@@ -619,6 +711,7 @@ public class TestRunSession implements ITestRunSession {
 		public void testRunTerminated() {
 			fIsRunning= false;
 			fIsStopped= true;
+			finishJournal();
 
 			Object[] listeners= fSessionListeners.getListeners();
 			for (int i= 0; i < listeners.length; ++i) {
@@ -693,6 +786,7 @@ public class TestRunSession implements ITestRunSession {
 					testElement.setAssumptionFailed(true);
 					fAssumptionFailureCount++;
 					setStatus(testElement, Status.OK);
+					journalStateChanged(testElement);
 				} else {
 					logUnexpectedTest(testId, testElement);
 				}
@@ -706,6 +800,7 @@ public class TestRunSession implements ITestRunSession {
 
 			if (testCaseElement.getStatus() == Status.RUNNING)
 				setStatus(testCaseElement, Status.OK);
+			journalStateChanged(testCaseElement);
 
 			Object[] listeners= fSessionListeners.getListeners();
 			for (int i= 0; i < listeners.length; ++i) {
@@ -733,6 +828,7 @@ public class TestRunSession implements ITestRunSession {
 			}
 
 			registerTestFailureStatus(testElement, status, trace, expected, actual);
+			journalStateChanged(testElement);
 
 			Object[] listeners= fSessionListeners.getListeners();
 			for (int i= 0; i < listeners.length; ++i) {
@@ -755,6 +851,7 @@ public class TestRunSession implements ITestRunSession {
 
 			Status status= Status.convert(statusCode);
 			registerTestFailureStatus(testElement, status, trace, expectedResult, actualResult);
+			journalStateChanged(testElement);
 
 			Object[] listeners= fSessionListeners.getListeners();
 			for (int i= 0; i < listeners.length; ++i) {
@@ -763,6 +860,26 @@ public class TestRunSession implements ITestRunSession {
 			}
 		}
 
+		private void startJournal() {
+			if (fJournal != null)
+				fJournal.close();
+			try {
+				fJournal= TestRunSessionJournal.create(getHistoryFile(TestRunSessionJournal.EXTENSION), TestRunSession.this);
+			} catch (IllegalStateException e) {
+				JUnitCorePlugin.log(e);
+			}
+		}
+
+		private void journalStateChanged(TestElement testElement) {
+			if (fJournal != null)
+				fJournal.stateChanged(testElement);
+		}
+
+		private void finishJournal() {
+			if (fJournal != null)
+				fJournal.finish(TestRunSession.this);
+		}
+
 		private void logUnexpectedTest(String testId, TestElement testElement) {
 			JUnitCorePlugin.log(new Exception("Unexpected TestElement type for testId '" + testId + "': " + testElement)); //$NON-NLS-1$ //$NON-NLS-2$
 		}
@@ -0,0 +1,748 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.jdt.internal.junit.model;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.HashMap;
+
+import org.eclipse.jdt.junit.model.ITestElement;
+
+import org.eclipse.core.resources.ResourcesPlugin;
+
+import org.eclipse.jdt.core.IJavaProject;
+import org.eclipse.jdt.core.JavaCore;
+
+import org.eclipse.jdt.internal.junit.JUnitCorePlugin;
+import org.eclipse.jdt.internal.junit.model.TestElement.Status;
+
+/**
+ * Append-only journal of a test run session.
+ * <p>
+ * The journal is written while the tests are running. Each record describes a test element
+ * that has been added, or the state of a test element that has changed. When the run is over,
+ * an index of all test elements is appended. The index allows to open a journal without
+ * reading it, and to read the children of a suite only when they are needed (see
+ * {@link Loader}). If the index is missing, e.g. because the workbench has crashed during
+ * the run, the index is rebuilt by scanning the records.
+ * </p>
+ * <p>
+ * File format:
+ * <pre>
+ * journal:  MAGIC VERSION runName:string project:string startTime:long record* footer?
+ * record:   kind:byte length:int payload
+ * ELEMENT:  parent:int id:string name:string isSuite:boolean
+ * STATE:    element:int status:byte childrenStatus:byte ignored:boolean assumptionFailed:boolean
+ *           time:double trace:string expected:string actual:string
+ * END:      total:int started:int ignored:int assumptionFailures:int errors:int failures:int
+ *           stopped:boolean rootStatus:byte rootTime:double
+ * INDEX:    count:int (elementOffset:long stateOffset:long parent:int)*
+ * footer:   indexOffset:long MAGIC
+ * string:   length:int UTF-8 bytes, length -1 for null
+ * </pre>
+ * Elements are numbered in the order of their ELEMENT records, the root has number -1.
+ * Status codes are indices into {@link #STATUSES}, -1 if undefined.
+ * </p>
+ */
+final class TestRunSessionJournal {
+
+	/**
+	 * File name extension of journals
+	 */
+	static final String EXTENSION= ".journal"; //$NON-NLS-1$
+
+	private static final int MAGIC= 0x4A554A4C;
+	private static final int VERSION= 1;
+
+	private static final int FOOTER_LENGTH= 12;
+	private static final int END_LENGTH= 6 * 4 + 1 + 1 + 8;
+
+	private static final byte ELEMENT= 1;
+	private static final byte STATE= 2;
+	private static final byte END= 3;
+	private static final byte INDEX= 4;
+
+	private static final Status[] STATUSES= {
+		Status.OK, Status.ERROR, Status.FAILURE, Status.RUNNING, Status.NOT_RUN, Status.RUNNING_ERROR, Status.RUNNING_FAILURE
+	};
+
+	private final File fFile;
+	private DataOutputStream fOutput;
+	private long fPosition;
+
+	/**
+	 * Element numbers, key: TestElement, value: Integer
+	 */
+	private final HashMap fElementNumbers= new HashMap();
+	private long[] fElementOffsets= new long[256];
+	private long[] fStateOffsets= new long[256];
+	private int[] fParents= new int[256];
+	private int fElementCount= 0;
+
+	private boolean fComplete= false;
+
+	private final ByteArrayOutputStream fRecord= new ByteArrayOutputStream(1024);
+	private final DataOutputStream fRecordOutput= new DataOutputStream(fRecord);
+
+	private TestRunSessionJournal(File file) {
+		fFile= file;
+	}
+
+	/**
+	 * Starts a journal for a test run session.
+	 *
+	 * @param file the file to write
+	 * @param session the session
+	 * @return the journal, or <code>null</code> if the file cannot be written
+	 */
+	static TestRunSessionJournal create(File file, TestRunSession session) {
+		TestRunSessionJournal journal= new TestRunSessionJournal(file);
+		try {
+			journal.open(session);
+			return journal;
+		} catch (IOException e) {
+			JUnitCorePlugin.log(e);
+			journal.close();
+			file.delete();
+			return null;
+		}
+	}
+
+	/**
+	 * Writes a complete journal of a test run session that is not running.
+	 *
+	 * @param session the session
+	 * @param file the file to write
+	 * @throws IOException if the journal cannot be written
+	 */
+	static void write(TestRunSession session, File file) throws IOException {
+		TestRunSessionJournal journal= new TestRunSessionJournal(file);
+		try {
+			journal.open(session);
+			journal.writeElements(session.getTestRoot());
+			journal.finish(session);
+		} finally {
+			journal.close();
+		}
+		if (! journal.isComplete())
+			throw new IOException("Could not write test run journal: " + file); //$NON-NLS-1$
+	}
+
+	private void open(TestRunSession session) throws IOException {
+		fOutput= new DataOutputStream(new BufferedOutputStream(new FileOutputStream(fFile), 64 * 1024));
+		fRecordOutput.writeInt(MAGIC);
+		fRecordOutput.writeInt(VERSION);
+		writeString(fRecordOutput, session.getTestRunName());
+		IJavaProject project= session.getLaunchedProject();
+		writeString(fRecordOutput, project != null ? project.getElementName() : ""); //$NON-NLS-1$
+		fRecordOutput.writeLong(session.getStartTime());
+		fRecord.writeTo(fOutput);
+		fPosition= fRecord.size();
+		fRecord.reset();
+	}
+
+	private void writeElements(TestSuiteElement suite) {
+		ITestElement[] children= suite.getChildren();
+		for (int i= 0; i < children.length; i++) {
+			TestElement child= (TestElement) children[i];
+			elementAdded(child);
+			if (child instanceof TestSuiteElement) {
+				writeElements((TestSuiteElement) child);
+			} else {
+				stateChanged(child);
+			}
+		}
+	}
+
+	/**
+	 * @return the journal file
+	 */
+	File getFile() {
+		return fFile;
+	}
+
+	/**
+	 * @return <code>true</code> iff the journal has been finished and describes the session
+	 */
+	synchronized boolean isComplete() {
+		return fComplete;
+	}
+
+	/**
+	 * Appends a test element that has been added to the session.
+	 *
+	 * @param element the new element
+	 */
+	synchronized void elementAdded(TestElement element) {
+		if (fOutput == null)
+			return;
+
+		int parent= getElementNumber(element.getParent());
+		if (fElementCount == fElementOffsets.length) {
+			int length= fElementCount * 2;
+			fElementOffsets= grow(fElementOffsets, length);
+			fStateOffsets= grow(fStateOffsets, length);
+			int[] parents= new int[length];
+			System.arraycopy(fParents, 0, parents, 0, fElementCount);
+			fParents= parents;
+		}
+		int number= fElementCount++;
+		fElementNumbers.put(element, new Integer(number));
+		fElementOffsets[number]= fPosition;
+		fStateOffsets[number]= -1;
+		fParents[number]= parent;
+
+		try {
+			fRecordOutput.writeInt(parent);
+			writeString(fRecordOutput, element.getId());
+			writeString(fRecordOutput, element.getTestName());
+			fRecordOutput.writeBoolean(element instanceof TestSuiteElement);
+			writeRecord(ELEMENT);
+		} catch (IOException e) {
+			fail(e);
+		}
+	}
+
+	/**
+	 * Appends the current state of a test element.
+	 *
+	 * @param element the element whose state has changed
+	 */
+	synchronized void stateChanged(TestElement element) {
+		if (fComplete) {
+			// e.g. a rerun in a kept alive VM: the journal is outdated
+			fComplete= false;
+			return;
+		}
+		if (fOutput == null)
+			return;
+
+		int number= getElementNumber(element);
+		if (number == -1)
+			return;
+		fStateOffsets[number]= fPosition;
+		try {
+			writeState(number, element);
+		} catch (IOException e) {
+			fail(e);
+		}
+	}
+
+	/**
+	 * Appends the final states of the suites, the counters and the index, and closes the journal.
+	 *
+	 * @param session the session that has ended
+	 */
+	synchronized void finish(TestRunSession session) {
+		if (fOutput == null)
+			return;
+
+		try {
+			// the states of the suites are only final now, test cases that have not ended are not run
+			TestRoot root= session.getTestRoot();
+			writeSuiteStates(root);
+
+			fRecordOutput.writeInt(session.getTotalCount());
+			fRecordOutput.writeInt(session.getStartedCount());
+			fRecordOutput.writeInt(session.getIgnoredCount());
+			fRecordOutput.writeInt(session.getAssumptionFailureCount());
+			fRecordOutput.writeInt(session.getErrorCount());
+			fRecordOutput.writeInt(session.getFailureCount());
+			fRecordOutput.writeBoolean(session.isStopped());
+			fRecordOutput.writeByte(getStatusCode(root.getStatus()));
+			fRecordOutput.writeDouble(root.fTime);
+			writeRecord(END);
+
+			long indexOffset= fPosition;
+			fRecordOutput.writeInt(fElementCount);
+			for (int number= 0; number < fElementCount; number++) {
+				fRecordOutput.writeLong(fElementOffsets[number]);
+				fRecordOutput.writeLong(fStateOffsets[number]);
+				fRecordOutput.writeInt(fParents[number]);
+			}
+			writeRecord(INDEX);
+
+			fOutput.writeLong(indexOffset);
+			fOutput.writeInt(MAGIC);
+			fOutput.close();
+			fOutput= null;
+			fComplete= true;
+		} catch (IOException e) {
+			fail(e);
+		}
+		fElementNumbers.clear();
+	}
+
+	/**
+	 * Closes the journal without finishing it.
+	 */
+	synchronized void close() {
+		if (fOutput != null) {
+			try {
+				fOutput.close();
+			} catch (IOException e) {
+				// the journal is incomplete anyway
+			}
+			fOutput= null;
+		}
+	}
+
+	private void writeSuiteStates(TestSuiteElement suite) throws IOException {
+		ITestElement[] children= suite.getChildren();
+		for (int i= 0; i < children.length; i++) {
+			if (children[i] instanceof TestSuiteElement) {
+				TestSuiteElement child= (TestSuiteElement) children[i];
+				writeSuiteStates(child);
+				int number= getElementNumber(child);
+				if (number != -1) {
+					fStateOffsets[number]= fPosition;
+					writeState(number, child);
+				}
+			}
+		}
+	}
+
+	private void writeState(int number, TestElement element) throws IOException {
+		Status childrenStatus= null;
+		Status status;
+		if (element instanceof TestSuiteElement) {
+			TestSuiteElement suite= (TestSuiteElement) element;
+			status= suite.getSuiteStatus();
+			childrenStatus= suite.getChildrenStatus();
+		} else {
+			status= element.getStatus();
+		}
+		fRecordOutput.writeInt(number);
+		fRecordOutput.writeByte(getStatusCode(status));
+		fRecordOutput.writeByte(getStatusCode(childrenStatus));
+		fRecordOutput.writeBoolean(element instanceof TestCaseElement && ((TestCaseElement) element).isIgnored());
+		fRecordOutput.writeBoolean(element.isAssumptionFailure());
+		fRecordOutput.writeDouble(element.fTime);
+		writeString(fRecordOutput, element.getTrace());
+		writeString(fRecordOutput, element.getExpected());
+		writeString(fRecordOutput, element.getActual());
+		writeRecord(STATE);
+	}
+
+	private void writeRecord(byte kind) throws IOException {
+		fOutput.writeByte(kind);
+		fOutput.writeInt(fRecord.size());
+		fRecord.writeTo(fOutput);
+		fPosition+= 5 + fRecord.size();
+		fRecord.reset();
+	}
+
+	private int getElementNumber(TestElement element) {
+		Integer number= (Integer) fElementNumbers.get(element);
+		return number != null ? number.intValue() : -1;
+	}
+
+	private void fail(IOException e) {
+		JUnitCorePlugin.log(e);
+		close();
+		fRecord.reset();
+	}
+
+	private static long[] grow(long[] array, int length) {
+		long[] result= new long[length];
+		System.arraycopy(array, 0, result, 0, array.length);
+		return result;
+	}
+
+	private static int getStatusCode(Status status) {
+		for (int i= 0; i < STATUSES.length; i++) {
+			if (STATUSES[i] == status)
+				return i;
+		}
+		return -1;
+	}
+
+	private static Status getStatus(int code) throws IOException {
+		if (code == -1)
+			return null;
+		if (code < 0 || code >= STATUSES.length)
+			throw new IOException("Invalid status code " + code); //$NON-NLS-1$
+		return STATUSES[code];
+	}
+
+	private static void writeString(DataOutputStream output, String string) throws IOException {
+		if (string == null) {
+			output.writeInt(-1);
+		} else {
+			byte[] bytes= string.getBytes("UTF-8"); //$NON-NLS-1$
+			output.writeInt(bytes.length);
+			output.write(bytes);
+		}
+	}
+
+	private static String readString(DataInput input) throws IOException {
+		int length= input.readInt();
+		if (length == -1)
+			return null;
+		if (length < 0)
+			throw new IOException("Invalid string length " + length); //$NON-NLS-1$
+		byte[] bytes= new byte[length];
+		input.readFully(bytes);
+		return new String(bytes, "UTF-8"); //$NON-NLS-1$
+	}
+
+	/**
+	 * Tells whether the given file is a journal.
+	 *
+	 * @param file the file to test
+	 * @return <code>true</code> iff the file starts like a journal
+	 */
+	static boolean isJournal(File file) {
+		DataInputStream input= null;
+		try {
+			input= new DataInputStream(new FileInputStream(file));
+			return input.readInt() == MAGIC;
+		} catch (IOException e) {
+			return false;
+		} finally {
+			if (input != null) {
+				try {
+					input.close();
+				} catch (IOException e) {
+				}
+			}
+		}
+	}
+
+	/**
+	 * Imports a test run session from a journal. Only the index of the journal is read, the test
+	 * elements are read when they are needed.
+	 *
+	 * @param file the journal
+	 * @return the test run session
+	 * @throws IOException if the journal cannot be read
+	 */
+	static TestRunSession importTestRunSession(File file) throws IOException {
+		Loader loader= new Loader(file);
+		IJavaProject javaProject= null;
+		if (loader.fProjectName.length() > 0) {
+			javaProject= JavaCore.create(ResourcesPlugin.getWorkspace().getRoot()).getJavaProject(loader.fProjectName);
+			if (! javaProject.exists())
+				javaProject= null;
+		}
+		TestRunSession session= new TestRunSession(loader.fRunName, javaProject);
+		session.fTotalCount= loader.fTotalCount;
+		session.fStartedCount= loader.fStartedCount;
+		session.fIgnoredCount= loader.fIgnoredCount;
+		session.fAssumptionFailureCount= loader.fAssumptionFailureCount;
+		session.fErrorCount= loader.fErrorCount;
+		session.fFailureCount= loader.fFailureCount;
+		session.fIsStopped= loader.fStopped;
+		session.fStartTime= loader.fStartTime;
+		session.swapIn(file, loader);
+		return session;
+	}
+
+	/**
+	 * Reads the test elements of a journal on demand.
+	 */
+	static final class Loader {
+
+		private final File fFile;
+
+		String fRunName;
+		String fProjectName;
+		long fStartTime;
+
+		int fTotalCount;
+		int fStartedCount;
+		int fIgnoredCount;
+		int fAssumptionFailureCount;
+		int fErrorCount;
+		int fFailureCount;
+		boolean fStopped;
+		private Status fRootStatus;
+		private double fRootTime= Double.NaN;
+
+		private long[] fElementOffsets;
+		private long[] fStateOffsets;
+
+		/**
+		 * The children of element <code>n</code> are
+		 * <code>fChildren[fFirstChild[n + 1]]</code> to <code>fChildren[fFirstChild[n + 2] - 1]</code>.
+		 */
+		private int[] fFirstChild;
+		private int[] fChildren;
+
+		/**
+		 * Opens a journal and reads its index.
+		 *
+		 * @param file the journal
+		 * @throws IOException if the journal cannot be read
+		 */
+		Loader(File file) throws IOException {
+			fFile= file;
+			RandomAccessFile input= new RandomAccessFile(file, "r"); //$NON-NLS-1$
+			try {
+				if (input.readInt() != MAGIC || input.readInt() != VERSION)
+					throw new IOException("Not a test run journal: " + file); //$NON-NLS-1$
+				fRunName= readString(input);
+				fProjectName= readString(input);
+				fStartTime= input.readLong();
+				long recordsOffset= input.getFilePointer();
+
+				int[] parents= null;
+				long length= input.length();
+				if (length >= recordsOffset + FOOTER_LENGTH) {
+					input.seek(length - FOOTER_LENGTH);
+					long indexOffset= input.readLong();
+					if (input.readInt() == MAGIC && indexOffset >= recordsOffset && indexOffset < length) {
+						parents= readIndex(input, indexOffset);
+					}
+				}
+				if (parents == null)
+					parents= scan(recordsOffset);
+
+				buildChildren(parents);
+			} finally {
+				input.close();
+			}
+		}
+
+		private int[] readIndex(RandomAccessFile input, long indexOffset) throws IOException {
+			input.seek(indexOffset);
+			if (input.readByte() != INDEX)
+				return null;
+			input.readInt();
+			int count= input.readInt();
+			if (count < 0 || indexOffset + 9 + count * 20L > input.length())
+				return null;
+			fElementOffsets= new long[count];
+			fStateOffsets= new long[count];
+			int[] parents= new int[count];
+			byte[] index= new byte[count * 20];
+			input.readFully(index);
+			DataInputStream indexInput= new DataInputStream(new ByteArrayInputStream(index));
+			for (int i= 0; i < count; i++) {
+				fElementOffsets[i]= indexInput.readLong();
+				fStateOffsets[i]= indexInput.readLong();
+				parents[i]= indexInput.readInt();
+			}
+
+			// the END record precedes the INDEX record
+			long endOffset= indexOffset - 5 - END_LENGTH;
+			input.seek(endOffset);
+			if (input.readByte() != END || input.readInt() != END_LENGTH)
+				return null;
+			readEnd(input);
+			return parents;
+		}
+
+		private void readEnd(DataInput input) throws IOException {
+			fTotalCount= input.readInt();
+			fStartedCount= input.readInt();
+			fIgnoredCount= input.readInt();
+			fAssumptionFailureCount= input.readInt();
+			fErrorCount= input.readInt();
+			fFailureCount= input.readInt();
+			fStopped= input.readBoolean();
+			fRootStatus= getStatus(input.readByte());
+			fRootTime= input.readDouble();
+		}
+
+		/**
+		 * Rebuilds the index of a journal that has not been finished.
+		 *
+		 * @param offset the offset of the first record
+		 * @return the parents of the elements
+		 * @throws IOException if the journal cannot be read
+		 */
+		private int[] scan(long offset) throws IOException {
+			long[] elementOffsets= new long[256];
+			long[] stateOffsets= new long[256];
+			int[] parents= new int[256];
+			int count= 0;
+			fStopped= true;
+
+			DataInputStream input= new DataInputStream(new BufferedInputStream(new FileInputStream(fFile), 64 * 1024));
+			try {
+				input.skipBytes((int) offset);
+				while (true) {
+					int kind;
+					int length;
+					try {
+						kind= input.readByte();
+						length= input.readInt();
+					} catch (EOFException e) {
+						break;
+					}
+					int read;
+					if (kind == ELEMENT) {
+						if (count == parents.length) {
+							elementOffsets= grow(elementOffsets, count * 2);
+							stateOffsets= grow(stateOffsets, count * 2);
+							int[] newParents= new int[count * 2];
+							System.arraycopy(parents, 0, newParents, 0, count);
+							parents= newParents;
+						}
+						elementOffsets[count]= offset;
+						stateOffsets[count]= -1;
+						parents[count]= input.readInt();
+						count++;
+						read= 4;
+					} else if (kind == STATE) {
+						int number= input.readInt();
+						if (number >= 0 && number < count)
+							stateOffsets[number]= offset;
+						read= 4;
+					} else if (kind == END) {
+						readEnd(input);
+						read= END_LENGTH;
+					} else {
+						read= 0;
+					}
+					if (input.skipBytes(length - read) != length - read)
+						break; // truncated record
+					offset+= 5 + length;
+				}
+			} finally {
+				input.close();
+			}
+
+			fElementOffsets= new long[count];
+			fStateOffsets= new long[count];
+			System.arraycopy(elementOffsets, 0, fElementOffsets, 0, count);
+			System.arraycopy(stateOffsets, 0, fStateOffsets, 0, count);
+			int[] result= new int[count];
+			System.arraycopy(parents, 0, result, 0, count);
+			return result;
+		}
+
+		private void buildChildren(int[] parents) throws IOException {
+			int count= parents.length;
+			fFirstChild= new int[count + 2];
+			for (int i= 0; i < count; i++) {
+				int parent= parents[i];
+				if (parent < -1 || parent >= i)
+					throw new IOException("Invalid parent of test element " + i); //$NON-NLS-1$
+				fFirstChild[parent + 2]++;
+			}
+			for (int i= 2; i < fFirstChild.length; i++)
+				fFirstChild[i]+= fFirstChild[i - 1];
+			fChildren= new int[count];
+			int[] next= new int[count + 1];
+			System.arraycopy(fFirstChild, 0, next, 0, count + 1);
+			for (int i= 0; i < count; i++) {
+				fChildren[next[parents[i] + 1]++]= i;
+			}
+		}
+
+		/**
+		 * Initializes the root of a session. The children of the root are read on demand.
+		 *
+		 * @param root the root of the session
+		 */
+		void initRoot(TestRoot root) {
+			if (fRootStatus != null)
+				root.restoreChildrenStatus(fRootStatus);
+			root.restoreState(root.getSuiteStatus(), null, null, null, false, fRootTime);
+			root.setChildrenLoader(this, -1);
+		}
+
+		/**
+		 * @param number the number of a suite in the journal
+		 * @return the number of children of the suite
+		 */
+		int getChildCount(int number) {
+			return fFirstChild[number + 2] - fFirstChild[number + 1];
+		}
+
+		/**
+		 * Reads the children of a suite.
+		 *
+		 * @param suite the suite
+		 * @param number the number of the suite in the journal
+		 */
+		synchronized void loadChildren(TestSuiteElement suite, int number) {
+			int start= fFirstChild[number + 1];
+			int end= fFirstChild[number + 2];
+			if (start == end)
+				return;
+
+			RandomAccessFile input= null;
+			try {
+				input= new RandomAccessFile(fFile, "r"); //$NON-NLS-1$
+				for (int i= start; i < end; i++) {
+					loadElement(input, suite, fChildren[i]);
+				}
+			} catch (IOException e) {
+				JUnitCorePlugin.log(e);
+			} finally {
+				if (input != null) {
+					try {
+						input.close();
+					} catch (IOException e) {
+					}
+				}
+			}
+		}
+
+		private void loadElement(RandomAccessFile input, TestSuiteElement parent, int number) throws IOException {
+			input.seek(fElementOffsets[number]);
+			if (input.readByte() != ELEMENT)
+				throw new IOException("Invalid test element record " + number); //$NON-NLS-1$
+			input.readInt();
+			input.readInt();
+			String id= readString(input);
+			String name= readString(input);
+			boolean isSuite= input.readBoolean();
+
+			TestElement element;
+			if (isSuite) {
+				TestSuiteElement suite= new TestSuiteElement(parent, id, name, getChildCount(number));
+				suite.setChildrenLoader(this, number);
+				element= suite;
+			} else {
+				element= new TestCaseElement(parent, id, name);
+			}
+			((TestRunSession) parent.getRoot().getTestRunSession()).testElementLoaded(element);
+
+			if (fStateOffsets[number] == -1)
+				return;
+			input.seek(fStateOffsets[number]);
+			if (input.readByte() != STATE)
+				throw new IOException("Invalid test state record " + number); //$NON-NLS-1$
+			input.readInt();
+			input.readInt();
+			Status status= getStatus(input.readByte());
+			Status childrenStatus= getStatus(input.readByte());
+			boolean ignored= input.readBoolean();
+			boolean assumptionFailed= input.readBoolean();
+			double time= input.readDouble();
+			String trace= readString(input);
+			String expected= readString(input);
+			String actual= readString(input);
+
+			if (status != null)
+				element.restoreState(status, trace, expected, actual, assumptionFailed, time);
+			if (childrenStatus != null && element instanceof TestSuiteElement)
+				((TestSuiteElement) element).restoreChildrenStatus(childrenStatus);
+			if (ignored && element instanceof TestCaseElement)
+				((TestCaseElement) element).setIgnored(true);
+		}
+	}
+}
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2000, 2008 IBM Corporation and others.
+ * Copyright (c) 2000, 2014 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -23,6 +23,13 @@ public class TestSuiteElement extends TestElement implements ITestSuiteElement {
 	private List/*<TestElement>*/ fChildren;
 	private Status fChildrenStatus;
 
+	/**
+	 * Loader for the children that have not been read yet, or <code>null</code>.
+	 */
+	private volatile TestRunSessionJournal.Loader fChildrenLoader;
+	private int fChildrenLoaderIndex;
+	private boolean fLoadingChildren;
+
 	public TestSuiteElement(TestSuiteElement parent, String id, String testName, int childrenCount) {
 		super(parent, id, testName);
 		fChildren= new ArrayList(childrenCount);
@@ -50,6 +57,7 @@ public class TestSuiteElement extends TestElement implements ITestSuiteElement {
 	 * @see org.eclipse.jdt.junit.model.ITestSuiteElement#getChildren()
 	 */
 	public ITestElement[] getChildren() {
+		loadChildren();
 		return (ITestElement[]) fChildren.toArray(new ITestElement[fChildren.size()]);
 	}
 
@@ -57,6 +65,53 @@ public class TestSuiteElement extends TestElement implements ITestSuiteElement {
 		fChildren.add(child);
 	}
 
+	/**
+	 * Reads the children of this suite from a journal when they are needed.
+	 *
+	 * @param loader the loader of the journal
+	 * @param index the index of this suite in the journal
+	 */
+	void setChildrenLoader(TestRunSessionJournal.Loader loader, int index) {
+		fChildrenLoader= loader;
+		fChildrenLoaderIndex= index;
+	}
+
+	private void loadChildren() {
+		if (fChildrenLoader == null)
+			return;
+		synchronized (this) {
+			TestRunSessionJournal.Loader loader= fChildrenLoader;
+			if (loader != null && ! fLoadingChildren) {
+				fLoadingChildren= true;
+				try {
+					loader.loadChildren(this, fChildrenLoaderIndex);
+				} finally {
+					fLoadingChildren= false;
+					fChildrenLoader= null;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Reads all descendants of this suite that have not been read from a journal yet.
+	 */
+	void loadAllChildren() {
+		loadChildren();
+		TestElement[] children= (TestElement[]) fChildren.toArray(new TestElement[fChildren.size()]);
+		for (int i= 0; i < children.length; i++) {
+			if (children[i] instanceof TestSuiteElement)
+				((TestSuiteElement) children[i]).loadAllChildren();
+		}
+	}
+
+	private int getChildCount() {
+		TestRunSessionJournal.Loader loader= fChildrenLoader;
+		if (loader != null)
+			return loader.getChildCount(fChildrenLoaderIndex);
+		return fChildren.size();
+	}
+
 	public Status getStatus() {
 		Status suiteStatus= getSuiteStatus();
 		if (fChildrenStatus != null) {
@@ -68,6 +123,7 @@ public class TestSuiteElement extends TestElement implements ITestSuiteElement {
 	}
 
 	private Status getCumulatedStatus() {
+		loadChildren();
 		TestElement[] children= (TestElement[]) fChildren.toArray(new TestElement[fChildren.size()]); // copy list to avoid concurreny problems
 		if (children.length == 0)
 			return getSuiteStatus();
@@ -89,6 +145,7 @@ public class TestSuiteElement extends TestElement implements ITestSuiteElement {
 	}
 
 	public void childChangedStatus(TestElement child, Status childStatus) {
+		loadChildren();
 		int childCount= fChildren.size();
 		if (child == fChildren.get(0) && childStatus.isRunning()) {
 			// is first child, and is running -> copy status
@@ -124,6 +181,23 @@ public class TestSuiteElement extends TestElement implements ITestSuiteElement {
 		}
 	}
 
+	/**
+	 * @return the cumulated status of the children, or <code>null</code> if no child has run
+	 */
+	Status getChildrenStatus() {
+		return fChildrenStatus;
+	}
+
+	/**
+	 * Restores the cumulated status of the children of a suite that has been read from
+	 * a journal, without notifying the parent.
+	 *
+	 * @param status the cumulated status of the children
+	 */
+	void restoreChildrenStatus(Status status) {
+		fChildrenStatus= status;
+	}
+
 	private void internalSetChildrenStatus(Status status) {
 		if (fChildrenStatus == status)
 			return;
@@ -148,7 +222,7 @@ public class TestSuiteElement extends TestElement implements ITestSuiteElement {
 	}
 
 	public String toString() {
-		return "TestSuite: " + getSuiteTypeName() + " : " + super.toString() + " (" + fChildren.size() + ")";   //$NON-NLS-1$//$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+		return "TestSuite: " + getSuiteTypeName() + " : " + super.toString() + " (" + getChildCount() + ")";   //$NON-NLS-1$//$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
 	}
 
 }
@@ -0,0 +1,274 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.jdt.internal.junit.runner;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.Timer;
+import java.util.TimerTask;
+
+/**
+ * Sends messages to the client using the binary protocol.
+ * <p>
+ * Messages are collected in frames. A frame is written when it gets large, or
+ * when the messages are flushed. Flushes that follow each other within
+ * {@link #FLUSH_DELAY} milliseconds are coalesced, so that a frame can contain
+ * the messages of many short running tests.
+ * </p>
+ *
+ * @see MessageIds#BINARY_PROTOCOL_VERSION
+ */
+public class BinaryMessageWriter implements MessageSender {
+
+	/**
+	 * The minimal time in milliseconds between two flushed frames
+	 */
+	private static final long FLUSH_DELAY= 50;
+
+	/**
+	 * The frame size in bytes after which a frame is written without a flush
+	 */
+	private static final int MAX_FRAME_SIZE= 32 * 1024;
+
+	private final DataOutputStream fOutput;
+
+	private byte[] fFrame= new byte[8 * 1024];
+	private int fFrameSize= 0;
+
+	/**
+	 * The names of the tests the client knows, indexed by test id
+	 */
+	private String[] fTestNames= new String[1024];
+
+	private long fLastFlush= 0;
+	private Timer fFlushTimer;
+	private boolean fFlushScheduled= false;
+	private boolean fClosed= false;
+
+	/**
+	 * Creates a writer and sends the protocol header.
+	 *
+	 * @param output the stream to write to, should be buffered
+	 * @param lineDelimiter the line delimiter of multi-line messages
+	 * @throws IOException if the header cannot be sent
+	 */
+	public BinaryMessageWriter(OutputStream output, String lineDelimiter) throws IOException {
+		fOutput= new DataOutputStream(output);
+		fOutput.writeByte(MessageIds.BINARY_PROTOCOL_MARKER);
+		fOutput.writeInt(MessageIds.BINARY_PROTOCOL_MAGIC);
+		fOutput.writeInt(MessageIds.BINARY_PROTOCOL_VERSION);
+		byte[] delimiter= toUTF8(lineDelimiter);
+		writeNumber(delimiter.length);
+		writeBytes(delimiter, 0, delimiter.length);
+		fOutput.write(fFrame, 0, fFrameSize);
+		fFrameSize= 0;
+		fOutput.flush();
+	}
+
+	/*
+	 * @see org.eclipse.jdt.internal.junit.runner.MessageSender#sendMessage(java.lang.String)
+	 */
+	public synchronized void sendMessage(String msg) {
+		if (fClosed)
+			return;
+
+		int opcode= getOpcode(msg);
+		if (opcode == 0) {
+			writeByte(MessageIds.BINARY_FORM_STRING);
+			writeString(msg, 0);
+		} else if (!writeTestMessage(opcode, msg)) {
+			writeByte(opcode | MessageIds.BINARY_FORM_STRING);
+			writeString(msg, MessageIds.MSG_HEADER_LENGTH);
+		}
+
+		if (fFrameSize >= MAX_FRAME_SIZE)
+			writeFrame();
+	}
+
+	/*
+	 * @see org.eclipse.jdt.internal.junit.runner.MessageSender#flush()
+	 */
+	public synchronized void flush() {
+		if (fClosed || fFrameSize == 0 || fFlushScheduled)
+			return;
+
+		long now= System.currentTimeMillis();
+		if (now - fLastFlush >= FLUSH_DELAY) {
+			writeFrame();
+			return;
+		}
+
+		if (fFlushTimer == null)
+			fFlushTimer= new Timer(true);
+		fFlushScheduled= true;
+		fFlushTimer.schedule(new TimerTask() {
+			public void run() {
+				synchronized (BinaryMessageWriter.this) {
+					fFlushScheduled= false;
+					if (!fClosed)
+						writeFrame();
+				}
+			}
+		}, FLUSH_DELAY);
+	}
+
+	/**
+	 * Writes the pending messages and closes the stream.
+	 */
+	public synchronized void close() {
+		if (fClosed)
+			return;
+		writeFrame();
+		fClosed= true;
+		if (fFlushTimer != null) {
+			fFlushTimer.cancel();
+			fFlushTimer= null;
+		}
+		try {
+			fOutput.close();
+		} catch (IOException e) {
+			// the client is gone
+		}
+	}
+
+	private static int getOpcode(String message) {
+		if (message.length() < MessageIds.MSG_HEADER_LENGTH)
+			return 0;
+		String[] ids= MessageIds.BINARY_MESSAGE_IDS;
+		for (int i= 0; i < ids.length; i++) {
+			if (message.startsWith(ids[i]))
+				return i + 1;
+		}
+		return 0;
+	}
+
+	private static boolean isTestMessage(String header) {
+		return header.equals(MessageIds.TEST_START) || header.equals(MessageIds.TEST_END)
+				|| header.equals(MessageIds.TEST_ERROR) || header.equals(MessageIds.TEST_FAILED);
+	}
+
+	/**
+	 * Writes a <code>testID + "," + testName</code> message as test message.
+	 *
+	 * @param opcode the opcode of the message
+	 * @param message the message
+	 * @return <code>false</code> if the message is not a test message
+	 */
+	private boolean writeTestMessage(int opcode, String message) {
+		if (!isTestMessage(MessageIds.BINARY_MESSAGE_IDS[opcode - 1]))
+			return false;
+
+		int start= MessageIds.MSG_HEADER_LENGTH;
+		int separator= message.indexOf(',', start);
+		int id= parseTestId(message, start, separator);
+		if (id == -1)
+			return false;
+
+		String name= message.substring(separator + 1);
+		if (id < fTestNames.length && name.equals(fTestNames[id])) {
+			writeByte(opcode | MessageIds.BINARY_FORM_KNOWN_TEST);
+			writeNumber(id);
+		} else {
+			if (id >= fTestNames.length) {
+				String[] names= new String[Math.max(id + 1, fTestNames.length * 2)];
+				System.arraycopy(fTestNames, 0, names, 0, fTestNames.length);
+				fTestNames= names;
+			}
+			fTestNames[id]= name;
+			writeByte(opcode | MessageIds.BINARY_FORM_NEW_TEST);
+			writeNumber(id);
+			writeString(name, 0);
+		}
+		return true;
+	}
+
+	/**
+	 * Parses a test id in canonical decimal form.
+	 *
+	 * @param message the message
+	 * @param start the start of the id
+	 * @param end the end of the id
+	 * @return the test id, or -1 if there is no such test id
+	 */
+	private static int parseTestId(String message, int start, int end) {
+		// ids of more than 6 digits are not worth a table entry
+		if (end <= start || end - start > 6 || (message.charAt(start) == '0' && end - start > 1))
+			return -1;
+		int id= 0;
+		for (int i= start; i < end; i++) {
+			char ch= message.charAt(i);
+			if (ch < '0' || ch > '9')
+				return -1;
+			id= id * 10 + ch - '0';
+		}
+		return id;
+	}
+
+	private void writeFrame() {
+		if (fFrameSize == 0)
+			return;
+		try {
+			fOutput.writeInt(fFrameSize);
+			fOutput.write(fFrame, 0, fFrameSize);
+			fOutput.flush();
+		} catch (IOException e) {
+			// the client is gone, drop all further messages like the text protocol does
+			fClosed= true;
+		}
+		fFrameSize= 0;
+		fLastFlush= System.currentTimeMillis();
+	}
+
+	private void ensureCapacity(int length) {
+		if (fFrameSize + length > fFrame.length) {
+			byte[] frame= new byte[Math.max(fFrameSize + length, fFrame.length * 2)];
+			System.arraycopy(fFrame, 0, frame, 0, fFrameSize);
+			fFrame= frame;
+		}
+	}
+
+	private void writeByte(int value) {
+		ensureCapacity(1);
+		fFrame[fFrameSize++]= (byte) value;
+	}
+
+	private void writeBytes(byte[] bytes, int offset, int length) {
+		ensureCapacity(length);
+		System.arraycopy(bytes, offset, fFrame, fFrameSize, length);
+		fFrameSize+= length;
+	}
+
+	private void writeNumber(int value) {
+		ensureCapacity(5);
+		while ((value & ~0x7F) != 0) {
+			fFrame[fFrameSize++]= (byte) ((value & 0x7F) | 0x80);
+			value>>>= 7;
+		}
+		fFrame[fFrameSize++]= (byte) value;
+	}
+
+	private void writeString(String string, int start) {
+		byte[] bytes= toUTF8(start == 0 ? string : string.substring(start));
+		writeNumber(bytes.length);
+		writeBytes(bytes, 0, bytes.length);
+	}
+
+	private static byte[] toUTF8(String string) {
+		try {
+			return string.getBytes("UTF-8"); //$NON-NLS-1$
+		} catch (UnsupportedEncodingException e) {
+			// UTF-8 is always supported
+			throw new IllegalStateException(e.getMessage());
+		}
+	}
+}
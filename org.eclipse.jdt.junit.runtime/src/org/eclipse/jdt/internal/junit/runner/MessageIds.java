@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2000, 2013 IBM Corporation and others.
+ * Copyright (c) 2000, 2014 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -135,6 +135,82 @@ public class MessageIds {
 	 * Test identifier prefix for tests with assumption failures.
 	 */
 	public static final String ASSUMPTION_FAILED_TEST_PREFIX= "@AssumptionFailure: "; //$NON-NLS-1$
+
+	/**
+	 * Value of the <code>-protocol</code> argument with which a client announces
+	 * that it understands the binary protocol.
+	 */
+	public static final String BINARY_PROTOCOL= "binary"; //$NON-NLS-1$
+
+	/**
+	 * The first byte sent by a runner that uses the binary protocol. Text messages
+	 * always start with a printable character, so the client can tell the two
+	 * protocols apart by looking at the first byte.
+	 */
+	public static final int BINARY_PROTOCOL_MARKER= 0;
+
+	/**
+	 * The magic number following the {@link #BINARY_PROTOCOL_MARKER}.
+	 */
+	public static final int BINARY_PROTOCOL_MAGIC= 0x4A554E54;
+
+	/**
+	 * The version of the binary protocol.
+	 * <p>
+	 * The stream starts with the {@link #BINARY_PROTOCOL_MARKER} byte, the
+	 * {@link #BINARY_PROTOCOL_MAGIC} and the version as int, and the line delimiter
+	 * of the runner as string. It is followed by frames of an int length and that
+	 * many bytes of messages. Each message starts with a byte of an opcode and a
+	 * form:
+	 * <ul>
+	 * <li>opcode: 0 for a message without header, otherwise the index + 1 of the
+	 * header in {@link #BINARY_MESSAGE_IDS}</li>
+	 * <li>{@link #BINARY_FORM_STRING}: followed by the message without its header as string</li>
+	 * <li>{@link #BINARY_FORM_NEW_TEST}: followed by the test id as number and the test name
+	 * as string. The client remembers the name of the test id.</li>
+	 * <li>{@link #BINARY_FORM_KNOWN_TEST}: followed by the test id as number. The test name is
+	 * the one last sent with the test id.</li>
+	 * </ul>
+	 * Numbers are unsigned and encoded with 7 bits per byte, least significant bits first, and
+	 * the high bit set on all but the last byte. Strings are encoded as the number of their
+	 * UTF-8 bytes followed by the bytes.
+	 * </p>
+	 * <p>
+	 * Requests sent by the client are text messages in both protocols.
+	 * </p>
+	 */
+	public static final int BINARY_PROTOCOL_VERSION= 1;
+
+	/**
+	 * Form of a binary message with a string argument.
+	 */
+	public static final int BINARY_FORM_STRING= 0x00;
+
+	/**
+	 * Form of a binary <code>testID + "," + testName</code> message for a
+	 * test name the client does not know yet.
+	 */
+	public static final int BINARY_FORM_NEW_TEST= 0x40;
+
+	/**
+	 * Form of a binary <code>testID + "," + testName</code> message for a
+	 * test name the client already knows.
+	 */
+	public static final int BINARY_FORM_KNOWN_TEST= 0x80;
+
+	/**
+	 * Mask of the form bits of a binary message opcode.
+	 */
+	public static final int BINARY_FORM_MASK= 0xC0;
+
+	/**
+	 * The message headers encoded by binary opcodes. Must only be appended to.
+	 */
+	public static final String[] BINARY_MESSAGE_IDS= {
+		TRACE_START, TRACE_END, EXPECTED_START, EXPECTED_END, ACTUAL_START, ACTUAL_END,
+		RTRACE_START, RTRACE_END, TEST_RUN_START, TEST_START, TEST_END, TEST_ERROR,
+		TEST_FAILED, TEST_RUN_END, TEST_STOPPED, TEST_RERAN, TEST_TREE
+	};
 }
 
 
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2000, 2013 IBM Corporation and others.
+ * Copyright (c) 2000, 2014 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -478,7 +478,7 @@ public class TestRunnerViewPart extends ViewPart {
 			if (lastPath != null) {
 				importDialog.setFilterPath(lastPath);
 			}
-			importDialog.setFilterExtensions(new String[] {"*.xml", "*.*"}); //$NON-NLS-1$ //$NON-NLS-2$
+			importDialog.setFilterExtensions(new String[] {"*.xml", "*.journal", "*.*"}); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
 			String path= importDialog.open();
 			if (path == null)
 				return;
@@ -624,7 +624,7 @@ public class TestRunnerViewPart extends ViewPart {
 				exportDialog.setFilterPath(lastPath);
 			}
 			exportDialog.setFileName(getFileName());
-			exportDialog.setFilterExtensions(new String[] {"*.xml", "*.*"}); //$NON-NLS-1$ //$NON-NLS-2$
+			exportDialog.setFilterExtensions(new String[] {"*.xml", "*.journal", "*.*"}); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
 			String path= exportDialog.open();
 			if (path == null)
 				return;
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2000, 2013 IBM Corporation and others.
+ * Copyright (c) 2000, 2014 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -12,17 +12,35 @@
  *******************************************************************************/
 package org.eclipse.jdt.text.tests;
 
+import java.lang.reflect.Constructor;
+
 import junit.framework.Test;
 import junit.framework.TestSuite;
 
+import org.eclipse.text.tests.Accessor;
+
+import org.eclipse.core.runtime.NullProgressMonitor;
+
+import org.eclipse.jface.text.Document;
+import org.eclipse.jface.text.DocumentEvent;
+import org.eclipse.jface.text.IDocument;
 import org.eclipse.jface.text.Position;
 
+import org.eclipse.jdt.core.dom.AST;
+import org.eclipse.jdt.core.dom.ASTNode;
+import org.eclipse.jdt.core.dom.ASTParser;
+import org.eclipse.jdt.core.dom.CompilationUnit;
+import org.eclipse.jdt.core.dom.MethodDeclaration;
+
+import org.eclipse.jdt.internal.ui.javaeditor.SemanticHighlightingReconciler;
 import org.eclipse.jdt.internal.ui.javaeditor.SemanticHighlightings;
 
 public class SemanticHighlightingTest extends AbstractSemanticHighlightingTest {
 
 	private static final Class THIS= SemanticHighlightingTest.class;
 
+	private static final String DIRTY_REGION_CLASS= "org.eclipse.jdt.internal.ui.javaeditor.SemanticHighlightingReconciler$DirtyRegion";
+
 	public static Test suite() {
 		return new SemanticHighlightingTestSetup(new TestSuite(THIS), "/SHTest/src/SHTest.java");
 	}
@@ -327,4 +345,126 @@ public class SemanticHighlightingTest extends AbstractSemanticHighlightingTest {
 		assertEqualPositions(expected, actual);
 	}
 
+	public void testIncrementalReconcileInMethodBody() throws Exception {
+		setUpIncrementalHighlightings();
+		// a statement inserted at the start of the body of method(int)
+		int offset= getDocument().getLineOffset(9);
+		String text= "\t\tint local3= local + 22;\n";
+
+		ASTNode[] subtrees= getAffectedSubtrees(offset, 0, text);
+		assertEquals(1, subtrees.length);
+		assertTrue(subtrees[0] instanceof MethodDeclaration);
+		assertEquals("method", ((MethodDeclaration) subtrees[0]).getName().getIdentifier());
+		assertEquals(1, ((MethodDeclaration) subtrees[0]).parameters().size());
+
+		assertIncrementalEqualsFullReconcile(offset, 0, text, false);
+	}
+
+	public void testIncrementalReconcileOutlineChanged() throws Exception {
+		setUpIncrementalHighlightings();
+		// a field inserted before method(int)
+		int offset= getDocument().getLineOffset(7);
+		String text= "\tint addedField= 3;\n";
+
+		ASTNode[] subtrees= getAffectedSubtrees(offset, 0, text);
+		assertEquals(1, subtrees.length);
+		assertTrue(subtrees[0] instanceof CompilationUnit);
+
+		// a body edit which changes the declarations around it
+		offset= getDocument().getLineOffset(18);
+		text= "\t}\n\tvoid addedMethod() {\n";
+		subtrees= getAffectedSubtrees(offset, 0, text);
+		assertEquals(1, subtrees.length);
+		assertTrue(subtrees[0] instanceof CompilationUnit);
+
+		assertIncrementalEqualsFullReconcile(getDocument().getLineOffset(7), 0, "\tint addedField= 3;\n", false);
+	}
+
+	public void testIncrementalReconcileCanceled() throws Exception {
+		setUpIncrementalHighlightings();
+		int offset= getDocument().getLineOffset(9);
+		String text= "\t\tint local3= local + 22;\n";
+
+		assertIncrementalEqualsFullReconcile(offset, 0, text, true);
+	}
+
+	private void setUpIncrementalHighlightings() {
+		setUpSemanticHighlighting(SemanticHighlightings.FIELD);
+		setUpSemanticHighlighting(SemanticHighlightings.METHOD_DECLARATION);
+		setUpSemanticHighlighting(SemanticHighlightings.LOCAL_VARIABLE_DECLARATION);
+		setUpSemanticHighlighting(SemanticHighlightings.LOCAL_VARIABLE);
+		setUpSemanticHighlighting(SemanticHighlightings.PARAMETER_VARIABLE);
+		setUpSemanticHighlighting(SemanticHighlightings.NUMBER);
+	}
+
+	private static CompilationUnit createAST(String source) {
+		ASTParser parser= ASTParser.newParser(AST.JLS4);
+		parser.setKind(ASTParser.K_COMPILATION_UNIT);
+		parser.setSource(source.toCharArray());
+		return (CompilationUnit) parser.createAST(null);
+	}
+
+	private static Class getDirtyRegionClass() throws ClassNotFoundException {
+		return Class.forName(DIRTY_REGION_CLASS, true, SemanticHighlightingReconciler.class.getClassLoader());
+	}
+
+	/*
+	 * Returns the subtrees the reconciler recomputes for the given modification of a copy of the
+	 * editor contents, based on the outline of the AST before the modification.
+	 */
+	private ASTNode[] getAffectedSubtrees(int offset, int length, String text) throws Exception {
+		IDocument document= new Document(getDocument().get());
+		CompilationUnit previousAST= createAST(document.get());
+
+		Constructor constructor= getDirtyRegionClass().getDeclaredConstructor(new Class[0]);
+		constructor.setAccessible(true);
+		Object dirtyRegion= constructor.newInstance(new Object[0]);
+		new Accessor(dirtyRegion, getDirtyRegionClass()).invoke("include", new Object[] { new DocumentEvent(document, offset, length, text) });
+		document.replace(offset, length, text);
+		CompilationUnit ast= createAST(document.get());
+
+		Accessor reconciler= new Accessor(getSemanticHighlightingReconciler(), SemanticHighlightingReconciler.class);
+		Class[] outlineTypes= new Class[] { CompilationUnit.class };
+		int[] previousOutline= (int[]) reconciler.invoke("computeOutline", outlineTypes, new Object[] { previousAST });
+		int[] outline= (int[]) reconciler.invoke("computeOutline", outlineTypes, new Object[] { ast });
+		Class[] types= new Class[] { CompilationUnit.class, getDirtyRegionClass(), int[].class, int.class, int[].class };
+		return (ASTNode[]) reconciler.invoke("getAffectedSubtrees", types, new Object[] { ast, dirtyRegion, previousOutline, new Integer(previousAST.getLength()), outline });
+	}
+
+	/*
+	 * Modifies the editor contents and checks that the reconcile triggered by the modification
+	 * highlights the same positions as a forced reconcile, which computes all positions.
+	 */
+	private void assertIncrementalEqualsFullReconcile(int offset, int length, String text, boolean cancel) throws Exception {
+		IDocument document= getDocument();
+		String replaced= document.get(offset, length);
+		try {
+			document.replace(offset, length, text);
+			if (cancel) {
+				// a canceled reconcile keeps the modifications for the next one
+				NullProgressMonitor monitor= new NullProgressMonitor();
+				monitor.setCanceled(true);
+				SemanticHighlightingReconciler reconciler= getSemanticHighlightingReconciler();
+				reconciler.reconciled(createAST(document.get()), false, monitor);
+				Object dirtyRegion= new Accessor(reconciler, SemanticHighlightingReconciler.class).get("fDirtyRegion");
+				assertFalse(((Boolean) new Accessor(dirtyRegion, getDirtyRegionClass()).invoke("isEmpty", new Object[0])).booleanValue());
+			}
+			joinReconciler();
+			Position[] incremental= copy(getSemanticHighlightingPositions());
+
+			forceReconcile();
+			Position[] full= getSemanticHighlightingPositions();
+			assertEqualPositions(full, incremental);
+		} finally {
+			document.replace(offset, text.length(), replaced);
+			forceReconcile();
+		}
+	}
+
+	private static Position[] copy(Position[] positions) {
+		Position[] copy= new Position[positions.length];
+		for (int i= 0; i < positions.length; i++)
+			copy[i]= new Position(positions[i].getOffset(), positions[i].getLength());
+		return copy;
+	}
 }
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2000, 2013 IBM Corporation and others.
+ * Copyright (c) 2000, 2014 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -10,9 +10,14 @@
  *******************************************************************************/
 package org.eclipse.jdt.text.tests.contentassist;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Hashtable;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import junit.framework.Test;
 import junit.framework.TestSuite;
@@ -20,12 +25,18 @@ import junit.framework.TestSuite;
 import org.eclipse.jdt.testplugin.JavaProjectHelper;
 import org.eclipse.jdt.testplugin.TestOptions;
 
+import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.core.runtime.NullProgressMonitor;
+import org.eclipse.core.runtime.jobs.Job;
+
+import org.eclipse.text.tests.Accessor;
 
 import org.eclipse.jface.preference.IPreferenceStore;
 
 import org.eclipse.jface.text.Document;
 import org.eclipse.jface.text.IDocument;
+import org.eclipse.jface.text.ITextViewer;
+import org.eclipse.jface.text.contentassist.ContentAssistant;
 import org.eclipse.jface.text.contentassist.ICompletionProposal;
 import org.eclipse.jface.text.source.ISourceViewer;
 
@@ -39,7 +50,9 @@ import org.eclipse.ui.PlatformUI;
 
 import org.eclipse.jdt.core.CompletionProposal;
 import org.eclipse.jdt.core.ICompilationUnit;
+import org.eclipse.jdt.core.IJavaElement;
 import org.eclipse.jdt.core.IJavaProject;
+import org.eclipse.jdt.core.IMember;
 import org.eclipse.jdt.core.IPackageFragment;
 import org.eclipse.jdt.core.IPackageFragmentRoot;
 import org.eclipse.jdt.core.JavaCore;
@@ -56,14 +69,23 @@ import org.eclipse.jdt.ui.SharedASTProvider;
 import org.eclipse.jdt.ui.tests.core.ProjectTestSetup;
 import org.eclipse.jdt.ui.text.java.CompletionProposalCollector;
 import org.eclipse.jdt.ui.text.java.CompletionProposalComparator;
+import org.eclipse.jdt.ui.text.java.ContentAssistInvocationContext;
 import org.eclipse.jdt.ui.text.java.IJavaCompletionProposal;
+import org.eclipse.jdt.ui.text.java.IJavaCompletionProposalComputer;
 import org.eclipse.jdt.ui.text.java.JavaContentAssistInvocationContext;
 
 import org.eclipse.jdt.internal.ui.JavaPlugin;
 import org.eclipse.jdt.internal.ui.javaeditor.JavaEditor;
+import org.eclipse.jdt.internal.ui.text.java.AbstractJavaCompletionProposal;
+import org.eclipse.jdt.internal.ui.text.java.CompletionProposalComputerDescriptor;
+import org.eclipse.jdt.internal.ui.text.java.CompletionProposalComputerRegistry;
+import org.eclipse.jdt.internal.ui.text.java.ContentAssistProcessor;
 import org.eclipse.jdt.internal.ui.text.java.FillArgumentNamesCompletionProposalCollector;
+import org.eclipse.jdt.internal.ui.text.java.JavaCompletionProcessor;
+import org.eclipse.jdt.internal.ui.text.java.JavaCompletionProposal;
 import org.eclipse.jdt.internal.ui.text.java.JavaCompletionProposalComputer;
 import org.eclipse.jdt.internal.ui.text.java.JavaNoTypeCompletionProposalComputer;
+import org.eclipse.jdt.internal.ui.text.java.ProposalInfo;
 
 
 public class CodeCompletionTest extends AbstractCompletionTest {
@@ -76,8 +98,103 @@ public class CodeCompletionTest extends AbstractCompletionTest {
 		return new TestSuite(THIS, suiteName(THIS));
 	}
 
+	private static final String PREF_CONCURRENT_COMPUTATION= "content_assist_concurrent_computation";
+	private static final String PREF_COMPUTER_TIME_BUDGET= "content_assist_computer_time_budget";
+
+	private static final long TIMEOUT= 30000;
+
+	/**
+	 * Proposal computer which returns a single proposal named after the computer once its delay
+	 * has elapsed, or the given proposals if set. A computer with a negative delay runs until it
+	 * is canceled.
+	 */
+	private static class StubComputer implements IJavaCompletionProposalComputer {
+		private final String fName;
+		private final AtomicInteger fRunning= new AtomicInteger();
+		volatile long fDelay;
+		/** The time the computer keeps running after it has been canceled */
+		volatile long fCancelDelay;
+		volatile boolean fOverlapped;
+		volatile List fProposals;
+		final CountDownLatch fCanceled= new CountDownLatch(1);
+
+		StubComputer(String name) {
+			fName= name;
+		}
+
+		public List computeCompletionProposals(ContentAssistInvocationContext context, IProgressMonitor monitor) {
+			if (fRunning.incrementAndGet() > 1)
+				fOverlapped= true;
+			try {
+				long end= System.currentTimeMillis() + (fDelay < 0 ? TIMEOUT : fDelay);
+				while (System.currentTimeMillis() < end) {
+					if (monitor.isCanceled()) {
+						fCanceled.countDown();
+						Thread.sleep(fCancelDelay);
+						return Collections.EMPTY_LIST;
+					}
+					Thread.sleep(10);
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} finally {
+				fRunning.decrementAndGet();
+			}
+			if (fProposals != null)
+				return fProposals;
+			return Collections.singletonList(new org.eclipse.jface.text.contentassist.CompletionProposal(fName, context.getInvocationOffset(), 0, fName.length()));
+		}
+
+		public List computeContextInformation(ContentAssistInvocationContext context, IProgressMonitor monitor) {
+			return Collections.EMPTY_LIST;
+		}
+
+		public String getErrorMessage() {
+			return null;
+		}
+
+		public void sessionStarted() {
+		}
+
+		public void sessionEnded() {
+		}
+	}
+
+	/**
+	 * Proposal info which blocks the first request for its element until the gate is opened.
+	 */
+	private static class GateProposalInfo extends ProposalInfo {
+		private final CountDownLatch fStarted;
+		private final CountDownLatch fGate;
+		final AtomicInteger fRequests= new AtomicInteger();
+
+		GateProposalInfo(IMember member, CountDownLatch started, CountDownLatch gate) {
+			super(member);
+			fStarted= started;
+			fGate= gate;
+		}
+
+		public IJavaElement getJavaElement() throws JavaModelException {
+			fRequests.incrementAndGet();
+			fStarted.countDown();
+			try {
+				fGate.await(TIMEOUT, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			return super.getJavaElement();
+		}
+
+		boolean isResolved() {
+			return new Accessor(this, ProposalInfo.class).getBoolean("fJavadocResolved");
+		}
+	}
+
 	private IJavaProject fJProject1;
 
+	private List fStubbedDescriptors;
+	private Object[] fOriginalComputers;
+
 
 	private void assertAppliedProposal(String contents, IJavaCompletionProposal proposal, String completion) {
 		IDocument doc= new Document(contents);
@@ -123,6 +240,13 @@ public class CodeCompletionTest extends AbstractCompletionTest {
 		store.setToDefault(PreferenceConstants.CODEGEN_ADD_COMMENTS);
 		store.setToDefault(PreferenceConstants.CODEASSIST_GUESS_METHOD_ARGUMENTS);
 		store.setToDefault(PreferenceConstants.CODEASSIST_SHOW_VISIBLE_PROPOSALS);
+		store.setToDefault(PREF_CONCURRENT_COMPUTATION);
+		store.setToDefault(PREF_COMPUTER_TIME_BUDGET);
+		if (fStubbedDescriptors != null) {
+			for (int i= 0; i < fStubbedDescriptors.size(); i++)
+				new Accessor(fStubbedDescriptors.get(i), CompletionProposalComputerDescriptor.class).set("fComputer", fOriginalComputers[i]);
+			fStubbedDescriptors= null;
+		}
 		closeAllEditors();
 		JavaProjectHelper.delete(fJProject1);
 	}
@@ -2063,6 +2187,245 @@ public class CodeCompletionTest extends AbstractCompletionTest {
 		assertEquals(buf.toString(), doc.get());
 	}
 
+	/**
+	 * Replaces the computers of the default partition by {@link StubComputer}s, which are named
+	 * after their index. The computers are restored in {@link #tearDown()}.
+	 */
+	private StubComputer[] installStubComputers() {
+		Accessor registry= new Accessor(CompletionProposalComputerRegistry.getDefault(), CompletionProposalComputerRegistry.class);
+		List descriptors= new ArrayList((List) registry.invoke("getProposalComputerDescriptors", new Class[] { String.class }, new Object[] { IDocument.DEFAULT_CONTENT_TYPE }));
+		Object[] originals= new Object[descriptors.size()];
+		for (int i= 0; i < originals.length; i++)
+			originals[i]= new Accessor(descriptors.get(i), CompletionProposalComputerDescriptor.class).get("fComputer");
+		fStubbedDescriptors= descriptors;
+		fOriginalComputers= originals;
+
+		StubComputer[] stubs= new StubComputer[descriptors.size()];
+		for (int i= 0; i < stubs.length; i++) {
+			stubs[i]= new StubComputer("stub" + i);
+			new Accessor(descriptors.get(i), CompletionProposalComputerDescriptor.class).set("fComputer", stubs[i]);
+		}
+		return stubs;
+	}
+
+	private static StubComputer getStub(StubComputer[] stubs, Object name) {
+		return stubs[Integer.parseInt(((String) name).substring("stub".length()))];
+	}
+
+	private JavaEditor openConcurrentCompletionEditor() throws Exception {
+		IPackageFragmentRoot sourceFolder= JavaProjectHelper.addSourceContainer(fJProject1, "src");
+		IPackageFragment pack1= sourceFolder.createPackageFragment("test1", false, null);
+		ICompilationUnit cu= pack1.createCompilationUnit("A.java", "package test1;\npublic class A {\n    void foo() {\n        x\n    }\n}\n", false, null);
+		return (JavaEditor) JavaUI.openInEditor(cu);
+	}
+
+	private static ContentAssistProcessor createProcessor(JavaEditor editor) {
+		JavaCompletionProcessor processor= new JavaCompletionProcessor(editor, new ContentAssistant(), IDocument.DEFAULT_CONTENT_TYPE);
+		// Must ensure same setup of the processor as when using via UI
+		Accessor accessor= new Accessor(processor, ContentAssistProcessor.class);
+		accessor.invoke("setCategoryIteration", new Object[0]);
+		accessor.set("fRepetition", 0);
+		return processor;
+	}
+
+	/**
+	 * Returns the names of the collected proposals in the order in which the computers have been
+	 * merged, before they get sorted.
+	 */
+	private static List collectProposalNames(ContentAssistProcessor processor, JavaEditor editor) {
+		ITextViewer viewer= editor.getViewer();
+		int offset= viewer.getDocument().get().indexOf("x\n") + 1;
+		Class[] types= { ITextViewer.class, int.class, IProgressMonitor.class, ContentAssistInvocationContext.class };
+		Object[] arguments= { viewer, new Integer(offset), new NullProgressMonitor(), new JavaContentAssistInvocationContext(viewer, offset, editor) };
+		List proposals= (List) new Accessor(processor, ContentAssistProcessor.class).invoke("collectProposals", types, arguments);
+
+		List names= new ArrayList();
+		for (int i= 0; i < proposals.size(); i++)
+			names.add(((ICompletionProposal) proposals.get(i)).getDisplayString());
+		return names;
+	}
+
+	private static void enableConcurrentComputation(int budget) {
+		IPreferenceStore store= JavaPlugin.getDefault().getPreferenceStore();
+		store.setValue(PREF_CONCURRENT_COMPUTATION, true);
+		store.setValue(PREF_COMPUTER_TIME_BUDGET, budget);
+	}
+
+	public void testConcurrentComputationMergeOrder() throws Exception {
+		StubComputer[] stubs= installStubComputers();
+		JavaEditor editor= openConcurrentCompletionEditor();
+		ContentAssistProcessor processor= createProcessor(editor);
+
+		List expected= collectProposalNames(processor, editor);
+		assertTrue(expected.size() > 1);
+
+		// the computers complete in the reverse order of their proposals
+		for (int i= 0; i < expected.size(); i++)
+			getStub(stubs, expected.get(i)).fDelay= 50 * (expected.size() - i);
+		enableConcurrentComputation((int) TIMEOUT);
+		assertEquals(expected, collectProposalNames(processor, editor));
+	}
+
+	public void testConcurrentComputationTimeBudget() throws Exception {
+		StubComputer[] stubs= installStubComputers();
+		JavaEditor editor= openConcurrentCompletionEditor();
+		ContentAssistProcessor processor= createProcessor(editor);
+
+		List expected= collectProposalNames(processor, editor);
+		assertFalse(expected.isEmpty());
+
+		StubComputer slow= getStub(stubs, expected.get(0));
+		slow.fDelay= -1;
+		int budget= 1000;
+		enableConcurrentComputation(budget);
+		long start= System.currentTimeMillis();
+		List names= collectProposalNames(processor, editor);
+		long elapsed= System.currentTimeMillis() - start;
+		assertTrue("returned before the budget expired: " + elapsed, elapsed >= budget);
+		assertTrue("did not return when the budget expired: " + elapsed, elapsed < TIMEOUT / 2);
+
+		// the proposals of the slow computer are left out, the others are kept
+		expected.remove(0);
+		assertEquals(expected, names);
+		assertTrue("slow computer not canceled", slow.fCanceled.await(TIMEOUT, TimeUnit.MILLISECONDS));
+	}
+
+	public void testConcurrentComputationCancelsSlowComputers() throws Exception {
+		StubComputer[] stubs= installStubComputers();
+		JavaEditor editor= openConcurrentCompletionEditor();
+		ContentAssistProcessor processor= createProcessor(editor);
+
+		List expected= collectProposalNames(processor, editor);
+		assertFalse(expected.isEmpty());
+
+		Object slowName= expected.get(expected.size() - 1);
+		StubComputer slow= getStub(stubs, slowName);
+		slow.fDelay= -1;
+		// keeps running for a while after it has been canceled
+		slow.fCancelDelay= 1000;
+		enableConcurrentComputation(500);
+		assertFalse(collectProposalNames(processor, editor).contains(slowName));
+		assertTrue("slow computer not canceled", slow.fCanceled.await(TIMEOUT, TimeUnit.MILLISECONDS));
+
+		// the next invocation waits until the canceled computation is done
+		slow.fDelay= 0;
+		enableConcurrentComputation((int) TIMEOUT);
+		assertEquals(expected, collectProposalNames(processor, editor));
+		assertFalse("computer ran concurrently with its canceled computation", slow.fOverlapped);
+	}
+
+	private static Job getPrefetcher(ContentAssistProcessor processor) {
+		return (Job) new Accessor(processor, ContentAssistProcessor.class).get("fPrefetcher");
+	}
+
+	private static List createProposals(String prefix, GateProposalInfo[] infos) {
+		List proposals= new ArrayList();
+		for (int i= 0; i < infos.length; i++) {
+			JavaCompletionProposal proposal= new JavaCompletionProposal(prefix + i, 0, 0, null, prefix + i, 0);
+			proposal.setProposalInfo(infos[i]);
+			proposals.add(proposal);
+		}
+		return proposals;
+	}
+
+	public void testPrefetchedProposalInfo() throws Exception {
+		IPackageFragmentRoot sourceFolder= JavaProjectHelper.addSourceContainer(fJProject1, "src");
+		IPackageFragment pack1= sourceFolder.createPackageFragment("test1", false, null);
+		StringBuffer buf= new StringBuffer();
+		buf.append("package test1;\n");
+		buf.append("public class A {\n");
+		for (int i= 0; i < 3; i++) {
+			buf.append("    /**\n");
+			buf.append("     * Documentation of method" + i + ".\n");
+			buf.append("     */\n");
+			buf.append("    public void method" + i + "() {\n");
+			buf.append("    }\n");
+		}
+		buf.append("    void foo() {\n");
+		buf.append("        method\n");
+		buf.append("    }\n");
+		buf.append("}\n");
+		String contents= buf.toString();
+		ICompilationUnit cu= pack1.createCompilationUnit("A.java", contents, false, null);
+		JavaEditor editor= (JavaEditor) JavaUI.openInEditor(cu);
+		int offset= contents.indexOf("method\n") + "method".length();
+
+		// Make sure indexer is up to date
+		JavaProjectHelper.mustPerformDummySearch();
+		ContentAssistProcessor processor= createProcessor(editor);
+		ICompletionProposal[] proposals= processor.computeCompletionProposals(editor.getViewer(), offset);
+		getPrefetcher(processor).join();
+
+		int prefetched= 0;
+		for (int i= 0; i < proposals.length; i++) {
+			if (!proposals[i].getDisplayString().startsWith("method"))
+				continue;
+			ProposalInfo info= (ProposalInfo) new Accessor(proposals[i], AbstractJavaCompletionProposal.class).invoke("getProposalInfo", new Object[0]);
+			assertNotNull(info);
+			Accessor accessor= new Accessor(info, ProposalInfo.class);
+			assertTrue("not prefetched: " + proposals[i].getDisplayString(), accessor.getBoolean("fJavadocResolved"));
+			prefetched++;
+
+			// the prefetched info is the one computed on demand
+			Object computed= accessor.invoke("computeInfo", new Class[] { IProgressMonitor.class }, new Object[] { new NullProgressMonitor() });
+			assertNotNull(computed);
+			assertTrue(((String) computed).indexOf("Documentation of method") != -1);
+			assertEquals(computed, info.getInfo(new NullProgressMonitor()));
+			assertTrue(proposals[i].getAdditionalProposalInfo().indexOf((String) computed) != -1);
+		}
+		assertEquals(3, prefetched);
+	}
+
+	public void testPrefetchCanceledByNewProposals() throws Exception {
+		StubComputer[] stubs= installStubComputers();
+		JavaEditor editor= openConcurrentCompletionEditor();
+		ContentAssistProcessor processor= createProcessor(editor);
+		List names= collectProposalNames(processor, editor);
+		assertFalse(names.isEmpty());
+		for (int i= 0; i < stubs.length; i++)
+			stubs[i].fProposals= Collections.EMPTY_LIST;
+		StubComputer stub= getStub(stubs, names.get(0));
+
+		IMember type= fJProject1.findType("test1.A");
+		ITextViewer viewer= editor.getViewer();
+		int offset= viewer.getDocument().get().indexOf("x\n") + 1;
+
+		CountDownLatch started= new CountDownLatch(1);
+		CountDownLatch gate= new CountDownLatch(1);
+		GateProposalInfo[] first= new GateProposalInfo[3];
+		for (int i= 0; i < first.length; i++)
+			first[i]= new GateProposalInfo(type, started, gate);
+		stub.fProposals= createProposals("first", first);
+		processor.computeCompletionProposals(viewer, offset);
+		assertTrue("prefetch not started", started.await(TIMEOUT, TimeUnit.MILLISECONDS));
+
+		// the popup shows new proposals while the prefetch is blocked
+		CountDownLatch open= new CountDownLatch(0);
+		GateProposalInfo[] second= new GateProposalInfo[3];
+		for (int i= 0; i < second.length; i++)
+			second[i]= new GateProposalInfo(type, new CountDownLatch(1), open);
+		stub.fProposals= createProposals("second", second);
+		processor.computeCompletionProposals(viewer, offset);
+		gate.countDown();
+
+		long end= System.currentTimeMillis() + TIMEOUT;
+		for (int i= 0; i < second.length; i++) {
+			while (!second[i].isResolved()) {
+				assertTrue("new proposals not prefetched", System.currentTimeMillis() < end);
+				Thread.sleep(10);
+			}
+		}
+		getPrefetcher(processor).join();
+
+		// only the blocked info of the former proposals has been resolved
+		int requested= 0;
+		for (int i= 0; i < first.length; i++) {
+			if (first[i].fRequests.get() > 0)
+				requested++;
+		}
+		assertEquals("prefetch of the former proposals not canceled", 1, requested);
+	}
+
 	private static void assertNumberOf(String name, int is, int expected) {
 		assertTrue("Wrong number of " + name + ", is: " + is + ", expected: " + expected, is == expected);
 	}
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2005, 2011 IBM Corporation and others.
+ * Copyright (c) 2005, 2014 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -145,7 +145,7 @@ public class ContentAssistHistoryTest extends TestCase {
 
 		history.remember(fgCharSequenceT, fgStringBufferT);
 		assertTrue(history.getHistory(STRING).getTypes().isEmpty());
-		assertEquals(list(STRING, STRING_BUFFER), history.getHistory(CHAR_SEQUENCE).getTypes());
+		assertEquals("more frequently selected types must rank higher", list(STRING_BUFFER, STRING), history.getHistory(CHAR_SEQUENCE).getTypes());
 
 		history.remember(fgStringT, fgStringT);
 		assertTrue(history.getHistory(STRING).getTypes().isEmpty());
@@ -239,6 +239,40 @@ public class ContentAssistHistoryTest extends TestCase {
 		assertEqualMap(map(LIST, list(ARRAY_LIST), COLLECTION, list(ARRAY_LIST), ITERABLE, list(ARRAY_LIST), CHAR_SEQUENCE, list(STRING)), loaded.getEntireHistory());
 	}
 
+	public void testLoadStoreLazy() throws Exception {
+		ContentAssistHistory history= new ContentAssistHistory();
+
+		history.remember(fgListT, fgArrayListT);
+		history.remember(fgCharSequenceT, fgStringT);
+
+		Preferences prefs= new Preferences();
+		String key= "myKey";
+		ContentAssistHistory.store(history, prefs, key);
+		ContentAssistHistory loaded= ContentAssistHistory.load(prefs, key);
+
+		// only one left hand side is converted before the history is stored again
+		assertEquals(list(STRING), loaded.getHistory(CHAR_SEQUENCE).getTypes());
+		ContentAssistHistory.store(loaded, prefs, key);
+		ContentAssistHistory reloaded= ContentAssistHistory.load(prefs, key);
+
+		assertEqualMap(map(LIST, list(ARRAY_LIST), COLLECTION, list(ARRAY_LIST), ITERABLE, list(ARRAY_LIST), CHAR_SEQUENCE, list(STRING)), reloaded.getEntireHistory());
+	}
+
+	public void testLoadEmptyLHS() throws Exception {
+		Preferences prefs= new Preferences();
+		String key= "myKey";
+		prefs.setValue(key, "<?xml version=\"1.0\" encoding=\"UTF-8\"?><history maxLHS=\"100\" maxRHS=\"10\" time=\"1\" version=\"2\">"
+				+ "<lhs name=\"" + LIST + "\"/>"
+				+ "<lhs name=\"" + COLLECTION + "\"><rhs name=\"\"/></lhs>"
+				+ "<lhs name=\"" + CHAR_SEQUENCE + "\"><rhs lastUse=\"1\" name=\"" + STRING + "\" score=\"0.015625\"/></lhs>"
+				+ "</history>");
+		ContentAssistHistory loaded= ContentAssistHistory.load(prefs, key);
+
+		assertEquals(0, loaded.getHistory(LIST).size());
+		assertEquals(0, loaded.getHistory(COLLECTION).size());
+		assertEqualMap(map(CHAR_SEQUENCE, list(STRING)), loaded.getEntireHistory());
+	}
+
 	private static void assertEqualMap(Map expected, Map actual) {
 		assertEqualMap("", expected, actual);
 	}
@@ -0,0 +1,177 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.jdt.text.tests.spelling;
+
+import java.io.UnsupportedEncodingException;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import org.eclipse.jdt.internal.ui.text.spelling.engine.PhoneticWordTable;
+
+
+public class PhoneticWordTableTestCase extends TestCase {
+
+	/** Mask covering the slots of the tables used by the collision tests */
+	private static final int SLOT_MASK= 0xff;
+
+	public static Test suite() {
+		return new TestSuite(PhoneticWordTableTestCase.class);
+	}
+
+	public PhoneticWordTableTestCase(String name) {
+		super(name);
+	}
+
+	private static byte[] bytes(String string) throws UnsupportedEncodingException {
+		return string.getBytes("UTF-8"); //$NON-NLS-1$
+	}
+
+	private static void assertWords(PhoneticWordTable table, String hash, String[] expected) throws UnsupportedEncodingException {
+		byte[][] words= table.getWords(bytes(hash), Integer.MAX_VALUE);
+		if (expected.length == 0) {
+			assertNull(hash, words);
+			return;
+		}
+		assertNotNull(hash, words);
+		assertEquals(hash, expected.length, words.length);
+		for (int index= 0; index < expected.length; index++)
+			assertEquals(hash, expected[index], new String(words[index], "UTF-8")); //$NON-NLS-1$
+	}
+
+	/**
+	 * Returns distinct hashes which all start probing at the same slot.
+	 */
+	private static String[] findCollidingHashes(int count) throws UnsupportedEncodingException {
+		String[] result= new String[count];
+		int slot= PhoneticWordTable.hashCode(bytes("K0")) & SLOT_MASK; //$NON-NLS-1$
+		result[0]= "K0"; //$NON-NLS-1$
+		int found= 1;
+		for (int index= 1; found < count; index++) {
+			String hash= "K" + index; //$NON-NLS-1$
+			if ((PhoneticWordTable.hashCode(bytes(hash)) & SLOT_MASK) == slot)
+				result[found++]= hash;
+		}
+		return result;
+	}
+
+	public void testLookupByHash() throws Exception {
+		PhoneticWordTable table= new PhoneticWordTable(16);
+		assertTrue(table.isEmpty());
+
+		table.add(bytes("TRK"), bytes("truck")); //$NON-NLS-1$ //$NON-NLS-2$
+		table.add(bytes("LR"), bytes("lorry")); //$NON-NLS-1$ //$NON-NLS-2$
+		assertFalse(table.isEmpty());
+
+		assertWords(table, "TRK", new String[] { "truck" }); //$NON-NLS-1$ //$NON-NLS-2$
+		assertWords(table, "LR", new String[] { "lorry" }); //$NON-NLS-1$ //$NON-NLS-2$
+		assertWords(table, "TR", new String[0]); //$NON-NLS-1$
+		assertWords(table, "TRKS", new String[0]); //$NON-NLS-1$
+
+		assertTrue(table.contains(bytes("TRK"), new byte[][] { bytes("Truck"), bytes("truck") })); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		assertFalse(table.contains(bytes("TRK"), new byte[][] { bytes("lorry") })); //$NON-NLS-1$ //$NON-NLS-2$
+		assertFalse(table.contains(bytes("LR"), new byte[][] { bytes("truck") })); //$NON-NLS-1$ //$NON-NLS-2$
+
+		table.clear();
+		assertTrue(table.isEmpty());
+		assertWords(table, "TRK", new String[0]); //$NON-NLS-1$
+	}
+
+	public void testWordsOfHash() throws Exception {
+		PhoneticWordTable table= new PhoneticWordTable(16);
+		table.add(bytes("NM"), bytes("name")); //$NON-NLS-1$ //$NON-NLS-2$
+		table.add(bytes("KM"), bytes("come")); //$NON-NLS-1$ //$NON-NLS-2$
+		table.add(bytes("NM"), bytes("numb")); //$NON-NLS-1$ //$NON-NLS-2$
+		table.add(bytes("NM"), bytes("gnome")); //$NON-NLS-1$ //$NON-NLS-2$
+
+		// in the order they have been added
+		assertWords(table, "NM", new String[] { "name", "numb", "gnome" }); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+		assertWords(table, "KM", new String[] { "come" }); //$NON-NLS-1$ //$NON-NLS-2$
+
+		byte[][] words= table.getWords(bytes("NM"), 2); //$NON-NLS-1$
+		assertEquals(2, words.length);
+		assertEquals("numb", new String(words[1], "UTF-8")); //$NON-NLS-1$ //$NON-NLS-2$
+		assertNull(table.getWords(bytes("NM"), 0)); //$NON-NLS-1$
+
+		assertTrue(table.contains(bytes("NM"), new byte[][] { bytes("gnome") })); //$NON-NLS-1$ //$NON-NLS-2$
+	}
+
+	public void testDuplicateWords() throws Exception {
+		PhoneticWordTable table= new PhoneticWordTable(16);
+		table.add(bytes("TRK"), bytes("truck")); //$NON-NLS-1$ //$NON-NLS-2$
+		table.add(bytes("TRK"), bytes("truck")); //$NON-NLS-1$ //$NON-NLS-2$
+		table.add(bytes("TRK"), bytes("trek")); //$NON-NLS-1$ //$NON-NLS-2$
+
+		// like the former hash map buckets, a word added twice is kept twice under a single hash
+		assertWords(table, "TRK", new String[] { "truck", "truck", "trek" }); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+		assertTrue(table.contains(bytes("TRK"), new byte[][] { bytes("truck") })); //$NON-NLS-1$ //$NON-NLS-2$
+
+		// the same word under another hash is another entry
+		table.add(bytes("TRKK"), bytes("truck")); //$NON-NLS-1$ //$NON-NLS-2$
+		assertWords(table, "TRKK", new String[] { "truck" }); //$NON-NLS-1$ //$NON-NLS-2$
+		assertWords(table, "TRK", new String[] { "truck", "truck", "trek" }); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+	}
+
+	public void testCollisionChains() throws Exception {
+		String[] hashes= findCollidingHashes(6);
+		PhoneticWordTable table= new PhoneticWordTable(hashes.length);
+		for (int index= 0; index < hashes.length; index++) {
+			table.add(bytes(hashes[index]), bytes("w" + index)); //$NON-NLS-1$
+			// a second word, after the other hashes of the probe sequence have been added
+			if (index > 0)
+				table.add(bytes(hashes[index - 1]), bytes("v" + (index - 1))); //$NON-NLS-1$
+		}
+
+		for (int index= 0; index < hashes.length - 1; index++)
+			assertWords(table, hashes[index], new String[] { "w" + index, "v" + index }); //$NON-NLS-1$ //$NON-NLS-2$
+		assertWords(table, hashes[hashes.length - 1], new String[] { "w" + (hashes.length - 1) }); //$NON-NLS-1$
+
+		// a hash which probes through the occupied slots without being contained
+		String[] missing= findCollidingHashes(hashes.length + 1);
+		assertWords(table, missing[hashes.length], new String[0]);
+		assertFalse(table.contains(bytes(missing[hashes.length]), new byte[][] { bytes("w0") })); //$NON-NLS-1$
+	}
+
+	public void testGrowth() throws Exception {
+		PhoneticWordTable table= new PhoneticWordTable(1);
+		int count= 5000;
+		for (int index= 0; index < count; index++) {
+			table.add(bytes("H" + index), bytes("word" + index)); //$NON-NLS-1$ //$NON-NLS-2$
+			if (index % 3 == 0)
+				table.add(bytes("H" + index), bytes("other" + index)); //$NON-NLS-1$ //$NON-NLS-2$
+		}
+		// words longer than the initial arena
+		StringBuffer buffer= new StringBuffer();
+		for (int index= 0; index < 1000; index++)
+			buffer.append('x');
+		table.add(bytes("LONG"), bytes(buffer.toString())); //$NON-NLS-1$
+
+		assertContent(table, count, buffer.toString());
+		table.trimToSize();
+		assertContent(table, count, buffer.toString());
+
+		// still grows after trimming
+		table.add(bytes("H" + count), bytes("word" + count)); //$NON-NLS-1$ //$NON-NLS-2$
+		assertContent(table, count + 1, buffer.toString());
+	}
+
+	private static void assertContent(PhoneticWordTable table, int count, String longWord) throws UnsupportedEncodingException {
+		for (int index= 0; index < count; index++) {
+			if (index % 3 == 0)
+				assertWords(table, "H" + index, new String[] { "word" + index, "other" + index }); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+			else
+				assertWords(table, "H" + index, new String[] { "word" + index }); //$NON-NLS-1$ //$NON-NLS-2$
+		}
+		assertWords(table, "LONG", new String[] { longWord }); //$NON-NLS-1$
+		assertWords(table, "H" + (count + 1), new String[0]); //$NON-NLS-1$
+	}
+}
@@ -0,0 +1,205 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.jdt.text.tests.spelling;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import org.eclipse.jdt.internal.ui.text.spelling.engine.PhoneticWordTable;
+import org.eclipse.jdt.internal.ui.text.spelling.engine.PrecompiledWordTable;
+
+
+public class PrecompiledWordTableTestCase extends TestCase {
+
+	private static final String SOURCE= "file:/dictionary.txt|UTF-8|Hash"; //$NON-NLS-1$
+	private static final long STAMP= 42;
+
+	/** The offset of the header length: the magic number and the version come first */
+	private static final int HEADER_LENGTH_OFFSET= 8;
+
+	public static Test suite() {
+		return new TestSuite(PrecompiledWordTableTestCase.class);
+	}
+
+	private File fFolder;
+	private File fFile;
+
+	public PrecompiledWordTableTestCase(String name) {
+		super(name);
+	}
+
+	protected void setUp() throws Exception {
+		fFolder= File.createTempFile("dictionaries", null); //$NON-NLS-1$
+		fFolder.delete();
+		fFolder.mkdirs();
+		fFile= new File(fFolder, "words.dictionary.bin"); //$NON-NLS-1$
+	}
+
+	protected void tearDown() throws Exception {
+		File[] files= fFolder.listFiles();
+		for (int index= 0; files != null && index < files.length; index++)
+			files[index].delete();
+		fFolder.delete();
+	}
+
+	private static byte[] bytes(String string) throws UnsupportedEncodingException {
+		return string.getBytes("UTF-8"); //$NON-NLS-1$
+	}
+
+	private static PhoneticWordTable createTable() throws UnsupportedEncodingException {
+		PhoneticWordTable table= new PhoneticWordTable(4);
+		table.add(bytes("TRK"), bytes("truck")); //$NON-NLS-1$ //$NON-NLS-2$
+		table.add(bytes("LR"), bytes("lorry")); //$NON-NLS-1$ //$NON-NLS-2$
+		table.add(bytes("TRK"), bytes("trek")); //$NON-NLS-1$ //$NON-NLS-2$
+		for (int index= 0; index < 100; index++)
+			table.add(bytes("H" + index), bytes("word" + index)); //$NON-NLS-1$ //$NON-NLS-2$
+		return table;
+	}
+
+	private static byte[] read(File file) throws IOException {
+		byte[] content= new byte[(int) file.length()];
+		FileInputStream input= new FileInputStream(file);
+		try {
+			int read= 0;
+			while (read < content.length)
+				read+= input.read(content, read, content.length - read);
+		} finally {
+			input.close();
+		}
+		return content;
+	}
+
+	private static void write(File file, byte[] content, int length) throws IOException {
+		FileOutputStream output= new FileOutputStream(file);
+		try {
+			output.write(content, 0, length);
+		} finally {
+			output.close();
+		}
+	}
+
+	/**
+	 * Writes a copy of the content with an int replaced. Each copy gets a new file, since files
+	 * which have been mapped cannot be written on all platforms.
+	 */
+	private File writeCorrupt(byte[] content, int offset, int value) throws IOException {
+		File file= File.createTempFile("corrupt", ".dictionary.bin", fFolder); //$NON-NLS-1$ //$NON-NLS-2$
+		write(file, content, content.length);
+		RandomAccessFile output= new RandomAccessFile(file, "rw"); //$NON-NLS-1$
+		try {
+			output.seek(offset);
+			output.writeInt(value);
+		} finally {
+			output.close();
+		}
+		return file;
+	}
+
+	public void testRoundTrip() throws Exception {
+		assertTrue(PrecompiledWordTable.write(fFile, SOURCE, STAMP, createTable()));
+
+		PrecompiledWordTable table= PrecompiledWordTable.open(fFile, SOURCE, STAMP);
+		assertNotNull(table);
+		assertFalse(table.isEmpty());
+
+		byte[][] words= table.getWords(bytes("TRK"), Integer.MAX_VALUE); //$NON-NLS-1$
+		assertEquals(2, words.length);
+		assertEquals("truck", new String(words[0], "UTF-8")); //$NON-NLS-1$ //$NON-NLS-2$
+		assertEquals("trek", new String(words[1], "UTF-8")); //$NON-NLS-1$ //$NON-NLS-2$
+		assertEquals(1, table.getWords(bytes("TRK"), 1).length); //$NON-NLS-1$
+		for (int index= 0; index < 100; index++)
+			assertTrue(table.contains(bytes("H" + index), new byte[][] { bytes("word" + index) })); //$NON-NLS-1$ //$NON-NLS-2$
+
+		assertNull(table.getWords(bytes("TR"), Integer.MAX_VALUE)); //$NON-NLS-1$
+		assertFalse(table.contains(bytes("LR"), new byte[][] { bytes("truck") })); //$NON-NLS-1$ //$NON-NLS-2$
+	}
+
+	public void testEmptyTable() throws Exception {
+		assertTrue(PrecompiledWordTable.write(fFile, SOURCE, STAMP, new PhoneticWordTable(4)));
+
+		PrecompiledWordTable table= PrecompiledWordTable.open(fFile, SOURCE, STAMP);
+		assertNotNull(table);
+		assertTrue(table.isEmpty());
+		assertNull(table.getWords(bytes("TRK"), Integer.MAX_VALUE)); //$NON-NLS-1$
+	}
+
+	public void testStampMismatch() throws Exception {
+		assertTrue(PrecompiledWordTable.write(fFile, SOURCE, STAMP, createTable()));
+
+		assertNull(PrecompiledWordTable.open(fFile, SOURCE, STAMP + 1));
+		assertNull(PrecompiledWordTable.open(fFile, SOURCE + 'x', STAMP));
+		assertNull(PrecompiledWordTable.open(new File(fFolder, "missing.dictionary.bin"), SOURCE, STAMP)); //$NON-NLS-1$
+		assertNotNull(PrecompiledWordTable.open(fFile, SOURCE, STAMP));
+	}
+
+	public void testTruncatedFile() throws Exception {
+		assertTrue(PrecompiledWordTable.write(fFile, SOURCE, STAMP, createTable()));
+		byte[] content= read(fFile);
+
+		for (int length= 0; length < content.length; length++) {
+			File truncated= new File(fFolder, "truncated" + length + ".dictionary.bin"); //$NON-NLS-1$ //$NON-NLS-2$
+			write(truncated, content, length);
+			assertNull("length " + length, PrecompiledWordTable.open(truncated, SOURCE, STAMP)); //$NON-NLS-1$
+		}
+	}
+
+	public void testCorruptCounts() throws Exception {
+		assertTrue(PrecompiledWordTable.write(fFile, SOURCE, STAMP, createTable()));
+		byte[] content= read(fFile);
+
+		// negative and too large header lengths
+		assertNull(PrecompiledWordTable.open(writeCorrupt(content, HEADER_LENGTH_OFFSET, -1), SOURCE, STAMP));
+		assertNull(PrecompiledWordTable.open(writeCorrupt(content, HEADER_LENGTH_OFFSET, Integer.MAX_VALUE), SOURCE, STAMP));
+
+		// the slot, key, word and arena counts follow the header
+		int countsOffset= HEADER_LENGTH_OFFSET + 4 + bytes(SOURCE).length + 2 + 8;
+		int[] corruptCounts= { -1, 0, 3, Integer.MAX_VALUE, Integer.MIN_VALUE, 0x40000000 };
+		for (int count= 0; count < 4; count++) {
+			for (int index= 0; index < corruptCounts.length; index++) {
+				File file= writeCorrupt(content, countsOffset + 4 * count, corruptCounts[index]);
+				assertNull("count " + count + ": " + corruptCounts[index], PrecompiledWordTable.open(file, SOURCE, STAMP)); //$NON-NLS-1$ //$NON-NLS-2$
+			}
+		}
+		assertNotNull(PrecompiledWordTable.open(fFile, SOURCE, STAMP));
+	}
+
+	public void testWriteKeepsValidFile() throws Exception {
+		assertTrue(PrecompiledWordTable.write(fFile, SOURCE, STAMP, createTable()));
+		long length= fFile.length();
+		assertTrue(fFile.setLastModified(1000));
+
+		// the file may be mapped, it is not written again
+		assertTrue(PrecompiledWordTable.write(fFile, SOURCE, STAMP, new PhoneticWordTable(4)));
+		assertEquals(1000, fFile.lastModified());
+		assertEquals(length, fFile.length());
+		assertFalse(PrecompiledWordTable.open(fFile, SOURCE, STAMP).isEmpty());
+		assertEquals(1, fFolder.listFiles().length);
+	}
+
+	public void testWriteReplacesCorruptFile() throws Exception {
+		byte[] content= { 1, 2, 3 };
+		write(fFile, content, content.length);
+
+		assertTrue(PrecompiledWordTable.write(fFile, SOURCE, STAMP, createTable()));
+		PrecompiledWordTable table= PrecompiledWordTable.open(fFile, SOURCE, STAMP);
+		assertNotNull(table);
+		assertFalse(table.isEmpty());
+		assertEquals(1, fFolder.listFiles().length);
+	}
+}
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2000, 2011 IBM Corporation and others.
+ * Copyright (c) 2000, 2014 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -68,6 +68,8 @@ public class AllRefactoringTests {
 
 		//--types
 		suite.addTest(RenameTypeTests.suite());
+		suite.addTest(QualifiedNameIndexTests.suite());
+		suite.addTest(ParallelUnitProcessorTests.suite());
 		suite.addTest(RenameTypeParameterTests.suite());
 		suite.addTest(ChangeTypeRefactoringTests.suite());
 		suite.addTest(ChangeTypeRefactoringTests17.suite());
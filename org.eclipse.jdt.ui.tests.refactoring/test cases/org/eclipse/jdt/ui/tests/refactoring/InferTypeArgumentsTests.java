@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2000, 2010 IBM Corporation and others.
+ * Copyright (c) 2000, 2014 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -14,6 +14,8 @@ package org.eclipse.jdt.ui.tests.refactoring;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.zip.ZipInputStream;
 
 import junit.framework.Assert;
@@ -26,9 +28,12 @@ import org.eclipse.jdt.testplugin.JavaTestPlugin;
 import org.eclipse.core.runtime.CoreException;
 import org.eclipse.core.runtime.NullProgressMonitor;
 
+import org.eclipse.ltk.core.refactoring.Change;
 import org.eclipse.ltk.core.refactoring.CheckConditionsOperation;
+import org.eclipse.ltk.core.refactoring.CompositeChange;
 import org.eclipse.ltk.core.refactoring.PerformRefactoringOperation;
 import org.eclipse.ltk.core.refactoring.RefactoringStatus;
+import org.eclipse.ltk.core.refactoring.TextChange;
 
 import org.eclipse.jdt.core.IClasspathEntry;
 import org.eclipse.jdt.core.ICompilationUnit;
@@ -102,6 +107,8 @@ public class InferTypeArgumentsTests extends RefactoringTest {
 		if (! initialStatus.isOK())
 			return false;
 
+		assertEquals("parallel refactoring differs from sequential refactoring", createChangedSources(elements, false), createChangedSources(elements, true));
+
 		refactoring.setAssumeCloneReturnsSameType(fAssumeCloneReturnsSameType);
 		refactoring.setLeaveUnconstrainedRaw(fLeaveUnconstrainedRaw);
 
@@ -118,6 +125,43 @@ public class InferTypeArgumentsTests extends RefactoringTest {
 		return true;
 	}
 
+	/**
+	 * Creates the change of the refactoring without performing it.
+	 *
+	 * @param elements the elements to infer type arguments for
+	 * @param parallel whether to collect the type constraints of each compilation unit into a
+	 *        model of its own and merge these, and to solve the constraints in parallel
+	 * @return the names and new contents of the changed compilation units, sorted
+	 * @throws CoreException
+	 */
+	private List createChangedSources(IJavaElement[] elements, boolean parallel) throws CoreException {
+		InferTypeArgumentsRefactoring refactoring= new InferTypeArgumentsRefactoring(elements);
+		NullProgressMonitor pm= new NullProgressMonitor();
+		refactoring.checkInitialConditions(pm);
+		refactoring.setAssumeCloneReturnsSameType(fAssumeCloneReturnsSameType);
+		refactoring.setLeaveUnconstrainedRaw(fLeaveUnconstrainedRaw);
+		refactoring.setParallel(parallel);
+		if (parallel)
+			refactoring.setBatchSize(1);
+
+		List result= new ArrayList();
+		if (refactoring.checkFinalConditions(pm).hasFatalError())
+			return result;
+		collectChangedSources(refactoring.createChange(pm), result);
+		Collections.sort(result);
+		return result;
+	}
+
+	private static void collectChangedSources(Change change, List result) throws CoreException {
+		if (change instanceof CompositeChange) {
+			Change[] children= ((CompositeChange)change).getChildren();
+			for (int i= 0; i < children.length; i++)
+				collectChangedSources(children[i], result);
+		} else if (change instanceof TextChange) {
+			result.add(change.getName() + "\n" + ((TextChange)change).getPreviewContent(new NullProgressMonitor()));
+		}
+	}
+
 	private void performCuOK() throws Exception {
 		performCu(RefactoringStatus.OK, RefactoringStatus.OK);
 	}
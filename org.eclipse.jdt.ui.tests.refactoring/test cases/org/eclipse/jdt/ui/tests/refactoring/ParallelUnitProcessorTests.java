@@ -0,0 +1,182 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.jdt.ui.tests.refactoring;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.NullProgressMonitor;
+import org.eclipse.core.runtime.OperationCanceledException;
+import org.eclipse.core.runtime.Status;
+
+import org.eclipse.core.resources.IProject;
+import org.eclipse.core.resources.ResourcesPlugin;
+
+import org.eclipse.jdt.core.ICompilationUnit;
+import org.eclipse.jdt.core.IPackageFragment;
+import org.eclipse.jdt.core.JavaCore;
+
+import org.eclipse.jdt.internal.corext.refactoring.util.ParallelUnitProcessor;
+
+public class ParallelUnitProcessorTests extends TestCase {
+
+	private static final Class clazz= ParallelUnitProcessorTests.class;
+
+	private static final int UNIT_COUNT= 100;
+	private static final int WORKERS= 3;
+
+	/**
+	 * Returns the element name of each unit, fails at a given unit, and records which results
+	 * have been discarded.
+	 */
+	private static class NameProcessor extends ParallelUnitProcessor {
+		private final String fFailingName;
+		private final RuntimeException fRuntimeException;
+		private final Set fProcessed= Collections.synchronizedSet(new HashSet());
+		private final Set fDiscarded= new HashSet();
+
+		NameProcessor(ICompilationUnit[] units, String failingName, RuntimeException runtimeException) {
+			super("test", units, new String[units.length]);
+			fFailingName= failingName;
+			fRuntimeException= runtimeException;
+		}
+
+		protected Object process(ICompilationUnit unit) throws CoreException {
+			String name= unit.getElementName();
+			if (name.equals(fFailingName)) {
+				if (fRuntimeException != null)
+					throw fRuntimeException;
+				throw new CoreException(new Status(IStatus.ERROR, "test", name));
+			}
+			try {
+				// leave the other threads time to take units
+				Thread.sleep(5);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			fProcessed.add(name);
+			return name;
+		}
+
+		protected void discard(Object result) {
+			fDiscarded.add(result);
+		}
+	}
+
+	/**
+	 * Counts the reported work and cancels after a given amount.
+	 */
+	private static class CountingProgressMonitor extends NullProgressMonitor {
+		private final int fCancelAt;
+		private int fWorked;
+
+		CountingProgressMonitor(int cancelAt) {
+			fCancelAt= cancelAt;
+		}
+
+		public void worked(int work) {
+			fWorked+= work;
+			if (fWorked >= fCancelAt)
+				setCanceled(true);
+		}
+	}
+
+	public ParallelUnitProcessorTests(String name) {
+		super(name);
+	}
+
+	public static Test suite() {
+		return new TestSuite(clazz);
+	}
+
+	private static ICompilationUnit[] createUnits() {
+		// handles are enough, the processor does not access the units itself
+		IProject project= ResourcesPlugin.getWorkspace().getRoot().getProject("ParallelUnitProcessorProject");
+		IPackageFragment pack= JavaCore.create(project).getPackageFragmentRoot(project.getFolder("src")).getPackageFragment("p");
+		ICompilationUnit[] units= new ICompilationUnit[UNIT_COUNT];
+		for (int i= 0; i < units.length; i++)
+			units[i]= pack.getCompilationUnit("A" + i + ".java");
+		return units;
+	}
+
+	public void testWorkerCount() throws Exception {
+		assertEquals(0, ParallelUnitProcessor.getWorkerCount(0, 10));
+		assertEquals(0, ParallelUnitProcessor.getWorkerCount(19, 10));
+		int processors= Runtime.getRuntime().availableProcessors();
+		assertEquals(processors - 1, ParallelUnitProcessor.getWorkerCount(processors * 10, 10));
+		assertEquals(processors - 1, ParallelUnitProcessor.getWorkerCount(Integer.MAX_VALUE, 10));
+	}
+
+	public void testSequential() throws Exception {
+		assertResults(0);
+	}
+
+	public void testParallel() throws Exception {
+		assertResults(WORKERS);
+	}
+
+	public void testCanceled() throws Exception {
+		ICompilationUnit[] units= createUnits();
+		NameProcessor processor= new NameProcessor(units, null, null);
+		try {
+			processor.run(WORKERS, new CountingProgressMonitor(UNIT_COUNT / 4));
+			fail("not canceled");
+		} catch (OperationCanceledException e) {
+			// expected
+		}
+		assertTrue(processor.fProcessed.size() < UNIT_COUNT);
+		assertEquals(processor.fProcessed, processor.fDiscarded);
+	}
+
+	public void testCoreException() throws Exception {
+		ICompilationUnit[] units= createUnits();
+		NameProcessor processor= new NameProcessor(units, units[UNIT_COUNT / 2].getElementName(), null);
+		try {
+			processor.run(WORKERS, new NullProgressMonitor());
+			fail("no exception");
+		} catch (CoreException e) {
+			assertEquals(units[UNIT_COUNT / 2].getElementName(), e.getStatus().getMessage());
+		}
+		assertEquals(processor.fProcessed, processor.fDiscarded);
+	}
+
+	public void testRuntimeException() throws Exception {
+		ICompilationUnit[] units= createUnits();
+		IllegalStateException failure= new IllegalStateException();
+		NameProcessor processor= new NameProcessor(units, units[0].getElementName(), failure);
+		try {
+			processor.run(WORKERS, new NullProgressMonitor());
+			fail("no exception");
+		} catch (IllegalStateException e) {
+			assertSame(failure, e);
+		}
+		assertEquals(processor.fProcessed, processor.fDiscarded);
+	}
+
+	private static void assertResults(int workers) throws Exception {
+		ICompilationUnit[] units= createUnits();
+		NameProcessor processor= new NameProcessor(units, null, null);
+		CountingProgressMonitor pm= new CountingProgressMonitor(Integer.MAX_VALUE);
+		Object[] results= processor.run(workers, pm);
+		assertEquals(UNIT_COUNT, results.length);
+		for (int i= 0; i < results.length; i++)
+			assertEquals(units[i].getElementName(), results[i]);
+		assertEquals(UNIT_COUNT, pm.fWorked);
+		assertTrue(processor.fDiscarded.isEmpty());
+	}
+}
@@ -0,0 +1,154 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.jdt.ui.tests.refactoring;
+
+import java.io.ByteArrayInputStream;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import org.eclipse.core.runtime.jobs.Job;
+
+import org.eclipse.core.resources.IFile;
+import org.eclipse.core.resources.IProject;
+import org.eclipse.core.resources.ResourcesPlugin;
+
+import org.eclipse.jdt.internal.corext.refactoring.util.QualifiedNameIndex;
+
+public class QualifiedNameIndexTests extends TestCase {
+
+	private static final Class clazz= QualifiedNameIndexTests.class;
+
+	private IProject fProject;
+
+	public QualifiedNameIndexTests(String name) {
+		super(name);
+	}
+
+	public static Test suite() {
+		return new TestSuite(clazz);
+	}
+
+	protected void setUp() throws Exception {
+		fProject= ResourcesPlugin.getWorkspace().getRoot().getProject("QualifiedNameIndexProject");
+		fProject.create(null);
+		fProject.open(null);
+	}
+
+	protected void tearDown() throws Exception {
+		fProject.delete(true, true, null);
+	}
+
+	public void testTokenization() throws Exception {
+		createFile("a.txt", "see a.b.C and x.y.Z.foo, but not .p.Q or c.d.E1\n");
+
+		assertCandidate("a.b.C", "a.txt", true);
+		assertCandidate("a.b", "a.txt", true);
+		assertCandidate("x.y.Z", "a.txt", true);
+		assertCandidate("x.y.Z.foo", "a.txt", true);
+		assertCandidate("c.d.E1", "a.txt", true);
+		// embedded in another name
+		assertCandidate("b.C", "a.txt", false);
+		assertCandidate("p.Q", "a.txt", false);
+		// not ending at an identifier boundary
+		assertCandidate("x.y.Z.fo", "a.txt", false);
+		assertCandidate("c.d.E", "a.txt", false);
+	}
+
+	public void testFileKinds() throws Exception {
+		createFile("unknown.qnitest", "x.y.Z");
+		createFile("A.java", "package p; class A {}");
+		createFile("A.class", "x.y.Z");
+		StringBuffer many= new StringBuffer();
+		for (int i= 0; i < 10000; i++)
+			many.append("n").append(i).append(' ');
+		createFile("many.txt", many.toString());
+
+		// files with an unknown content type and Java-like files are always candidates
+		assertCandidate("no.such.Name", "unknown.qnitest", true);
+		assertCandidate("no.such.Name", "A.java", true);
+		// files that are no text files are never candidates
+		assertCandidate("x.y.Z", "A.class", false);
+		// files with too many names are not tokenized
+		assertCandidate("no.such.Name", "many.txt", true);
+	}
+
+	public void testUpdate() throws Exception {
+		IFile file= createFile("a.txt", "a.b.C");
+		assertCandidate("a.b.C", "a.txt", true);
+
+		file.setContents(new ByteArrayInputStream("x.y.Z".getBytes("UTF-8")), true, false, null);
+		assertCandidate("a.b.C", "a.txt", false);
+		assertCandidate("x.y.Z", "a.txt", true);
+
+		file.delete(true, null);
+		assertCandidate("x.y.Z", "a.txt", false);
+	}
+
+	public void testPersistence() throws Exception {
+		createFile("a.txt", "a.b.C");
+		IFile changed= createFile("b.txt", "a.b.C");
+		assertCandidate("a.b.C", "a.txt", true);
+		assertCandidate("a.b.C", "b.txt", true);
+
+		// changes while the index is shut down are found from the modification stamps
+		QualifiedNameIndex.shutdown();
+		changed.setContents(new ByteArrayInputStream("x.y.Z".getBytes("UTF-8")), true, false, null);
+
+		assertCandidate("a.b.C", "a.txt", true);
+		assertCandidate("a.b.C", "b.txt", false);
+		assertCandidate("x.y.Z", "b.txt", true);
+	}
+
+	public void testFallback() throws Exception {
+		createFile("a.txt", "a.b.C");
+		assertNotNull(getCandidates("a.b.C"));
+
+		Job.getJobManager().suspend();
+		try {
+			// the index is not up to date while a project is being re-indexed
+			fProject.close(null);
+			fProject.open(null);
+			assertNull(QualifiedNameIndex.getInstance().getCandidates("a.b.C", Collections.singleton(fProject)));
+		} finally {
+			Job.getJobManager().resume();
+		}
+		assertCandidate("a.b.C", "a.txt", true);
+	}
+
+	private IFile createFile(String name, String content) throws Exception {
+		IFile file= fProject.getFile(name);
+		file.create(new ByteArrayInputStream(content.getBytes("UTF-8")), true, null);
+		return file;
+	}
+
+	private Set getCandidates(String qualifiedName) throws Exception {
+		QualifiedNameIndex index= QualifiedNameIndex.getInstance();
+		index.join();
+		IFile[] candidates= index.getCandidates(qualifiedName, Collections.singleton(fProject));
+		if (candidates == null)
+			return null;
+		Set result= new HashSet();
+		for (int i= 0; i < candidates.length; i++)
+			result.add(candidates[i].getName());
+		return result;
+	}
+
+	private void assertCandidate(String qualifiedName, String fileName, boolean expected) throws Exception {
+		Set candidates= getCandidates(qualifiedName);
+		assertNotNull("index not up to date", candidates);
+		assertEquals(qualifiedName + " in " + fileName + ": " + candidates, expected, candidates.contains(fileName));
+	}
+}
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2000, 2011 IBM Corporation and others.
+ * Copyright (c) 2000, 2014 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -35,6 +35,7 @@ import org.eclipse.jdt.core.dom.SimpleName;
 import org.eclipse.jdt.core.dom.VariableDeclarationFragment;
 
 import org.eclipse.jdt.internal.corext.dom.HierarchicalASTVisitor;
+import org.eclipse.jdt.internal.corext.refactoring.typeconstraints.types.HierarchyType;
 import org.eclipse.jdt.internal.corext.refactoring.typeconstraints.types.TType;
 import org.eclipse.jdt.internal.corext.refactoring.typeconstraints.types.TypeEnvironment;
 
@@ -252,6 +253,7 @@ public class TypeEnvironmentTests extends AbstractCUTestCase {
 				checkCanAssignTo(bindings[o], bindings[i], types[o], types[i]);
 			}
 		}
+		checkSubTypes(bindings);
 		TypeEnvironment secondEnvironment= new TypeEnvironment();
 		for (int i= 0; i < bindings.length; i++) {
 			assertTrue("Equal to second environment", types[i].equals(secondEnvironment.create(bindings[i])));
@@ -271,6 +273,43 @@ public class TypeEnvironmentTests extends AbstractCUTestCase {
 			"): ", coreResult, uiResult);
 	}
 
+	/*
+	 * Within one environment, isSubType answers from the supertype closure. For a type of another
+	 * environment, it walks the hierarchy and compares with isTypeEquivalentTo. Both must agree,
+	 * for the given types as well as for their generic type declarations and raw erasures.
+	 */
+	private void checkSubTypes(ITypeBinding[] bindings) {
+		List hierarchyBindings= new ArrayList();
+		for (int i= 0; i < bindings.length; i++) {
+			ITypeBinding binding= bindings[i];
+			hierarchyBindings.add(binding);
+			hierarchyBindings.add(binding.getTypeDeclaration());
+			hierarchyBindings.add(binding.getErasure());
+		}
+		TypeEnvironment environment= new TypeEnvironment();
+		TypeEnvironment otherEnvironment= new TypeEnvironment();
+		List types= new ArrayList();
+		List otherTypes= new ArrayList();
+		for (Iterator iter= hierarchyBindings.iterator(); iter.hasNext();) {
+			ITypeBinding binding= (ITypeBinding)iter.next();
+			TType type= environment.create(binding);
+			if (type instanceof HierarchyType) {
+				types.add(type);
+				otherTypes.add(otherEnvironment.create(binding));
+			}
+		}
+		for (int o= 0; o < types.size(); o++) {
+			HierarchyType sub= (HierarchyType)types.get(o);
+			for (int i= 0; i < types.size(); i++) {
+				HierarchyType sup= (HierarchyType)types.get(i);
+				HierarchyType otherSup= (HierarchyType)otherTypes.get(i);
+				assertEquals("Different subtype rule(" +
+					sub.getPrettySignature() + " <: " + sup.getPrettySignature() +
+					"): ", sub.isSubType(otherSup), sub.isSubType(sup));
+			}
+		}
+	}
+
 	private void testAssignment(ITypeBinding[] bindings) {
 		TType[] types= new TType[bindings.length];
 		TypeEnvironment environment= new TypeEnvironment();
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2007, 2013 IBM Corporation and others.
+ * Copyright (c) 2007, 2014 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -22,6 +22,9 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
 import java.util.StringTokenizer;
 
 import junit.framework.TestCase;
@@ -51,6 +54,7 @@ import org.eclipse.jdt.core.IPackageFragmentRoot;
 import org.eclipse.jdt.core.IType;
 
 import org.eclipse.jdt.internal.junit.model.JUnitModel;
+import org.eclipse.jdt.internal.junit.model.TestElement;
 import org.eclipse.jdt.internal.junit.model.TestRunSession;
 import org.eclipse.jdt.internal.junit.model.TestSuiteElement;
 
@@ -86,13 +90,16 @@ public class AbstractTestRunSessionSerializationTests extends TestCase {
 			JUnitCore.removeTestRunListener(testRunListener);
 		}
 
-		ByteArrayOutputStream out= new ByteArrayOutputStream();
-		JUnitModel.exportTestRunSession(result.fTestRunSession, out);
-
-		result.fSerialized= out.toString("UTF-8");
+		result.fSerialized= exportToXML(result.fTestRunSession);
 		return result;
 	}
 
+	private static String exportToXML(TestRunSession session) throws Exception {
+		ByteArrayOutputStream out= new ByteArrayOutputStream();
+		JUnitModel.exportTestRunSession(session, out);
+		return out.toString("UTF-8");
+	}
+
 	private void runExportImport(IJavaElement test, String expectedXML) throws Exception {
 		SerializationResult serializationResult= launchTest(test);
 		assertEqualXML(expectedXML, serializationResult.fSerialized);
@@ -113,6 +120,53 @@ public class AbstractTestRunSessionSerializationTests extends TestCase {
 					e.printStackTrace();
 				}
 		}
+
+		runSwapOutSwapIn(serializationResult.fTestRunSession, serializationResult.fSerialized);
+		runJournalExportImport(serializationResult.fTestRunSession, serializationResult.fSerialized);
+	}
+
+	private void runSwapOutSwapIn(TestRunSession session, String serialized) throws Exception {
+		HashMap testNames= new HashMap();
+		collectTestNames(session.getTestRoot(), testNames);
+
+		session.swapOut();
+		session.swapIn();
+
+		// the test elements are looked up before the tree is read
+		for (Iterator iter= testNames.entrySet().iterator(); iter.hasNext();) {
+			Map.Entry entry= (Map.Entry) iter.next();
+			TestElement testElement= session.getTestElement((String) entry.getKey());
+			assertNotNull((String) entry.getKey(), testElement);
+			assertEquals(entry.getValue(), testElement.getTestName());
+		}
+		assertEqualXML(serialized, exportToXML(session));
+
+		session.swapOut();
+		session.swapIn();
+		assertEqualXML(serialized, exportToXML(session));
+	}
+
+	private void collectTestNames(TestSuiteElement suite, Map testNames) {
+		ITestElement[] children= suite.getChildren();
+		for (int i= 0; i < children.length; i++) {
+			TestElement child= (TestElement) children[i];
+			testNames.put(child.getId(), child.getTestName());
+			if (child instanceof TestSuiteElement)
+				collectTestNames((TestSuiteElement) child, testNames);
+		}
+	}
+
+	private void runJournalExportImport(TestRunSession session, String serialized) throws Exception {
+		IFile journalFile= JUnitWorkspaceTestSetup.getJavaProject().getProject().getFile("testresult.journal");
+		File file= journalFile.getLocation().toFile();
+		try {
+			JUnitModel.exportTestRunSession(session, file);
+			TestRunSession imported= JUnitModel.importTestRunSession(file);
+			assertEqualSessions(session, imported);
+			assertEqualXML(serialized, exportToXML(imported));
+		} finally {
+			file.delete();
+		}
 	}
 
 	private void assertEqualXML(String expected, String actual) {
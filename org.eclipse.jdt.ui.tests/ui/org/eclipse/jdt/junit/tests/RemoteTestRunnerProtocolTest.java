@@ -0,0 +1,258 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.jdt.junit.tests;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.eclipse.jdt.internal.junit.model.ITestRunListener2;
+import org.eclipse.jdt.internal.junit.model.RemoteTestRunnerClient;
+import org.eclipse.jdt.internal.junit.runner.BinaryMessageWriter;
+import org.eclipse.jdt.internal.junit.runner.MessageIds;
+import org.eclipse.jdt.internal.junit.runner.MessageSender;
+
+/**
+ * Sends the same messages to a {@link RemoteTestRunnerClient} with the text and the binary
+ * protocol, and compares the events the client reports.
+ */
+public class RemoteTestRunnerProtocolTest extends TestCase {
+
+	private static final String DELIMITER= "\n"; //$NON-NLS-1$
+
+	private static final long TIMEOUT= 10000;
+
+	private static class RecordingListener implements ITestRunListener2 {
+		private final List<String> fEvents= new ArrayList<String>();
+		private boolean fDone;
+
+		private synchronized void record(String event) {
+			fEvents.add(event);
+		}
+
+		private synchronized void done(String event) {
+			fEvents.add(event);
+			fDone= true;
+			notifyAll();
+		}
+
+		synchronized List<String> awaitEvents() throws InterruptedException {
+			long end= System.currentTimeMillis() + TIMEOUT;
+			while (!fDone && System.currentTimeMillis() < end)
+				wait(100);
+			assertTrue("test run not ended: " + fEvents, fDone); //$NON-NLS-1$
+			return new ArrayList<String>(fEvents);
+		}
+
+		public void testRunStarted(int testCount) {
+			record("runStarted " + testCount); //$NON-NLS-1$
+		}
+
+		public void testRunEnded(long elapsedTime) {
+			done("runEnded " + elapsedTime); //$NON-NLS-1$
+		}
+
+		public void testRunStopped(long elapsedTime) {
+			done("runStopped " + elapsedTime); //$NON-NLS-1$
+		}
+
+		public void testStarted(String testId, String testName) {
+			record("started " + testId + " " + testName); //$NON-NLS-1$ //$NON-NLS-2$
+		}
+
+		public void testEnded(String testId, String testName) {
+			record("ended " + testId + " " + testName); //$NON-NLS-1$ //$NON-NLS-2$
+		}
+
+		public void testRunTerminated() {
+			done("terminated"); //$NON-NLS-1$
+		}
+
+		public void testTreeEntry(String description) {
+			record("tree " + description); //$NON-NLS-1$
+		}
+
+		public void testFailed(int status, String testId, String testName, String trace, String expected, String actual) {
+			record("failed " + status + " " + testId + " " + testName + " [" + trace + "] [" + expected + "] [" + actual + "]"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$ //$NON-NLS-6$ //$NON-NLS-7$
+		}
+
+		public void testReran(String testId, String testClass, String testName, int status, String trace, String expected, String actual) {
+			record("reran " + testId + " " + testClass + " " + testName + " " + status + " [" + trace + "]"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$ //$NON-NLS-6$
+		}
+	}
+
+	/**
+	 * Sends messages with the text protocol, like RemoteTestRunner does.
+	 */
+	private static class TextMessageWriter implements MessageSender {
+		private final Writer fWriter;
+
+		TextMessageWriter(Socket socket) throws IOException {
+			fWriter= new OutputStreamWriter(new BufferedOutputStream(socket.getOutputStream()), "UTF-8"); //$NON-NLS-1$
+		}
+
+		public void sendMessage(String msg) {
+			try {
+				fWriter.write(msg);
+				fWriter.write(DELIMITER);
+			} catch (IOException e) {
+				fail(e.getMessage());
+			}
+		}
+
+		public void flush() {
+			try {
+				fWriter.flush();
+			} catch (IOException e) {
+				fail(e.getMessage());
+			}
+		}
+
+		void close() throws IOException {
+			fWriter.close();
+		}
+	}
+
+	public void testSimpleRun() throws Exception {
+		assertSameEvents(new String[] {
+				MessageIds.TEST_RUN_START + "2 v2", //$NON-NLS-1$
+				MessageIds.TEST_TREE + "1,p.T,true,2,false,-1,p.T,,", //$NON-NLS-1$
+				MessageIds.TEST_TREE + "2,testA(p.T),false,1,false,1,testA(p.T),,", //$NON-NLS-1$
+				MessageIds.TEST_TREE + "3,testB(p.T),false,1,false,1,testB(p.T),,", //$NON-NLS-1$
+				MessageIds.TEST_START + "2,testA(p.T)", //$NON-NLS-1$
+				MessageIds.TEST_END + "2,testA(p.T)", //$NON-NLS-1$
+				MessageIds.TEST_START + "3,testB(p.T)", //$NON-NLS-1$
+				MessageIds.TEST_END + "3,testB(p.T)", //$NON-NLS-1$
+				MessageIds.TEST_RUN_END + "42" //$NON-NLS-1$
+		});
+	}
+
+	public void testFailures() throws Exception {
+		assertSameEvents(new String[] {
+				MessageIds.TEST_RUN_START + "2 v2", //$NON-NLS-1$
+				MessageIds.TEST_START + "2,testA(p.T)", //$NON-NLS-1$
+				MessageIds.TEST_FAILED + "2,testA(p.T)", //$NON-NLS-1$
+				MessageIds.EXPECTED_START,
+				"line 1" + DELIMITER + "line 2", //$NON-NLS-1$ //$NON-NLS-2$
+				MessageIds.EXPECTED_END,
+				MessageIds.ACTUAL_START,
+				"line 1" + DELIMITER + "line 3", //$NON-NLS-1$ //$NON-NLS-2$
+				MessageIds.ACTUAL_END,
+				MessageIds.TRACE_START,
+				"junit.framework.ComparisonFailure: \u00e4\u20ac" + DELIMITER + "\tat p.T.testA(T.java:10)", //$NON-NLS-1$ //$NON-NLS-2$
+				MessageIds.TRACE_END,
+				MessageIds.TEST_END + "2,testA(p.T)", //$NON-NLS-1$
+				MessageIds.TEST_START + "3,testB(p.T)", //$NON-NLS-1$
+				MessageIds.TEST_ERROR + "3,testB(p.T)", //$NON-NLS-1$
+				MessageIds.TRACE_START,
+				"java.lang.NullPointerException", //$NON-NLS-1$
+				MessageIds.TRACE_END,
+				MessageIds.TEST_END + "3,testB(p.T)", //$NON-NLS-1$
+				MessageIds.TEST_RUN_END + "42" //$NON-NLS-1$
+		});
+	}
+
+	public void testUnusualTestIds() throws Exception {
+		assertSameEvents(new String[] {
+				MessageIds.TEST_RUN_START + "3 v2", //$NON-NLS-1$
+				// ids that are not sent as numbers
+				MessageIds.TEST_START + "007,testA(p.T)", //$NON-NLS-1$
+				MessageIds.TEST_END + "007,testA(p.T)", //$NON-NLS-1$
+				MessageIds.TEST_START + "12345678,testB(p.T)", //$NON-NLS-1$
+				MessageIds.TEST_END + "12345678,testB(p.T)", //$NON-NLS-1$
+				// a large id, and an id whose name changes
+				MessageIds.TEST_START + "5000,testC(p.T)", //$NON-NLS-1$
+				MessageIds.TEST_END + "5000,testC(p.T)", //$NON-NLS-1$
+				MessageIds.TEST_START + "5000,testD(p.T)", //$NON-NLS-1$
+				MessageIds.TEST_END + "5000,testD(p.T)", //$NON-NLS-1$
+				MessageIds.TEST_RUN_END + "42" //$NON-NLS-1$
+		});
+	}
+
+	public void testManyTests() throws Exception {
+		// more messages than fit into one frame
+		List<String> messages= new ArrayList<String>();
+		messages.add(MessageIds.TEST_RUN_START + "5000 v2"); //$NON-NLS-1$
+		for (int i= 1; i <= 5000; i++) {
+			messages.add(MessageIds.TEST_START + i + ",test" + i + "(p.T)"); //$NON-NLS-1$ //$NON-NLS-2$
+			messages.add(MessageIds.TEST_END + i + ",test" + i + "(p.T)"); //$NON-NLS-1$ //$NON-NLS-2$
+		}
+		messages.add(MessageIds.TEST_RUN_END + "42"); //$NON-NLS-1$
+		assertSameEvents(messages.toArray(new String[messages.size()]));
+	}
+
+	private static void assertSameEvents(String[] messages) throws Exception {
+		List<String> textEvents= run(messages, false);
+		List<String> binaryEvents= run(messages, true);
+		assertEquals(textEvents, binaryEvents);
+	}
+
+	private static List<String> run(String[] messages, boolean binary) throws Exception {
+		int port= findFreePort();
+		RecordingListener listener= new RecordingListener();
+		RemoteTestRunnerClient client= new RemoteTestRunnerClient();
+		client.startListening(new ITestRunListener2[] { listener }, port);
+
+		Socket socket= connect(port);
+		try {
+			if (binary) {
+				BinaryMessageWriter writer= new BinaryMessageWriter(new BufferedOutputStream(socket.getOutputStream()), DELIMITER);
+				send(writer, messages);
+				writer.close();
+			} else {
+				TextMessageWriter writer= new TextMessageWriter(socket);
+				send(writer, messages);
+				writer.close();
+			}
+			return listener.awaitEvents();
+		} finally {
+			socket.close();
+		}
+	}
+
+	private static void send(MessageSender sender, String[] messages) {
+		for (int i= 0; i < messages.length; i++) {
+			sender.sendMessage(messages[i]);
+			if (i % 7 == 0)
+				sender.flush();
+		}
+		sender.flush();
+	}
+
+	private static int findFreePort() throws IOException {
+		ServerSocket socket= new ServerSocket(0);
+		try {
+			return socket.getLocalPort();
+		} finally {
+			socket.close();
+		}
+	}
+
+	private static Socket connect(int port) throws Exception {
+		long end= System.currentTimeMillis() + TIMEOUT;
+		while (true) {
+			try {
+				return new Socket("localhost", port); //$NON-NLS-1$
+			} catch (IOException e) {
+				if (System.currentTimeMillis() > end)
+					throw e;
+				Thread.sleep(50);
+			}
+		}
+	}
+}
@@ -0,0 +1,169 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.jdt.ui.tests.core;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import org.eclipse.jdt.testplugin.JavaProjectHelper;
+
+import org.eclipse.jdt.core.ICompilationUnit;
+import org.eclipse.jdt.core.IJavaProject;
+import org.eclipse.jdt.core.IPackageFragment;
+import org.eclipse.jdt.core.IPackageFragmentRoot;
+import org.eclipse.jdt.core.dom.ASTParser;
+import org.eclipse.jdt.core.dom.ASTRequestor;
+import org.eclipse.jdt.core.dom.CompilationUnit;
+
+import org.eclipse.jdt.internal.corext.dom.ASTBatchParser;
+
+
+/**
+ * Tests the adaptive batch size of the {@link ASTBatchParser}.
+ *
+ * @since 3.10
+ */
+public class ASTBatchParserTest extends TestCase {
+
+	private static final Class<ASTBatchParserTest> THIS= ASTBatchParserTest.class;
+
+	private static final long BYTES_PER_UNIT= 1000;
+
+	/**
+	 * Memory budget with a fixed heap space left and a fixed memory retained per compilation
+	 * unit, so that the batch size is <code>headroom / 2 / BYTES_PER_UNIT</code>.
+	 */
+	private static class FixedBudget extends ASTBatchParser.MemoryBudget {
+		private volatile long fHeadroom;
+
+		FixedBudget(long headroom) {
+			fHeadroom= headroom;
+			addSample(BYTES_PER_UNIT, 1);
+		}
+
+		void setHeadroom(long headroom) {
+			fHeadroom= headroom;
+		}
+
+		@Override
+		protected long getHeadroom(long liveMemory) {
+			return fHeadroom;
+		}
+
+		@Override
+		public synchronized void addSample(long retained, int unitCount) {
+			super.addSample(BYTES_PER_UNIT * unitCount, unitCount);
+		}
+	}
+
+	private IJavaProject fJProject1;
+	private IPackageFragmentRoot fSourceFolder;
+
+	public ASTBatchParserTest(String name) {
+		super(name);
+	}
+
+	public static Test suite() {
+		return setUpTest(new TestSuite(THIS));
+	}
+
+	public static Test setUpTest(Test test) {
+		return new ProjectTestSetup(test);
+	}
+
+	@Override
+	protected void setUp() throws Exception {
+		fJProject1= JavaProjectHelper.createJavaProject("TestProject1", "bin");
+		assertNotNull("jre is null", JavaProjectHelper.addRTJar(fJProject1));
+		fSourceFolder= JavaProjectHelper.addSourceContainer(fJProject1, "src");
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		JavaProjectHelper.delete(fJProject1);
+	}
+
+	public void testBatchSize() throws Exception {
+		assertEquals(20, new ASTBatchParser(new FixedBudget(40000)).getBatchSize());
+		assertEquals(200, new ASTBatchParser(new FixedBudget(400000)).getBatchSize());
+
+		// bounded
+		assertEquals(10, new ASTBatchParser(new FixedBudget(1000)).getBatchSize());
+		assertEquals(2000, new ASTBatchParser(new FixedBudget(Long.MAX_VALUE / 4)).getBatchSize());
+
+		// concurrent batches split the heap space left
+		FixedBudget budget= new FixedBudget(80000);
+		assertEquals(40, new ASTBatchParser(budget).getBatchSize());
+		budget.batchStarted();
+		budget.batchStarted();
+		try {
+			assertEquals(20, new ASTBatchParser(budget).getBatchSize());
+			assertEquals(2, budget.getConcurrentBatchCount(0, 20, 8));
+			assertEquals(1, budget.getConcurrentBatchCount(0, 200, 8));
+		} finally {
+			budget.batchDone();
+			budget.batchDone();
+		}
+		assertEquals(4, budget.getConcurrentBatchCount(0, 10, 4));
+	}
+
+	public void testBatchSizeFollowsMemoryLimit() throws Exception {
+		IPackageFragment pack1= fSourceFolder.createPackageFragment("p", false, null);
+		final ICompilationUnit[] units= new ICompilationUnit[100];
+		for (int i= 0; i < units.length; i++)
+			units[i]= pack1.createCompilationUnit("A" + i + ".java", "package p;\npublic class A" + i + " {\n}\n", false, null);
+
+		final FixedBudget budget= new FixedBudget(40000);
+		final List<Integer> batchStarts= new ArrayList<Integer>();
+		final Map<ICompilationUnit, Integer> accepted= new HashMap<ICompilationUnit, Integer>();
+		ASTBatchParser parser= new ASTBatchParser(budget) {
+			@Override
+			protected ASTParser createParser(IJavaProject project) {
+				batchStarts.add(new Integer(accepted.size()));
+				return super.createParser(project);
+			}
+		};
+		assertEquals(20, parser.getBatchSize());
+
+		parser.createASTs(units, new String[0], new ASTRequestor() {
+			@Override
+			public void acceptAST(ICompilationUnit source, CompilationUnit ast) {
+				Integer count= accepted.get(source);
+				accepted.put(source, new Integer(count == null ? 1 : count.intValue() + 1));
+				if (accepted.size() == 40) {
+					// shrink the batches after the second one
+					budget.setHeadroom(20000);
+				} else if (accepted.size() == 60) {
+					// grow the batches after the fourth one
+					budget.setHeadroom(100000);
+				}
+			}
+		}, null);
+
+		assertEquals(50, parser.getBatchSize());
+
+		// batches of 20, 20, 10, 10 and the remaining 40 units
+		Integer[] expected= { new Integer(0), new Integer(20), new Integer(40), new Integer(50), new Integer(60) };
+		assertEquals(expected.length, batchStarts.size());
+		for (int i= 0; i < expected.length; i++)
+			assertEquals(expected[i], batchStarts.get(i));
+
+		assertEquals(units.length, accepted.size());
+		for (int i= 0; i < units.length; i++)
+			assertEquals(units[i].getElementName(), new Integer(1), accepted.get(units[i]));
+	}
+}
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2007, 2011 IBM Corporation and others.
+ * Copyright (c) 2007, 2014 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -32,12 +32,17 @@ import org.eclipse.jdt.core.ICompilationUnit;
 import org.eclipse.jdt.core.IJavaProject;
 import org.eclipse.jdt.core.IPackageFragment;
 import org.eclipse.jdt.core.IPackageFragmentRoot;
+import org.eclipse.jdt.core.dom.AST;
+import org.eclipse.jdt.core.dom.ASTParser;
 import org.eclipse.jdt.core.dom.CompilationUnit;
 import org.eclipse.jdt.core.refactoring.CompilationUnitChange;
 
 import org.eclipse.jdt.ui.JavaUI;
 import org.eclipse.jdt.ui.SharedASTProvider;
 
+import org.eclipse.jdt.internal.ui.javaeditor.ASTCache;
+import org.eclipse.jdt.internal.ui.javaeditor.ASTProvider;
+
 
 /**
  * Tests the AST provider.
@@ -138,6 +143,127 @@ public class ASTProviderTest extends CoreTests {
 		cu.getBuffer().save(null, true);
 	}
 
+	private ICompilationUnit createCompilationUnit(String name) throws Exception {
+		IPackageFragment pack1= fSourceFolder.createPackageFragment("test1", false, null);
+		StringBuffer buf= new StringBuffer();
+		buf.append("package test1;\n");
+		buf.append("public class " + name + " {\n");
+		buf.append("}\n");
+		ICompilationUnit cu= pack1.createCompilationUnit(name + ".java", buf.toString(), false, null);
+		cu.open(null);
+		return cu;
+	}
+
+	private static CompilationUnit createAST(ICompilationUnit cu) {
+		ASTParser parser= ASTParser.newParser(ASTProvider.SHARED_AST_LEVEL);
+		parser.setSource(cu);
+		return (CompilationUnit) parser.createAST(null);
+	}
+
+	/*
+	 * An AST of the given source length, the cache weighs ASTs by their length.
+	 */
+	private static CompilationUnit createAST(int length) {
+		CompilationUnit ast= AST.newAST(ASTProvider.SHARED_AST_LEVEL).newCompilationUnit();
+		ast.setSourceRange(0, length);
+		return ast;
+	}
+
+	public void testASTCacheHit() throws Exception {
+		ICompilationUnit cu= createCompilationUnit("E1");
+		CompilationUnit ast= createAST(cu);
+		ASTCache cache= new ASTCache();
+		assertNull(cache.get(cu));
+
+		cache.put(cu, ast, ASTCache.getModificationStamp(cu));
+		assertSame(ast, cache.get(cu));
+		assertSame(ast, cache.get(cu));
+		assertTrue(cache.contains(ast));
+
+		assertSame(ast, cache.remove(cu));
+		assertNull(cache.get(cu));
+		assertFalse(cache.contains(ast));
+	}
+
+	public void testASTCacheRejectsStaleStamp() throws Exception {
+		ICompilationUnit cu= createCompilationUnit("E1");
+		CompilationUnit ast= createAST(cu);
+		ASTCache cache= new ASTCache();
+
+		// created from older contents
+		cache.put(cu, ast, ASTCache.getModificationStamp(cu) - 1);
+		assertNull(cache.get(cu));
+		assertFalse(cache.contains(ast));
+
+		// contents modified after the AST has been created
+		cache.put(cu, ast, ASTCache.getModificationStamp(cu));
+		assertSame(ast, cache.get(cu));
+		cu.getBuffer().append("// modified\n");
+		cu.save(null, true);
+		assertNull(cache.get(cu));
+		assertFalse(cache.contains(ast));
+		assertNull(cache.get(cu));
+	}
+
+	public void testASTCacheEvictsLeastRecentlyUsed() throws Exception {
+		ICompilationUnit[] cus= new ICompilationUnit[ASTCache.MAX_ENTRIES + 1];
+		CompilationUnit[] asts= new CompilationUnit[cus.length];
+		ASTCache cache= new ASTCache();
+		for (int i= 0; i < ASTCache.MAX_ENTRIES; i++) {
+			cus[i]= createCompilationUnit("E" + i);
+			asts[i]= createAST(cus[i]);
+			cache.put(cus[i], asts[i], ASTCache.getModificationStamp(cus[i]));
+		}
+		for (int i= 0; i < ASTCache.MAX_ENTRIES; i++)
+			assertSame(asts[i], cache.get(cus[i]));
+
+		// the first one is used again, so the second one is the least recently used
+		assertSame(asts[0], cache.get(cus[0]));
+		int last= ASTCache.MAX_ENTRIES;
+		cus[last]= createCompilationUnit("E" + last);
+		asts[last]= createAST(cus[last]);
+		cache.put(cus[last], asts[last], ASTCache.getModificationStamp(cus[last]));
+
+		assertNull(cache.get(cus[1]));
+		assertFalse(cache.contains(asts[1]));
+		assertSame(asts[0], cache.get(cus[0]));
+		for (int i= 2; i <= last; i++)
+			assertSame(asts[i], cache.get(cus[i]));
+	}
+
+	public void testASTCacheEvictsByWeight() throws Exception {
+		ICompilationUnit[] cus= new ICompilationUnit[3];
+		CompilationUnit[] asts= new CompilationUnit[cus.length];
+		ASTCache cache= new ASTCache();
+		for (int i= 0; i < cus.length; i++) {
+			cus[i]= createCompilationUnit("E" + i);
+			asts[i]= createAST(ASTCache.MAX_WEIGHT / 2);
+		}
+		cache.put(cus[0], asts[0], ASTCache.getModificationStamp(cus[0]));
+		cache.put(cus[1], asts[1], ASTCache.getModificationStamp(cus[1]));
+		assertSame(asts[0], cache.get(cus[0]));
+		assertSame(asts[1], cache.get(cus[1]));
+
+		// fewer entries than allowed, but too large in total
+		cache.put(cus[2], asts[2], ASTCache.getModificationStamp(cus[2]));
+		assertNull(cache.get(cus[0]));
+		assertSame(asts[1], cache.get(cus[1]));
+		assertSame(asts[2], cache.get(cus[2]));
+
+		// removing entries frees their weight
+		cache.remove(cus[1]);
+		cache.put(cus[0], asts[0], ASTCache.getModificationStamp(cus[0]));
+		assertSame(asts[0], cache.get(cus[0]));
+		assertSame(asts[2], cache.get(cus[2]));
+
+		// an AST too large on its own is not cached, and replaces the previous one
+		CompilationUnit large= createAST(ASTCache.MAX_WEIGHT + 1);
+		cache.put(cus[2], large, ASTCache.getModificationStamp(cus[2]));
+		assertNull(cache.get(cus[2]));
+		assertFalse(cache.contains(large));
+		assertSame(asts[0], cache.get(cus[0]));
+	}
+
 	private static String getNormalizeNumber(int number) {
 		if (number < 10) {
 			return "000" + number;
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2000, 2011 IBM Corporation and others.
+ * Copyright (c) 2000, 2014 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -20,10 +20,13 @@ import junit.framework.TestSuite;
 
 import org.eclipse.core.runtime.NullProgressMonitor;
 
+import org.eclipse.jdt.core.IBuffer;
+import org.eclipse.jdt.core.ICompilationUnit;
 import org.eclipse.jdt.core.IInitializer;
 import org.eclipse.jdt.core.IMember;
 import org.eclipse.jdt.core.IMethod;
 import org.eclipse.jdt.core.IType;
+import org.eclipse.jdt.core.JavaModelException;
 
 import org.eclipse.jdt.internal.corext.callhierarchy.CallHierarchy;
 import org.eclipse.jdt.internal.corext.callhierarchy.MethodWrapper;
@@ -450,6 +453,70 @@ public class CallHierarchyTest extends TestCase {
         assertEquals("Wrong line number", 12, recursiveMethod2Wrapper.getMethodCall().getFirstCallLocation().getLineNumber());
     }
 
+    public void testCachedCallersAfterReconcile() throws Exception {
+        helper.createSimpleClasses();
+
+        IMethod method4= helper.getMethod4();
+        helper.assertCalls(new ArrayList(), getSingleCallerRoot(method4).getCalls(new NullProgressMonitor()));
+        // unchanged: served from the cache
+        helper.assertCalls(new ArrayList(), getSingleCallerRoot(method4).getCalls(new NullProgressMonitor()));
+
+        ICompilationUnit cu= helper.getType2().getCompilationUnit();
+        cu.becomeWorkingCopy(null);
+        try {
+            addMethod5(cu);
+            cu.reconcile(ICompilationUnit.NO_AST, false, null, null);
+
+            Collection expectedCallers= new ArrayList();
+            expectedCallers.add(helper.getType2().getMethod("method5", EMPTY));
+            helper.assertCalls(expectedCallers, getSingleCallerRoot(method4).getCalls(new NullProgressMonitor()));
+        } finally {
+            cu.discardWorkingCopy();
+        }
+    }
+
+    public void testCachedCallersAfterSave() throws Exception {
+        helper.createSimpleClasses();
+
+        IMethod method4= helper.getMethod4();
+        helper.assertCalls(new ArrayList(), getSingleCallerRoot(method4).getCalls(new NullProgressMonitor()));
+
+        ICompilationUnit cu= helper.getType2().getCompilationUnit();
+        cu.becomeWorkingCopy(null);
+        try {
+            addMethod5(cu);
+            cu.commitWorkingCopy(true, null);
+        } finally {
+            cu.discardWorkingCopy();
+        }
+
+        Collection expectedCallers= new ArrayList();
+        expectedCallers.add(helper.getType2().getMethod("method5", EMPTY));
+        helper.assertCalls(expectedCallers, getSingleCallerRoot(method4).getCalls(new NullProgressMonitor()));
+    }
+
+    public void testCachedCallersAfterRefresh() throws Exception {
+        helper.createSimpleClasses();
+
+        MethodWrapper wrapper= getSingleCallerRoot(helper.getMethod1());
+        MethodWrapper[] calls= wrapper.getCalls(new NullProgressMonitor());
+        MethodWrapper method3Wrapper= helper.findMethodWrapper(helper.getMethod3(), calls);
+        Collection expectedCallers= new ArrayList();
+        expectedCallers.add(helper.getMethod4());
+        helper.assertCalls(expectedCallers, method3Wrapper.getCalls(new NullProgressMonitor()));
+
+        wrapper.removeFromCache();
+        calls= wrapper.getCalls(new NullProgressMonitor());
+        method3Wrapper= helper.findMethodWrapper(helper.getMethod3(), calls);
+        helper.assertCalls(expectedCallers, method3Wrapper.getCalls(new NullProgressMonitor()));
+    }
+
+    private static void addMethod5(ICompilationUnit cu) throws JavaModelException {
+        IBuffer buffer= cu.getBuffer();
+        int end= buffer.getContents().lastIndexOf('}');
+        buffer.replace(end, 0, " public void method5() { method4(); }\n");
+    }
+
     private void assertRecursive(MethodWrapper[] callResults, boolean shouldBeRecursive) {
         for (int i= 0; i < callResults.length; i++) {
             assertEquals(
@@ -0,0 +1,197 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.jdt.ui.tests.core;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import org.eclipse.swt.graphics.Image;
+import org.eclipse.swt.graphics.ImageData;
+import org.eclipse.swt.graphics.PaletteData;
+import org.eclipse.swt.graphics.RGB;
+
+import org.eclipse.jface.resource.ImageDescriptor;
+
+import org.eclipse.jdt.internal.ui.viewsupport.ImageDescriptorRegistry;
+
+
+public class ImageDescriptorRegistryTest extends TestCase {
+
+	private static final Class<ImageDescriptorRegistryTest> THIS= ImageDescriptorRegistryTest.class;
+
+	/**
+	 * Image descriptor which is only equal to itself, so that every instance gets its own image.
+	 */
+	private static class TestImageDescriptor extends ImageDescriptor {
+		@Override
+		public ImageData getImageData() {
+			PaletteData palette= new PaletteData(new RGB[] { new RGB(0, 0, 0), new RGB(255, 255, 255) });
+			return new ImageData(1, 1, 1, palette);
+		}
+	}
+
+	private ImageDescriptorRegistry fRegistry;
+
+	public ImageDescriptorRegistryTest(String name) {
+		super(name);
+	}
+
+	public static Test suite() {
+		return new TestSuite(THIS);
+	}
+
+	@Override
+	protected void setUp() throws Exception {
+		fRegistry= new ImageDescriptorRegistry();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		fRegistry.dispose();
+	}
+
+	private static ImageDescriptor[] createDescriptors(int count) {
+		ImageDescriptor[] descriptors= new ImageDescriptor[count];
+		for (int i= 0; i < count; i++)
+			descriptors[i]= new TestImageDescriptor();
+		return descriptors;
+	}
+
+	/**
+	 * Acquires and releases new images until the released images of the registry have all been
+	 * replaced.
+	 */
+	private void fillUnreferenced() {
+		ImageDescriptor[] descriptors= createDescriptors(ImageDescriptorRegistry.MAX_UNREFERENCED);
+		for (int i= 0; i < descriptors.length; i++) {
+			assertNotNull(fRegistry.acquire(descriptors[i]));
+			fRegistry.release(descriptors[i]);
+		}
+	}
+
+	public void testReferenceCounting() throws Exception {
+		ImageDescriptor descriptor= new TestImageDescriptor();
+		long misses= fRegistry.getMissCount();
+		long hits= fRegistry.getHitCount();
+
+		Image image= fRegistry.acquire(descriptor);
+		assertNotNull(image);
+		assertSame(image, fRegistry.acquire(descriptor));
+		assertEquals(misses + 1, fRegistry.getMissCount());
+		assertEquals(hits + 1, fRegistry.getHitCount());
+		assertEquals(1, fRegistry.getImageCount());
+
+		// still referenced once
+		fRegistry.release(descriptor);
+		fillUnreferenced();
+		assertFalse(image.isDisposed());
+		assertSame(image, fRegistry.acquire(descriptor));
+
+		// kept until all references are released and it drops out of the released images
+		fRegistry.release(descriptor);
+		fRegistry.release(descriptor);
+		assertFalse(image.isDisposed());
+		fillUnreferenced();
+		assertTrue(image.isDisposed());
+	}
+
+	public void testReleasedImageReused() throws Exception {
+		ImageDescriptor descriptor= new TestImageDescriptor();
+		Image image= fRegistry.acquire(descriptor);
+		fRegistry.release(descriptor);
+		assertFalse(image.isDisposed());
+		assertEquals(1, fRegistry.getImageCount());
+
+		long misses= fRegistry.getMissCount();
+		long hits= fRegistry.getHitCount();
+		assertSame(image, fRegistry.acquire(descriptor));
+		assertEquals(misses, fRegistry.getMissCount());
+		assertEquals(hits + 1, fRegistry.getHitCount());
+
+		// no longer among the released images once acquired again
+		fillUnreferenced();
+		assertFalse(image.isDisposed());
+		fRegistry.release(descriptor);
+	}
+
+	public void testLeastRecentlyReleasedEvicted() throws Exception {
+		int max= ImageDescriptorRegistry.MAX_UNREFERENCED;
+		ImageDescriptor[] descriptors= createDescriptors(max + 1);
+		Image[] images= new Image[descriptors.length];
+		for (int i= 0; i < descriptors.length; i++)
+			images[i]= fRegistry.acquire(descriptors[i]);
+		for (int i= 0; i < max; i++)
+			fRegistry.release(descriptors[i]);
+		for (int i= 0; i < images.length; i++)
+			assertFalse(images[i].isDisposed());
+
+		// the first image becomes the most recently released one
+		assertSame(images[0], fRegistry.acquire(descriptors[0]));
+		fRegistry.release(descriptors[0]);
+
+		fRegistry.release(descriptors[max]);
+		assertTrue(images[1].isDisposed());
+		assertEquals(max, fRegistry.getImageCount());
+		for (int i= 0; i < images.length; i++) {
+			if (i != 1)
+				assertFalse(images[i].isDisposed());
+		}
+
+		// an evicted image is created again
+		long misses= fRegistry.getMissCount();
+		Image image= fRegistry.acquire(descriptors[1]);
+		assertNotSame(images[1], image);
+		assertFalse(image.isDisposed());
+		assertEquals(misses + 1, fRegistry.getMissCount());
+		fRegistry.release(descriptors[1]);
+	}
+
+	public void testPinnedImageNotEvicted() throws Exception {
+		ImageDescriptor descriptor= new TestImageDescriptor();
+		Image image= fRegistry.get(descriptor);
+		assertSame(image, fRegistry.acquire(descriptor));
+		fRegistry.release(descriptor);
+		fillUnreferenced();
+		assertFalse(image.isDisposed());
+		assertSame(image, fRegistry.get(descriptor));
+	}
+
+	public void testDoubleRelease() throws Exception {
+		ImageDescriptor descriptor= new TestImageDescriptor();
+		Image image= fRegistry.acquire(descriptor);
+		fRegistry.release(descriptor);
+		// an unbalanced release is ignored
+		fRegistry.release(descriptor);
+		assertFalse(image.isDisposed());
+
+		// another client uses the image, it is not released by the extra release above
+		assertSame(image, fRegistry.acquire(descriptor));
+		fillUnreferenced();
+		assertFalse(image.isDisposed());
+		fRegistry.release(descriptor);
+	}
+
+	public void testDispose() throws Exception {
+		ImageDescriptor[] descriptors= createDescriptors(3);
+		Image pinned= fRegistry.get(descriptors[0]);
+		Image referenced= fRegistry.acquire(descriptors[1]);
+		Image released= fRegistry.acquire(descriptors[2]);
+		fRegistry.release(descriptors[2]);
+		assertEquals(3, fRegistry.getImageCount());
+
+		fRegistry.dispose();
+		assertTrue(pinned.isDisposed());
+		assertTrue(referenced.isDisposed());
+		assertTrue(released.isDisposed());
+		assertEquals(0, fRegistry.getImageCount());
+	}
+}
@@ -0,0 +1,193 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.jdt.ui.tests.core;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import org.eclipse.jdt.testplugin.JavaProjectHelper;
+
+import org.eclipse.core.runtime.NullProgressMonitor;
+import org.eclipse.core.runtime.jobs.IJobManager;
+import org.eclipse.core.runtime.jobs.Job;
+
+import org.eclipse.jdt.core.Flags;
+import org.eclipse.jdt.core.ICompilationUnit;
+import org.eclipse.jdt.core.IJavaProject;
+import org.eclipse.jdt.core.IPackageFragment;
+import org.eclipse.jdt.core.IPackageFragmentRoot;
+import org.eclipse.jdt.core.IType;
+import org.eclipse.jdt.core.JavaModelException;
+import org.eclipse.jdt.core.search.SearchEngine;
+import org.eclipse.jdt.core.search.TypeNameMatch;
+
+import org.eclipse.jdt.internal.corext.util.OpenTypeHistory;
+
+
+public class OpenTypeHistoryTest extends TestCase {
+
+	private static final Class<OpenTypeHistoryTest> THIS= OpenTypeHistoryTest.class;
+
+	private IJavaProject fJProject1;
+	private IPackageFragmentRoot fSourceFolder;
+
+	public OpenTypeHistoryTest(String name) {
+		super(name);
+	}
+
+	public static Test suite() {
+		return setUpTest(new TestSuite(THIS));
+	}
+
+	public static Test setUpTest(Test test) {
+		return new ProjectTestSetup(test);
+	}
+
+	@Override
+	protected void setUp() throws Exception {
+		fJProject1= JavaProjectHelper.createJavaProject("TestProject1", "bin");
+		assertNotNull("jre is null", JavaProjectHelper.addRTJar(fJProject1));
+		fSourceFolder= JavaProjectHelper.addSourceContainer(fJProject1, "src");
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		OpenTypeHistory history= OpenTypeHistory.getInstance();
+		TypeNameMatch[] typeInfos= history.getTypeInfos();
+		for (int i= 0; i < typeInfos.length; i++) {
+			if (fJProject1.equals(typeInfos[i].getType().getJavaProject()))
+				history.remove(typeInfos[i]);
+		}
+		JavaProjectHelper.delete(fJProject1);
+	}
+
+	private IType createType(String name, String source) throws JavaModelException {
+		IPackageFragment pack1= fSourceFolder.createPackageFragment("p", false, null);
+		ICompilationUnit cu= pack1.createCompilationUnit(name + ".java", "package p;\n" + source, true, null);
+		return cu.getType(name);
+	}
+
+	private static TypeNameMatch access(IType type) throws JavaModelException {
+		TypeNameMatch match= SearchEngine.createTypeNameMatch(type, type.getFlags());
+		OpenTypeHistory.getInstance().accessed(match);
+		return match;
+	}
+
+	private static TypeNameMatch findEntry(IType type) {
+		TypeNameMatch[] typeInfos= OpenTypeHistory.getInstance().getTypeInfos();
+		for (int i= 0; i < typeInfos.length; i++) {
+			if (typeInfos[i].getType().equals(type))
+				return typeInfos[i];
+		}
+		return null;
+	}
+
+	public void testRemovedTypeInvalidatesOwnEntry() throws Exception {
+		IType typeA= createType("A", "public class A {\n}\n");
+		IType typeB= createType("B", "public class B {\n}\n");
+		OpenTypeHistory history= OpenTypeHistory.getInstance();
+		TypeNameMatch matchA= access(typeA);
+		TypeNameMatch matchB= access(typeB);
+		history.checkConsistency(new NullProgressMonitor());
+		assertFalse(history.needConsistencyCheck(matchA));
+		assertFalse(history.needConsistencyCheck(matchB));
+
+		// keep the update job from validating the entries before they are looked at
+		IJobManager manager= Job.getJobManager();
+		manager.suspend();
+		try {
+			typeA.getCompilationUnit().delete(true, null);
+			assertTrue(history.needConsistencyCheck(matchA));
+			assertFalse(history.needConsistencyCheck(matchB));
+
+			history.checkConsistency(new NullProgressMonitor());
+		} finally {
+			manager.resume();
+		}
+		assertFalse(history.contains(matchA));
+		assertNull(findEntry(typeA));
+		assertTrue(history.contains(matchB));
+		assertFalse(history.needConsistencyCheck(matchB));
+	}
+
+	public void testChangedTypeInvalidatesOwnEntry() throws Exception {
+		IType typeA= createType("A", "public class A {\n}\n");
+		IType typeB= createType("B", "public class B {\n}\n");
+		OpenTypeHistory history= OpenTypeHistory.getInstance();
+		TypeNameMatch matchA= access(typeA);
+		TypeNameMatch matchB= access(typeB);
+		history.checkConsistency(new NullProgressMonitor());
+
+		IJobManager manager= Job.getJobManager();
+		manager.suspend();
+		try {
+			createType("A", "public final class A {\n}\n");
+			assertTrue(history.needConsistencyCheck(matchA));
+			assertFalse(history.needConsistencyCheck(matchB));
+
+			history.checkConsistency(new NullProgressMonitor());
+		} finally {
+			manager.resume();
+		}
+		// the entry has been replaced with the new modifiers, the other one is untouched
+		TypeNameMatch entryA= findEntry(typeA);
+		assertNotNull(entryA);
+		assertTrue(Flags.isFinal(entryA.getModifiers()));
+		assertSame(matchB, findEntry(typeB));
+		assertFalse(history.needConsistencyCheck(entryA));
+		assertFalse(history.needConsistencyCheck(matchB));
+	}
+
+	public void testSaveAndReload() throws Exception {
+		IType typeA= createType("A", "public class A {\n}\n");
+		IType typeB= createType("B", "public class B {\n}\n");
+		IType typeC= createType("C", "public class C {\n}\n");
+		OpenTypeHistory history= OpenTypeHistory.getInstance();
+		TypeNameMatch matchA= access(typeA);
+		TypeNameMatch matchB= access(typeB);
+		TypeNameMatch matchC= access(typeC);
+		history.checkConsistency(new NullProgressMonitor());
+		history.save();
+
+		history.remove(matchA);
+		history.remove(matchB);
+		history.remove(matchC);
+		assertNull(findEntry(typeB));
+		// deleted while the entries are not in the history
+		typeA.getCompilationUnit().delete(true, null);
+
+		history.load();
+		TypeNameMatch[] typeInfos= history.getTypeInfos();
+		int positionB= -1;
+		int positionC= -1;
+		for (int i= 0; i < typeInfos.length; i++) {
+			if (typeInfos[i].getType().equals(typeB))
+				positionB= i;
+			else if (typeInfos[i].getType().equals(typeC))
+				positionC= i;
+		}
+		// the most recently accessed entry comes first
+		assertTrue(positionC != -1 && positionB != -1);
+		assertTrue(positionC < positionB);
+		assertNotNull(findEntry(typeA));
+
+		// the reloaded entries are validated
+		assertTrue(history.needConsistencyCheck(findEntry(typeA)));
+		assertTrue(history.needConsistencyCheck(findEntry(typeB)));
+		history.checkConsistency(new NullProgressMonitor());
+		assertNull(findEntry(typeA));
+		assertEquals(matchB, findEntry(typeB));
+		assertEquals(matchC, findEntry(typeC));
+		assertFalse(history.needConsistencyCheck(findEntry(typeB)));
+		assertFalse(history.needConsistencyCheck(findEntry(typeC)));
+	}
+}
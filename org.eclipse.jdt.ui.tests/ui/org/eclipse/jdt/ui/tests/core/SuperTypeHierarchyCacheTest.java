@@ -0,0 +1,255 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.jdt.ui.tests.core;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import org.eclipse.jdt.testplugin.JavaProjectHelper;
+
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.NullProgressMonitor;
+import org.eclipse.core.runtime.OperationCanceledException;
+
+import org.eclipse.jdt.core.ICompilationUnit;
+import org.eclipse.jdt.core.IJavaProject;
+import org.eclipse.jdt.core.IPackageFragment;
+import org.eclipse.jdt.core.IPackageFragmentRoot;
+import org.eclipse.jdt.core.IType;
+import org.eclipse.jdt.core.ITypeHierarchy;
+import org.eclipse.jdt.core.JavaModelException;
+
+import org.eclipse.jdt.internal.corext.util.SuperTypeHierarchyCache;
+
+
+public class SuperTypeHierarchyCacheTest extends TestCase {
+
+	private static final Class<SuperTypeHierarchyCacheTest> THIS= SuperTypeHierarchyCacheTest.class;
+
+	private static final long TIMEOUT= 30000;
+
+	/**
+	 * Progress monitor which blocks the hierarchy computation when it begins until the gate is
+	 * opened, and then cancels it if requested.
+	 */
+	private static class GateMonitor extends NullProgressMonitor {
+		final CountDownLatch fStarted= new CountDownLatch(1);
+		final CountDownLatch fGate= new CountDownLatch(1);
+		volatile boolean fCancel;
+
+		@Override
+		public void beginTask(String name, int totalWork) {
+			fStarted.countDown();
+			try {
+				fGate.await(TIMEOUT, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			if (fCancel) {
+				setCanceled(true);
+				throw new OperationCanceledException();
+			}
+		}
+	}
+
+	private static class HierarchyRequest extends Thread {
+		private final IType fType;
+		private final IProgressMonitor fMonitor;
+		volatile ITypeHierarchy fHierarchy;
+		volatile Throwable fException;
+
+		HierarchyRequest(IType type, IProgressMonitor monitor) {
+			super("HierarchyRequest"); //$NON-NLS-1$
+			fType= type;
+			fMonitor= monitor;
+		}
+
+		@Override
+		public void run() {
+			try {
+				fHierarchy= SuperTypeHierarchyCache.getTypeHierarchy(fType, fMonitor);
+			} catch (Throwable e) {
+				fException= e;
+			}
+		}
+
+		void finish() throws InterruptedException {
+			join(TIMEOUT);
+			assertFalse("request did not finish", isAlive());
+		}
+	}
+
+	private IJavaProject fJProject1;
+	private IPackageFragmentRoot fSourceFolder;
+
+	public SuperTypeHierarchyCacheTest(String name) {
+		super(name);
+	}
+
+	public static Test suite() {
+		return setUpTest(new TestSuite(THIS));
+	}
+
+	public static Test setUpTest(Test test) {
+		return new ProjectTestSetup(test);
+	}
+
+	@Override
+	protected void setUp() throws Exception {
+		fJProject1= JavaProjectHelper.createJavaProject("TestProject1", "bin");
+		assertNotNull("jre is null", JavaProjectHelper.addRTJar(fJProject1));
+		fSourceFolder= JavaProjectHelper.addSourceContainer(fJProject1, "src");
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		JavaProjectHelper.delete(fJProject1);
+	}
+
+	private IType createType(String name, String source) throws JavaModelException {
+		IPackageFragment pack1= fSourceFolder.createPackageFragment("p", false, null);
+		ICompilationUnit cu= pack1.createCompilationUnit(name + ".java", "package p;\n" + source, true, null);
+		return cu.getType(name);
+	}
+
+	private static void waitForSharedComputations(int count) throws InterruptedException {
+		long end= System.currentTimeMillis() + TIMEOUT;
+		while (SuperTypeHierarchyCache.getSharedComputations() < count) {
+			assertTrue("requests do not wait", System.currentTimeMillis() < end);
+			Thread.sleep(10);
+		}
+	}
+
+	public void testConcurrentRequestsShareComputation() throws Exception {
+		createType("A", "public class A {\n}\n");
+		IType type= createType("B", "public class B extends A {\n}\n");
+		assertFalse(SuperTypeHierarchyCache.hasInCache(type));
+
+		int misses= SuperTypeHierarchyCache.getCacheMisses();
+		int shared= SuperTypeHierarchyCache.getSharedComputations();
+
+		GateMonitor monitor= new GateMonitor();
+		HierarchyRequest first= new HierarchyRequest(type, monitor);
+		first.start();
+		assertTrue(monitor.fStarted.await(TIMEOUT, TimeUnit.MILLISECONDS));
+
+		HierarchyRequest second= new HierarchyRequest(type, null);
+		HierarchyRequest third= new HierarchyRequest(type, new NullProgressMonitor());
+		second.start();
+		third.start();
+		waitForSharedComputations(shared + 2);
+		monitor.fGate.countDown();
+
+		first.finish();
+		second.finish();
+		third.finish();
+		assertNull(first.fException);
+		assertNull(second.fException);
+		assertNull(third.fException);
+
+		assertNotNull(first.fHierarchy);
+		assertSame(first.fHierarchy, second.fHierarchy);
+		assertSame(first.fHierarchy, third.fHierarchy);
+		assertEquals(misses + 1, SuperTypeHierarchyCache.getCacheMisses());
+		assertTrue(SuperTypeHierarchyCache.hasInCache(type));
+		assertSame(first.fHierarchy, SuperTypeHierarchyCache.getTypeHierarchy(type));
+	}
+
+	public void testCanceledComputationNotCached() throws Exception {
+		IType type= createType("A", "public class A {\n}\n");
+
+		GateMonitor monitor= new GateMonitor();
+		monitor.fCancel= true;
+		monitor.fGate.countDown();
+		try {
+			SuperTypeHierarchyCache.getTypeHierarchy(type, monitor);
+			fail("not canceled");
+		} catch (OperationCanceledException e) {
+			// expected
+		}
+		assertFalse(SuperTypeHierarchyCache.hasInCache(type));
+
+		// a request waiting for a canceled computation computes the hierarchy itself
+		int shared= SuperTypeHierarchyCache.getSharedComputations();
+		monitor= new GateMonitor();
+		monitor.fCancel= true;
+		HierarchyRequest first= new HierarchyRequest(type, monitor);
+		first.start();
+		assertTrue(monitor.fStarted.await(TIMEOUT, TimeUnit.MILLISECONDS));
+		HierarchyRequest second= new HierarchyRequest(type, null);
+		second.start();
+		waitForSharedComputations(shared + 1);
+		monitor.fGate.countDown();
+
+		first.finish();
+		second.finish();
+		assertTrue(first.fException instanceof OperationCanceledException);
+		assertNull(first.fHierarchy);
+		assertNull(second.fException);
+		assertNotNull(second.fHierarchy);
+		assertTrue(second.fHierarchy.contains(type));
+		assertTrue(SuperTypeHierarchyCache.hasInCache(type));
+	}
+
+	public void testFailedComputationNotCached() throws Exception {
+		IPackageFragment pack1= fSourceFolder.createPackageFragment("p", false, null);
+		IType type= pack1.getCompilationUnit("A.java").getType("A");
+		try {
+			SuperTypeHierarchyCache.getTypeHierarchy(type);
+			fail("no exception");
+		} catch (JavaModelException e) {
+			assertTrue(e.isDoesNotExist());
+		}
+		assertFalse(SuperTypeHierarchyCache.hasInCache(type));
+
+		// neither the failure nor the computation is remembered
+		createType("A", "public class A {\n}\n");
+		int misses= SuperTypeHierarchyCache.getCacheMisses();
+		ITypeHierarchy hierarchy= SuperTypeHierarchyCache.getTypeHierarchy(type);
+		assertTrue(hierarchy.contains(type));
+		assertEquals(misses + 1, SuperTypeHierarchyCache.getCacheMisses());
+		assertTrue(SuperTypeHierarchyCache.hasInCache(type));
+	}
+
+	public void testInvalidatedOnHierarchyChange() throws Exception {
+		IType typeA= createType("A", "public class A {\n}\n");
+		IType typeB= createType("B", "public class B extends A {\n}\n");
+
+		ITypeHierarchy hierarchy= SuperTypeHierarchyCache.getTypeHierarchy(typeB);
+		assertTrue(hierarchy.contains(typeA));
+		// every type of the hierarchy is indexed
+		assertTrue(SuperTypeHierarchyCache.hasInCache(typeB));
+		assertTrue(SuperTypeHierarchyCache.hasInCache(typeA));
+
+		int hits= SuperTypeHierarchyCache.getCacheHits();
+		assertSame(hierarchy, SuperTypeHierarchyCache.getTypeHierarchy(typeA));
+		assertEquals(hits + 1, SuperTypeHierarchyCache.getCacheHits());
+
+		createType("B", "public class B {\n}\n");
+		long end= System.currentTimeMillis() + TIMEOUT;
+		while (SuperTypeHierarchyCache.hasInCache(typeB)) {
+			assertTrue("hierarchy not invalidated", System.currentTimeMillis() < end);
+			Thread.sleep(10);
+		}
+		// the index entries of all types of the hierarchy are gone
+		assertFalse(SuperTypeHierarchyCache.hasInCache(typeA));
+
+		ITypeHierarchy newHierarchy= SuperTypeHierarchyCache.getTypeHierarchy(typeB);
+		assertNotSame(hierarchy, newHierarchy);
+		assertFalse(newHierarchy.contains(typeA));
+		assertTrue(SuperTypeHierarchyCache.hasInCache(typeB));
+		assertFalse(SuperTypeHierarchyCache.hasInCache(typeA));
+	}
+}
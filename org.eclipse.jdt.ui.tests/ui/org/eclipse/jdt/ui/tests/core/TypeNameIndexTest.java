@@ -0,0 +1,201 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.jdt.ui.tests.core;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import org.eclipse.jdt.testplugin.JavaProjectHelper;
+import org.eclipse.jdt.testplugin.JavaTestPlugin;
+
+import org.eclipse.core.runtime.NullProgressMonitor;
+import org.eclipse.core.runtime.Path;
+
+import org.eclipse.jdt.core.ICompilationUnit;
+import org.eclipse.jdt.core.IJavaElement;
+import org.eclipse.jdt.core.IJavaProject;
+import org.eclipse.jdt.core.IPackageFragment;
+import org.eclipse.jdt.core.IPackageFragmentRoot;
+import org.eclipse.jdt.core.search.IJavaSearchConstants;
+import org.eclipse.jdt.core.search.IJavaSearchScope;
+import org.eclipse.jdt.core.search.SearchEngine;
+import org.eclipse.jdt.core.search.TypeNameMatch;
+
+import org.eclipse.jdt.internal.corext.util.TypeInfoFilter;
+import org.eclipse.jdt.internal.corext.util.TypeNameIndex;
+import org.eclipse.jdt.internal.corext.util.TypeNameMatchCollector;
+
+
+public class TypeNameIndexTest extends TestCase {
+
+	private static final Class<TypeNameIndexTest> THIS= TypeNameIndexTest.class;
+
+	private static final long TIMEOUT= 30000;
+
+	private IJavaProject fJProject1;
+	private IPackageFragmentRoot fSourceFolder;
+
+	public TypeNameIndexTest(String name) {
+		super(name);
+	}
+
+	public static Test suite() {
+		return setUpTest(new TestSuite(THIS));
+	}
+
+	public static Test setUpTest(Test test) {
+		return new ProjectTestSetup(test);
+	}
+
+	@Override
+	protected void setUp() throws Exception {
+		fJProject1= JavaProjectHelper.createJavaProject("TestProject1", "bin");
+		assertNotNull("jre is null", JavaProjectHelper.addRTJar(fJProject1));
+		fSourceFolder= JavaProjectHelper.addSourceContainer(fJProject1, "src");
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		JavaProjectHelper.delete(fJProject1);
+	}
+
+	public void testQuery() throws Exception {
+		IPackageFragment pack1= fSourceFolder.createPackageFragment("idx", false, null);
+		ICompilationUnit cu= pack1.getCompilationUnit("IdxAlpha.java");
+		cu.createType("public class IdxAlpha {\n static class IdxInner {\n}\n}\n", null, true, null);
+		pack1.getCompilationUnit("IdxAlphaBeta.java").createType("public interface IdxAlphaBeta {\n}\n", null, true, null);
+
+		// prefix
+		assertTypes(search("IdxAl", IJavaSearchConstants.TYPE), new String[] { "idx.IdxAlpha", "idx.IdxAlphaBeta" });
+		// case insensitive prefix
+		assertTypes(search("idxal", IJavaSearchConstants.TYPE), new String[] { "idx.IdxAlpha", "idx.IdxAlphaBeta" });
+		// camel case
+		assertTypes(search("IdxAB", IJavaSearchConstants.TYPE), new String[] { "idx.IdxAlphaBeta" });
+		// wildcard
+		assertTypes(search("Idx*Inner", IJavaSearchConstants.TYPE), new String[] { "idx.IdxAlpha.IdxInner" });
+		// exact name
+		assertTypes(search("IdxAlpha<", IJavaSearchConstants.TYPE), new String[] { "idx.IdxAlpha" });
+		// qualified
+		assertTypes(search("idx.IdxAlphaB", IJavaSearchConstants.TYPE), new String[] { "idx.IdxAlphaBeta" });
+		assertTypes(search("other.IdxAlpha", IJavaSearchConstants.TYPE), new String[0]);
+		// element kind
+		assertTypes(search("IdxAl", IJavaSearchConstants.INTERFACE), new String[] { "idx.IdxAlphaBeta" });
+
+		List<TypeNameMatch> matches= search("IdxAlpha<", IJavaSearchConstants.TYPE);
+		TypeNameMatch match= matches.get(0);
+		assertTrue(match.getType().exists());
+		assertEquals(cu.getType("IdxAlpha"), match.getType());
+		assertEquals(SearchEngine.createTypeNameMatch(cu.getType("IdxAlpha"), match.getModifiers()), match);
+	}
+
+	public void testOtherScope() throws Exception {
+		IPackageFragment pack1= fSourceFolder.createPackageFragment("idx", false, null);
+		pack1.getCompilationUnit("IdxAlpha.java").createType("public class IdxAlpha {\n}\n", null, true, null);
+		search("IdxAlpha", IJavaSearchConstants.TYPE);
+
+		// the accessibility recorded in the index is only valid for the workspace scope
+		IJavaSearchScope scope= SearchEngine.createJavaSearchScope(new IJavaElement[] { fJProject1 });
+		TypeInfoFilter filter= new TypeInfoFilter("IdxAlpha", scope, IJavaSearchConstants.TYPE, null);
+		List<TypeNameMatch> result= new ArrayList<TypeNameMatch>();
+		assertFalse(TypeNameIndex.getInstance().search(filter, new TypeNameMatchCollector(result), new NullProgressMonitor()));
+		assertTrue(result.isEmpty());
+	}
+
+	public void testUpdate() throws Exception {
+		IPackageFragment pack1= fSourceFolder.createPackageFragment("idx", false, null);
+		assertTypes(search("IdxGamma", IJavaSearchConstants.TYPE), new String[0]);
+
+		// added compilation unit
+		ICompilationUnit cu= pack1.getCompilationUnit("IdxGamma.java");
+		cu.createType("public class IdxGamma {\n}\n", null, true, null);
+		assertTypes(search("IdxGamma", IJavaSearchConstants.TYPE), new String[] { "idx.IdxGamma" });
+
+		// added type in an existing compilation unit
+		cu.createType("class IdxGammaHelper {\n}\n", null, true, null);
+		assertTypes(search("IdxGamma", IJavaSearchConstants.TYPE), new String[] { "idx.IdxGamma", "idx.IdxGammaHelper" });
+
+		// changed compilation unit
+		cu.getBuffer().setContents("package idx;\npublic interface IdxGamma {\n}\n");
+		cu.save(null, true);
+		assertTypes(search("IdxGamma", IJavaSearchConstants.TYPE), new String[] { "idx.IdxGamma" });
+		assertTypes(search("IdxGamma", IJavaSearchConstants.INTERFACE), new String[] { "idx.IdxGamma" });
+
+		// renamed compilation unit
+		cu.rename("IdxDelta.java", true, null);
+		ICompilationUnit renamed= pack1.getCompilationUnit("IdxDelta.java");
+		renamed.getBuffer().setContents("package idx;\npublic interface IdxDelta {\n}\n");
+		renamed.save(null, true);
+		assertTypes(search("IdxGamma", IJavaSearchConstants.TYPE), new String[0]);
+		assertTypes(search("IdxDelta", IJavaSearchConstants.TYPE), new String[] { "idx.IdxDelta" });
+
+		// removed package
+		pack1.delete(true, null);
+		assertTypes(search("IdxDelta", IJavaSearchConstants.TYPE), new String[0]);
+	}
+
+	public void testRebuild() throws Exception {
+		assertTypes(search("Foo", IJavaSearchConstants.TYPE), new String[0]);
+
+		// added archive
+		File lib= JavaTestPlugin.getDefault().getFileInPlugin(JavaProjectHelper.MYLIB);
+		assertTrue("lib does not exist", lib != null && lib.exists());
+		IPackageFragmentRoot root= JavaProjectHelper.addLibraryWithImport(fJProject1, Path.fromOSString(lib.getPath()), null, null);
+		assertTypes(search("Foo", IJavaSearchConstants.TYPE), new String[] { "mylib.Foo", "mylib.Foo.FooInner", "mylib.Foo.FooInner.FooInnerInner" });
+
+		// removed archive
+		JavaProjectHelper.removeFromClasspath(fJProject1, root.getPath());
+		assertTypes(search("Foo", IJavaSearchConstants.TYPE), new String[0]);
+
+		// removed project
+		IPackageFragment pack1= fSourceFolder.createPackageFragment("idx", false, null);
+		pack1.getCompilationUnit("IdxAlpha.java").createType("public class IdxAlpha {\n}\n", null, true, null);
+		assertTypes(search("IdxAlpha", IJavaSearchConstants.TYPE), new String[] { "idx.IdxAlpha" });
+		JavaProjectHelper.delete(fJProject1);
+		assertTypes(search("IdxAlpha", IJavaSearchConstants.TYPE), new String[0]);
+		fJProject1= JavaProjectHelper.createJavaProject("TestProject1", "bin");
+	}
+
+	/**
+	 * Queries the index for the workspace scope, waiting until the index is up to date.
+	 *
+	 * @param pattern the type pattern as entered in the open type dialog
+	 * @param elementKind the element kind
+	 * @return the matches
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	private static List<TypeNameMatch> search(String pattern, int elementKind) throws InterruptedException {
+		TypeInfoFilter filter= new TypeInfoFilter(pattern, SearchEngine.createWorkspaceScope(), elementKind, null);
+		long end= System.currentTimeMillis() + TIMEOUT;
+		while (true) {
+			List<TypeNameMatch> result= new ArrayList<TypeNameMatch>();
+			if (TypeNameIndex.getInstance().search(filter, new TypeNameMatchCollector(result), new NullProgressMonitor()))
+				return result;
+			assertTrue("index not up to date", System.currentTimeMillis() < end);
+			Thread.sleep(50);
+		}
+	}
+
+	private static void assertTypes(List<TypeNameMatch> matches, String[] expected) {
+		String[] actual= new String[matches.size()];
+		for (int i= 0; i < actual.length; i++)
+			actual[i]= matches.get(i).getFullyQualifiedName();
+		Arrays.sort(actual);
+		String[] sortedExpected= expected.clone();
+		Arrays.sort(sortedExpected);
+		assertEquals(Arrays.asList(sortedExpected).toString(), Arrays.asList(actual).toString());
+	}
+}
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2007, 2012 IBM Corporation and others.
+ * Copyright (c) 2007, 2014 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -17,12 +17,21 @@
  *******************************************************************************/
 package org.eclipse.jdt.ui.tests.jarexport;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.Random;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
 
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
@@ -91,6 +100,7 @@ import org.eclipse.jdt.internal.ui.jarpackagerfat.FatJarPackageWizardPage.Extrac
 import org.eclipse.jdt.internal.ui.jarpackagerfat.FatJarPackageWizardPage.LibraryHandler;
 import org.eclipse.jdt.internal.ui.jarpackagerfat.FatJarPackageWizardPage.PackageLibraryHandler;
 import org.eclipse.jdt.internal.ui.jarpackagerfat.FatJarRsrcUrlBuilder;
+import org.eclipse.jdt.internal.ui.jarpackagerfat.JarWriter4;
 import org.eclipse.jdt.internal.ui.util.BusyIndicatorRunnableContext;
 
 public class FatJarExportTests extends TestCase {
@@ -161,6 +171,11 @@ public class FatJarExportTests extends TestCase {
 	}
 
 	private static JarPackageData createAndRunFatJar(IJavaProject project, String testName, boolean compressJar, LibraryHandler libraryHandler) throws Exception, CoreException {
+		// check for successful call of Foo
+		return createAndRunFatJar(project, testName, compressJar, libraryHandler, "created mylib.Foo\n"); //$NON-NLS-1$
+	}
+
+	private static JarPackageData createAndRunFatJar(IJavaProject project, String testName, boolean compressJar, LibraryHandler libraryHandler, String expected) throws Exception, CoreException {
 		JarPackageData data= null;
 		// create jar and check contents
 		switch (libraryHandler.getID()) {
@@ -186,8 +201,6 @@ public class FatJarExportTests extends TestCase {
 		String stdout= runJar(project, data.getJarLocation().toOSString());
 		// normalize EndOfLine to \n
 		stdout= stdout.replaceAll("\r\n", "\n").replaceAll("\r", "\n"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
-		// check for successful call of Foo
-		String expected= "created mylib.Foo\n"; //$NON-NLS-1$
 		assertEquals(expected, stdout);
 		
 		return data;
@@ -253,6 +266,13 @@ public class FatJarExportTests extends TestCase {
 		in.close();
 		assertEquals("loader is a class file", 0xCAFEBABE, magic); //$NON-NLS-1$
 		assertEquals("loader compiled with JDK 1.3.1", "45.3", majorVersion + "." + minorVersion); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+
+		// nested JARs are always stored, so that the jar-in-jar loader can index them
+		for (Enumeration entries= generatedArchive.entries(); entries.hasMoreElements();) {
+			ZipEntry entry= (ZipEntry) entries.nextElement();
+			if (entry.getName().endsWith(".jar")) //$NON-NLS-1$
+				assertEquals(entry.getName(), ZipEntry.STORED, entry.getMethod());
+		}
 		
 		generatedArchive.close();
 
@@ -851,6 +871,9 @@ public class FatJarExportTests extends TestCase {
 					new PackageLibraryHandler(),
 					new String[] { "TestSetupProject/bin" }, //$NON-NLS-1$
 					new String[] { "rtstubs15.jar", "mylib_stdout.jar" }); //$NON-NLS-1$  //$NON-NLS-2$
+
+			// Jar-in-Jar loader, stored nested JARs
+			createAndRunFatJar(fProject, getName() + "_JiJ_Stored", false, new PackageLibraryHandler()); //$NON-NLS-1$
 			
 			// sub-folder libraries
 			data= createAndRunFatJar(fProject, getName() + "_SL", true, new CopyLibraryHandler()); //$NON-NLS-1$
@@ -966,6 +989,9 @@ public class FatJarExportTests extends TestCase {
 					new String[] { "TestSetupProject/bin" }, //$NON-NLS-1$
 					new String[] { "rtstubs15.jar", "mylib_sig.jar" }); //$NON-NLS-1$  //$NON-NLS-2$
 
+			// Jar-in-Jar loader, stored signed JAR: falls back to the URL class loader
+			createAndRunFatJar(fProject, getName() + "_JiJ_Stored", false, new PackageLibraryHandler()); //$NON-NLS-1$
+
 			// sub-folder libraries
 			data= createAndRunFatJar(fProject, getName() + "_SL", true, new CopyLibraryHandler()); //$NON-NLS-1$
 			assertAntScript(data, antScriptLocation(getName() + "_SL"), //$NON-NLS-1$
@@ -976,6 +1002,241 @@ public class FatJarExportTests extends TestCase {
 		}
 	}
 	
+	public void testJarInJarIndexedLoader() throws Exception {
+		// Main also reports which class loader has loaded the library
+		StringBuffer buf= new StringBuffer();
+		buf.append("package org.eclipse.jdt.ui.test;\n"); //$NON-NLS-1$
+		buf.append("import mylib.Foo;\n"); //$NON-NLS-1$
+		buf.append("public class Main {\n"); //$NON-NLS-1$
+		buf.append("    public static void main(String[] args) {\n"); //$NON-NLS-1$
+		buf.append("        new Foo();\n"); //$NON-NLS-1$
+		buf.append("        System.out.println(Foo.class.getClassLoader().getClass().getName());\n"); //$NON-NLS-1$
+		buf.append("        System.out.println(Foo.class.getPackage().getName());\n"); //$NON-NLS-1$
+		buf.append("        System.out.println(Foo.class.getClassLoader().getResource(\"mylib/Foo.class\") != null);\n"); //$NON-NLS-1$
+		buf.append("    }\n"); //$NON-NLS-1$
+		buf.append("}\n"); //$NON-NLS-1$
+		fMainRoot.getPackageFragment("org.eclipse.jdt.ui.test").createCompilationUnit("Main.java", buf.toString(), true, null); //$NON-NLS-1$ //$NON-NLS-2$
+
+		File lib= JavaTestPlugin.getDefault().getFileInPlugin(JavaProjectHelper.MYLIB_STDOUT);
+		IPackageFragmentRoot root= JavaProjectHelper.addLibraryWithImport(fProject, Path.fromOSString(lib.getPath()), null, null);
+
+		try {
+			String expected= "created mylib.Foo\norg.eclipse.jdt.internal.jarinjarloader.RsrcIndexClassLoader\nmylib\ntrue\n"; //$NON-NLS-1$
+			createAndRunFatJar(fProject, getName() + "_JiJ", true, new PackageLibraryHandler(), expected); //$NON-NLS-1$
+			createAndRunFatJar(fProject, getName() + "_JiJ_Stored", false, new PackageLibraryHandler(), expected); //$NON-NLS-1$
+		} finally {
+			JavaProjectHelper.removeFromClasspath(fProject, root.getPath());
+		}
+	}
+
+	public void testZip64Lib() throws Exception {
+		File lib= createZip64Library(JavaTestPlugin.getDefault().getFileInPlugin(JavaProjectHelper.MYLIB_STDOUT));
+		IPackageFragmentRoot root= JavaProjectHelper.addLibrary(fProject, Path.fromOSString(lib.getPath()));
+
+		try {
+			// Jar-in-Jar loader, the ZIP64 library falls back to the URL class loader
+			createAndRunFatJar(fProject, getName() + "_JiJ", true, new PackageLibraryHandler()); //$NON-NLS-1$
+			createAndRunFatJar(fProject, getName() + "_JiJ_Stored", false, new PackageLibraryHandler()); //$NON-NLS-1$
+		} finally {
+			JavaProjectHelper.removeFromClasspath(fProject, root.getPath());
+			lib.delete();
+		}
+	}
+
+	/**
+	 * Creates a copy of the given library with more than 65535 entries, so that it is written in
+	 * the ZIP64 format.
+	 * 
+	 * @param lib the library to copy
+	 * @return the new library
+	 * @throws Exception if the library cannot be created
+	 */
+	private static File createZip64Library(File lib) throws Exception {
+		File zip64Lib= ResourcesPlugin.getWorkspace().getRoot().getLocation().append("mylib_zip64.jar").toFile(); //$NON-NLS-1$
+		ZipFile zipFile= new ZipFile(lib);
+		ZipOutputStream out= new ZipOutputStream(new FileOutputStream(zip64Lib));
+		try {
+			byte[] buffer= new byte[4096];
+			for (Enumeration entries= zipFile.entries(); entries.hasMoreElements();) {
+				ZipEntry entry= (ZipEntry) entries.nextElement();
+				out.putNextEntry(new ZipEntry(entry.getName()));
+				InputStream in= zipFile.getInputStream(entry);
+				try {
+					for (int read= in.read(buffer); read != -1; read= in.read(buffer))
+						out.write(buffer, 0, read);
+				} finally {
+					in.close();
+				}
+				out.closeEntry();
+			}
+			for (int i= 0; i <= 0xFFFF; i++) {
+				out.putNextEntry(new ZipEntry("resources/" + i + ".txt")); //$NON-NLS-1$ //$NON-NLS-2$
+				out.closeEntry();
+			}
+		} finally {
+			out.close();
+			zipFile.close();
+		}
+		return zip64Lib;
+	}
+
+	public void testJarWriterRoundTrip() throws Exception {
+		assertJarWriterRoundTrip(false);
+		assertJarWriterRoundTrip(true);
+	}
+
+	private void assertJarWriterRoundTrip(boolean compressJar) throws Exception {
+		File tempDir= createTempDirectory(getName());
+		ZipFile lib= new ZipFile(JavaTestPlugin.getDefault().getFileInPlugin(JavaProjectHelper.MYLIB_STDOUT));
+		try {
+			JarPackageData data= createJarPackageData(fProject, getName() + compressJar, new ExtractLibraryHandler());
+			data.setCompress(compressJar);
+			Map expected= new LinkedHashMap();
+			Random random= new Random(42);
+
+			JarWriter4 writer= new JarWriter4(data, null);
+			// small files, computed by the worker jobs
+			for (int i= 0; i < 50; i++) {
+				byte[] content= ("content of file " + i).getBytes("UTF-8"); //$NON-NLS-1$ //$NON-NLS-2$
+				File file= createFile(tempDir, "small" + i + ".txt", content); //$NON-NLS-1$ //$NON-NLS-2$
+				writer.write(file, new Path("small/" + file.getName())); //$NON-NLS-1$
+				expected.put("small/" + file.getName(), content); //$NON-NLS-1$
+			}
+			// a large file, streamed in the calling thread
+			byte[] large= new byte[1024 * 1024];
+			random.nextBytes(large);
+			writer.write(createFile(tempDir, "large.bin", large), new Path("large/large.bin")); //$NON-NLS-1$ //$NON-NLS-2$
+			expected.put("large/large.bin", large); //$NON-NLS-1$
+			// a stream of unknown size
+			byte[] stream= new byte[100000];
+			Arrays.fill(stream, (byte) 'x');
+			writer.addZipEntryStream(new ZipEntry("stream.txt"), new ByteArrayInputStream(stream), "stream.txt"); //$NON-NLS-1$ //$NON-NLS-2$
+			expected.put("stream.txt", stream); //$NON-NLS-1$
+			// library entries, copied raw if the compression matches
+			for (Enumeration entries= lib.entries(); entries.hasMoreElements();) {
+				ZipEntry entry= (ZipEntry) entries.nextElement();
+				if (entry.isDirectory() || entry.getName().startsWith("META-INF/")) //$NON-NLS-1$
+					continue;
+				writer.addZipEntry(entry, lib, "lib/" + entry.getName()); //$NON-NLS-1$
+				expected.put("lib/" + entry.getName(), readFully(lib.getInputStream(entry))); //$NON-NLS-1$
+			}
+			writer.flush();
+			writer.close();
+
+			ZipFile jar= new ZipFile(data.getAbsoluteJarLocation().toFile());
+			try {
+				assertNotNull(jar.getEntry("META-INF/MANIFEST.MF")); //$NON-NLS-1$
+				assertNotNull(jar.getEntry("small/")); //$NON-NLS-1$
+				for (Iterator iter= expected.entrySet().iterator(); iter.hasNext();) {
+					Map.Entry mapEntry= (Map.Entry) iter.next();
+					String name= (String) mapEntry.getKey();
+					ZipEntry entry= jar.getEntry(name);
+					assertNotNull(name, entry);
+					assertEquals(name, compressJar ? ZipEntry.DEFLATED : ZipEntry.STORED, entry.getMethod());
+					assertTrue(name, Arrays.equals((byte[]) mapEntry.getValue(), readFully(jar.getInputStream(entry))));
+				}
+			} finally {
+				jar.close();
+			}
+		} finally {
+			lib.close();
+			deleteTempDirectory(tempDir);
+		}
+	}
+
+	public void testJarWriterManyEntries() throws Exception {
+		JarPackageData data= createJarPackageData(fProject, getName(), new ExtractLibraryHandler());
+		data.setCompress(true);
+		data.setIncludeDirectoryEntries(false);
+
+		// more entries than fit into the end of central directory record
+		int count= 0x10000 + 10;
+		JarWriter4 writer= new JarWriter4(data, null);
+		for (int i= 0; i < count; i++) {
+			byte[] content= String.valueOf(i).getBytes("UTF-8"); //$NON-NLS-1$
+			writer.addZipEntryStream(new ZipEntry("e" + i), new ByteArrayInputStream(content), "e" + i); //$NON-NLS-1$ //$NON-NLS-2$
+		}
+		writer.close();
+
+		ZipFile jar= new ZipFile(data.getAbsoluteJarLocation().toFile());
+		try {
+			assertTrue(jar.size() >= count);
+			for (int i= 0; i < count; i+= 997) {
+				ZipEntry entry= jar.getEntry("e" + i); //$NON-NLS-1$
+				assertNotNull(entry);
+				assertEquals(String.valueOf(i), new String(readFully(jar.getInputStream(entry)), "UTF-8")); //$NON-NLS-1$
+			}
+		} finally {
+			jar.close();
+		}
+	}
+
+	public void testJarWriterReadFailure() throws Exception {
+		File tempDir= createTempDirectory(getName());
+		try {
+			JarPackageData data= createJarPackageData(fProject, getName(), new ExtractLibraryHandler());
+			JarWriter4 writer= new JarWriter4(data, null);
+			writer.write(createFile(tempDir, "ok.txt", new byte[] { 1, 2, 3 }), new Path("ok.txt")); //$NON-NLS-1$ //$NON-NLS-2$
+
+			// a directory cannot be read as file, reported when writing or when closing
+			File unreadable= new File(tempDir, "unreadable.txt"); //$NON-NLS-1$
+			assertTrue(unreadable.mkdir());
+			boolean failed= false;
+			try {
+				writer.write(unreadable, new Path("unreadable.txt")); //$NON-NLS-1$
+			} catch (CoreException e) {
+				failed= true;
+			}
+			try {
+				writer.close();
+			} catch (CoreException e) {
+				failed= true;
+				assertFalse("incomplete JAR not deleted", data.getAbsoluteJarLocation().toFile().exists()); //$NON-NLS-1$
+			}
+			assertTrue("read failure not reported", failed); //$NON-NLS-1$
+		} finally {
+			deleteTempDirectory(tempDir);
+		}
+	}
+
+	private static File createTempDirectory(String name) {
+		File directory= ResourcesPlugin.getWorkspace().getRoot().getLocation().append(name + "_files").toFile(); //$NON-NLS-1$
+		directory.mkdirs();
+		return directory;
+	}
+
+	private static void deleteTempDirectory(File directory) {
+		File[] files= directory.listFiles();
+		if (files != null) {
+			for (int i= 0; i < files.length; i++)
+				files[i].delete();
+		}
+		directory.delete();
+	}
+
+	private static File createFile(File directory, String name, byte[] content) throws Exception {
+		File file= new File(directory, name);
+		FileOutputStream out= new FileOutputStream(file);
+		try {
+			out.write(content);
+		} finally {
+			out.close();
+		}
+		return file;
+	}
+
+	private static byte[] readFully(InputStream in) throws Exception {
+		try {
+			ByteArrayOutputStream out= new ByteArrayOutputStream();
+			byte[] buffer= new byte[4096];
+			for (int read= in.read(buffer); read != -1; read= in.read(buffer))
+				out.write(buffer, 0, read);
+			return out.toByteArray();
+		} finally {
+			in.close();
+		}
+	}
+
 	public void testExternalClassFolder() throws Exception {
 		File classFolder= JavaTestPlugin.getDefault().getFileInPlugin(new Path("testresources/externalClassFolder/"));//$NON-NLS-1$
 		assertTrue("class folder not found", classFolder != null && classFolder.exists());//$NON-NLS-1$
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2000, 2013 IBM Corporation and others.
+ * Copyright (c) 2000, 2014 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -34,10 +34,13 @@ import org.eclipse.jdt.core.IPackageFragmentRoot;
 import org.eclipse.jdt.core.JavaModelException;
 
 import org.eclipse.jdt.internal.corext.fix.CleanUpConstants;
+import org.eclipse.jdt.internal.corext.fix.CleanUpRefactoring;
 
 import org.eclipse.jdt.ui.JavaElementLabels;
 import org.eclipse.jdt.ui.tests.core.ProjectTestSetup;
 
+import org.eclipse.jdt.internal.ui.JavaPlugin;
+
 
 public class CleanUpStressTest extends CleanUpTestCase {
 
@@ -5206,6 +5209,14 @@ public class CleanUpStressTest extends CleanUpTestCase {
     }
 
 	public void testAllCleanUps() throws Exception {
+		assertAllCleanUps(1);
+	}
+
+	public void testAllCleanUpsInParallel() throws Exception {
+		assertAllCleanUps(4);
+	}
+
+	private void assertAllCleanUps(int parallelism) throws Exception {
 		List cus= new ArrayList();
 		addAllCUs(fJProject1.getChildren(), cus);
 
@@ -5260,7 +5271,10 @@ public class CleanUpStressTest extends CleanUpTestCase {
 		enable(CleanUpConstants.SORT_MEMBERS_ALL);
 
 		ICompilationUnit[] units= (ICompilationUnit[])cus.toArray(new ICompilationUnit[cus.size()]);
-		performRefactoring(units);
+		CleanUpRefactoring ref= new CleanUpRefactoring();
+		ref.setUseOptionsFromProfile(true);
+		ref.setParallelism(parallelism);
+		performRefactoring(ref, units, JavaPlugin.getDefault().getCleanUpRegistry().createCleanUps());
 
 
 //		generateTable(units);
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2000, 2011 IBM Corporation and others.
+ * Copyright (c) 2000, 2014 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -17,18 +17,24 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.StringTokenizer;
 
 import org.eclipse.core.runtime.NullProgressMonitor;
 
 import org.eclipse.jface.preference.IPreferenceStore;
 
+import org.eclipse.jdt.core.ElementChangedEvent;
+import org.eclipse.jdt.core.IElementChangedListener;
 import org.eclipse.jdt.core.IJavaElement;
+import org.eclipse.jdt.core.IJavaElementDelta;
 import org.eclipse.jdt.core.IMember;
 import org.eclipse.jdt.core.IMethod;
 import org.eclipse.jdt.core.IType;
 import org.eclipse.jdt.core.ITypeRoot;
+import org.eclipse.jdt.core.JavaCore;
 import org.eclipse.jdt.core.JavaModelException;
 import org.eclipse.jdt.core.dom.ASTParser;
 import org.eclipse.jdt.core.dom.CompilationUnit;
@@ -51,6 +57,25 @@ public class CallHierarchy {
     private IJavaSearchScope fSearchScope;
     private StringMatcher[] fFilters;
 
+    /**
+     * The maximal number of calls kept in {@link #fCallCache}. Every cached search counts as at
+     * least one call.
+     */
+    private static final int MAX_CACHED_CALLS= 10000;
+
+    /**
+     * The calls found by previous searches, keyed by search kind and member,
+     * least recently used first. The cache is cleared whenever the content of
+     * a compilation unit changes, or the search settings change.
+     */
+    private final LinkedHashMap<String, Map<String, MethodCall>> fCallCache= new LinkedHashMap<String, Map<String, MethodCall>>(16, 0.75f, true);
+    private int fCachedCallCount;
+
+    /**
+     * Listens to Java model changes while there are cached calls, or <code>null</code>.
+     */
+    private IElementChangedListener fCallCacheListener;
+
     public static CallHierarchy getDefault() {
         if (fgInstance == null) {
             fgInstance = new CallHierarchy();
@@ -69,6 +94,98 @@ public class CallHierarchy {
         IPreferenceStore settings = JavaPlugin.getDefault().getPreferenceStore();
 
         settings.setValue(PREF_USE_IMPLEMENTORS, enabled);
+        clearCallCache();
+    }
+
+    /**
+     * Returns the calls found by a previous search, provided the Java model
+     * and the search settings have not changed since.
+     *
+     * @param key the key of the search
+     * @return a map from the keys of the found calls to the calls, which must
+     *         not be modified, or <code>null</code> if the calls are not cached
+     */
+    Map<String, MethodCall> getCachedCalls(String key) {
+        synchronized (fCallCache) {
+            return fCallCache.get(key);
+        }
+    }
+
+    /**
+     * Caches the calls found by a search.
+     *
+     * @param key the key of the search
+     * @param calls the found calls, must not be modified afterwards
+     */
+    void cacheCalls(String key, Map<String, MethodCall> calls) {
+        synchronized (fCallCache) {
+            if (fCallCacheListener == null) {
+                fCallCacheListener= new IElementChangedListener() {
+                    public void elementChanged(ElementChangedEvent event) {
+                        if (isContentChange(event.getDelta())) {
+                            clearCallCache();
+                        }
+                    }
+                };
+                JavaCore.addElementChangedListener(fCallCacheListener, ElementChangedEvent.POST_CHANGE | ElementChangedEvent.POST_RECONCILE);
+            }
+            Map<String, MethodCall> previous= fCallCache.put(key, calls);
+            if (previous != null)
+                fCachedCallCount-= getWeight(previous);
+            fCachedCallCount+= getWeight(calls);
+
+            Iterator<Map<String, MethodCall>> iter= fCallCache.values().iterator();
+            while (fCachedCallCount > MAX_CACHED_CALLS && fCallCache.size() > 1) {
+                Map<String, MethodCall> eldest= iter.next();
+                fCachedCallCount-= getWeight(eldest);
+                iter.remove();
+            }
+        }
+    }
+
+    private static int getWeight(Map<String, MethodCall> calls) {
+        return calls.size() + 1;
+    }
+
+    /**
+     * Discards the calls found by previous searches.
+     */
+    public void clearCallCache() {
+        synchronized (fCallCache) {
+            fCallCache.clear();
+            fCachedCallCount= 0;
+            removeCallCacheListener();
+        }
+    }
+
+    private void removeCallCacheListener() {
+        if (fCallCacheListener != null) {
+            JavaCore.removeElementChangedListener(fCallCacheListener);
+            fCallCacheListener= null;
+        }
+    }
+
+    private static boolean isContentChange(IJavaElementDelta delta) {
+        if (delta.getKind() != IJavaElementDelta.CHANGED) {
+            return true;
+        }
+        int flags= delta.getFlags();
+        if (delta.getElement().getElementType() == IJavaElement.COMPILATION_UNIT) {
+            // reconciled and saved working copies report F_CONTENT, F_FINE_GRAINED or F_PRIMARY_RESOURCE
+            if ((flags & (IJavaElementDelta.F_CONTENT | IJavaElementDelta.F_FINE_GRAINED | IJavaElementDelta.F_PRIMARY_RESOURCE)) != 0) {
+                return true;
+            }
+        }
+        if ((flags & ~(IJavaElementDelta.F_CHILDREN | IJavaElementDelta.F_PRIMARY_WORKING_COPY | IJavaElementDelta.F_PRIMARY_RESOURCE)) != 0) {
+            return true;
+        }
+        IJavaElementDelta[] children= delta.getAffectedChildren();
+        for (int i= 0; i < children.length; i++) {
+            if (isContentChange(children[i])) {
+                return true;
+            }
+        }
+        return false;
     }
 
     public Collection<IJavaElement> getImplementingMethods(IMethod method) {
@@ -174,6 +291,9 @@ public class CallHierarchy {
     }
 
     public void setSearchScope(IJavaSearchScope searchScope) {
+        if (searchScope == null ? fSearchScope != null : !searchScope.equals(fSearchScope)) {
+            clearCallCache();
+        }
         this.fSearchScope = searchScope;
     }
 
@@ -206,6 +326,7 @@ public class CallHierarchy {
     public void setFilterEnabled(boolean filterEnabled) {
         IPreferenceStore settings = JavaPlugin.getDefault().getPreferenceStore();
         settings.setValue(PREF_USE_FILTERS, filterEnabled);
+        clearCallCache();
     }
 
     /**
@@ -223,6 +344,7 @@ public class CallHierarchy {
 
         IPreferenceStore settings = JavaPlugin.getDefault().getPreferenceStore();
         settings.setValue(PREF_FILTERS_LIST, filters);
+        clearCallCache();
     }
 
     /**
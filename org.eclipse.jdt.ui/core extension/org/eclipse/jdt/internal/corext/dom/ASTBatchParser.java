@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2007, 2011 IBM Corporation and others.
+ * Copyright (c) 2007, 2014 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -10,6 +10,11 @@
  *******************************************************************************/
 package org.eclipse.jdt.internal.corext.dom;
 
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
@@ -33,37 +38,207 @@ import org.eclipse.jdt.internal.ui.javaeditor.ASTProvider;
  * Creates AST from a set of compilation units. Uses the
  * batch parser. Splits the set of compilation units in subsets
  * such that it is unlikely that a out of memory exception will occur.
+ * <p>
+ * The size of the first subset is derived from the maximal heap size. While parsing, the
+ * heap usage is sampled and the size of the following subsets is adapted to the memory
+ * retained per AST and to the heap space left. The memory estimate is shared by all parsers,
+ * and batches which are parsed concurrently split the heap space left between them.
+ * </p>
  *
  * @since 3.4
  */
 public class ASTBatchParser {
 
-	private static final int MAX_AT_ONCE;
+	private static final int INITIAL_AT_ONCE;
 	static {
 		long maxMemory= Runtime.getRuntime().maxMemory();
 		int ratio= (int) Math.round((double) maxMemory / (64 * 0x100000));
 		switch (ratio) {
 			case 0:
-				MAX_AT_ONCE= 25;
+				INITIAL_AT_ONCE= 25;
 				break;
 			case 1:
-				MAX_AT_ONCE= 100;
+				INITIAL_AT_ONCE= 100;
 				break;
 			case 2:
-				MAX_AT_ONCE= 200;
+				INITIAL_AT_ONCE= 200;
 				break;
 			case 3:
-				MAX_AT_ONCE= 300;
+				INITIAL_AT_ONCE= 300;
 				break;
 			case 4:
-				MAX_AT_ONCE= 400;
+				INITIAL_AT_ONCE= 400;
 				break;
 			default:
-				MAX_AT_ONCE= 500;
+				INITIAL_AT_ONCE= 500;
 				break;
 		}
 	}
 
+	/**
+	 * Lower bound for the adapted number of compilation units parsed at once.
+	 */
+	private static final int MIN_AT_ONCE= 10;
+
+	/**
+	 * Upper bound for the adapted number of compilation units parsed at once.
+	 */
+	private static final int MAX_AT_ONCE= 2000;
+
+	/**
+	 * The fraction of the free heap all concurrently parsed batches are allowed to use together.
+	 */
+	private static final double HEAP_FRACTION= 0.5;
+
+	/**
+	 * Memory budget of batch parsers. The memory retained per compilation unit is learned across
+	 * parser instances, and the free heap is split between the batches which are parsed
+	 * concurrently.
+	 *
+	 * @since 3.10
+	 */
+	public static class MemoryBudget {
+
+		private long fBytesPerUnit= -1;
+		private int fActiveBatches;
+
+		/**
+		 * Returns the heap space left.
+		 * <p>
+		 * Subclasses may override, for example to test the batch sizes for a given heap space.
+		 * </p>
+		 *
+		 * @param liveMemory the heap memory currently in use by live objects
+		 * @return the heap memory which can still be allocated
+		 */
+		protected long getHeadroom(long liveMemory) {
+			return Runtime.getRuntime().maxMemory() - liveMemory;
+		}
+
+		public synchronized void batchStarted() {
+			fActiveBatches++;
+		}
+
+		public synchronized void batchDone() {
+			fActiveBatches--;
+		}
+
+		public synchronized void addSample(long retained, int unitCount) {
+			long bytesPerUnit= retained / unitCount;
+			if (fBytesPerUnit < 0) {
+				fBytesPerUnit= bytesPerUnit;
+			} else {
+				fBytesPerUnit= (fBytesPerUnit + bytesPerUnit) / 2;
+			}
+		}
+
+		/**
+		 * @param liveMemory the heap memory currently in use by live objects
+		 * @return the number of compilation units the next batch should parse, or <code>-1</code>
+		 *         if nothing has been learned yet
+		 */
+		public synchronized int getBatchSize(long liveMemory) {
+			if (fBytesPerUnit <= 0)
+				return -1;
+
+			long headroom= getHeadroom(liveMemory);
+			long share= (long) (headroom * HEAP_FRACTION) / Math.max(1, fActiveBatches);
+			return (int) Math.max(MIN_AT_ONCE, Math.min(MAX_AT_ONCE, share / fBytesPerUnit));
+		}
+
+		/**
+		 * @param liveMemory the heap memory currently in use by live objects
+		 * @param unitCount the number of compilation units per batch
+		 * @param max the maximal number of batches
+		 * @return the number of batches that fit into the free heap fraction, between 1 and
+		 *         <code>max</code>, or 1 if nothing has been learned yet
+		 */
+		public synchronized int getConcurrentBatchCount(long liveMemory, int unitCount, int max) {
+			if (fBytesPerUnit <= 0)
+				return 1;
+
+			long headroom= getHeadroom(liveMemory);
+			long bytesPerBatch= fBytesPerUnit * Math.max(1, unitCount);
+			return (int) Math.max(1, Math.min(max, (long) (headroom * HEAP_FRACTION) / bytesPerBatch));
+		}
+	}
+
+	private static final MemoryBudget fgBudget= new MemoryBudget();
+
+	/**
+	 * Progress monitor which samples the heap whenever a compilation unit has been processed. It
+	 * remembers the peak usage and, if garbage collections ran during the batch, the peak usage
+	 * left over by a collection, which does not count garbage.
+	 */
+	private static class HeapSamplingProgressMonitor extends SubProgressMonitor {
+
+		private final long fLiveBefore;
+		private long fPeakUsage;
+		private long fCollectionCount;
+		private long fPeakLiveUsage;
+
+		public HeapSamplingProgressMonitor(IProgressMonitor monitor, int ticks) {
+			super(monitor, ticks);
+			fLiveBefore= getLiveMemory();
+			fPeakUsage= getUsedMemory();
+			fCollectionCount= getCollectionCount();
+			fPeakLiveUsage= -1;
+		}
+
+		@Override
+		public void internalWorked(double work) {
+			super.internalWorked(work);
+			sample();
+		}
+
+		private void sample() {
+			fPeakUsage= Math.max(fPeakUsage, getUsedMemory());
+			long collectionCount= getCollectionCount();
+			if (collectionCount != fCollectionCount) {
+				fCollectionCount= collectionCount;
+				fPeakLiveUsage= Math.max(fPeakLiveUsage, getLiveMemory());
+			}
+		}
+
+		/**
+		 * @return the live memory before the batch started
+		 */
+		public long getLiveBefore() {
+			return fLiveBefore;
+		}
+
+		/**
+		 * @return the memory retained by the batch. If no garbage collection ran during the batch,
+		 *         this is an upper bound which includes garbage.
+		 */
+		public long getRetained() {
+			sample();
+			if (fPeakLiveUsage >= 0)
+				return fPeakLiveUsage - fLiveBefore;
+			return fPeakUsage - fLiveBefore;
+		}
+	}
+
+	private final MemoryBudget fBudget;
+	private int fBatchSize;
+
+	public ASTBatchParser() {
+		this(fgBudget);
+	}
+
+	/**
+	 * Creates a batch parser which adapts its batch size to the given memory budget instead of
+	 * the budget shared by all batch parsers. For testing purposes only.
+	 *
+	 * @param budget the memory budget
+	 * @since 3.10
+	 */
+	public ASTBatchParser(MemoryBudget budget) {
+		fBudget= budget;
+		int batchSize= fBudget.getBatchSize(getLiveMemory());
+		fBatchSize= batchSize > 0 ? batchSize : INITIAL_AT_ONCE;
+	}
+
 	/**
 	 * Creates ASTs for each compilation unit in <code>units</code>.
 	 * <p>
@@ -96,18 +271,17 @@ public class ASTBatchParser {
 			for (int i= 0; i < splited.length; i++) {
 				ICompilationUnit[] units= splited[i];
 
-				if (units.length <= MAX_AT_ONCE) {
-					createParser(units[0].getJavaProject()).createASTs(units, bindingKeys, requestor, new SubProgressMonitor(monitor, units.length));
+				if (units.length <= fBatchSize) {
+					createASTs(units, bindingKeys, requestor, monitor);
 				} else {
 					List<ICompilationUnit> list= Arrays.asList(units);
 					int end= 0;
 					int cursor= 0;
 					while (cursor < units.length) {
-						end= Math.min(end + MAX_AT_ONCE, units.length);
+						end= Math.min(end + fBatchSize, units.length);
 						List<ICompilationUnit> toParse= list.subList(cursor, end);
 
-						createParser(units[0].getJavaProject()).createASTs(toParse.toArray(new ICompilationUnit[toParse.size()]), bindingKeys, requestor,
-								new SubProgressMonitor(monitor, toParse.size()));
+						createASTs(toParse.toArray(new ICompilationUnit[toParse.size()]), bindingKeys, requestor, monitor);
 						cursor= end;
 					}
 				}
@@ -117,6 +291,89 @@ public class ASTBatchParser {
 		}
 	}
 
+	/**
+	 * Returns the number of compilation units which will be parsed at once by the next batch.
+	 *
+	 * @return the batch size
+	 */
+	public int getBatchSize() {
+		return fBatchSize;
+	}
+
+	/**
+	 * Returns how many batches of the given size can be parsed concurrently with the heap space
+	 * left, according to the memory retained per compilation unit learned by the batch parsers so
+	 * far. The memory of batches in progress is already accounted for in the heap space left.
+	 *
+	 * @param unitCount the number of compilation units per batch
+	 * @param max the maximal number of batches to return, for example the number of processors
+	 * @return the number of batches, between 1 and <code>max</code>, or 1 if no batch has been
+	 *         parsed yet
+	 * @since 3.10
+	 */
+	public static int getConcurrentBatchCount(int unitCount, int max) {
+		return fgBudget.getConcurrentBatchCount(getLiveMemory(), unitCount, max);
+	}
+
+	private void createASTs(ICompilationUnit[] units, String[] bindingKeys, ASTRequestor requestor, IProgressMonitor monitor) {
+		fBudget.batchStarted();
+		try {
+			HeapSamplingProgressMonitor batchMonitor= new HeapSamplingProgressMonitor(monitor, units.length);
+			createParser(units[0].getJavaProject()).createASTs(units, bindingKeys, requestor, batchMonitor);
+			adaptBatchSize(units.length, batchMonitor);
+		} finally {
+			fBudget.batchDone();
+		}
+	}
+
+	private void adaptBatchSize(int unitCount, HeapSamplingProgressMonitor batchMonitor) {
+		long retained= batchMonitor.getRetained();
+		if (retained > 0)
+			fBudget.addSample(retained, unitCount);
+
+		int batchSize= fBudget.getBatchSize(Math.min(batchMonitor.getLiveBefore(), getLiveMemory()));
+		if (batchSize > 0)
+			fBatchSize= batchSize;
+	}
+
+	private static long getUsedMemory() {
+		Runtime runtime= Runtime.getRuntime();
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+	/**
+	 * Returns the heap memory which was in use after the last garbage collection, which is the
+	 * memory retained by live objects at that time. Falls back to the current usage if the virtual
+	 * machine does not report collection usage.
+	 *
+	 * @return the live heap memory
+	 */
+	private static long getLiveMemory() {
+		long live= 0;
+		boolean reported= false;
+		for (Iterator<MemoryPoolMXBean> iter= ManagementFactory.getMemoryPoolMXBeans().iterator(); iter.hasNext();) {
+			MemoryPoolMXBean pool= iter.next();
+			if (pool.getType() != MemoryType.HEAP)
+				continue;
+			MemoryUsage usage= pool.getCollectionUsage();
+			if (usage != null) {
+				live+= usage.getUsed();
+				reported= true;
+			}
+		}
+		if (!reported)
+			return getUsedMemory();
+		return live;
+	}
+
+	private static long getCollectionCount() {
+		long count= 0;
+		for (Iterator<GarbageCollectorMXBean> iter= ManagementFactory.getGarbageCollectorMXBeans().iterator(); iter.hasNext();) {
+			count+= Math.max(0, iter.next().getCollectionCount());
+		}
+		return count;
+	}
+
 	/**
 	 * Creates a new parser which can be used to create ASTs
 	 * for compilation units in <code>project</code>
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2000, 2011 IBM Corporation and others.
+ * Copyright (c) 2000, 2014 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -20,12 +20,16 @@ import java.util.Map.Entry;
 
 import org.eclipse.swt.widgets.Display;
 
+import org.eclipse.core.runtime.Assert;
 import org.eclipse.core.runtime.CoreException;
 import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
 import org.eclipse.core.runtime.NullProgressMonitor;
 import org.eclipse.core.runtime.OperationCanceledException;
+import org.eclipse.core.runtime.Status;
 import org.eclipse.core.runtime.SubProgressMonitor;
 import org.eclipse.core.runtime.jobs.ISchedulingRule;
+import org.eclipse.core.runtime.jobs.Job;
 
 import org.eclipse.core.resources.IFile;
 import org.eclipse.core.resources.IResource;
@@ -76,11 +80,13 @@ import org.eclipse.jdt.internal.corext.util.Messages;
 import org.eclipse.jdt.ui.JavaElementLabels;
 import org.eclipse.jdt.ui.cleanup.CleanUpContext;
 import org.eclipse.jdt.ui.cleanup.CleanUpOptions;
+import org.eclipse.jdt.ui.cleanup.CleanUpRequirements;
 import org.eclipse.jdt.ui.cleanup.ICleanUp;
 import org.eclipse.jdt.ui.cleanup.ICleanUpFix;
 import org.eclipse.jdt.ui.text.java.IProblemLocation;
 
 import org.eclipse.jdt.internal.ui.JavaPlugin;
+import org.eclipse.jdt.internal.ui.fix.AbstractCleanUp;
 import org.eclipse.jdt.internal.ui.fix.IMultiFix.MultiFixContext;
 import org.eclipse.jdt.internal.ui.fix.MapCleanUpOptions;
 import org.eclipse.jdt.internal.ui.javaeditor.ASTProvider;
@@ -335,7 +341,23 @@ public class CleanUpRefactoring extends Refactoring implements IScheduledRefacto
 		private final int fSize;
 		private int fIndex;
 
+		private final CleanUpTarget[] fTargets;
+
 		public CleanUpFixpointIterator(CleanUpTarget[] targets, ICleanUp[] cleanUps) {
+			this(targets, cleanUps, 1, targets.length);
+		}
+
+		/**
+		 * Creates an iterator for a partition of the clean up targets of a project.
+		 *
+		 * @param targets the targets to process
+		 * @param cleanUps the clean ups to apply
+		 * @param firstIndex the one based index of the first target within all targets, used for
+		 *            progress reporting
+		 * @param size the number of targets in all partitions
+		 */
+		public CleanUpFixpointIterator(CleanUpTarget[] targets, ICleanUp[] cleanUps, int firstIndex, int size) {
+			fTargets= targets;
 			fSolutions= new Hashtable<ICompilationUnit, List<CleanUpChange>>(targets.length);
 			fWorkingCopies= new Hashtable<ICompilationUnit, ICompilationUnit>();
 
@@ -352,8 +374,8 @@ public class CleanUpRefactoring extends Refactoring implements IScheduledRefacto
 					fCleanUpOptions.putAll(currentCleanUpOption);
 			}
 
-			fSize= targets.length;
-			fIndex= 1;
+			fSize= size;
+			fIndex= firstIndex;
 		}
 
 		public boolean hasNext() {
@@ -446,15 +468,22 @@ public class CleanUpRefactoring extends Refactoring implements IScheduledRefacto
 			return false;
 		}
 
+		/**
+		 * Returns the changes for all targets with a solution. The changes are ordered
+		 * like the targets passed to the constructor.
+		 *
+		 * @return the changes
+		 */
 		public Change[] getResult() {
 
 			Change[] result= new Change[fSolutions.size()];
 			int i=0;
-			for (Iterator<Entry<ICompilationUnit, List<CleanUpChange>>> iterator= fSolutions.entrySet().iterator(); iterator.hasNext();) {
-				Entry<ICompilationUnit, List<CleanUpChange>>  entry= iterator.next();
-
-				List<CleanUpChange> changes= entry.getValue();
-				ICompilationUnit unit= entry.getKey();
+			HashSet<ICompilationUnit> processed= new HashSet<ICompilationUnit>();
+			for (int k= 0; k < fTargets.length; k++) {
+				ICompilationUnit unit= fTargets[k].getCompilationUnit();
+				List<CleanUpChange> changes= fSolutions.get(unit);
+				if (changes == null || !processed.add(unit))
+					continue;
 
 				int saveMode;
 				if (fLeaveFilesDirty) {
@@ -507,6 +536,245 @@ public class CleanUpRefactoring extends Refactoring implements IScheduledRefacto
 		}
 	}
 
+	/**
+	 * Wraps a clean up so that {@link ICleanUp#createFix(CleanUpContext)} is never executed
+	 * concurrently for the same clean up instance. Clean ups are not required to be thread safe.
+	 * Those that declare it through {@link AbstractCleanUp#canCreateFixesConcurrently()} are not
+	 * wrapped.
+	 */
+	private static class SynchronizedCleanUp implements ICleanUp {
+
+		private final ICleanUp fDelegate;
+
+		public SynchronizedCleanUp(ICleanUp delegate) {
+			fDelegate= delegate;
+		}
+
+		public void setOptions(CleanUpOptions options) {
+			fDelegate.setOptions(options);
+		}
+
+		public String[] getStepDescriptions() {
+			return fDelegate.getStepDescriptions();
+		}
+
+		public CleanUpRequirements getRequirements() {
+			return fDelegate.getRequirements();
+		}
+
+		public RefactoringStatus checkPreConditions(IJavaProject project, ICompilationUnit[] compilationUnits, IProgressMonitor monitor) throws CoreException {
+			return fDelegate.checkPreConditions(project, compilationUnits, monitor);
+		}
+
+		public ICleanUpFix createFix(CleanUpContext context) throws CoreException {
+			synchronized (fDelegate) {
+				return fDelegate.createFix(context);
+			}
+		}
+
+		public RefactoringStatus checkPostConditions(IProgressMonitor monitor) throws CoreException {
+			return fDelegate.checkPostConditions(monitor);
+		}
+	}
+
+	/**
+	 * Progress monitor shared by all worker jobs of a parallel clean up. Work and sub tasks are
+	 * accumulated here and transfered to the real progress monitor by the thread which started the
+	 * clean up, since the real monitor must not be accessed concurrently.
+	 */
+	private static class CleanUpWorkerProgressMonitor extends NullProgressMonitor {
+
+		private volatile boolean fCanceled;
+		private double fWork;
+		private String fSubTask;
+
+		@Override
+		public synchronized void internalWorked(double work) {
+			fWork+= work;
+		}
+
+		@Override
+		public void worked(int work) {
+			internalWorked(work);
+		}
+
+		@Override
+		public synchronized void subTask(String name) {
+			fSubTask= name;
+		}
+
+		@Override
+		public boolean isCanceled() {
+			return fCanceled;
+		}
+
+		@Override
+		public void setCanceled(boolean canceled) {
+			fCanceled= canceled;
+		}
+
+		public synchronized void transferTo(IProgressMonitor monitor) {
+			if (fSubTask != null) {
+				monitor.subTask(fSubTask);
+				fSubTask= null;
+			}
+			if (fWork > 0) {
+				monitor.internalWorked(fWork);
+				fWork= 0;
+			}
+		}
+	}
+
+	/**
+	 * Hands out partitions of the clean up targets to the worker jobs and collects their results.
+	 * Workers pull the next partition when they are done with the previous one, so that fast
+	 * workers take over the work of slow ones. Results are stored by partition index which
+	 * makes the merged result independent of the execution order.
+	 */
+	private static class CleanUpWorkQueue {
+
+		private final CleanUpTarget[] fTargets;
+		private final int fPartitionSize;
+		private final Change[][] fResults;
+		private int fNextPartition;
+		private int fRunningWorkers;
+		private CoreException fCoreException;
+		private RuntimeException fRuntimeException;
+
+		public CleanUpWorkQueue(CleanUpTarget[] targets, int partitionSize) {
+			fTargets= targets;
+			fPartitionSize= partitionSize;
+			fResults= new Change[(targets.length + partitionSize - 1) / partitionSize][];
+			fNextPartition= 0;
+		}
+
+		public synchronized void workerStarted() {
+			fRunningWorkers++;
+		}
+
+		public synchronized void workerDone() {
+			fRunningWorkers--;
+			notifyAll();
+		}
+
+		/**
+		 * @return the index of the next partition to process or <code>-1</code> if there is no
+		 *         more work
+		 */
+		public synchronized int nextPartition() {
+			if (fNextPartition >= fResults.length || fCoreException != null || fRuntimeException != null)
+				return -1;
+
+			return fNextPartition++;
+		}
+
+		public CleanUpTarget[] getTargets(int partition) {
+			int start= partition * fPartitionSize;
+			int length= Math.min(fPartitionSize, fTargets.length - start);
+			CleanUpTarget[] result= new CleanUpTarget[length];
+			System.arraycopy(fTargets, start, result, 0, length);
+			return result;
+		}
+
+		public int getFirstIndex(int partition) {
+			return partition * fPartitionSize + 1;
+		}
+
+		public synchronized void setResult(int partition, Change[] changes) {
+			fResults[partition]= changes;
+		}
+
+		public synchronized void setFailure(CoreException e) {
+			if (fCoreException == null && fRuntimeException == null)
+				fCoreException= e;
+		}
+
+		public synchronized void setFailure(RuntimeException e) {
+			if (fCoreException == null && fRuntimeException == null)
+				fRuntimeException= e;
+		}
+
+		/**
+		 * Waits until all workers are done or the timeout elapsed.
+		 *
+		 * @param timeout the time to wait in ms
+		 * @return <code>true</code> if all workers are done
+		 * @throws InterruptedException if the waiting thread has been interrupted
+		 */
+		public synchronized boolean awaitWorkers(long timeout) throws InterruptedException {
+			if (fRunningWorkers > 0)
+				wait(timeout);
+			return fRunningWorkers == 0;
+		}
+
+		public synchronized Change[] getResult() throws CoreException {
+			if (fCoreException != null)
+				throw fCoreException;
+			if (fRuntimeException != null)
+				throw fRuntimeException;
+
+			List<Change> result= new ArrayList<Change>();
+			for (int i= 0; i < fResults.length; i++) {
+				Change[] changes= fResults[i];
+				for (int j= 0; j < changes.length; j++) {
+					result.add(changes[j]);
+				}
+			}
+			return result.toArray(new Change[result.size()]);
+		}
+	}
+
+	private class CleanUpWorkerJob extends Job {
+
+		private final CleanUpWorkQueue fQueue;
+		private final ICleanUp[] fJobCleanUps;
+		private final CleanUpWorkerProgressMonitor fMonitor;
+		private final int fTargetCount;
+
+		public CleanUpWorkerJob(String name, CleanUpWorkQueue queue, ICleanUp[] cleanUps, CleanUpWorkerProgressMonitor monitor, int targetCount) {
+			super(name);
+			fQueue= queue;
+			fJobCleanUps= cleanUps;
+			fMonitor= monitor;
+			fTargetCount= targetCount;
+			setSystem(true);
+		}
+
+		/*
+		 * @see org.eclipse.core.runtime.jobs.Job#run(org.eclipse.core.runtime.IProgressMonitor)
+		 */
+		@Override
+		protected IStatus run(IProgressMonitor monitor) {
+			try {
+				int partition= fQueue.nextPartition();
+				while (partition != -1) {
+					if (fMonitor.isCanceled())
+						break;
+
+					CleanUpFixpointIterator iter= new CleanUpFixpointIterator(fQueue.getTargets(partition), fJobCleanUps, fQueue.getFirstIndex(partition), fTargetCount);
+					try {
+						while (iter.hasNext()) {
+							iter.next(fMonitor);
+						}
+						fQueue.setResult(partition, iter.getResult());
+					} finally {
+						iter.dispose();
+					}
+					partition= fQueue.nextPartition();
+				}
+			} catch (OperationCanceledException e) {
+				fMonitor.setCanceled(true);
+			} catch (CoreException e) {
+				fQueue.setFailure(e);
+			} catch (RuntimeException e) {
+				fQueue.setFailure(e);
+			} finally {
+				fQueue.workerDone();
+			}
+			return Status.OK_STATUS;
+		}
+	}
+
 	private static final RefactoringTickProvider CLEAN_UP_REFACTORING_TICK_PROVIDER= new RefactoringTickProvider(0, 1, 0, 0);
 
 	/**
@@ -515,6 +783,23 @@ public class CleanUpRefactoring extends Refactoring implements IScheduledRefacto
 	 */
 	private static final int SLOW_CLEAN_UP_THRESHOLD= 2000;
 
+	/**
+	 * The number of partitions per worker job when cleaning up in parallel. More partitions
+	 * balance the load better, less partitions profit more from batch parsing.
+	 */
+	private static final int PARTITIONS_PER_WORKER= 4;
+
+	/**
+	 * The maximal number of clean up targets in a partition when cleaning up in parallel.
+	 */
+	private static final int MAX_PARTITION_SIZE= 100;
+
+	/**
+	 * Interval in ms in which the progress of the worker jobs is reported when cleaning up in
+	 * parallel.
+	 */
+	private static final long PROGRESS_POLL_INTERVAL= 100;
+
 	private final List<ICleanUp> fCleanUps;
 	private final Hashtable<IJavaProject, List<CleanUpTarget>> fProjects;
 	private Change fChange;
@@ -523,6 +808,8 @@ public class CleanUpRefactoring extends Refactoring implements IScheduledRefacto
 
 	private boolean fUseOptionsFromProfile;
 
+	private int fParallelism;
+
 	public CleanUpRefactoring() {
 		this(FixMessages.CleanUpRefactoring_Refactoring_name);
 	}
@@ -532,12 +819,38 @@ public class CleanUpRefactoring extends Refactoring implements IScheduledRefacto
 		fCleanUps= new ArrayList<ICleanUp>();
 		fProjects= new Hashtable<IJavaProject, List<CleanUpTarget>>();
 		fUseOptionsFromProfile= false;
+		fParallelism= 1;
 	}
 
 	public void setUseOptionsFromProfile(boolean enabled) {
 		fUseOptionsFromProfile= enabled;
 	}
 
+	/**
+	 * Sets the number of worker jobs which compute the changes of a project concurrently. The
+	 * targets of a project are partitioned and each partition is parsed and fixed by one worker,
+	 * with the same fixpoint semantics as the sequential computation. The resulting changes are
+	 * the same and in the same order as if computed sequentially.
+	 * <p>
+	 * A value of <code>1</code>, the default, computes the changes sequentially in the calling
+	 * thread.
+	 * </p>
+	 *
+	 * @param workers the number of worker jobs, must be at least <code>1</code>
+	 */
+	public void setParallelism(int workers) {
+		Assert.isLegal(workers > 0);
+		fParallelism= workers;
+	}
+
+	/**
+	 * @return the number of worker jobs used to compute the changes of a project
+	 * @see #setParallelism(int)
+	 */
+	public int getParallelism() {
+		return fParallelism;
+	}
+
 	public void addCompilationUnit(ICompilationUnit unit) {
 		addCleanUpTarget(new CleanUpTarget(unit));
 	}
@@ -708,6 +1021,9 @@ public class CleanUpRefactoring extends Refactoring implements IScheduledRefacto
 	}
 
 	private Change[] cleanUpProject(IJavaProject project, CleanUpTarget[] targets, ICleanUp[] cleanUps, IProgressMonitor monitor) throws CoreException {
+		if (fParallelism > 1 && targets.length > 1)
+			return cleanUpProjectInParallel(project, targets, cleanUps, monitor);
+
 		CleanUpFixpointIterator iter= new CleanUpFixpointIterator(targets, cleanUps);
 
 		SubProgressMonitor subMonitor= new SubProgressMonitor(monitor, 2 * targets.length * cleanUps.length);
@@ -725,6 +1041,56 @@ public class CleanUpRefactoring extends Refactoring implements IScheduledRefacto
 		}
 	}
 
+	private Change[] cleanUpProjectInParallel(IJavaProject project, CleanUpTarget[] targets, ICleanUp[] cleanUps, IProgressMonitor monitor) throws CoreException {
+		ICleanUp[] workerCleanUps= new ICleanUp[cleanUps.length];
+		for (int i= 0; i < cleanUps.length; i++) {
+			ICleanUp cleanUp= cleanUps[i];
+			if (cleanUp instanceof AbstractCleanUp && ((AbstractCleanUp)cleanUp).canCreateFixesConcurrently()) {
+				workerCleanUps[i]= cleanUp;
+			} else {
+				workerCleanUps[i]= new SynchronizedCleanUp(cleanUp);
+			}
+		}
+
+		int workerCount= Math.min(fParallelism, targets.length);
+		int partitionSize= Math.max(1, Math.min(MAX_PARTITION_SIZE, targets.length / (workerCount * PARTITIONS_PER_WORKER)));
+		CleanUpWorkQueue queue= new CleanUpWorkQueue(targets, partitionSize);
+		CleanUpWorkerProgressMonitor workerMonitor= new CleanUpWorkerProgressMonitor();
+
+		SubProgressMonitor subMonitor= new SubProgressMonitor(monitor, 2 * targets.length * cleanUps.length);
+		subMonitor.beginTask("", targets.length); //$NON-NLS-1$
+		subMonitor.subTask(Messages.format(FixMessages.CleanUpRefactoring_Parser_Startup_message, BasicElementLabels.getResourceName(project.getProject())));
+		try {
+			for (int i= 0; i < workerCount; i++) {
+				queue.workerStarted();
+				new CleanUpWorkerJob(getName(), queue, workerCleanUps, workerMonitor, targets.length).schedule();
+			}
+
+			boolean interrupted= false;
+			boolean done= false;
+			while (!done) {
+				try {
+					done= queue.awaitWorkers(PROGRESS_POLL_INTERVAL);
+				} catch (InterruptedException e) {
+					interrupted= true;
+					workerMonitor.setCanceled(true);
+				}
+				workerMonitor.transferTo(subMonitor);
+				if (subMonitor.isCanceled())
+					workerMonitor.setCanceled(true);
+			}
+			if (interrupted)
+				Thread.currentThread().interrupt();
+
+			if (workerMonitor.isCanceled())
+				throw new OperationCanceledException();
+
+			return queue.getResult();
+		} finally {
+			subMonitor.done();
+		}
+	}
+
 	private RefactoringStatus setOptionsFromProfile(IJavaProject javaProject, ICleanUp[] cleanUps) {
 		Map<String, String> options= CleanUpPreferenceUtil.loadOptions(new ProjectScope(javaProject.getProject()));
 		if (options == null)
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2000, 2011 IBM Corporation and others.
+ * Copyright (c) 2000, 2014 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -13,11 +13,12 @@
 import java.net.URI;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Collections;
-import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.w3c.dom.Element;
 
@@ -28,6 +29,7 @@ import org.eclipse.core.runtime.CoreException;
 import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.core.runtime.IStatus;
 import org.eclipse.core.runtime.OperationCanceledException;
+import org.eclipse.core.runtime.Platform;
 import org.eclipse.core.runtime.Status;
 import org.eclipse.core.runtime.jobs.Job;
 
@@ -54,25 +56,32 @@ import org.eclipse.jdt.internal.corext.CorextMessages;
 
 /**
  * History for the open type dialog. Object and keys are both {@link TypeNameMatch}s.
+ * <p>
+ * Readers work on an immutable snapshot of the history and never lock. Entries are validated
+ * individually: a Java element delta only marks the entries whose type or one of its containers
+ * appears in the delta, and a consistency check only looks at the marked entries.
+ * </p>
  */
 public class OpenTypeHistory extends History {
 
+	private static final boolean DEBUG= "true".equalsIgnoreCase(Platform.getDebugOption("org.eclipse.jdt.ui/debug/OpenTypeHistory")); //$NON-NLS-1$//$NON-NLS-2$
+
 	private static class TypeHistoryDeltaListener implements IElementChangedListener {
 		public void elementChanged(ElementChangedEvent event) {
-			if (processDelta(event.getDelta())) {
-				OpenTypeHistory.getInstance().markAsInconsistent();
+			Set<IJavaElement> changed= new HashSet<IJavaElement>();
+			processDelta(event.getDelta(), changed);
+			if (!changed.isEmpty()) {
+				OpenTypeHistory.getInstance().markAsInconsistent(changed);
 			}
 		}
 
 		/**
-		 * Computes whether the history needs a consistency check or not.
+		 * Collects the elements whose types need a consistency check.
 		 *
 		 * @param delta the Java element delta
-		 *
-		 * @return <code>true</code> if consistency must be checked
-		 *  <code>false</code> otherwise.
+		 * @param changed the set to add the changed elements to
 		 */
-		private boolean processDelta(IJavaElementDelta delta) {
+		private void processDelta(IJavaElementDelta delta, Set<IJavaElement> changed) {
 			IJavaElement elem= delta.getElement();
 
 			boolean isChanged= delta.getKind() == IJavaElementDelta.CHANGED;
@@ -82,44 +91,55 @@ public class OpenTypeHistory extends History {
 				case IJavaElement.JAVA_PROJECT:
 					if (isRemoved || (isChanged &&
 							(delta.getFlags() & IJavaElementDelta.F_CLOSED) != 0)) {
-						return true;
+						changed.add(elem);
+						return;
 					}
-					return processChildrenDelta(delta);
+					processChildrenDelta(delta, changed);
+					return;
 				case IJavaElement.PACKAGE_FRAGMENT_ROOT:
 					if (isRemoved || (isChanged && (
 							(delta.getFlags() & IJavaElementDelta.F_ARCHIVE_CONTENT_CHANGED) != 0 ||
 							(delta.getFlags() & IJavaElementDelta.F_REMOVED_FROM_CLASSPATH) != 0))) {
-						return true;
+						changed.add(elem);
+						return;
 					}
-					return processChildrenDelta(delta);
+					processChildrenDelta(delta, changed);
+					return;
 				case IJavaElement.TYPE:
 					if (isChanged && (delta.getFlags() & IJavaElementDelta.F_MODIFIERS) != 0) {
-						return true;
+						changed.add(elem);
+						return;
 					}
 					if (isRemoved) {
-						return true;
+						changed.add(elem);
+						return;
 					}
-					return processChildrenDelta(delta);
+					processChildrenDelta(delta, changed);
+					return;
 				case IJavaElement.JAVA_MODEL:
 				case IJavaElement.PACKAGE_FRAGMENT:
 				case IJavaElement.CLASS_FILE:
 					if (isRemoved) {
-						return true;
+						changed.add(elem);
+						return;
 					}
-					return processChildrenDelta(delta);
+					processChildrenDelta(delta, changed);
+					return;
 				case IJavaElement.COMPILATION_UNIT:
 					// Not the primary compilation unit. Ignore it
 					if (!JavaModelUtil.isPrimary((ICompilationUnit) elem)) {
-						return false;
+						return;
 					}
 
 					if (isRemoved || (isChanged && isUnknownStructuralChange(delta.getFlags()))) {
-						return true;
+						changed.add(elem);
+						return;
 					}
-					return processChildrenDelta(delta);
+					processChildrenDelta(delta, changed);
+					return;
 				default:
 					// fields, methods, imports ect
-					return false;
+					return;
 			}
 		}
 
@@ -129,20 +149,11 @@ public class OpenTypeHistory extends History {
 			return (flags & IJavaElementDelta.F_FINE_GRAINED) == 0;
 		}
 
-		/*
-		private boolean isPossibleStructuralChange(int flags) {
-			return (flags & (IJavaElementDelta.F_CONTENT | IJavaElementDelta.F_FINE_GRAINED)) == IJavaElementDelta.F_CONTENT;
-		}
-		*/
-
-		private boolean processChildrenDelta(IJavaElementDelta delta) {
+		private void processChildrenDelta(IJavaElementDelta delta, Set<IJavaElement> changed) {
 			IJavaElementDelta[] children= delta.getAffectedChildren();
 			for (int i= 0; i < children.length; i++) {
-				if (processDelta(children[i])) {
-					return true;
-				}
+				processDelta(children[i], changed);
 			}
-			return false;
 		}
 	}
 
@@ -154,7 +165,11 @@ public class OpenTypeHistory extends History {
 		@Override
 		protected IStatus run(IProgressMonitor monitor) {
 			OpenTypeHistory history= OpenTypeHistory.getInstance();
-			history.internalCheckConsistency(monitor);
+			try {
+				history.internalCheckConsistency(monitor);
+			} catch (OperationCanceledException e) {
+				return Status.CANCEL_STATUS;
+			}
 			return Status.OK_STATUS;
 		}
 		@Override
@@ -163,10 +178,19 @@ public class OpenTypeHistory extends History {
 		}
 	}
 
-	// Needs to be volatile since accesses aren't synchronized.
-	private volatile boolean fNeedsConsistencyCheck;
+	private static final TypeNameMatch[] NO_TYPE_INFOS= new TypeNameMatch[0];
+
+	// Immutable snapshot of the history, newest entry first. Replaced on every modification.
+	private volatile TypeNameMatch[] fTypeInfos= NO_TYPE_INFOS;
+	// Entries that have to be validated, used as a concurrent set
+	private final ConcurrentHashMap<TypeNameMatch, Boolean> fEntriesToCheck;
 	// Map of cached time stamps
-	private Map<TypeNameMatch, Long> fTimestampMapping;
+	private final ConcurrentHashMap<TypeNameMatch, Long> fTimestampMapping;
+
+	// Time spent by clients in checkConsistency, for diagnostics
+	private final AtomicLong fWaitCount= new AtomicLong();
+	private final AtomicLong fTotalWaitTime= new AtomicLong();
+	private volatile long fLastWaitTime;
 
 	private final IElementChangedListener fDeltaListener;
 	private final UpdateJob fUpdateJob;
@@ -194,8 +218,8 @@ public class OpenTypeHistory extends History {
 
 	private OpenTypeHistory() {
 		super(FILENAME, NODE_ROOT, NODE_TYPE_INFO);
-		fTimestampMapping= new HashMap<TypeNameMatch, Long>();
-		fNeedsConsistencyCheck= true;
+		fTimestampMapping= new ConcurrentHashMap<TypeNameMatch, Long>();
+		fEntriesToCheck= new ConcurrentHashMap<TypeNameMatch, Boolean>();
 		load();
 		fDeltaListener= new TypeHistoryDeltaListener();
 		JavaCore.addElementChangedListener(fDeltaListener);
@@ -208,82 +232,179 @@ public class OpenTypeHistory extends History {
 		fUpdateJob.setPriority(Job.SHORT);
 	}
 
+	/**
+	 * Marks all entries as inconsistent.
+	 */
 	public void markAsInconsistent() {
-		fNeedsConsistencyCheck= true;
-		// cancel the old job. If no job is running this is a NOOP.
-		fUpdateJob.cancel();
+		markAsInconsistent(fTypeInfos);
 		fUpdateJob.schedule();
 	}
 
+	/**
+	 * Marks the entries whose type is or is contained in one of the given elements as
+	 * inconsistent.
+	 *
+	 * @param changed the changed Java elements
+	 */
+	private void markAsInconsistent(Set<IJavaElement> changed) {
+		TypeNameMatch[] typeInfos= fTypeInfos;
+		boolean marked= false;
+		for (int i= 0; i < typeInfos.length; i++) {
+			IJavaElement element= typeInfos[i].getType();
+			while (element != null) {
+				if (changed.contains(element)) {
+					fEntriesToCheck.put(typeInfos[i], Boolean.TRUE);
+					marked= true;
+					break;
+				}
+				element= element.getParent();
+			}
+		}
+		if (marked)
+			fUpdateJob.schedule();
+	}
+
+	private void markAsInconsistent(TypeNameMatch[] typeInfos) {
+		for (int i= 0; i < typeInfos.length; i++) {
+			fEntriesToCheck.put(typeInfos[i], Boolean.TRUE);
+		}
+	}
+
 	public boolean needConsistencyCheck() {
-		return fNeedsConsistencyCheck;
+		return !fEntriesToCheck.isEmpty();
 	}
 
+	/**
+	 * Tells whether the given entry is marked as inconsistent and will be validated by the next
+	 * consistency check.
+	 *
+	 * @param type the entry
+	 * @return <code>true</code> if the entry has to be validated
+	 */
+	public boolean needConsistencyCheck(TypeNameMatch type) {
+		return fEntriesToCheck.containsKey(type);
+	}
+
+	/**
+	 * Validates the entries marked as inconsistent. Entries that are validated concurrently by
+	 * the update job are not waited for.
+	 *
+	 * @param monitor the progress monitor
+	 * @throws OperationCanceledException if the monitor has been canceled
+	 */
 	public void checkConsistency(IProgressMonitor monitor) throws OperationCanceledException {
-		if (!fNeedsConsistencyCheck)
+		if (fEntriesToCheck.isEmpty())
 			return;
-		if (fUpdateJob.getState() == Job.RUNNING) {
-			try {
-				Job.getJobManager().join(UpdateJob.FAMILY, monitor);
-			} catch (OperationCanceledException e) {
-				// Ignore and do the consistency check without
-				// waiting for the update job.
-			} catch (InterruptedException e) {
-				// Ignore and do the consistency check without
-				// waiting for the update job.
-			}
+		long start= System.currentTimeMillis();
+		try {
+			internalCheckConsistency(monitor);
+		} finally {
+			long time= System.currentTimeMillis() - start;
+			fLastWaitTime= time;
+			fTotalWaitTime.addAndGet(time);
+			fWaitCount.incrementAndGet();
+			if (DEBUG)
+				System.out.println("OpenTypeHistory: consistency check took " + time + " ms"); //$NON-NLS-1$ //$NON-NLS-2$
 		}
-		if (!fNeedsConsistencyCheck)
-			return;
-		internalCheckConsistency(monitor);
 	}
 
-	public synchronized boolean contains(TypeNameMatch type) {
-		return super.contains(type);
+	/**
+	 * Returns the time the last call to {@link #checkConsistency(IProgressMonitor)} that had
+	 * to validate entries took.
+	 *
+	 * @return the time in milliseconds
+	 */
+	public long getLastWaitTime() {
+		return fLastWaitTime;
 	}
 
-	public synchronized void accessed(TypeNameMatch info) {
+	/**
+	 * Returns the accumulated time of all calls to {@link #checkConsistency(IProgressMonitor)}
+	 * that had to validate entries.
+	 *
+	 * @return the time in milliseconds
+	 */
+	public long getTotalWaitTime() {
+		return fTotalWaitTime.get();
+	}
+
+	/**
+	 * Returns the number of calls to {@link #checkConsistency(IProgressMonitor)} that had to
+	 * validate entries.
+	 *
+	 * @return the number of calls
+	 */
+	public long getWaitCount() {
+		return fWaitCount.get();
+	}
+
+	@Override
+	public synchronized void load() {
+		super.load();
+		updateTypeInfos();
+		// the containers may have changed since the entries have been saved
+		markAsInconsistent(fTypeInfos);
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return fTypeInfos.length == 0;
+	}
+
+	public boolean contains(TypeNameMatch type) {
+		TypeNameMatch[] typeInfos= fTypeInfos;
+		for (int i= 0; i < typeInfos.length; i++) {
+			if (typeInfos[i].equals(type))
+				return true;
+		}
+		return false;
+	}
+
+	public void accessed(TypeNameMatch info) {
 		// Fetching the timestamp might not be cheap (remote file system
 		// external Jars. So check if we alreay have one.
 		if (!fTimestampMapping.containsKey(info)) {
 			fTimestampMapping.put(info, new Long(getContainerTimestamp(info)));
 		}
-		super.accessed(info);
+		synchronized (this) {
+			super.accessed(info);
+			updateTypeInfos();
+		}
 	}
 
 	public synchronized TypeNameMatch remove(TypeNameMatch info) {
 		fTimestampMapping.remove(info);
-		return (TypeNameMatch)super.remove(info);
+		fEntriesToCheck.remove(info);
+		TypeNameMatch removed= (TypeNameMatch)super.remove(info);
+		updateTypeInfos();
+		return removed;
 	}
 
-	public synchronized void replace(TypeNameMatch old, TypeNameMatch newMatch) {
-		fTimestampMapping.remove(old);
-		fTimestampMapping.put(newMatch, new Long(getContainerTimestamp(newMatch)));
-		super.remove(old);
-		super.accessed(newMatch);
+	public void replace(TypeNameMatch old, TypeNameMatch newMatch) {
+		long timestamp= getContainerTimestamp(newMatch);
+		synchronized (this) {
+			if (!super.contains(old))
+				return;
+			fTimestampMapping.remove(old);
+			fTimestampMapping.put(newMatch, new Long(timestamp));
+			super.remove(old);
+			super.accessed(newMatch);
+			updateTypeInfos();
+		}
 	}
 
-	public synchronized TypeNameMatch[] getTypeInfos() {
-		Collection<Object> values= getValues();
-		int size= values.size();
-		TypeNameMatch[] result= new TypeNameMatch[size];
-		int i= size - 1;
-		for (Iterator<Object> iter= values.iterator(); iter.hasNext();) {
-			result[i]= (TypeNameMatch)iter.next();
-			i--;
-		}
-		return result;
+	public TypeNameMatch[] getTypeInfos() {
+		return fTypeInfos.clone();
 	}
 
-	public synchronized TypeNameMatch[] getFilteredTypeInfos(TypeInfoFilter filter) {
-		Collection<Object> values= getValues();
+	public TypeNameMatch[] getFilteredTypeInfos(TypeInfoFilter filter) {
+		TypeNameMatch[] typeInfos= fTypeInfos;
 		List<TypeNameMatch> result= new ArrayList<TypeNameMatch>();
-		for (Iterator<Object> iter= values.iterator(); iter.hasNext();) {
-			TypeNameMatch type= (TypeNameMatch)iter.next();
+		for (int i= 0; i < typeInfos.length; i++) {
+			TypeNameMatch type= typeInfos[i];
 			if ((filter == null || filter.matchesHistoryElement(type)) && !TypeFilter.isFiltered(type.getFullyQualifiedName()))
 				result.add(type);
 		}
-		Collections.reverse(result);
 		return result.toArray(new TypeNameMatch[result.size()]);
 
 	}
@@ -293,41 +414,64 @@ public class OpenTypeHistory extends History {
 		return object;
 	}
 
-	private synchronized void internalCheckConsistency(IProgressMonitor monitor) throws OperationCanceledException {
-		// Setting fNeedsConsistencyCheck is necessary here since
-		// markAsInconsistent isn't synchronized.
-		fNeedsConsistencyCheck= true;
-		List<Object> typesToCheck= new ArrayList<Object>(getKeys());
+	/*
+	 * Must be called while holding the lock of the history.
+	 */
+	private void updateTypeInfos() {
+		Collection<Object> values= getValues();
+		int size= values.size();
+		TypeNameMatch[] result= new TypeNameMatch[size];
+		int i= size - 1;
+		for (Iterator<Object> iter= values.iterator(); iter.hasNext();) {
+			result[i]= (TypeNameMatch)iter.next();
+			i--;
+		}
+		fTypeInfos= result;
+	}
+
+	private void internalCheckConsistency(IProgressMonitor monitor) throws OperationCanceledException {
+		List<TypeNameMatch> typesToCheck= new ArrayList<TypeNameMatch>(fEntriesToCheck.keySet());
 		monitor.beginTask(CorextMessages.TypeInfoHistory_consistency_check, typesToCheck.size());
 		monitor.setTaskName(CorextMessages.TypeInfoHistory_consistency_check);
-		for (Iterator<Object> iter= typesToCheck.iterator(); iter.hasNext();) {
-			TypeNameMatch type= (TypeNameMatch)iter.next();
-			long currentTimestamp= getContainerTimestamp(type);
-			Long lastTested= fTimestampMapping.get(type);
-			if (lastTested != null && currentTimestamp != IResource.NULL_STAMP && currentTimestamp == lastTested.longValue() && !isContainerDirty(type))
-				continue;
-			try {
-				IType jType= type.getType();
-				if (jType == null || !jType.exists()) {
-					remove(type);
-				} else {
-					// copy over the modifiers since they may have changed
-					int modifiers= jType.getFlags();
-					if (modifiers != type.getModifiers()) {
-						replace(type, SearchEngine.createTypeNameMatch(jType, modifiers));
-					} else {
-						fTimestampMapping.put(type, new Long(currentTimestamp));
-					}
+		for (Iterator<TypeNameMatch> iter= typesToCheck.iterator(); iter.hasNext();) {
+			TypeNameMatch type= iter.next();
+			// skip entries that have been checked concurrently
+			if (fEntriesToCheck.remove(type) != null) {
+				try {
+					checkConsistency(type);
+				} catch (RuntimeException e) {
+					fEntriesToCheck.put(type, Boolean.TRUE);
+					throw e;
 				}
-			} catch (JavaModelException e) {
-				remove(type);
 			}
 			if (monitor.isCanceled())
 				throw new OperationCanceledException();
 			monitor.worked(1);
 		}
 		monitor.done();
-		fNeedsConsistencyCheck= false;
+	}
+
+	private void checkConsistency(TypeNameMatch type) {
+		long currentTimestamp= getContainerTimestamp(type);
+		Long lastTested= fTimestampMapping.get(type);
+		if (lastTested != null && currentTimestamp != IResource.NULL_STAMP && currentTimestamp == lastTested.longValue() && !isContainerDirty(type))
+			return;
+		try {
+			IType jType= type.getType();
+			if (jType == null || !jType.exists()) {
+				remove(type);
+			} else {
+				// copy over the modifiers since they may have changed
+				int modifiers= jType.getFlags();
+				if (modifiers != type.getModifiers()) {
+					replace(type, SearchEngine.createTypeNameMatch(jType, modifiers));
+				} else {
+					fTimestampMapping.put(type, new Long(currentTimestamp));
+				}
+			}
+		} catch (JavaModelException e) {
+			remove(type);
+		}
 	}
 
 	private long getContainerTimestamp(TypeNameMatch match) {
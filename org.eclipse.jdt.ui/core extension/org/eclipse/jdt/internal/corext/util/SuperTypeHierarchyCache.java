@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2000, 2013 IBM Corporation and others.
+ * Copyright (c) 2000, 2014 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -11,10 +11,16 @@
 package org.eclipse.jdt.internal.corext.util;
 
 import java.util.ArrayList;
-import java.util.Iterator;
-import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.OperationCanceledException;
 
 import org.eclipse.jdt.core.IType;
 import org.eclipse.jdt.core.ITypeHierarchy;
@@ -23,18 +29,28 @@ import org.eclipse.jdt.core.JavaModelException;
 
 /**
  * A thread-safe cache for super type hierarchies.
- * 
+ * <p>
+ * Every type of a cached hierarchy is indexed, so that lookups need neither a lock nor a scan
+ * of the cached hierarchies. Hierarchies are evicted least recently used first when the total
+ * number of types in all cached hierarchies exceeds a limit. Concurrent requests for a type
+ * which is not cached share a single hierarchy computation.
+ * </p>
+ *
  * @see JDTUIHelperClasses
  */
 public class SuperTypeHierarchyCache {
 
 	private static class HierarchyCacheEntry implements ITypeHierarchyChangedListener {
 
-		private ITypeHierarchy fTypeHierarchy;
-		private long fLastAccess;
+		private volatile ITypeHierarchy fTypeHierarchy;
+		private volatile long fLastAccess;
+		private final IType[] fTypes;
+		private final ConcurrentHashMap<IType, MethodOverrideTester> fMethodOverrideTesters;
 
 		public HierarchyCacheEntry(ITypeHierarchy hierarchy) {
 			fTypeHierarchy= hierarchy;
+			fTypes= hierarchy.getAllTypes();
+			fMethodOverrideTesters= new ConcurrentHashMap<IType, MethodOverrideTester>(4);
 			fTypeHierarchy.addTypeHierarchyChangedListener(this);
 			markAsAccessed();
 		}
@@ -47,6 +63,24 @@ public class SuperTypeHierarchyCache {
 			return fTypeHierarchy;
 		}
 
+		/**
+		 * @return all types of the hierarchy, the weight of this entry is the number of types
+		 */
+		public IType[] getTypes() {
+			return fTypes;
+		}
+
+		public MethodOverrideTester getMethodOverrideTester(IType type, ITypeHierarchy hierarchy) {
+			MethodOverrideTester tester= fMethodOverrideTesters.get(type);
+			if (tester == null) {
+				tester= new MethodOverrideTester(type, hierarchy);
+				MethodOverrideTester existing= fMethodOverrideTesters.putIfAbsent(type, tester);
+				if (existing != null)
+					tester= existing;
+			}
+			return tester;
+		}
+
 		public void markAsAccessed() {
 			fLastAccess= System.currentTimeMillis();
 		}
@@ -56,10 +90,12 @@ public class SuperTypeHierarchyCache {
 		}
 
 		public void dispose() {
-			if (fTypeHierarchy != null) {
-				fTypeHierarchy.removeTypeHierarchyChangedListener(this);
+			ITypeHierarchy hierarchy= fTypeHierarchy;
+			if (hierarchy != null) {
+				hierarchy.removeTypeHierarchyChangedListener(this);
 				fTypeHierarchy= null;
 			}
+			fMethodOverrideTesters.clear();
 		}
 
 		/* (non-Javadoc)
@@ -67,19 +103,52 @@ public class SuperTypeHierarchyCache {
 		 */
 		@Override
 		public String toString() {
-			return "Super hierarchy of: " + fTypeHierarchy.getType().getElementName(); //$NON-NLS-1$
+			ITypeHierarchy hierarchy= fTypeHierarchy;
+			return "Super hierarchy of: " + (hierarchy != null ? hierarchy.getType().getElementName() : "<disposed>"); //$NON-NLS-1$ //$NON-NLS-2$
 		}
 
 	}
 
 
-	private static final int CACHE_SIZE= 8;
+	/**
+	 * The maximal number of cached hierarchies.
+	 */
+	private static final int CACHE_SIZE= 32;
 
+	/**
+	 * The maximal number of types in all cached hierarchies.
+	 */
+	private static final int CACHE_WEIGHT= 5000;
+
+	/**
+	 * Interval in ms in which a thread waiting for a hierarchy computed by another thread checks
+	 * its progress monitor for cancellation.
+	 */
+	private static final long CANCEL_POLL_INTERVAL= 100;
+
+	/**
+	 * The cached hierarchies. Modifications are synchronized on this list.
+	 */
 	private static ArrayList<HierarchyCacheEntry> fgHierarchyCache= new ArrayList<HierarchyCacheEntry>(CACHE_SIZE);
-	private static Map<IType, MethodOverrideTester> fgMethodOverrideTesterCache= new LRUMap<IType, MethodOverrideTester>(CACHE_SIZE);
 
-	private static int fgCacheHits= 0;
-	private static int fgCacheMisses= 0;
+	/**
+	 * Maps the types of all cached hierarchies to the cache entries containing them. A type can be
+	 * contained in several cached hierarchies, e.g. a common super type. The arrays are never
+	 * modified, they are replaced while holding the lock on {@link #fgHierarchyCache}.
+	 */
+	private static ConcurrentHashMap<IType, HierarchyCacheEntry[]> fgTypeIndex= new ConcurrentHashMap<IType, HierarchyCacheEntry[]>();
+
+	/**
+	 * Hierarchy computations in progress.
+	 */
+	private static ConcurrentHashMap<IType, FutureTask<HierarchyCacheEntry>> fgPendingComputations= new ConcurrentHashMap<IType, FutureTask<HierarchyCacheEntry>>();
+
+	private static int fgCacheWeight= 0;
+
+	private static AtomicInteger fgCacheHits= new AtomicInteger();
+	private static AtomicInteger fgCacheMisses= new AtomicInteger();
+	private static AtomicInteger fgCacheEvictions= new AtomicInteger();
+	private static AtomicInteger fgSharedComputations= new AtomicInteger();
 
 	/**
 	 * Returns a super type hierarchy that contains the given type.
@@ -97,31 +166,12 @@ public class SuperTypeHierarchyCache {
 	}
 
 	public static MethodOverrideTester getMethodOverrideTester(IType type) throws JavaModelException {
-		MethodOverrideTester test= null;
-		synchronized (fgMethodOverrideTesterCache) {
-			test= fgMethodOverrideTesterCache.get(type);
-		}
-		if (test == null) {
-			ITypeHierarchy hierarchy= getTypeHierarchy(type); // don't nest the locks
-			synchronized (fgMethodOverrideTesterCache) {
-				test= fgMethodOverrideTesterCache.get(type); // test again after waiting a long time for 'getTypeHierarchy'
-				if (test == null) {
-					test= new MethodOverrideTester(type, hierarchy);
-					fgMethodOverrideTesterCache.put(type, test);
-				}
-			}
-		}
-		return test;
-	}
-
-	private static void removeMethodOverrideTester(ITypeHierarchy hierarchy) {
-		synchronized (fgMethodOverrideTesterCache) {
-			for (Iterator<MethodOverrideTester> iter= fgMethodOverrideTesterCache.values().iterator(); iter.hasNext();) {
-				MethodOverrideTester curr= iter.next();
-				if (curr.getTypeHierarchy().equals(hierarchy)) {
-					iter.remove();
-				}
-			}
+		while (true) {
+			HierarchyCacheEntry entry= getHierarchyEntry(type, null);
+			ITypeHierarchy hierarchy= entry.getTypeHierarchy();
+			if (hierarchy != null)
+				return entry.getMethodOverrideTester(type, hierarchy);
+			// the entry has been invalidated concurrently
 		}
 	}
 
@@ -138,45 +188,149 @@ public class SuperTypeHierarchyCache {
 	 * @throws JavaModelException if a problem occurs
 	 */
 	public static ITypeHierarchy getTypeHierarchy(IType type, IProgressMonitor progressMonitor) throws JavaModelException {
-		ITypeHierarchy hierarchy= findTypeHierarchyInCache(type);
-		if (hierarchy == null) {
-			fgCacheMisses++;
-			hierarchy= type.newSupertypeHierarchy(progressMonitor);
-			addTypeHierarchyToCache(hierarchy);
-		} else {
-			fgCacheHits++;
+		while (true) {
+			ITypeHierarchy hierarchy= getHierarchyEntry(type, progressMonitor).getTypeHierarchy();
+			if (hierarchy != null)
+				return hierarchy;
+			// the entry has been invalidated concurrently
 		}
-		return hierarchy;
 	}
 
-	private static void addTypeHierarchyToCache(ITypeHierarchy hierarchy) {
+	private static HierarchyCacheEntry getHierarchyEntry(final IType type, final IProgressMonitor progressMonitor) throws JavaModelException {
+		HierarchyCacheEntry entry= findHierarchyEntryInCache(type);
+		if (entry != null) {
+			fgCacheHits.incrementAndGet();
+			return entry;
+		}
+
+		while (true) {
+			FutureTask<HierarchyCacheEntry> computation= new FutureTask<HierarchyCacheEntry>(new Callable<HierarchyCacheEntry>() {
+				public HierarchyCacheEntry call() throws JavaModelException {
+					fgCacheMisses.incrementAndGet();
+					return addTypeHierarchyToCache(type.newSupertypeHierarchy(progressMonitor));
+				}
+			});
+			FutureTask<HierarchyCacheEntry> pending= fgPendingComputations.putIfAbsent(type, computation);
+			if (pending == null) {
+				try {
+					computation.run();
+				} finally {
+					fgPendingComputations.remove(type, computation);
+				}
+				return getResult(computation, progressMonitor);
+			}
+
+			fgSharedComputations.incrementAndGet();
+			try {
+				return getResult(pending, progressMonitor);
+			} catch (OperationCanceledException e) {
+				if (progressMonitor != null && progressMonitor.isCanceled())
+					throw e;
+				// the computing thread has been canceled, compute the hierarchy in this thread
+			}
+		}
+	}
+
+	private static HierarchyCacheEntry getResult(FutureTask<HierarchyCacheEntry> computation, IProgressMonitor progressMonitor) throws JavaModelException {
+		boolean interrupted= false;
+		try {
+			while (true) {
+				try {
+					return computation.get(CANCEL_POLL_INTERVAL, TimeUnit.MILLISECONDS);
+				} catch (TimeoutException e) {
+					if (progressMonitor != null && progressMonitor.isCanceled())
+						throw new OperationCanceledException();
+				} catch (InterruptedException e) {
+					interrupted= true;
+				} catch (ExecutionException e) {
+					Throwable cause= e.getCause();
+					if (cause instanceof JavaModelException)
+						throw (JavaModelException) cause;
+					if (cause instanceof RuntimeException)
+						throw (RuntimeException) cause;
+					if (cause instanceof Error)
+						throw (Error) cause;
+					throw new IllegalStateException(cause);
+				}
+			}
+		} finally {
+			if (interrupted)
+				Thread.currentThread().interrupt();
+		}
+	}
+
+	private static HierarchyCacheEntry addTypeHierarchyToCache(ITypeHierarchy hierarchy) {
+		HierarchyCacheEntry newEntry= new HierarchyCacheEntry(hierarchy);
 		synchronized (fgHierarchyCache) {
-			int nEntries= fgHierarchyCache.size();
-			if (nEntries >= CACHE_SIZE) {
-				// find obsolete entries or remove entry that was least recently accessed
+			if (newEntry.getTypeHierarchy() == null) // changed while being added
+				return newEntry;
+
+			// remove obsolete entries: hierarchies which do not exist anymore or are contained in the new one
+			for (int i= fgHierarchyCache.size() - 1; i >= 0; i--) {
+				HierarchyCacheEntry entry= fgHierarchyCache.get(i);
+				ITypeHierarchy curr= entry.getTypeHierarchy();
+				if (curr == null || !curr.exists() || hierarchy.contains(curr.getType())) {
+					removeHierarchyEntryFromCache(entry);
+				}
+			}
+
+			int weight= newEntry.getTypes().length;
+			while (!fgHierarchyCache.isEmpty() && (fgHierarchyCache.size() >= CACHE_SIZE || fgCacheWeight + weight > CACHE_WEIGHT)) {
 				HierarchyCacheEntry oldest= null;
-				ArrayList<HierarchyCacheEntry> obsoleteHierarchies= new ArrayList<HierarchyCacheEntry>(CACHE_SIZE);
-				for (int i= 0; i < nEntries; i++) {
+				for (int i= 0; i < fgHierarchyCache.size(); i++) {
 					HierarchyCacheEntry entry= fgHierarchyCache.get(i);
-					ITypeHierarchy curr= entry.getTypeHierarchy();
-					if (!curr.exists() || hierarchy.contains(curr.getType())) {
-						obsoleteHierarchies.add(entry);
-					} else {
-						if (oldest == null || entry.getLastAccess() < oldest.getLastAccess()) {
-							oldest= entry;
-						}
+					if (oldest == null || entry.getLastAccess() < oldest.getLastAccess()) {
+						oldest= entry;
 					}
 				}
-				if (!obsoleteHierarchies.isEmpty()) {
-					for (int i= 0; i < obsoleteHierarchies.size(); i++) {
-						removeHierarchyEntryFromCache(obsoleteHierarchies.get(i));
-					}
-				} else if (oldest != null) {
-					removeHierarchyEntryFromCache(oldest);
-				}
+				removeHierarchyEntryFromCache(oldest);
+				fgCacheEvictions.incrementAndGet();
 			}
-			HierarchyCacheEntry newEntry= new HierarchyCacheEntry(hierarchy);
+
 			fgHierarchyCache.add(newEntry);
+			fgCacheWeight+= weight;
+			IType[] types= newEntry.getTypes();
+			for (int i= 0; i < types.length; i++) {
+				addToTypeIndex(types[i], newEntry);
+			}
+		}
+		return newEntry;
+	}
+
+	private static void addToTypeIndex(IType type, HierarchyCacheEntry entry) {
+		HierarchyCacheEntry[] entries= fgTypeIndex.get(type);
+		if (entries == null) {
+			fgTypeIndex.put(type, new HierarchyCacheEntry[] { entry });
+		} else {
+			HierarchyCacheEntry[] newEntries= new HierarchyCacheEntry[entries.length + 1];
+			System.arraycopy(entries, 0, newEntries, 0, entries.length);
+			newEntries[entries.length]= entry;
+			fgTypeIndex.put(type, newEntries);
+		}
+	}
+
+	private static void removeFromTypeIndex(IType type, HierarchyCacheEntry entry) {
+		HierarchyCacheEntry[] entries= fgTypeIndex.get(type);
+		if (entries == null)
+			return;
+
+		int index= -1;
+		for (int i= 0; i < entries.length; i++) {
+			if (entries[i] == entry) {
+				index= i;
+				break;
+			}
+		}
+		if (index == -1)
+			return;
+
+		if (entries.length == 1) {
+			fgTypeIndex.remove(type);
+		} else {
+			HierarchyCacheEntry[] newEntries= new HierarchyCacheEntry[entries.length - 1];
+			System.arraycopy(entries, 0, newEntries, 0, index);
+			System.arraycopy(entries, index + 1, newEntries, index, entries.length - index - 1);
+			fgTypeIndex.put(type, newEntries);
 		}
 	}
 
@@ -187,33 +341,40 @@ public class SuperTypeHierarchyCache {
 	 * @return <code>true</code> if a hierarchy for the given type is cached
 	 */
 	public static boolean hasInCache(IType type) {
-		return findTypeHierarchyInCache(type) != null;
+		return findHierarchyEntryInCache(type) != null;
 	}
 
 
-	private static ITypeHierarchy findTypeHierarchyInCache(IType type) {
-		synchronized (fgHierarchyCache) {
-			for (int i= fgHierarchyCache.size() - 1; i>= 0; i--) {
-				HierarchyCacheEntry curr= fgHierarchyCache.get(i);
-				ITypeHierarchy hierarchy= curr.getTypeHierarchy();
-				if (!hierarchy.exists()) {
-					removeHierarchyEntryFromCache(curr);
-				} else {
-					if (hierarchy.contains(type)) {
-						curr.markAsAccessed();
-						return hierarchy;
-					}
-				}
+	private static HierarchyCacheEntry findHierarchyEntryInCache(IType type) {
+		HierarchyCacheEntry[] entries= fgTypeIndex.get(type);
+		if (entries == null)
+			return null;
+
+		for (int i= 0; i < entries.length; i++) {
+			HierarchyCacheEntry entry= entries[i];
+			ITypeHierarchy hierarchy= entry.getTypeHierarchy();
+			if (hierarchy == null)
+				continue;
+			if (!hierarchy.exists()) {
+				removeHierarchyEntryFromCache(entry);
+				continue;
 			}
+			entry.markAsAccessed();
+			return entry;
 		}
 		return null;
 	}
 
 	private static void removeHierarchyEntryFromCache(HierarchyCacheEntry entry) {
 		synchronized (fgHierarchyCache) {
-			removeMethodOverrideTester(entry.getTypeHierarchy());
+			if (fgHierarchyCache.remove(entry)) {
+				IType[] types= entry.getTypes();
+				for (int i= 0; i < types.length; i++) {
+					removeFromTypeIndex(types[i], entry);
+				}
+				fgCacheWeight-= types.length;
+			}
 			entry.dispose();
-			fgHierarchyCache.remove(entry);
 		}
 	}
 
@@ -223,7 +384,7 @@ public class SuperTypeHierarchyCache {
 	 * @return Returns a int
 	 */
 	public static int getCacheHits() {
-		return fgCacheHits;
+		return fgCacheHits.get();
 	}
 
 	/**
@@ -231,6 +392,24 @@ public class SuperTypeHierarchyCache {
 	 * @return Returns a int
 	 */
 	public static int getCacheMisses() {
-		return fgCacheMisses;
+		return fgCacheMisses.get();
+	}
+
+	/**
+	 * Gets the number of hierarchies which have been removed from the cache to make room for
+	 * new ones.
+	 * @return the number of evicted hierarchies
+	 */
+	public static int getCacheEvictions() {
+		return fgCacheEvictions.get();
+	}
+
+	/**
+	 * Gets the number of requests which waited for a hierarchy that was being built for
+	 * another request.
+	 * @return the number of shared hierarchy computations
+	 */
+	public static int getSharedComputations() {
+		return fgSharedComputations.get();
 	}
 }
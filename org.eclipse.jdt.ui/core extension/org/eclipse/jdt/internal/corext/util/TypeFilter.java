@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2000, 2012 IBM Corporation and others.
+ * Copyright (c) 2000, 2014 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -59,7 +59,18 @@ public class TypeFilter implements IPropertyChangeListener {
 		if (filteredByPattern)
 			return true;
 		
-		int accessibility= match.getAccessibility();
+		return isFiltered(match.getAccessibility());
+	}
+
+	/**
+	 * Returns whether types with the given accessibility are filtered out, depending on the
+	 * forbidden and discouraged reference options of code assist.
+	 *
+	 * @param accessibility the accessibility, one of the <code>IAccessRule.K_*</code> constants
+	 * @return <code>true</code> if types with the given accessibility are filtered
+	 * @since 3.10
+	 */
+	public static boolean isFiltered(int accessibility) {
 		switch (accessibility) {
 			case IAccessRule.K_NON_ACCESSIBLE:
 				return JavaCore.ENABLED.equals(JavaCore.getOption(JavaCore.CODEASSIST_FORBIDDEN_REFERENCE_CHECK));
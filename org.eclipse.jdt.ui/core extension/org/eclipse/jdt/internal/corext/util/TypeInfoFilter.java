@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2000, 2012 IBM Corporation and others.
+ * Copyright (c) 2000, 2014 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -135,6 +135,14 @@ public class TypeInfoFilter {
 		return fSearchScope;
 	}
 
+	/**
+	 * @return <code>true</code> if the search scope is the workspace scope
+	 * @since 3.10
+	 */
+	public boolean isWorkspaceScope() {
+		return fIsWorkspaceScope;
+	}
+
 	public int getPackageFlags() {
 		if (fPackageMatcher == null)
 			return SearchPattern.R_EXACT_MATCH;
@@ -158,6 +166,20 @@ public class TypeInfoFilter {
 		return matchesName(type);
 	}
 
+	/**
+	 * Checks a type taken from the {@link TypeNameIndex}. In contrast to
+	 * {@link #matchesHistoryElement(TypeNameMatch)}, the filter extension is not consulted.
+	 *
+	 * @param type the type to check
+	 * @return <code>true</code> if the type matches the pattern, the element kind and the scope
+	 * @since 3.10
+	 */
+	public boolean matchesIndexedType(TypeNameMatch type) {
+		if (!(matchesPackage(type) && matchesModifiers(type) && matchesScope(type)))
+			return false;
+		return matchesName(type);
+	}
+
 	public boolean matchesFilterExtension(TypeNameMatch type) {
 		if (fFilterExtension == null)
 			return true;
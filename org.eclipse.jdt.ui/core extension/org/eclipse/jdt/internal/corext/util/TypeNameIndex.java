@@ -0,0 +1,845 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.jdt.internal.corext.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.OperationCanceledException;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
+
+import org.eclipse.jdt.core.ElementChangedEvent;
+import org.eclipse.jdt.core.IAccessRule;
+import org.eclipse.jdt.core.IClassFile;
+import org.eclipse.jdt.core.ICompilationUnit;
+import org.eclipse.jdt.core.IElementChangedListener;
+import org.eclipse.jdt.core.IJavaElement;
+import org.eclipse.jdt.core.IJavaElementDelta;
+import org.eclipse.jdt.core.IPackageFragment;
+import org.eclipse.jdt.core.IPackageFragmentRoot;
+import org.eclipse.jdt.core.IType;
+import org.eclipse.jdt.core.JavaCore;
+import org.eclipse.jdt.core.JavaModelException;
+import org.eclipse.jdt.core.WorkingCopyOwner;
+import org.eclipse.jdt.core.search.IJavaSearchConstants;
+import org.eclipse.jdt.core.search.SearchEngine;
+import org.eclipse.jdt.core.search.SearchPattern;
+import org.eclipse.jdt.core.search.TypeNameMatch;
+import org.eclipse.jdt.core.search.TypeNameMatchRequestor;
+
+import org.eclipse.jdt.internal.corext.CorextMessages;
+
+import org.eclipse.jdt.internal.ui.JavaPlugin;
+
+/**
+ * A workspace-wide index of the names of all types, used by the open type dialog instead of
+ * a search engine query for every change of the filter pattern.
+ * <p>
+ * The entries are sorted case-insensitively by simple type name, so that the candidates for a
+ * prefix, camel case or wildcard pattern are found by a binary search for the literal start of
+ * the pattern. The index is persisted in the plug-in state location and kept up to date from
+ * Java element deltas: compilation units, class files and source packages are re-indexed in a
+ * background job, classpath changes trigger a rebuild.
+ * </p>
+ * <p>
+ * The persisted index does not know about changes made while the workbench was not running, so
+ * it is rebuilt once per session. Until then, its entries are provisional: a type is only
+ * reported if it still exists in the Java model.
+ * </p>
+ * <p>
+ * The index only answers queries for the workspace scope, since the accessibility of a type is
+ * recorded as reported for the workspace scope. For other scopes, and while the index is built or
+ * has pending updates, {@link #search(TypeInfoFilter, TypeNameMatchRequestor, IProgressMonitor)}
+ * returns <code>false</code> and clients fall back to {@link SearchEngine#searchAllTypeNames}.
+ * </p>
+ *
+ * @since 3.10
+ */
+public class TypeNameIndex {
+
+	private static class TypeNameIndexDeltaListener implements IElementChangedListener {
+		public void elementChanged(ElementChangedEvent event) {
+			TypeNameIndex index= TypeNameIndex.getInstance();
+			if (processDelta(event.getDelta(), index))
+				index.scheduleUpdate();
+		}
+
+		/**
+		 * Records the elements that have to be re-indexed for the given delta.
+		 *
+		 * @param delta the Java element delta
+		 * @param index the index to update
+		 * @return <code>true</code> if the index has to be updated
+		 */
+		private boolean processDelta(IJavaElementDelta delta, TypeNameIndex index) {
+			IJavaElement elem= delta.getElement();
+			int flags= delta.getFlags();
+			boolean isChanged= delta.getKind() == IJavaElementDelta.CHANGED;
+
+			switch (elem.getElementType()) {
+				case IJavaElement.JAVA_MODEL:
+					return processChildrenDelta(delta, index);
+				case IJavaElement.JAVA_PROJECT:
+					if (!isChanged || (flags & (IJavaElementDelta.F_OPENED | IJavaElementDelta.F_CLOSED
+							| IJavaElementDelta.F_CLASSPATH_CHANGED | IJavaElementDelta.F_RESOLVED_CLASSPATH_CHANGED)) != 0) {
+						index.markAsStale();
+						return true;
+					}
+					return processChildrenDelta(delta, index);
+				case IJavaElement.PACKAGE_FRAGMENT_ROOT:
+					if (!isChanged || (flags & (IJavaElementDelta.F_ADDED_TO_CLASSPATH | IJavaElementDelta.F_REMOVED_FROM_CLASSPATH
+							| IJavaElementDelta.F_ARCHIVE_CONTENT_CHANGED)) != 0) {
+						index.markAsStale();
+						return true;
+					}
+					return processChildrenDelta(delta, index);
+				case IJavaElement.PACKAGE_FRAGMENT:
+					if (!isChanged) {
+						index.addPendingUpdate(elem);
+						return true;
+					}
+					return processChildrenDelta(delta, index);
+				case IJavaElement.CLASS_FILE:
+					index.addPendingUpdate(elem);
+					return true;
+				case IJavaElement.COMPILATION_UNIT:
+					// Not the primary compilation unit. Ignore it
+					if (!JavaModelUtil.isPrimary((ICompilationUnit) elem))
+						return false;
+
+					if (!isChanged || isUnknownStructuralChange(flags) || (flags & IJavaElementDelta.F_PRIMARY_WORKING_COPY) != 0
+							|| hasTypeChange(delta)) {
+						index.addPendingUpdate(elem);
+						return true;
+					}
+					return false;
+				default:
+					return false;
+			}
+		}
+
+		private boolean isUnknownStructuralChange(int flags) {
+			if ((flags & IJavaElementDelta.F_CONTENT) == 0)
+				return false;
+			return (flags & IJavaElementDelta.F_FINE_GRAINED) == 0;
+		}
+
+		private boolean hasTypeChange(IJavaElementDelta delta) {
+			IJavaElementDelta[] children= delta.getAffectedChildren();
+			for (int i= 0; i < children.length; i++) {
+				IJavaElementDelta child= children[i];
+				if (child.getElement().getElementType() != IJavaElement.TYPE)
+					continue;
+				if (child.getKind() != IJavaElementDelta.CHANGED || (child.getFlags() & IJavaElementDelta.F_MODIFIERS) != 0)
+					return true;
+				if (hasTypeChange(child))
+					return true;
+			}
+			return false;
+		}
+
+		private boolean processChildrenDelta(IJavaElementDelta delta, TypeNameIndex index) {
+			boolean result= false;
+			IJavaElementDelta[] children= delta.getAffectedChildren();
+			for (int i= 0; i < children.length; i++) {
+				if (processDelta(children[i], index))
+					result= true;
+			}
+			return result;
+		}
+	}
+
+	private class UpdateJob extends Job {
+		public UpdateJob() {
+			super(CorextMessages.TypeNameIndex_update_job);
+		}
+		@Override
+		protected IStatus run(IProgressMonitor monitor) {
+			try {
+				update(monitor);
+			} catch (OperationCanceledException e) {
+				return Status.CANCEL_STATUS;
+			} catch (CoreException e) {
+				JavaPlugin.log(e);
+			}
+			return Status.OK_STATUS;
+		}
+	}
+
+	/**
+	 * A package fragment root containing indexed types.
+	 */
+	private static final class Root {
+		final String fHandle;
+		final boolean fIsArchive;
+		private IPackageFragmentRoot fElement;
+
+		Root(String handle, boolean isArchive) {
+			fHandle= handle;
+			fIsArchive= isArchive;
+		}
+
+		synchronized IPackageFragmentRoot getElement() {
+			if (fElement == null) {
+				IJavaElement element= JavaCore.create(fHandle);
+				if (element instanceof IPackageFragmentRoot)
+					fElement= (IPackageFragmentRoot) element;
+			}
+			return fElement;
+		}
+	}
+
+	/**
+	 * An indexed type.
+	 */
+	private static final class Entry {
+		final Root fRoot;
+		final String fPackage;
+		final String fFile;
+		final String fTypeName;
+		final String fSimpleName;
+		final int fModifiers;
+		final int fAccessibility;
+		// guarded by the index
+		boolean fRemoved;
+
+		Entry(Root root, String pack, String file, String typeName, int modifiers, int accessibility) {
+			fRoot= root;
+			fPackage= pack;
+			fFile= file;
+			fTypeName= typeName;
+			fSimpleName= typeName.substring(typeName.lastIndexOf('.') + 1);
+			fModifiers= modifiers;
+			fAccessibility= accessibility;
+		}
+
+		String getFileKey() {
+			return getFileKey(fRoot.fHandle, fPackage, fFile);
+		}
+
+		static String getFileKey(String root, String pack, String file) {
+			return root + '|' + pack + '|' + file;
+		}
+	}
+
+	/**
+	 * Orders entries by simple name, ignoring case the same way as
+	 * {@link Strings#startsWithIgnoreCase(String, String)} so that all names with a
+	 * common prefix are adjacent.
+	 */
+	private static final Comparator<Entry> SIMPLE_NAME_ORDER= new Comparator<Entry>() {
+		public int compare(Entry e1, Entry e2) {
+			return compareIgnoreCase(e1.fSimpleName, e2.fSimpleName);
+		}
+	};
+
+	private static final String FILENAME= "TypeNameIndex.dat"; //$NON-NLS-1$
+	private static final int VERSION= 1;
+
+	/**
+	 * The number of added and removed entries after which the sorted entries are rebuilt.
+	 */
+	private static final int MAX_UNSORTED_ENTRIES= 2000;
+
+	private static TypeNameIndex fgInstance;
+
+	private final IElementChangedListener fDeltaListener;
+	private final UpdateJob fUpdateJob;
+
+	// all fields below are guarded by this
+	private boolean fLoadAttempted;
+	private boolean fReady;
+	/**
+	 * Whether the entries have been loaded from the persisted index and have not been rebuilt
+	 * since, so that they may refer to types which no longer exist.
+	 */
+	private boolean fProvisional;
+	private boolean fStale;
+	private boolean fRebuildRequested;
+	private boolean fDirty;
+	private final Set<IJavaElement> fPendingUpdates= new LinkedHashSet<IJavaElement>();
+
+	private Entry[] fSorted= new Entry[0];
+	private List<Entry> fAdded= new ArrayList<Entry>();
+	private int fRemovedCount;
+	private Map<String, Root> fRoots= new HashMap<String, Root>();
+	/**
+	 * Entries of compilation units and class files outside of archives, by file key.
+	 * Built lazily on the first incremental update.
+	 */
+	private Map<String, List<Entry>> fFileEntries;
+
+	public static synchronized TypeNameIndex getInstance() {
+		if (fgInstance == null)
+			fgInstance= new TypeNameIndex();
+		return fgInstance;
+	}
+
+	public static synchronized void shutdown() {
+		if (fgInstance == null)
+			return;
+		fgInstance.doShutdown();
+	}
+
+	private TypeNameIndex() {
+		fDeltaListener= new TypeNameIndexDeltaListener();
+		JavaCore.addElementChangedListener(fDeltaListener);
+		fUpdateJob= new UpdateJob();
+		fUpdateJob.setSystem(true);
+		fUpdateJob.setPriority(Job.DECORATE);
+		fUpdateJob.schedule();
+	}
+
+	/**
+	 * Reports the types matching the given filter, except for its filter extension. Types that
+	 * are not accessible are not reported if the {@link TypeFilter} would filter them out.
+	 *
+	 * @param filter the filter
+	 * @param requestor the requestor to report the matches to
+	 * @param monitor the progress monitor
+	 * @return <code>true</code> if the matches have been reported, <code>false</code>
+	 *         if the filter's scope is not the workspace or the index is not up to date and
+	 *         the search engine has to be used instead
+	 * @throws OperationCanceledException if the monitor is canceled
+	 */
+	public boolean search(TypeInfoFilter filter, TypeNameMatchRequestor requestor, IProgressMonitor monitor) throws OperationCanceledException {
+		if (!filter.isWorkspaceScope())
+			return false;
+		List<Entry> candidates;
+		boolean provisional;
+		synchronized (this) {
+			if (!fReady || fStale || !fPendingUpdates.isEmpty())
+				return false;
+			candidates= getCandidates(getLiteralPrefix(filter.getNamePattern(), filter.getSearchFlags()));
+			provisional= fProvisional;
+		}
+		for (int i= 0, size= candidates.size(); i < size; i++) {
+			if ((i & 0xFF) == 0 && monitor.isCanceled())
+				throw new OperationCanceledException();
+			Entry entry= candidates.get(i);
+			if (TypeFilter.isFiltered(entry.fAccessibility))
+				continue;
+			TypeNameMatch match= createMatch(entry);
+			if (match != null && filter.matchesIndexedType(match) && (!provisional || match.getType().exists()))
+				requestor.acceptTypeNameMatch(match);
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the part of the name pattern that a matching simple name has to start with,
+	 * ignoring case.
+	 *
+	 * @param pattern the name pattern
+	 * @param matchKind the match kind of the pattern, see {@link SearchPattern}
+	 * @return the prefix, may be empty
+	 */
+	private static String getLiteralPrefix(String pattern, int matchKind) {
+		switch (matchKind) {
+			case SearchPattern.R_PATTERN_MATCH:
+				for (int i= 0; i < pattern.length(); i++) {
+					char ch= pattern.charAt(i);
+					if (ch == '*' || ch == '?')
+						return pattern.substring(0, i);
+				}
+				return pattern;
+			case SearchPattern.R_CAMELCASE_MATCH:
+			case SearchPattern.R_CAMELCASE_SAME_PART_COUNT_MATCH:
+				// the first character of a camel case pattern must match the first character of the name
+				return pattern.length() == 0 ? pattern : pattern.substring(0, 1);
+			default:
+				return pattern;
+		}
+	}
+
+	private List<Entry> getCandidates(String prefix) {
+		List<Entry> result= new ArrayList<Entry>();
+		Entry[] sorted= fSorted;
+		int low= 0;
+		int high= sorted.length;
+		while (low < high) {
+			int mid= (low + high) >>> 1;
+			if (compareIgnoreCase(sorted[mid].fSimpleName, prefix) < 0)
+				low= mid + 1;
+			else
+				high= mid;
+		}
+		for (int i= low; i < sorted.length; i++) {
+			Entry entry= sorted[i];
+			if (!Strings.startsWithIgnoreCase(entry.fSimpleName, prefix))
+				break;
+			if (!entry.fRemoved)
+				result.add(entry);
+		}
+		for (int i= 0, size= fAdded.size(); i < size; i++) {
+			Entry entry= fAdded.get(i);
+			if (!entry.fRemoved && Strings.startsWithIgnoreCase(entry.fSimpleName, prefix))
+				result.add(entry);
+		}
+		return result;
+	}
+
+	private static int compareIgnoreCase(String s1, String s2) {
+		int length1= s1.length();
+		int length2= s2.length();
+		int length= Math.min(length1, length2);
+		for (int i= 0; i < length; i++) {
+			char c1= Character.toLowerCase(s1.charAt(i));
+			char c2= Character.toLowerCase(s2.charAt(i));
+			if (c1 != c2)
+				return c1 - c2;
+		}
+		return length1 - length2;
+	}
+
+	private static TypeNameMatch createMatch(Entry entry) {
+		IPackageFragmentRoot root= entry.fRoot.getElement();
+		if (root == null)
+			return null;
+		IPackageFragment pack= root.getPackageFragment(entry.fPackage);
+		IType type;
+		if (entry.fFile.endsWith(".class")) { //$NON-NLS-1$
+			type= pack.getClassFile(entry.fFile).getType();
+		} else {
+			ICompilationUnit cu= pack.getCompilationUnit(entry.fFile);
+			String typeName= entry.fTypeName;
+			int start= 0;
+			int end= typeName.indexOf('.');
+			if (end == -1) {
+				type= cu.getType(typeName);
+			} else {
+				type= cu.getType(typeName.substring(0, end));
+				while (end != -1) {
+					start= end + 1;
+					end= typeName.indexOf('.', start);
+					type= type.getType(end == -1 ? typeName.substring(start) : typeName.substring(start, end));
+				}
+			}
+		}
+		// the accessibility has already been checked, see TypeFilter#isFiltered(TypeNameMatch)
+		return SearchEngine.createTypeNameMatch(type, entry.fModifiers);
+	}
+
+	private synchronized void markAsStale() {
+		fStale= true;
+		fRebuildRequested= true;
+	}
+
+	private synchronized void addPendingUpdate(IJavaElement element) {
+		fPendingUpdates.add(element);
+	}
+
+	private void scheduleUpdate() {
+		fUpdateJob.schedule();
+	}
+
+	private void update(IProgressMonitor monitor) throws CoreException {
+		boolean load;
+		synchronized (this) {
+			load= !fLoadAttempted;
+			fLoadAttempted= true;
+		}
+		if (load) {
+			if (!load()) {
+				synchronized (this) {
+					fStale= true;
+				}
+			}
+			// the persisted index does not know about changes made while the workbench was
+			// not running, so its entries are provisional until it has been rebuilt once
+			synchronized (this) {
+				fRebuildRequested= true;
+			}
+		}
+
+		boolean rebuild;
+		synchronized (this) {
+			rebuild= fRebuildRequested;
+			if (rebuild) {
+				fRebuildRequested= false;
+				// elements changed before the rebuild are covered by the search
+				fPendingUpdates.clear();
+			}
+		}
+		if (rebuild)
+			rebuild(monitor);
+
+		while (true) {
+			IJavaElement element;
+			synchronized (this) {
+				if (fRebuildRequested || fPendingUpdates.isEmpty())
+					break;
+				Iterator<IJavaElement> iter= fPendingUpdates.iterator();
+				element= iter.next();
+				iter.remove();
+			}
+			if (monitor.isCanceled())
+				throw new OperationCanceledException();
+			updateElement(element);
+		}
+
+		synchronized (this) {
+			if (fAdded.size() + fRemovedCount > MAX_UNSORTED_ENTRIES)
+				compact();
+			if (fRebuildRequested || !fPendingUpdates.isEmpty())
+				fUpdateJob.schedule();
+		}
+	}
+
+	private void rebuild(IProgressMonitor monitor) throws CoreException {
+		final Map<String, Root> roots= new HashMap<String, Root>();
+		final Map<String, String> packages= new HashMap<String, String>();
+		final List<Entry> entries= new ArrayList<Entry>();
+		TypeNameMatchRequestor requestor= new TypeNameMatchRequestor() {
+			@Override
+			public void acceptTypeNameMatch(TypeNameMatch match) {
+				IType type= match.getType();
+				IPackageFragmentRoot root= match.getPackageFragmentRoot();
+				String handle= root.getHandleIdentifier();
+				Root indexRoot= roots.get(handle);
+				if (indexRoot == null) {
+					indexRoot= new Root(handle, root.isArchive());
+					roots.put(handle, indexRoot);
+				}
+				String file= type.isBinary() ? type.getClassFile().getElementName() : type.getCompilationUnit().getElementName();
+				entries.add(new Entry(indexRoot, intern(packages, match.getPackageName()), file, match.getTypeQualifiedName(),
+						match.getModifiers(), match.getAccessibility()));
+			}
+		};
+		new SearchEngine((WorkingCopyOwner) null).searchAllTypeNames(
+				null,
+				0,
+				null,
+				SearchPattern.R_PREFIX_MATCH,
+				IJavaSearchConstants.TYPE,
+				SearchEngine.createWorkspaceScope(),
+				requestor,
+				IJavaSearchConstants.WAIT_UNTIL_READY_TO_SEARCH,
+				monitor);
+
+		Entry[] sorted= entries.toArray(new Entry[entries.size()]);
+		Arrays.sort(sorted, SIMPLE_NAME_ORDER);
+		synchronized (this) {
+			install(sorted, roots);
+			if (!fRebuildRequested)
+				fStale= false;
+		}
+		save();
+	}
+
+	private void install(Entry[] sorted, Map<String, Root> roots) {
+		fSorted= sorted;
+		fAdded= new ArrayList<Entry>();
+		fRemovedCount= 0;
+		fRoots= roots;
+		fFileEntries= null;
+		fReady= true;
+		fProvisional= false;
+		fDirty= true;
+	}
+
+	private void compact() {
+		List<Entry> entries= new ArrayList<Entry>(fSorted.length + fAdded.size());
+		for (int i= 0; i < fSorted.length; i++) {
+			if (!fSorted[i].fRemoved)
+				entries.add(fSorted[i]);
+		}
+		for (int i= 0, size= fAdded.size(); i < size; i++) {
+			Entry entry= fAdded.get(i);
+			if (!entry.fRemoved)
+				entries.add(entry);
+		}
+		Entry[] sorted= entries.toArray(new Entry[entries.size()]);
+		Arrays.sort(sorted, SIMPLE_NAME_ORDER);
+		fSorted= sorted;
+		fAdded= new ArrayList<Entry>();
+		fRemovedCount= 0;
+	}
+
+	private void updateElement(IJavaElement element) throws JavaModelException {
+		IPackageFragmentRoot root= (IPackageFragmentRoot) element.getAncestor(IJavaElement.PACKAGE_FRAGMENT_ROOT);
+		if (root == null || root.isArchive())
+			return;
+		String rootHandle= root.getHandleIdentifier();
+		IPackageFragment pack= (IPackageFragment) element.getAncestor(IJavaElement.PACKAGE_FRAGMENT);
+
+		// read the types outside of the lock, the Java model may have to open the elements
+		List<IType> types= new ArrayList<IType>();
+		List<String> files= new ArrayList<String>();
+		switch (element.getElementType()) {
+			case IJavaElement.PACKAGE_FRAGMENT:
+				if (pack.exists()) {
+					if (pack.getKind() == IPackageFragmentRoot.K_SOURCE) {
+						ICompilationUnit[] cus= pack.getCompilationUnits();
+						for (int i= 0; i < cus.length; i++)
+							collectTypes(cus[i], types);
+					} else {
+						IClassFile[] classFiles= pack.getClassFiles();
+						for (int i= 0; i < classFiles.length; i++)
+							collectTypes(classFiles[i], types);
+					}
+				}
+				break;
+			case IJavaElement.COMPILATION_UNIT:
+				if (element.exists())
+					collectTypes((ICompilationUnit) element, types);
+				files.add(element.getElementName());
+				break;
+			case IJavaElement.CLASS_FILE:
+				if (element.exists())
+					collectTypes((IClassFile) element, types);
+				files.add(element.getElementName());
+				break;
+		}
+
+		synchronized (this) {
+			if (!fReady)
+				return;
+			Map<String, List<Entry>> fileEntries= getFileEntries();
+			if (element.getElementType() == IJavaElement.PACKAGE_FRAGMENT) {
+				String prefix= Entry.getFileKey(rootHandle, pack.getElementName(), ""); //$NON-NLS-1$
+				for (Iterator<String> iter= fileEntries.keySet().iterator(); iter.hasNext();) {
+					String key= iter.next();
+					if (key.startsWith(prefix))
+						removeEntries(fileEntries.get(key));
+				}
+			} else {
+				removeEntries(fileEntries.remove(Entry.getFileKey(rootHandle, pack.getElementName(), files.get(0))));
+			}
+
+			Root indexRoot= fRoots.get(rootHandle);
+			if (indexRoot == null) {
+				indexRoot= new Root(rootHandle, false);
+				fRoots.put(rootHandle, indexRoot);
+			}
+			for (int i= 0, size= types.size(); i < size; i++) {
+				IType type= types.get(i);
+				String file= type.isBinary() ? type.getClassFile().getElementName() : type.getCompilationUnit().getElementName();
+				Entry entry= new Entry(indexRoot, pack.getElementName(), file, type.getTypeQualifiedName('.'), type.getFlags(), IAccessRule.K_ACCESSIBLE);
+				fAdded.add(entry);
+				addFileEntry(fileEntries, entry);
+			}
+			fDirty= true;
+		}
+	}
+
+	private static void collectTypes(ICompilationUnit cu, List<IType> types) throws JavaModelException {
+		IType[] allTypes= cu.getAllTypes();
+		for (int i= 0; i < allTypes.length; i++)
+			types.add(allTypes[i]);
+	}
+
+	private static void collectTypes(IClassFile classFile, List<IType> types) throws JavaModelException {
+		IType type= classFile.getType();
+		if (!type.isAnonymous() && !type.isLocal())
+			types.add(type);
+	}
+
+	private void removeEntries(List<Entry> entries) {
+		if (entries == null)
+			return;
+		for (int i= 0, size= entries.size(); i < size; i++) {
+			Entry entry= entries.get(i);
+			if (!entry.fRemoved) {
+				entry.fRemoved= true;
+				fRemovedCount++;
+			}
+		}
+		entries.clear();
+	}
+
+	private Map<String, List<Entry>> getFileEntries() {
+		if (fFileEntries == null) {
+			fFileEntries= new HashMap<String, List<Entry>>();
+			for (int i= 0; i < fSorted.length; i++) {
+				if (!fSorted[i].fRoot.fIsArchive && !fSorted[i].fRemoved)
+					addFileEntry(fFileEntries, fSorted[i]);
+			}
+			for (int i= 0, size= fAdded.size(); i < size; i++) {
+				Entry entry= fAdded.get(i);
+				if (!entry.fRoot.fIsArchive && !entry.fRemoved)
+					addFileEntry(fFileEntries, entry);
+			}
+		}
+		return fFileEntries;
+	}
+
+	private static void addFileEntry(Map<String, List<Entry>> fileEntries, Entry entry) {
+		String key= entry.getFileKey();
+		List<Entry> entries= fileEntries.get(key);
+		if (entries == null) {
+			entries= new ArrayList<Entry>(1);
+			fileEntries.put(key, entries);
+		}
+		entries.add(entry);
+	}
+
+	private static String intern(Map<String, String> strings, String string) {
+		String result= strings.get(string);
+		if (result == null) {
+			strings.put(string, string);
+			result= string;
+		}
+		return result;
+	}
+
+	//---- Persistence ---------------------------------------------------------------------------
+
+	private static File getIndexFile() {
+		return JavaPlugin.getDefault().getStateLocation().append(FILENAME).toFile();
+	}
+
+	private boolean load() {
+		File file= getIndexFile();
+		if (!file.isFile())
+			return false;
+		DataInputStream in= null;
+		try {
+			in= new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+			if (in.readInt() != VERSION)
+				return false;
+			int rootCount= in.readInt();
+			Root[] roots= new Root[rootCount];
+			Map<String, Root> rootMap= new HashMap<String, Root>();
+			for (int i= 0; i < rootCount; i++) {
+				roots[i]= new Root(in.readUTF(), in.readBoolean());
+				rootMap.put(roots[i].fHandle, roots[i]);
+			}
+			String[] packages= new String[in.readInt()];
+			for (int i= 0; i < packages.length; i++)
+				packages[i]= in.readUTF();
+			Entry[] sorted= new Entry[in.readInt()];
+			for (int i= 0; i < sorted.length; i++) {
+				Root root= roots[in.readInt()];
+				String pack= packages[in.readInt()];
+				sorted[i]= new Entry(root, pack, in.readUTF(), in.readUTF(), in.readInt(), in.readInt());
+			}
+			synchronized (this) {
+				if (!fReady) {
+					install(sorted, rootMap);
+					fProvisional= true;
+					fDirty= false;
+				}
+			}
+			return true;
+		} catch (IOException e) {
+			return false;
+		} catch (ArrayIndexOutOfBoundsException e) {
+			return false;
+		} finally {
+			if (in != null) {
+				try {
+					in.close();
+				} catch (IOException e) {
+					// ignore
+				}
+			}
+		}
+	}
+
+	private void save() {
+		Entry[] entries;
+		synchronized (this) {
+			if (!fReady || !fDirty)
+				return;
+			compact();
+			entries= fSorted;
+			fDirty= false;
+		}
+		Map<Root, Integer> roots= new HashMap<Root, Integer>();
+		List<Root> rootList= new ArrayList<Root>();
+		Map<String, Integer> packages= new HashMap<String, Integer>();
+		List<String> packageList= new ArrayList<String>();
+		for (int i= 0; i < entries.length; i++) {
+			Entry entry= entries[i];
+			if (!roots.containsKey(entry.fRoot)) {
+				roots.put(entry.fRoot, new Integer(rootList.size()));
+				rootList.add(entry.fRoot);
+			}
+			if (!packages.containsKey(entry.fPackage)) {
+				packages.put(entry.fPackage, new Integer(packageList.size()));
+				packageList.add(entry.fPackage);
+			}
+		}
+
+		File file= getIndexFile();
+		DataOutputStream out= null;
+		try {
+			out= new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+			out.writeInt(VERSION);
+			out.writeInt(rootList.size());
+			for (int i= 0; i < rootList.size(); i++) {
+				Root root= rootList.get(i);
+				out.writeUTF(root.fHandle);
+				out.writeBoolean(root.fIsArchive);
+			}
+			out.writeInt(packageList.size());
+			for (int i= 0; i < packageList.size(); i++)
+				out.writeUTF(packageList.get(i));
+			out.writeInt(entries.length);
+			for (int i= 0; i < entries.length; i++) {
+				Entry entry= entries[i];
+				out.writeInt(roots.get(entry.fRoot).intValue());
+				out.writeInt(packages.get(entry.fPackage).intValue());
+				out.writeUTF(entry.fFile);
+				out.writeUTF(entry.fTypeName);
+				out.writeInt(entry.fModifiers);
+				out.writeInt(entry.fAccessibility);
+			}
+			out.close();
+			out= null;
+		} catch (IOException e) {
+			JavaPlugin.log(e);
+			file.delete();
+		} finally {
+			if (out != null) {
+				try {
+					out.close();
+				} catch (IOException e) {
+					// ignore
+				}
+				file.delete();
+			}
+		}
+	}
+
+	private void doShutdown() {
+		JavaCore.removeElementChangedListener(fDeltaListener);
+		fUpdateJob.cancel();
+		synchronized (this) {
+			if (fStale || !fPendingUpdates.isEmpty()) {
+				// do not persist an index that is known to be out of date
+				getIndexFile().delete();
+				return;
+			}
+		}
+		save();
+	}
+}
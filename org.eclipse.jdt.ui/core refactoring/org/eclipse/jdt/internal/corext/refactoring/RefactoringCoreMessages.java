@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2000, 2011 IBM Corporation and others.
+ * Copyright (c) 2000, 2014 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -1547,6 +1547,8 @@ public final class RefactoringCoreMessages extends NLS {
 
 	public static String QualifiedNameFinder_update_name;
 
+	public static String QualifiedNameIndex_update_job;
+
 	public static String QualifiedNameSearchResult_change_name;
 
 	public static String ReadOnlyResourceFinder_0;
@@ -1585,6 +1587,8 @@ public final class RefactoringCoreMessages extends NLS {
 
 	public static String RefactoringSearchEngine_searching_referenced_types;
 
+	public static String RenameAnalyzeUtil_creating_working_copies;
+
 	public static String RenameAnalyzeUtil_reference_shadowed;
 
 	public static String RenameAnalyzeUtil_shadows;
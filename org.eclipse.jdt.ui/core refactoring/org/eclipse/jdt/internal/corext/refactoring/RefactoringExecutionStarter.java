@@ -226,6 +226,7 @@ public final class RefactoringExecutionStarter {
 		for (int i= 0; i < cus.length; i++) {
 			refactoring.addCompilationUnit(cus[i]);
 		}
+		refactoring.setParallelism(Runtime.getRuntime().availableProcessors());
 
 		if (!showWizard) {
 			refactoring.setUseOptionsFromProfile(useOptionsFromProfile);
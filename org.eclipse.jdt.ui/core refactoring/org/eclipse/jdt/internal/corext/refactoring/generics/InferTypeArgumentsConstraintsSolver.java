@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2000, 2011 IBM Corporation and others.
+ * Copyright (c) 2000, 2014 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -17,6 +17,7 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
@@ -25,11 +26,15 @@ import java.util.List;
 import java.util.Map;
 
 import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
 import org.eclipse.core.runtime.OperationCanceledException;
+import org.eclipse.core.runtime.Status;
 import org.eclipse.core.runtime.SubProgressMonitor;
+import org.eclipse.core.runtime.jobs.Job;
 
 import org.eclipse.jdt.core.JavaModelException;
 
+import org.eclipse.jdt.internal.corext.refactoring.RefactoringCoreMessages;
 import org.eclipse.jdt.internal.corext.refactoring.typeconstraints.types.ArrayType;
 import org.eclipse.jdt.internal.corext.refactoring.typeconstraints.types.HierarchyType;
 import org.eclipse.jdt.internal.corext.refactoring.typeconstraints.types.TType;
@@ -57,24 +62,287 @@ public class InferTypeArgumentsConstraintsSolver {
 		public static TTypeComparator INSTANCE= new TTypeComparator();
 	}
 
+	/**
+	 * A group of connected components of the constraint graph. Components share no type
+	 * equivalence sets and no type constraints, so each batch is solved on its own, with its own
+	 * work list and type set environment. The result of a batch does therefore not depend on
+	 * whether the batches are solved sequentially or in parallel.
+	 *
+	 * @since 3.10
+	 */
+	private final class Batch {
+
+		private final List<ConstraintVariable2> fVariables= new ArrayList<ConstraintVariable2>();
+		private int fComponentCount;
+
+		private TypeSetEnvironment fTypeSetEnvironment;
+
+		/**
+		 * The work-list used by the type constraint solver to hold the set of
+		 * nodes in the constraint graph that remain to be (re-)processed. Entries
+		 * are <code>ConstraintVariable2</code>s.
+		 */
+		private LinkedList<ConstraintVariable2> fWorkList;
+
+		void solve(IProgressMonitor pm) {
+			long start= System.currentTimeMillis();
+			fTypeSetEnvironment= new TypeSetEnvironment(fTCModel.getTypeEnvironment());
+			initializeTypeEstimates();
+			if (pm.isCanceled())
+				throw new OperationCanceledException();
+			fWorkList= new LinkedList<ConstraintVariable2>(fVariables);
+			runSolver(pm);
+			fWorkList= null;
+			if (InferTypeArgumentsTCModel.DEBUG)
+				System.out.println("Solved " + fComponentCount + " components with " + fVariables.size() + " variables in " + (System.currentTimeMillis() - start) + " ms"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+		}
+
+		private void initializeTypeEstimates() {
+			for (Iterator<ConstraintVariable2> iter= fVariables.iterator(); iter.hasNext();) {
+				ConstraintVariable2 cv= iter.next();
+				//TODO: not necessary for types that are not used in a TypeConstraint but only as type in CollectionElementVariable
+				//TODO: handle nested element variables; see ParametricStructureComputer.createAndInitVars()
+				TypeEquivalenceSet set= cv.getTypeEquivalenceSet();
+				if (set == null) {
+					set= new TypeEquivalenceSet(cv);
+					set.setTypeEstimate(createInitialEstimate(cv));
+					cv.setTypeEquivalenceSet(set);
+				} else {
+					TypeSet typeEstimate= (TypeSet) cv.getTypeEstimate();
+					if (typeEstimate == null) {
+						ConstraintVariable2[] cvs= set.getContributingVariables();
+						typeEstimate= fTypeSetEnvironment.getUniverseTypeSet();
+						for (int j= 0; j < cvs.length; j++) //TODO: optimize: just try to find an immutable CV; if not found, use Universe
+							typeEstimate= typeEstimate.intersectedWith(createInitialEstimate(cvs[j]));
+						set.setTypeEstimate(typeEstimate);
+					}
+				}
+			}
+		}
+
+		private TypeSet createInitialEstimate(ConstraintVariable2 cv) {
+			// TODO: check assumption: only immutable CVs have a type
+//			ParametricStructure parametricStructure= fElemStructureEnv.elemStructure(cv);
+//			if (parametricStructure != null && parametricStructure != ParametricStructureComputer.ParametricStructure.NONE) {
+//				return SubTypesOfSingleton.create(parametricStructure.getBase());
+//			}
+
+			TType type= cv.getType();
+			if (type == null) {
+				return fTypeSetEnvironment.getUniverseTypeSet();
+
+			} else if (cv instanceof IndependentTypeVariable2) {
+				return fTypeSetEnvironment.getUniverseTypeSet();
+				//TODO: solve problem with recursive bounds
+//				TypeVariable tv= (TypeVariable) type;
+//				TType[] bounds= tv.getBounds();
+//				TypeSet result= SubTypesOfSingleton.create(bounds[0].getErasure());
+//				for (int i= 1; i < bounds.length; i++) {
+//					result= result.intersectedWith(SubTypesOfSingleton.create(bounds[i].getErasure()));
+//				}
+//				return result;
+
+			} else if (cv instanceof ArrayTypeVariable2) {
+				return fTypeSetEnvironment.getUniverseTypeSet();
+			} else if (cv instanceof ArrayElementVariable2) {
+				if (cv.getType() != null && cv.getType().isTypeVariable()) {
+					return fTypeSetEnvironment.getUniverseTypeSet();
+				} else {
+					return new SingletonTypeSet(type, fTypeSetEnvironment);
+				}
+
+			} else if (type.isVoidType()) {
+				return fTypeSetEnvironment.getEmptyTypeSet();
+			} else {
+				return new SingletonTypeSet(type, fTypeSetEnvironment);
+			}
+		}
+
+		private void runSolver(IProgressMonitor pm) {
+			while (! fWorkList.isEmpty()) {
+				// Get a variable whose type estimate has changed
+				ConstraintVariable2 cv= fWorkList.removeFirst();
+				List<ITypeConstraint2> usedIn= fTCModel.getUsedIn(cv);
+				processConstraints(usedIn);
+				if (pm.isCanceled())
+					throw new OperationCanceledException();
+			}
+		}
+
+		/**
+		 * Given a list of <code>ITypeConstraint2</code>s that all refer to a
+		 * given <code>ConstraintVariable2</code> (whose type bound has presumably
+		 * just changed), process each <code>ITypeConstraint</code>, propagating
+		 * the type bound across the constraint as needed.
+		 *
+		 * @param usedIn the <code>List</code> of <code>ITypeConstraint2</code>s
+		 * to process
+		 */
+		private void processConstraints(List<ITypeConstraint2> usedIn) {
+			Iterator<ITypeConstraint2> iter= usedIn.iterator();
+			while (iter.hasNext()) {
+				ITypeConstraint2 tc= iter.next();
+
+					maintainSimpleConstraint(tc);
+					//TODO: prune tcs which cannot cause further changes
+					// Maybe these should be pruned after a special first loop over all ConstraintVariables,
+					// Since this can only happen once for every CV in the work list.
+//					if (isConstantConstraint(stc))
+//						fTypeConstraintFactory.removeUsedIn(stc, changedCv);
+			}
+		}
+
+		private void maintainSimpleConstraint(ITypeConstraint2 stc) {
+			ConstraintVariable2 left= stc.getLeft();
+			ConstraintVariable2 right= stc.getRight();
+
+			TypeEquivalenceSet leftSet= left.getTypeEquivalenceSet();
+			TypeEquivalenceSet rightSet= right.getTypeEquivalenceSet();
+			TypeSet leftEstimate= (TypeSet) leftSet.getTypeEstimate();
+			TypeSet rightEstimate= (TypeSet) rightSet.getTypeEstimate();
+
+			if (leftEstimate.isUniverse() && rightEstimate.isUniverse())
+				return; // nothing to do
+
+			if (leftEstimate.equals(rightEstimate))
+				return; // nothing to do
+
+			TypeSet lhsSuperTypes= leftEstimate.superTypes();
+			TypeSet rhsSubTypes= rightEstimate.subTypes();
+
+			if (! rhsSubTypes.containsAll(leftEstimate)) {
+				TypeSet xsection= leftEstimate.intersectedWith(rhsSubTypes);
+
+//				if (xsection.isEmpty()) // too bad, but this can happen
+//					throw new IllegalStateException("Type estimate set is now empty for LHS in " + left + " <= " + right + "; estimates were " + leftEstimate + " <= " + rightEstimate); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+
+				leftSet.setTypeEstimate(xsection);
+				fWorkList.addAll(Arrays.asList(leftSet.getContributingVariables()));
+			}
+			if (! lhsSuperTypes.containsAll(rightEstimate)) {
+				TypeSet xsection= rightEstimate.intersectedWith(lhsSuperTypes);
+
+//				if (xsection.isEmpty())
+//					throw new IllegalStateException("Type estimate set is now empty for RHS in " + left + " <= " + right + "; estimates were " + leftEstimate + " <= " + rightEstimate); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+
+				rightSet.setTypeEstimate(xsection);
+				fWorkList.addAll(Arrays.asList(rightSet.getContributingVariables()));
+			}
+		}
+	}
+
+	/**
+	 * Hands out the batches to be solved in parallel and collects their completion.
+	 *
+	 * @since 3.10
+	 */
+	private static final class BatchQueue {
+
+		private final List<Batch> fBatches;
+		/** Index of the next batch to solve. Guarded by <code>this</code>. */
+		private int fNext;
+		/** Number of batches that have been solved or have failed. Guarded by <code>this</code>. */
+		private int fDone;
+		/** The first failure of a batch, or <code>null</code>. Guarded by <code>this</code>. */
+		private Throwable fFailure;
+
+		BatchQueue(List<Batch> batches) {
+			fBatches= batches;
+		}
+
+		/**
+		 * Solves batches until the queue is empty, a batch has failed or the monitor is canceled.
+		 *
+		 * @param pm the progress monitor, used for cancellation only
+		 */
+		void solve(IProgressMonitor pm) {
+			Batch batch;
+			while ((batch= next()) != null) {
+				Throwable failure= null;
+				try {
+					batch.solve(pm);
+				} catch (RuntimeException e) {
+					failure= e;
+				} catch (Error e) {
+					failure= e;
+				}
+				done(failure);
+			}
+		}
+
+		private synchronized Batch next() {
+			if (fFailure != null || fNext == fBatches.size())
+				return null;
+			return fBatches.get(fNext++);
+		}
+
+		private synchronized void done(Throwable failure) {
+			fDone++;
+			if (failure != null && fFailure == null)
+				fFailure= failure;
+			notifyAll();
+		}
+	}
+
+	/**
+	 * Solves the batches of a {@link BatchQueue} in a background thread.
+	 *
+	 * @since 3.10
+	 */
+	private static final class SolverJob extends Job {
+
+		private final BatchQueue fQueue;
+
+		SolverJob(BatchQueue queue) {
+			super(RefactoringCoreMessages.InferTypeArgumentsRefactoring_solving);
+			fQueue= queue;
+			setSystem(true);
+		}
+
+		@Override
+		protected IStatus run(IProgressMonitor monitor) {
+			fQueue.solve(monitor);
+			return monitor.isCanceled() ? Status.CANCEL_STATUS : Status.OK_STATUS;
+		}
+	}
+
 	private final static String CHOSEN_TYPE= "chosenType"; //$NON-NLS-1$
 
+	/**
+	 * The minimal number of constraint variables in a batch of connected components.
+	 *
+	 * @since 3.10
+	 */
+	private static final int MIN_BATCH_SIZE= 500;
+
 	private final InferTypeArgumentsTCModel fTCModel;
-	private TypeSetEnvironment fTypeSetEnvironment;
 
 	/**
-	 * The work-list used by the type constraint solver to hold the set of
-	 * nodes in the constraint graph that remain to be (re-)processed. Entries
-	 * are <code>ConstraintVariable2</code>s.
+	 * Tells whether independent batches of the constraint graph are solved in parallel.
+	 *
+	 * @since 3.10
 	 */
-	private LinkedList<ConstraintVariable2> fWorkList;
+	private boolean fParallel;
 
 	private InferTypeArgumentsUpdate fUpdate;
 
 
 	public InferTypeArgumentsConstraintsSolver(InferTypeArgumentsTCModel typeConstraintFactory) {
 		fTCModel= typeConstraintFactory;
-		fWorkList= new LinkedList<ConstraintVariable2>();
+		fParallel= Runtime.getRuntime().availableProcessors() > 1;
+	}
+
+	/**
+	 * Sets whether independent parts of the constraint graph are solved in parallel. The
+	 * solution does not depend on this setting. The default is to solve in parallel if more
+	 * than one processor is available.
+	 *
+	 * @param parallel <code>true</code> to solve in parallel, <code>false</code> to solve
+	 *  in the calling thread only
+	 * @since 3.10
+	 */
+	public void setParallel(boolean parallel) {
+		fParallel= parallel;
 	}
 
 	public InferTypeArgumentsUpdate solveConstraints(IProgressMonitor pm) {
@@ -85,7 +353,6 @@ public class InferTypeArgumentsConstraintsSolver {
 		if (allConstraintVariables.length == 0)
 			return fUpdate;
 
-		fTypeSetEnvironment= new TypeSetEnvironment(fTCModel.getTypeEnvironment());
 		ParametricStructureComputer parametricStructureComputer= new ParametricStructureComputer(allConstraintVariables, fTCModel);
 		Collection<CollectionElementVariable2> newVars= parametricStructureComputer.createElemConstraintVariables();
 
@@ -119,149 +386,140 @@ public class InferTypeArgumentsConstraintsSolver {
 			fTCModel.createElementEqualsConstraints(typeConstraint.getLeft(), typeConstraint.getRight());
 		}
 
-		initializeTypeEstimates(allConstraintVariables);
 		if (pm.isCanceled())
 			throw new OperationCanceledException();
-		fWorkList.addAll(Arrays.asList(allConstraintVariables));
-		runSolver(new SubProgressMonitor(pm, 1));
+		List<Batch> batches= createBatches(allConstraintVariables, fTCModel.getAllTypeConstraints());
+		if (fParallel && batches.size() > 1)
+			solveInParallel(batches, new SubProgressMonitor(pm, 1));
+		else
+			solveSequentially(batches, new SubProgressMonitor(pm, 1));
 		chooseTypes(allConstraintVariables, new SubProgressMonitor(pm, 1));
 		findCastsToRemove(fTCModel.getCastVariables());
 		return fUpdate;
 	}
 
-	private void initializeTypeEstimates(ConstraintVariable2[] allConstraintVariables) {
+	/**
+	 * Partitions the constraint graph into connected components and groups them into batches
+	 * of at least {@link #MIN_BATCH_SIZE} variables. The partition only depends on the order
+	 * of the given variables.
+	 *
+	 * @param allConstraintVariables all constraint variables
+	 * @param allTypeConstraints all type constraints
+	 * @return the batches
+	 */
+	private List<Batch> createBatches(ConstraintVariable2[] allConstraintVariables, ITypeConstraint2[] allTypeConstraints) {
+		Map<ConstraintVariable2, ConstraintVariable2> parents= new HashMap<ConstraintVariable2, ConstraintVariable2>();
 		for (int i= 0; i < allConstraintVariables.length; i++) {
 			ConstraintVariable2 cv= allConstraintVariables[i];
-			//TODO: not necessary for types that are not used in a TypeConstraint but only as type in CollectionElementVariable
-			//TODO: handle nested element variables; see ParametricStructureComputer.createAndInitVars()
 			TypeEquivalenceSet set= cv.getTypeEquivalenceSet();
-			if (set == null) {
-				set= new TypeEquivalenceSet(cv);
-				set.setTypeEstimate(createInitialEstimate(cv));
-				cv.setTypeEquivalenceSet(set);
-			} else {
-				TypeSet typeEstimate= (TypeSet) cv.getTypeEstimate();
-				if (typeEstimate == null) {
-					ConstraintVariable2[] cvs= set.getContributingVariables();
-					typeEstimate= fTypeSetEnvironment.getUniverseTypeSet();
-					for (int j= 0; j < cvs.length; j++) //TODO: optimize: just try to find an immutable CV; if not found, use Universe
-						typeEstimate= typeEstimate.intersectedWith(createInitialEstimate(cvs[j]));
-					set.setTypeEstimate(typeEstimate);
-				}
+			if (set != null) {
+				ConstraintVariable2[] contributingVariables= set.getContributingVariables();
+				for (int j= 0; j < contributingVariables.length; j++)
+					union(parents, cv, contributingVariables[j]);
 			}
 		}
-	}
+		for (int i= 0; i < allTypeConstraints.length; i++)
+			union(parents, allTypeConstraints[i].getLeft(), allTypeConstraints[i].getRight());
 
-	private TypeSet createInitialEstimate(ConstraintVariable2 cv) {
-		// TODO: check assumption: only immutable CVs have a type
-//		ParametricStructure parametricStructure= fElemStructureEnv.elemStructure(cv);
-//		if (parametricStructure != null && parametricStructure != ParametricStructureComputer.ParametricStructure.NONE) {
-//			return SubTypesOfSingleton.create(parametricStructure.getBase());
-//		}
-
-		TType type= cv.getType();
-		if (type == null) {
-			return fTypeSetEnvironment.getUniverseTypeSet();
-
-		} else if (cv instanceof IndependentTypeVariable2) {
-			return fTypeSetEnvironment.getUniverseTypeSet();
-			//TODO: solve problem with recursive bounds
-//			TypeVariable tv= (TypeVariable) type;
-//			TType[] bounds= tv.getBounds();
-//			TypeSet result= SubTypesOfSingleton.create(bounds[0].getErasure());
-//			for (int i= 1; i < bounds.length; i++) {
-//				result= result.intersectedWith(SubTypesOfSingleton.create(bounds[i].getErasure()));
-//			}
-//			return result;
+		Map<ConstraintVariable2, List<ConstraintVariable2>> components= new LinkedHashMap<ConstraintVariable2, List<ConstraintVariable2>>();
+		for (int i= 0; i < allConstraintVariables.length; i++) {
+			ConstraintVariable2 cv= allConstraintVariables[i];
+			ConstraintVariable2 root= find(parents, cv);
+			List<ConstraintVariable2> component= components.get(root);
+			if (component == null) {
+				component= new ArrayList<ConstraintVariable2>();
+				components.put(root, component);
+			}
+			component.add(cv);
+		}
 
-		} else if (cv instanceof ArrayTypeVariable2) {
-			return fTypeSetEnvironment.getUniverseTypeSet();
-		} else if (cv instanceof ArrayElementVariable2) {
-			if (cv.getType() != null && cv.getType().isTypeVariable()) {
-				return fTypeSetEnvironment.getUniverseTypeSet();
-			} else {
-				return new SingletonTypeSet(type, fTypeSetEnvironment);
+		List<Batch> batches= new ArrayList<Batch>();
+		Batch batch= null;
+		for (Iterator<List<ConstraintVariable2>> iter= components.values().iterator(); iter.hasNext();) {
+			if (batch == null || batch.fVariables.size() >= MIN_BATCH_SIZE) {
+				batch= new Batch();
+				batches.add(batch);
 			}
+			batch.fVariables.addAll(iter.next());
+			batch.fComponentCount++;
+		}
+		if (InferTypeArgumentsTCModel.DEBUG)
+			System.out.println("Partitioned " + allConstraintVariables.length + " variables into " + components.size() + " components and " + batches.size() + " batches"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+		return batches;
+	}
 
-		} else if (type.isVoidType()) {
-			return fTypeSetEnvironment.getEmptyTypeSet();
-		} else {
-			return new SingletonTypeSet(type, fTypeSetEnvironment);
+	private static ConstraintVariable2 find(Map<ConstraintVariable2, ConstraintVariable2> parents, ConstraintVariable2 cv) {
+		ConstraintVariable2 root= cv;
+		ConstraintVariable2 parent;
+		while ((parent= parents.get(root)) != null)
+			root= parent;
+		// path compression
+		while ((parent= parents.get(cv)) != null && parent != root) {
+			parents.put(cv, root);
+			cv= parent;
 		}
+		return root;
 	}
 
-	private void runSolver(SubProgressMonitor pm) {
-		pm.beginTask("", fWorkList.size() * 3); //$NON-NLS-1$
-		while (! fWorkList.isEmpty()) {
-			// Get a variable whose type estimate has changed
-			ConstraintVariable2 cv= fWorkList.removeFirst();
-			List<ITypeConstraint2> usedIn= fTCModel.getUsedIn(cv);
-			processConstraints(usedIn);
+	private static void union(Map<ConstraintVariable2, ConstraintVariable2> parents, ConstraintVariable2 cv1, ConstraintVariable2 cv2) {
+		ConstraintVariable2 root1= find(parents, cv1);
+		ConstraintVariable2 root2= find(parents, cv2);
+		if (root1 != root2)
+			parents.put(root2, root1);
+	}
+
+	private void solveSequentially(List<Batch> batches, IProgressMonitor pm) {
+		pm.beginTask("", batches.size()); //$NON-NLS-1$
+		for (Iterator<Batch> iter= batches.iterator(); iter.hasNext();) {
+			iter.next().solve(pm);
 			pm.worked(1);
-			if (pm.isCanceled())
-				throw new OperationCanceledException();
 		}
 		pm.done();
 	}
 
 	/**
-	 * Given a list of <code>ITypeConstraint2</code>s that all refer to a
-	 * given <code>ConstraintVariable2</code> (whose type bound has presumably
-	 * just changed), process each <code>ITypeConstraint</code>, propagating
-	 * the type bound across the constraint as needed.
+	 * Solves the batches in background jobs and in the calling thread. Waits until all batches
+	 * are solved.
 	 *
-	 * @param usedIn the <code>List</code> of <code>ITypeConstraint2</code>s
-	 * to process
+	 * @param batches the batches to solve
+	 * @param pm the progress monitor
 	 */
-	private void processConstraints(List<ITypeConstraint2> usedIn) {
-		Iterator<ITypeConstraint2> iter= usedIn.iterator();
-		while (iter.hasNext()) {
-			ITypeConstraint2 tc= iter.next();
-
-				maintainSimpleConstraint(tc);
-				//TODO: prune tcs which cannot cause further changes
-				// Maybe these should be pruned after a special first loop over all ConstraintVariables,
-				// Since this can only happen once for every CV in the work list.
-//				if (isConstantConstraint(stc))
-//					fTypeConstraintFactory.removeUsedIn(stc, changedCv);
+	private void solveInParallel(List<Batch> batches, IProgressMonitor pm) {
+		pm.beginTask("", batches.size()); //$NON-NLS-1$
+		BatchQueue queue= new BatchQueue(batches);
+		int jobCount= Math.min(Runtime.getRuntime().availableProcessors(), batches.size()) - 1;
+		SolverJob[] jobs= new SolverJob[jobCount];
+		for (int i= 0; i < jobCount; i++) {
+			jobs[i]= new SolverJob(queue);
+			jobs[i].schedule();
 		}
-	}
-
-	private void maintainSimpleConstraint(ITypeConstraint2 stc) {
-		ConstraintVariable2 left= stc.getLeft();
-		ConstraintVariable2 right= stc.getRight();
-
-		TypeEquivalenceSet leftSet= left.getTypeEquivalenceSet();
-		TypeEquivalenceSet rightSet= right.getTypeEquivalenceSet();
-		TypeSet leftEstimate= (TypeSet) leftSet.getTypeEstimate();
-		TypeSet rightEstimate= (TypeSet) rightSet.getTypeEstimate();
-
-		if (leftEstimate.isUniverse() && rightEstimate.isUniverse())
-			return; // nothing to do
-
-		if (leftEstimate.equals(rightEstimate))
-			return; // nothing to do
-
-		TypeSet lhsSuperTypes= leftEstimate.superTypes();
-		TypeSet rhsSubTypes= rightEstimate.subTypes();
-
-		if (! rhsSubTypes.containsAll(leftEstimate)) {
-			TypeSet xsection= leftEstimate.intersectedWith(rhsSubTypes);
-
-//			if (xsection.isEmpty()) // too bad, but this can happen
-//				throw new IllegalStateException("Type estimate set is now empty for LHS in " + left + " <= " + right + "; estimates were " + leftEstimate + " <= " + rightEstimate); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
-
-			leftSet.setTypeEstimate(xsection);
-			fWorkList.addAll(Arrays.asList(leftSet.getContributingVariables()));
-		}
-		if (! lhsSuperTypes.containsAll(rightEstimate)) {
-			TypeSet xsection= rightEstimate.intersectedWith(lhsSuperTypes);
-
-//			if (xsection.isEmpty())
-//				throw new IllegalStateException("Type estimate set is now empty for RHS in " + left + " <= " + right + "; estimates were " + leftEstimate + " <= " + rightEstimate); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
-
-			rightSet.setTypeEstimate(xsection);
-			fWorkList.addAll(Arrays.asList(rightSet.getContributingVariables()));
+		try {
+			// the calling thread takes part, so that solving proceeds even if no job gets to run
+			queue.solve(pm);
+			int reported= 0;
+			synchronized (queue) {
+				while (true) {
+					pm.worked(queue.fDone - reported);
+					reported= queue.fDone;
+					if (queue.fDone == batches.size() || queue.fFailure != null && queue.fDone == queue.fNext)
+						break;
+					if (pm.isCanceled())
+						throw new OperationCanceledException();
+					queue.wait(100);
+				}
+				Throwable failure= queue.fFailure;
+				if (failure instanceof RuntimeException)
+					throw (RuntimeException) failure;
+				if (failure instanceof Error)
+					throw (Error) failure;
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new OperationCanceledException();
+		} finally {
+			for (int i= 0; i < jobCount; i++)
+				jobs[i].cancel();
+			pm.done();
 		}
 	}
 
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2000, 2011 IBM Corporation and others.
+ * Copyright (c) 2000, 2014 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -20,6 +20,7 @@ import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 
+import org.eclipse.core.runtime.Assert;
 import org.eclipse.core.runtime.CoreException;
 import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.core.runtime.ISafeRunnable;
@@ -28,6 +29,7 @@ import org.eclipse.core.runtime.OperationCanceledException;
 import org.eclipse.core.runtime.SafeRunner;
 import org.eclipse.core.runtime.Status;
 import org.eclipse.core.runtime.SubProgressMonitor;
+import org.eclipse.core.runtime.jobs.Job;
 
 import org.eclipse.core.resources.IFile;
 
@@ -64,6 +66,7 @@ import org.eclipse.jdt.core.refactoring.descriptors.InferTypeArgumentsDescriptor
 
 import org.eclipse.jdt.internal.core.refactoring.descriptors.RefactoringSignatureDescriptorFactory;
 import org.eclipse.jdt.internal.corext.SourceRangeFactory;
+import org.eclipse.jdt.internal.corext.dom.ASTBatchParser;
 import org.eclipse.jdt.internal.corext.refactoring.Checks;
 import org.eclipse.jdt.internal.corext.refactoring.JDTRefactoringDescriptorComment;
 import org.eclipse.jdt.internal.corext.refactoring.JavaRefactoringArguments;
@@ -90,7 +93,6 @@ import org.eclipse.jdt.ui.JavaElementLabels;
 
 import org.eclipse.jdt.internal.ui.IJavaStatusConstants;
 import org.eclipse.jdt.internal.ui.JavaPlugin;
-import org.eclipse.jdt.internal.ui.javaeditor.ASTProvider;
 import org.eclipse.jdt.internal.ui.viewsupport.BasicElementLabels;
 
 public class InferTypeArgumentsRefactoring extends Refactoring {
@@ -107,6 +109,169 @@ public class InferTypeArgumentsRefactoring extends Refactoring {
 	private boolean fAssumeCloneReturnsSameType;
 	private boolean fLeaveUnconstrainedRaw;
 
+	/**
+	 * Tells whether independent parts of the type constraints are solved in parallel.
+	 *
+	 * @since 3.10
+	 */
+	private boolean fParallel= Runtime.getRuntime().availableProcessors() > 1;
+
+	/**
+	 * The number of compilation units whose constraints are collected into one model when
+	 * collecting in parallel.
+	 *
+	 * @since 3.10
+	 */
+	private int fBatchSize= 150;
+
+	/**
+	 * Collects the type constraints of a batch of compilation units into a model. The batch is
+	 * either collected by the job or, if the job has not started by the time the batch is needed,
+	 * in the calling thread.
+	 *
+	 * @since 3.10
+	 */
+	private final class ConstraintCollector extends Job {
+
+		private final IJavaProject fProject;
+		private final ICompilationUnit[] fUnits;
+		private final InferTypeArgumentsTCModel fModel;
+		private final RefactoringStatus fStatus= new RefactoringStatus();
+
+		/** Tells whether the batch is being collected or done. Guarded by <code>this</code>. */
+		private boolean fClaimed;
+		/** Tells whether the batch has been collected. Guarded by <code>this</code>. */
+		private boolean fDone;
+		/** The failure of the job, or <code>null</code>. Guarded by <code>this</code>. */
+		private Throwable fFailure;
+
+		/**
+		 * @param project the project of the compilation units
+		 * @param units the compilation units of the batch
+		 * @param model the model to collect the constraints into, either the refactoring's model
+		 *  or a model of its own which is merged later
+		 */
+		ConstraintCollector(IJavaProject project, ICompilationUnit[] units, InferTypeArgumentsTCModel model) {
+			super(RefactoringCoreMessages.InferTypeArgumentsRefactoring_building);
+			fProject= project;
+			fUnits= units;
+			fModel= model;
+			setSystem(true);
+		}
+
+		@Override
+		protected IStatus run(IProgressMonitor monitor) {
+			if (! claim())
+				return Status.OK_STATUS;
+			Throwable failure= null;
+			try {
+				collect(monitor);
+			} catch (RuntimeException e) {
+				failure= e;
+			} catch (Error e) {
+				failure= e;
+			} finally {
+				synchronized (this) {
+					fDone= true;
+					fFailure= failure;
+					notifyAll();
+				}
+			}
+			return failure instanceof OperationCanceledException ? Status.CANCEL_STATUS : Status.OK_STATUS;
+		}
+
+		private synchronized boolean claim() {
+			if (fClaimed)
+				return false;
+			fClaimed= true;
+			return true;
+		}
+
+		/**
+		 * Returns once the batch has been collected, collecting it in the calling thread if the
+		 * job has not started yet.
+		 *
+		 * @param pm the progress monitor
+		 * @return the model holding the constraints of the batch
+		 */
+		InferTypeArgumentsTCModel finish(IProgressMonitor pm) {
+			if (claim()) {
+				collect(pm);
+				return fModel;
+			}
+			pm.beginTask("", 1); //$NON-NLS-1$
+			try {
+				synchronized (this) {
+					while (! fDone) {
+						if (pm.isCanceled())
+							throw new OperationCanceledException();
+						wait(100);
+					}
+					if (fFailure instanceof RuntimeException)
+						throw (RuntimeException) fFailure;
+					if (fFailure instanceof Error)
+						throw (Error) fFailure;
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new OperationCanceledException();
+			} finally {
+				pm.done();
+			}
+			return fModel;
+		}
+
+		private void collect(final IProgressMonitor pm) {
+			final InferTypeArgumentsConstraintCreator unitCollector= new InferTypeArgumentsConstraintCreator(fModel, fAssumeCloneReturnsSameType);
+			final RefactoringStatus result= fStatus;
+			pm.subTask(RefactoringCoreMessages.InferTypeArgumentsRefactoring_calculating_dependencies);
+
+			// the batch parser shares its memory estimate with the scheduling in checkFinalConditions
+			ASTBatchParser parser= new ASTBatchParser() {
+				@Override
+				protected ASTParser createParser(IJavaProject project) {
+					ASTParser result= super.createParser(project);
+					result.setCompilerOptions(RefactoringASTParser.getCompilerOptions(project));
+					return result;
+				}
+			};
+			parser.createASTs(fUnits, new String[0], new ASTRequestor() {
+				@Override
+				public void acceptAST(final ICompilationUnit source, final CompilationUnit ast) {
+					pm.subTask(BasicElementLabels.getFileName(source));
+
+					SafeRunner.run(new ISafeRunnable() {
+						public void run() throws Exception {
+							IProblem[] problems= ast.getProblems();
+							for (int p= 0; p < problems.length; p++) {
+								if (problems[p].isError()) {
+									String cuName= JavaElementLabels.getElementLabel(source, JavaElementLabels.CU_QUALIFIED);
+									String msg= Messages.format(RefactoringCoreMessages.InferTypeArgumentsRefactoring_error_in_cu_skipped, new Object[] {cuName});
+									result.addError(msg, JavaStatusContext.create(source, SourceRangeFactory.create(problems[p])));
+									return;
+								}
+							}
+							ast.accept(unitCollector);
+						}
+						public void handleException(Throwable exception) {
+							String cuName= JavaElementLabels.getElementLabel(source, JavaElementLabels.CU_QUALIFIED);
+							String msg= Messages.format(RefactoringCoreMessages.InferTypeArgumentsRefactoring_internal_error, new Object[] {cuName});
+							JavaPlugin.log(new Status(IStatus.ERROR, JavaPlugin.getPluginId(), IJavaStatusConstants.INTERNAL_ERROR, msg, null));
+							String msg2= Messages.format(RefactoringCoreMessages.InferTypeArgumentsRefactoring_error_skipped, new Object[] {cuName});
+							result.addError(msg2, JavaStatusContext.create(source));
+						}
+					});
+
+					fModel.newCu();
+				}
+				@Override
+				public void acceptBinding(String bindingKey, IBinding binding) {
+					//do nothing
+				}
+			}, pm);
+		}
+	}
+
 	/**
 	 * Creates a new infer type arguments refactoring.
 	 * @param elements the elements to process, or <code>null</code> if invoked by scripting
@@ -145,6 +310,37 @@ public class InferTypeArgumentsRefactoring extends Refactoring {
 		return fLeaveUnconstrainedRaw;
 	}
 
+	/**
+	 * Sets the number of compilation units whose constraints are collected into one model
+	 * when collecting in parallel. For testing purposes only.
+	 *
+	 * @param batchSize the number of compilation units per batch, at least 1
+	 * @since 3.10
+	 */
+	public void setBatchSize(int batchSize) {
+		Assert.isTrue(batchSize > 0);
+		fBatchSize= batchSize;
+	}
+
+	/**
+	 * Sets whether the type constraints are collected and solved in parallel. The resulting
+	 * change does not depend on this setting. The default is to work in parallel if more than
+	 * one processor is available.
+	 * <p>
+	 * In parallel, batches of compilation units are collected into models of their own, which
+	 * are merged in order. Otherwise, all compilation units are collected into one model in the
+	 * calling thread.
+	 * </p>
+	 *
+	 * @param parallel <code>true</code> to work in parallel, <code>false</code> to work
+	 *  in the calling thread only
+	 * @see InferTypeArgumentsConstraintsSolver#setParallel(boolean)
+	 * @since 3.10
+	 */
+	public void setParallel(boolean parallel) {
+		fParallel= parallel;
+	}
+
 	/*
 	 * @see org.eclipse.ltk.core.refactoring.Refactoring#checkInitialConditions(org.eclipse.core.runtime.IProgressMonitor)
 	 */
@@ -165,7 +361,7 @@ public class InferTypeArgumentsRefactoring extends Refactoring {
 		final RefactoringStatus result= new RefactoringStatus();
 		try {
 			fTCModel= new InferTypeArgumentsTCModel();
-			final InferTypeArgumentsConstraintCreator unitCollector= new InferTypeArgumentsConstraintCreator(fTCModel, fAssumeCloneReturnsSameType);
+			int parallelism= fParallel ? Runtime.getRuntime().availableProcessors() : 1;
 
 			for (Iterator<Entry<IJavaProject, ArrayList<IJavaElement>>> iter= projectsToElements.entrySet().iterator(); iter.hasNext(); ) {
 				Entry<IJavaProject, ArrayList<IJavaElement>> entry= iter.next();
@@ -174,55 +370,38 @@ public class InferTypeArgumentsRefactoring extends Refactoring {
 				IJavaElement[] javaElements= javaElementsList.toArray(new IJavaElement[javaElementsList.size()]);
 				List<ICompilationUnit> cus= Arrays.asList(JavaModelUtil.getAllCompilationUnits(javaElements));
 
-				int batchSize= 150;
+				int batchSize= fParallel ? fBatchSize : Math.max(1, cus.size());
 				int batches= ((cus.size()-1) / batchSize) + 1;
 				SubProgressMonitor projectMonitor= new SubProgressMonitor(pm, 1);
 				projectMonitor.beginTask("", batches); //$NON-NLS-1$
 				projectMonitor.setTaskName(RefactoringCoreMessages.InferTypeArgumentsRefactoring_building);
+				ConstraintCollector[] collectors= new ConstraintCollector[batches];
 				for (int i= 0; i < batches; i++) {
 					List<ICompilationUnit> batch= cus.subList(i * batchSize, Math.min(cus.size(), (i + 1) * batchSize));
-					ICompilationUnit[] batchCus= batch.toArray(new ICompilationUnit[batch.size()]);
-					final SubProgressMonitor batchMonitor= new SubProgressMonitor(projectMonitor, 1);
-					batchMonitor.subTask(RefactoringCoreMessages.InferTypeArgumentsRefactoring_calculating_dependencies);
-
-					ASTParser parser= ASTParser.newParser(ASTProvider.SHARED_AST_LEVEL);
-					parser.setProject(project);
-					parser.setCompilerOptions(RefactoringASTParser.getCompilerOptions(project));
-					parser.setResolveBindings(true);
-					parser.createASTs(batchCus, new String[0], new ASTRequestor() {
-						@Override
-						public void acceptAST(final ICompilationUnit source, final CompilationUnit ast) {
-							batchMonitor.subTask(BasicElementLabels.getFileName(source));
-
-							SafeRunner.run(new ISafeRunnable() {
-								public void run() throws Exception {
-									IProblem[] problems= ast.getProblems();
-									for (int p= 0; p < problems.length; p++) {
-										if (problems[p].isError()) {
-											String cuName= JavaElementLabels.getElementLabel(source, JavaElementLabels.CU_QUALIFIED);
-											String msg= Messages.format(RefactoringCoreMessages.InferTypeArgumentsRefactoring_error_in_cu_skipped, new Object[] {cuName});
-											result.addError(msg, JavaStatusContext.create(source, SourceRangeFactory.create(problems[p])));
-											return;
-										}
-									}
-									ast.accept(unitCollector);
-								}
-								public void handleException(Throwable exception) {
-									String cuName= JavaElementLabels.getElementLabel(source, JavaElementLabels.CU_QUALIFIED);
-									String msg= Messages.format(RefactoringCoreMessages.InferTypeArgumentsRefactoring_internal_error, new Object[] {cuName});
-									JavaPlugin.log(new Status(IStatus.ERROR, JavaPlugin.getPluginId(), IJavaStatusConstants.INTERNAL_ERROR, msg, null));
-									String msg2= Messages.format(RefactoringCoreMessages.InferTypeArgumentsRefactoring_error_skipped, new Object[] {cuName});
-									result.addError(msg2, JavaStatusContext.create(source));
-								}
-							});
-
-							fTCModel.newCu();
-						}
-						@Override
-						public void acceptBinding(String bindingKey, IBinding binding) {
-							//do nothing
-						}
-					}, batchMonitor);
+					InferTypeArgumentsTCModel model= fParallel ? new InferTypeArgumentsTCModel(fTCModel.getTypeEnvironment()) : fTCModel;
+					collectors[i]= new ConstraintCollector(project, batch.toArray(new ICompilationUnit[batch.size()]), model);
+				}
+				// Batches are collected in parallel, but merged in order. The ASTs of a batch take
+				// a lot of memory, so only as many batches are in progress at a time as fit into the
+				// heap according to the memory per compilation unit measured by ASTBatchParser.
+				int scheduled= 1;
+				try {
+					for (int i= 0; i < batches; i++) {
+						int inProgress= ASTBatchParser.getConcurrentBatchCount(batchSize, parallelism);
+						for (; scheduled < Math.min(batches, i + inProgress); scheduled++)
+							collectors[scheduled].schedule();
+						ConstraintCollector collector= collectors[i];
+						InferTypeArgumentsTCModel model= collector.finish(new SubProgressMonitor(projectMonitor, 1));
+						result.merge(collector.fStatus);
+						if (model != fTCModel)
+							fTCModel.merge(model);
+						collectors[i]= null;
+					}
+				} finally {
+					for (int i= 0; i < batches; i++) {
+						if (collectors[i] != null)
+							collectors[i].cancel();
+					}
 				}
 
 				projectMonitor.done();
@@ -237,6 +416,7 @@ public class InferTypeArgumentsRefactoring extends Refactoring {
 
 			pm.setTaskName(RefactoringCoreMessages.InferTypeArgumentsRefactoring_solving);
 			InferTypeArgumentsConstraintsSolver solver= new InferTypeArgumentsConstraintsSolver(fTCModel);
+			solver.setParallel(fParallel);
 			InferTypeArgumentsUpdate updates= solver.solveConstraints(new SubProgressMonitor(pm, 1));
 			solver= null; //free caches
 
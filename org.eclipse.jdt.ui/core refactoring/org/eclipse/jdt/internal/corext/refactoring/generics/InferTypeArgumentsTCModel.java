@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2000, 2011 IBM Corporation and others.
+ * Copyright (c) 2000, 2014 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -16,8 +16,10 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -49,6 +51,7 @@ import org.eclipse.jdt.internal.corext.refactoring.typeconstraints2.CastVariable
 import org.eclipse.jdt.internal.corext.refactoring.typeconstraints2.CollectionElementVariable2;
 import org.eclipse.jdt.internal.corext.refactoring.typeconstraints2.ConstraintVariable2;
 import org.eclipse.jdt.internal.corext.refactoring.typeconstraints2.ITypeConstraint2;
+import org.eclipse.jdt.internal.corext.refactoring.typeconstraints2.ISourceConstraintVariable;
 import org.eclipse.jdt.internal.corext.refactoring.typeconstraints2.ImmutableTypeVariable2;
 import org.eclipse.jdt.internal.corext.refactoring.typeconstraints2.IndependentTypeVariable2;
 import org.eclipse.jdt.internal.corext.refactoring.typeconstraints2.ParameterTypeVariable2;
@@ -98,13 +101,25 @@ public class InferTypeArgumentsTCModel {
 
 
 	public InferTypeArgumentsTCModel() {
+		this(new TypeEnvironment(true));
+	}
+
+	/**
+	 * Creates a model that shares the given type environment. Several such models can
+	 * collect constraints concurrently and be {@link #merge(InferTypeArgumentsTCModel) merged}
+	 * afterwards.
+	 *
+	 * @param typeEnvironment the type environment
+	 * @since 3.10
+	 */
+	public InferTypeArgumentsTCModel(TypeEnvironment typeEnvironment) {
 		fTypeConstraints= new HashMap<ITypeConstraint2, ITypeConstraint2>();
 		fConstraintVariables= new LinkedHashMap<ConstraintVariable2, ConstraintVariable2>(); // make iteration independent of hashCode() implementation
 		fCastVariables= new ArrayList<CastVariable2>();
 
 		fCuScopedConstraintVariables= new HashSet<ConstraintVariable2>();
 
-		fTypeEnvironment= new TypeEnvironment(true);
+		fTypeEnvironment= typeEnvironment;
 	}
 
 	/**
@@ -791,8 +806,11 @@ public class InferTypeArgumentsTCModel {
 	}
 
 	private void setElementVariable(ConstraintVariable2 typeConstraintVariable, CollectionElementVariable2 elementVariable, TypeVariable typeVariable) {
+		setElementVariable(typeConstraintVariable, elementVariable, typeVariable.getBindingKey());
+	}
+
+	private void setElementVariable(ConstraintVariable2 typeConstraintVariable, CollectionElementVariable2 elementVariable, String key) {
 		HashMap<String, CollectionElementVariable2> keyToElementVar= (HashMap<String, CollectionElementVariable2>) typeConstraintVariable.getData(INDEXED_COLLECTION_ELEMENTS);
-		String key= typeVariable.getBindingKey();
 		if (keyToElementVar == null) {
 			keyToElementVar= new HashMap<String, CollectionElementVariable2>();
 			typeConstraintVariable.setData(INDEXED_COLLECTION_ELEMENTS, keyToElementVar);
@@ -862,4 +880,203 @@ public class InferTypeArgumentsTCModel {
 		expressionVariable.setData(METHOD_RECEIVER, methodReceiverCV);
 	}
 
+	/**
+	 * Adds the constraint variables, type constraints and cast variables of the given model
+	 * to this model. Constraint variables that are equal to a variable of this model are
+	 * replaced by it, all others are taken over. The given model must share the type
+	 * environment of this model and must not be used any more afterwards.
+	 *
+	 * @param model the model to merge into this model
+	 * @since 3.10
+	 */
+	public void merge(InferTypeArgumentsTCModel model) {
+		Assert.isTrue(model.fTypeEnvironment == fTypeEnvironment);
+		Assert.isTrue(model != this);
+		model.newCu();
+
+		ModelMerger merger= new ModelMerger(model);
+		for (Iterator<ConstraintVariable2> iter= model.fConstraintVariables.keySet().iterator(); iter.hasNext();)
+			merger.merge(iter.next());
+		for (Iterator<CastVariable2> iter= model.fCastVariables.iterator(); iter.hasNext();)
+			merger.merge(iter.next().getExpressionVariable());
+		merger.mergeData();
+		merger.mergeEquivalenceSets();
+		merger.mergeTypeConstraints();
+		merger.mergeCastVariables();
+	}
+
+	/**
+	 * Maps the constraint variables of a merged model to the constraint variables of this model.
+	 * <p>
+	 * Element variables and cast variables identify their parent variable by identity. If the
+	 * parent is replaced by a variable of this model, they are recreated for the replacement.
+	 * </p>
+	 *
+	 * @since 3.10
+	 */
+	private final class ModelMerger {
+
+		private final InferTypeArgumentsTCModel fModel;
+		/** Map from the variables of fModel to the variables of this model. */
+		private final Map<ConstraintVariable2, ConstraintVariable2> fMerged= new IdentityHashMap<ConstraintVariable2, ConstraintVariable2>();
+		/** The variables of fModel whose data has not been merged yet. */
+		private final LinkedList<ConstraintVariable2> fPending= new LinkedList<ConstraintVariable2>();
+		/** The type equivalence sets and usages of the variables of fModel, in merge order. */
+		private final List<TypeEquivalenceSet> fEquivalenceSets= new ArrayList<TypeEquivalenceSet>();
+		private final List<List<ITypeConstraint2>> fUsedIns= new ArrayList<List<ITypeConstraint2>>();
+
+		ModelMerger(InferTypeArgumentsTCModel model) {
+			fModel= model;
+		}
+
+		ConstraintVariable2 merge(ConstraintVariable2 cv) {
+			if (cv == null)
+				return null;
+			ConstraintVariable2 result= fMerged.get(cv);
+			if (result != null)
+				return result;
+
+			ConstraintVariable2 candidate= cv;
+			if (cv instanceof CollectionElementVariable2) {
+				CollectionElementVariable2 elementCv= (CollectionElementVariable2) cv;
+				ConstraintVariable2 parent= merge(elementCv.getParentConstraintVariable());
+				if (parent != elementCv.getParentConstraintVariable()) {
+					result= getElementVariables(parent).get(elementCv.getTypeVariableKey());
+					candidate= new CollectionElementVariable2(parent, elementCv.getTypeVariableKey(), elementCv.getDeclarationTypeVariableIndex());
+				}
+			} else if (cv instanceof ArrayElementVariable2) {
+				ArrayElementVariable2 arrayElementCv= (ArrayElementVariable2) cv;
+				ConstraintVariable2 parent= merge(arrayElementCv.getParentConstraintVariable());
+				if (parent != arrayElementCv.getParentConstraintVariable()) {
+					result= getArrayElementVariable(parent);
+					candidate= new ArrayElementVariable2(parent);
+				}
+			}
+			if (result == null)
+				result= fConstraintVariables.get(candidate);
+			if (result == null) {
+				result= candidate;
+				if (fModel.fConstraintVariables.containsKey(cv))
+					fConstraintVariables.put(result, result);
+			}
+			fMerged.put(cv, result);
+			fPending.add(cv);
+			return result;
+		}
+
+		/**
+		 * Merges the data of all variables reached so far, and of all variables that become
+		 * reachable by doing so.
+		 */
+		@SuppressWarnings("unchecked")
+		void mergeData() {
+			while (! fPending.isEmpty()) {
+				ConstraintVariable2 cv= fPending.removeFirst();
+				ConstraintVariable2 mergedCv= fMerged.get(cv);
+
+				TypeEquivalenceSet set= cv.getTypeEquivalenceSet();
+				fEquivalenceSets.add(set);
+				if (set != null) {
+					ConstraintVariable2[] contributingVariables= set.getContributingVariables();
+					for (int i= 0; i < contributingVariables.length; i++)
+						merge(contributingVariables[i]);
+				}
+				List<ITypeConstraint2> usedIn= fModel.getUsedIn(cv);
+				fUsedIns.add(usedIn);
+				for (Iterator<ITypeConstraint2> iter= usedIn.iterator(); iter.hasNext();) {
+					ITypeConstraint2 typeConstraint= iter.next();
+					merge(typeConstraint.getLeft());
+					merge(typeConstraint.getRight());
+				}
+
+				HashMap<String, CollectionElementVariable2> elementVariables= (HashMap<String, CollectionElementVariable2>) cv.getData(INDEXED_COLLECTION_ELEMENTS);
+				ArrayElementVariable2 arrayElementVariable= fModel.getArrayElementVariable(cv);
+				ConstraintVariable2 methodReceiver= fModel.getMethodReceiverCv(cv);
+				if (mergedCv == cv) {
+					// taken over: replace references into fModel, type constraints and equivalence sets are added later
+					if (usedIn.size() != 0)
+						cv.setData(USED_IN, null);
+					cv.setTypeEquivalenceSet(null);
+					if (elementVariables != null)
+						cv.setData(INDEXED_COLLECTION_ELEMENTS, null);
+					if (arrayElementVariable != null)
+						cv.setData(ARRAY_ELEMENT, null);
+					if (methodReceiver != null)
+						cv.setData(METHOD_RECEIVER, null);
+				} else {
+					if (cv.getData(ConstraintVariable2.TO_STRING) != null && mergedCv.getData(ConstraintVariable2.TO_STRING) == null)
+						mergedCv.setData(ConstraintVariable2.TO_STRING, cv.getData(ConstraintVariable2.TO_STRING));
+					if (cv instanceof ISourceConstraintVariable) {
+						ICompilationUnit cu= ((ISourceConstraintVariable) cv).getCompilationUnit();
+						if (cu != null && ((ISourceConstraintVariable) mergedCv).getCompilationUnit() == null)
+							((ISourceConstraintVariable) mergedCv).setCompilationUnit(cu);
+					}
+				}
+				if (elementVariables != null) {
+					Map<String, CollectionElementVariable2> mergedElementVariables= getElementVariables(mergedCv);
+					for (Iterator<Entry<String, CollectionElementVariable2>> iter= elementVariables.entrySet().iterator(); iter.hasNext();) {
+						Entry<String, CollectionElementVariable2> entry= iter.next();
+						CollectionElementVariable2 mergedElementVariable= (CollectionElementVariable2) merge(entry.getValue());
+						if (! mergedElementVariables.containsKey(entry.getKey()))
+							setElementVariable(mergedCv, mergedElementVariable, entry.getKey());
+					}
+				}
+				if (arrayElementVariable != null) {
+					ArrayElementVariable2 mergedArrayElementVariable= (ArrayElementVariable2) merge(arrayElementVariable);
+					if (getArrayElementVariable(mergedCv) == null)
+						setArrayElementVariable(mergedCv, mergedArrayElementVariable);
+				}
+				if (methodReceiver != null) {
+					ConstraintVariable2 mergedMethodReceiver= merge(methodReceiver);
+					if (getMethodReceiverCv(mergedCv) == null)
+						setMethodReceiverCV(mergedCv, mergedMethodReceiver);
+				}
+			}
+		}
+
+		void mergeEquivalenceSets() {
+			HashSet<TypeEquivalenceSet> done= new HashSet<TypeEquivalenceSet>();
+			for (Iterator<TypeEquivalenceSet> iter= fEquivalenceSets.iterator(); iter.hasNext();) {
+				TypeEquivalenceSet set= iter.next();
+				if (set == null || ! done.add(set))
+					continue;
+				ConstraintVariable2[] contributingVariables= set.getContributingVariables();
+				ConstraintVariable2 first= fMerged.get(contributingVariables[0]);
+				for (int i= 1; i < contributingVariables.length; i++)
+					createEqualsConstraint(first, fMerged.get(contributingVariables[i]));
+			}
+		}
+
+		void mergeTypeConstraints() {
+			HashSet<ITypeConstraint2> done= new HashSet<ITypeConstraint2>();
+			for (Iterator<List<ITypeConstraint2>> iter= fUsedIns.iterator(); iter.hasNext();) {
+				for (Iterator<ITypeConstraint2> usedInIter= iter.next().iterator(); usedInIter.hasNext();) {
+					ITypeConstraint2 typeConstraint= usedInIter.next();
+					if (! done.add(typeConstraint))
+						continue;
+					ConstraintVariable2 left= fMerged.get(typeConstraint.getLeft());
+					ConstraintVariable2 right= fMerged.get(typeConstraint.getRight());
+					if (left == right)
+						continue;
+					ITypeConstraint2 mergedConstraint= new SubTypeConstraint2(left, right);
+					if (! fTypeConstraints.containsKey(mergedConstraint)) {
+						fTypeConstraints.put(mergedConstraint, mergedConstraint);
+						registerCvWithTc(left, mergedConstraint);
+						registerCvWithTc(right, mergedConstraint);
+					}
+				}
+			}
+		}
+
+		void mergeCastVariables() {
+			for (Iterator<CastVariable2> iter= fModel.fCastVariables.iterator(); iter.hasNext();) {
+				CastVariable2 castCv= iter.next();
+				ConstraintVariable2 expressionCv= fMerged.get(castCv.getExpressionVariable());
+				if (expressionCv != castCv.getExpressionVariable())
+					castCv= new CastVariable2(castCv.getType(), castCv.getRange(), expressionCv);
+				fCastVariables.add(castCv);
+			}
+		}
+	}
+
 }
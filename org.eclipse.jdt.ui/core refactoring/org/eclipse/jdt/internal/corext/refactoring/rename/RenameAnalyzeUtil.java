@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2000, 2011 IBM Corporation and others.
+ * Copyright (c) 2000, 2014 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -16,11 +16,13 @@ import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 
 import org.eclipse.core.runtime.Assert;
 import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.core.runtime.NullProgressMonitor;
 import org.eclipse.core.runtime.SubProgressMonitor;
 
@@ -64,6 +66,7 @@ import org.eclipse.jdt.internal.corext.refactoring.RefactoringCoreMessages;
 import org.eclipse.jdt.internal.corext.refactoring.SearchResultGroup;
 import org.eclipse.jdt.internal.corext.refactoring.base.JavaStatusContext;
 import org.eclipse.jdt.internal.corext.refactoring.base.JavaStringStatusContext;
+import org.eclipse.jdt.internal.corext.refactoring.util.ParallelUnitProcessor;
 import org.eclipse.jdt.internal.corext.refactoring.util.RefactoringASTParser;
 import org.eclipse.jdt.internal.corext.refactoring.util.TextChangeManager;
 import org.eclipse.jdt.internal.corext.util.Messages;
@@ -150,6 +153,38 @@ class RenameAnalyzeUtil {
 		}
 	}
 
+	/**
+	 * Creates the new working copies of a set of distinct compilation units in worker jobs. The
+	 * working copies created before a failure or cancellation are discarded.
+	 *
+	 * @since 3.10
+	 */
+	private static final class WorkingCopyCreator extends ParallelUnitProcessor<ICompilationUnit> {
+
+		private final TextChangeManager fManager;
+		private final WorkingCopyOwner fOwner;
+
+		WorkingCopyCreator(ICompilationUnit[] units, TextChangeManager manager, WorkingCopyOwner owner) {
+			super(RefactoringCoreMessages.RenameAnalyzeUtil_creating_working_copies, units, new ICompilationUnit[units.length]);
+			fManager= manager;
+			fOwner= owner;
+		}
+
+		@Override
+		protected ICompilationUnit process(ICompilationUnit unit) throws CoreException {
+			return createNewWorkingCopy(unit, fManager, fOwner, new SubProgressMonitor(new NullProgressMonitor(), 1));
+		}
+
+		@Override
+		protected void discard(ICompilationUnit workingCopy) {
+			try {
+				workingCopy.discardWorkingCopy();
+			} catch (JavaModelException e) {
+				// ignore, the creation failed anyway
+			}
+		}
+	}
+
 	private RenameAnalyzeUtil() {
 		//no instance
 	}
@@ -183,6 +218,14 @@ class RenameAnalyzeUtil {
 
 	static ICompilationUnit[] createNewWorkingCopies(ICompilationUnit[] compilationUnitsToModify, TextChangeManager manager, WorkingCopyOwner owner, SubProgressMonitor pm) throws CoreException {
 		pm.beginTask("", compilationUnitsToModify.length); //$NON-NLS-1$
+		int workers= ParallelUnitProcessor.getWorkerCount(compilationUnitsToModify.length, ParallelUnitProcessor.MIN_UNITS_PER_WORKER);
+		if (workers > 0) {
+			try {
+				return createNewWorkingCopiesInParallel(compilationUnitsToModify, manager, owner, workers, pm);
+			} finally {
+				pm.done();
+			}
+		}
 		ICompilationUnit[] newWorkingCopies= new ICompilationUnit[compilationUnitsToModify.length];
 		for (int i= 0; i < compilationUnitsToModify.length; i++) {
 			ICompilationUnit cu= compilationUnitsToModify[i];
@@ -192,6 +235,33 @@ class RenameAnalyzeUtil {
 		return newWorkingCopies;
 	}
 
+	private static ICompilationUnit[] createNewWorkingCopiesInParallel(ICompilationUnit[] compilationUnitsToModify, TextChangeManager manager, WorkingCopyOwner owner, int workers, IProgressMonitor pm) throws CoreException {
+		// a compilation unit that occurs twice shares its working copy, which must not be
+		// reconciled concurrently: duplicates are handled afterwards like in the sequential case
+		List<ICompilationUnit> distinct= new ArrayList<ICompilationUnit>(compilationUnitsToModify.length);
+		boolean[] isDuplicate= new boolean[compilationUnitsToModify.length];
+		HashSet<ICompilationUnit> seen= new HashSet<ICompilationUnit>();
+		for (int i= 0; i < compilationUnitsToModify.length; i++) {
+			if (seen.add(compilationUnitsToModify[i]))
+				distinct.add(compilationUnitsToModify[i]);
+			else
+				isDuplicate[i]= true;
+		}
+		ICompilationUnit[] distinctWorkingCopies= new WorkingCopyCreator(distinct.toArray(new ICompilationUnit[distinct.size()]), manager, owner).run(workers, pm);
+
+		ICompilationUnit[] newWorkingCopies= new ICompilationUnit[compilationUnitsToModify.length];
+		int next= 0;
+		for (int i= 0; i < compilationUnitsToModify.length; i++) {
+			if (!isDuplicate[i])
+				newWorkingCopies[i]= distinctWorkingCopies[next++];
+		}
+		for (int i= 0; i < compilationUnitsToModify.length; i++) {
+			if (isDuplicate[i])
+				newWorkingCopies[i]= createNewWorkingCopy(compilationUnitsToModify[i], manager, owner, new SubProgressMonitor(pm, 1));
+		}
+		return newWorkingCopies;
+	}
+
 	static ICompilationUnit createNewWorkingCopy(ICompilationUnit cu, TextChangeManager manager,
 			WorkingCopyOwner owner, SubProgressMonitor pm) throws CoreException {
 		ICompilationUnit newWc= cu.getWorkingCopy(owner, null);
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2000, 2012 IBM Corporation and others.
+ * Copyright (c) 2000, 2014 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -17,6 +17,7 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -107,6 +108,7 @@ import org.eclipse.jdt.internal.corext.refactoring.tagging.ISimilarDeclarationUp
 import org.eclipse.jdt.internal.corext.refactoring.tagging.ITextUpdating;
 import org.eclipse.jdt.internal.corext.refactoring.util.Changes;
 import org.eclipse.jdt.internal.corext.refactoring.util.JavaElementUtil;
+import org.eclipse.jdt.internal.corext.refactoring.util.ParallelUnitProcessor;
 import org.eclipse.jdt.internal.corext.refactoring.util.QualifiedNameFinder;
 import org.eclipse.jdt.internal.corext.refactoring.util.QualifiedNameSearchResult;
 import org.eclipse.jdt.internal.corext.refactoring.util.RefactoringASTParser;
@@ -1289,6 +1291,7 @@ public class RenameTypeProcessor extends JavaRenameProcessor implements ITextUpd
 		final int max= fPreloadedElementToName.size();
 
 		progressMonitor.beginTask("", max * 3); //$NON-NLS-1$
+		final LocalVariableCUParser parser= new LocalVariableCUParser(getCompilationUnitsWithSelectedLocals(), progressMonitor);
 		progressMonitor.setTaskName(RefactoringCoreMessages.RenameTypeProcessor_checking_similarly_named_declarations_refactoring_conditions);
 
 		for (Iterator<IJavaElement> iter= fPreloadedElementToName.keySet().iterator(); iter.hasNext();) {
@@ -1329,7 +1332,7 @@ public class RenameTypeProcessor extends JavaRenameProcessor implements ITextUpd
 				final ILocalVariable currentLocal= (ILocalVariable) element;
 
 				if (currentResolvedCU == null)
-					currentResolvedCU= new RefactoringASTParser(ASTProvider.SHARED_AST_LEVEL).parse(currentCU, true);
+					currentResolvedCU= parser.getAST(currentCU);
 
 				processor= createLocalRenameProcessor(currentLocal, newName, currentResolvedCU);
 
@@ -1418,6 +1421,90 @@ public class RenameTypeProcessor extends JavaRenameProcessor implements ITextUpd
 		return status;
 	}
 
+	/**
+	 * Returns the compilation units that contain selected similarly named local variables, in the
+	 * order in which {@link #initializeSimilarElementsRenameProcessors(IProgressMonitor, CheckConditionsContext)}
+	 * visits them.
+	 *
+	 * @return the compilation units
+	 * @since 3.10
+	 */
+	private ICompilationUnit[] getCompilationUnitsWithSelectedLocals() {
+		Set<ICompilationUnit> cus= new LinkedHashSet<ICompilationUnit>();
+		for (Iterator<IJavaElement> iter= fPreloadedElementToName.keySet().iterator(); iter.hasNext();) {
+			IJavaElement element= iter.next();
+			if (element instanceof ILocalVariable && fPreloadedElementToSelection.get(element).booleanValue())
+				cus.add((ICompilationUnit) element.getAncestor(IJavaElement.COMPILATION_UNIT));
+		}
+		return cus.toArray(new ICompilationUnit[cus.size()]);
+	}
+
+	/**
+	 * Parses the compilation units with similarly named local variables ahead of their use. The
+	 * next units are parsed in parallel, one per processor, so at most that many ASTs with
+	 * bindings are held at once.
+	 *
+	 * @since 3.10
+	 */
+	private static final class LocalVariableCUParser {
+
+		private final ICompilationUnit[] fUnits;
+		private final IProgressMonitor fMonitor;
+		private final Map<ICompilationUnit, CompilationUnit> fParsed= new HashMap<ICompilationUnit, CompilationUnit>();
+		private int fNext;
+
+		LocalVariableCUParser(ICompilationUnit[] units, IProgressMonitor monitor) {
+			fUnits= units;
+			fMonitor= monitor;
+		}
+
+		/**
+		 * Returns the AST of a compilation unit with resolved bindings. Units that are requested
+		 * in the order they have been passed in are parsed ahead, others are parsed on demand.
+		 *
+		 * @param cu the compilation unit
+		 * @return the AST
+		 * @throws CoreException if parsing failed
+		 */
+		CompilationUnit getAST(ICompilationUnit cu) throws CoreException {
+			CompilationUnit ast= fParsed.remove(cu);
+			if (ast != null)
+				return ast;
+
+			fParsed.clear();
+			int start= fNext;
+			while (start < fUnits.length && !fUnits[start].equals(cu))
+				start++;
+			if (start == fUnits.length)
+				return parse(cu);
+			int end= Math.min(fUnits.length, start + Runtime.getRuntime().availableProcessors());
+			ICompilationUnit[] chunk= new ICompilationUnit[end - start];
+			System.arraycopy(fUnits, start, chunk, 0, chunk.length);
+			fNext= end;
+
+			IProgressMonitor pm= new SubProgressMonitor(fMonitor, 0);
+			pm.beginTask("", chunk.length); //$NON-NLS-1$
+			try {
+				CompilationUnit[] asts= new ParallelUnitProcessor<CompilationUnit>(RefactoringCoreMessages.RenameTypeProcessor_checking_similarly_named_declarations_refactoring_conditions, chunk, new CompilationUnit[chunk.length]) {
+					@Override
+					protected CompilationUnit process(ICompilationUnit unit) {
+						return parse(unit);
+					}
+				}.run(chunk.length - 1, pm);
+				for (int i= 1; i < chunk.length; i++)
+					fParsed.put(chunk[i], asts[i]);
+				return asts[0];
+			} finally {
+				pm.done();
+			}
+		}
+
+		private static CompilationUnit parse(ICompilationUnit cu) {
+			// an ASTParser must not be shared between threads
+			return new RefactoringASTParser(ASTProvider.SHARED_AST_LEVEL).parse(cu, true);
+		}
+	}
+
 	private void checkCUCompleteConditions(final RefactoringStatus status, CompilationUnit currentResolvedCU, ICompilationUnit currentCU, List<RefactoringProcessor> processors) throws CoreException {
 
 		// check local variable conditions
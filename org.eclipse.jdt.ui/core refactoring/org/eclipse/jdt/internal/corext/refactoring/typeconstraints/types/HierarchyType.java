@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2000, 2011 IBM Corporation and others.
+ * Copyright (c) 2000, 2014 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -10,7 +10,7 @@
  *******************************************************************************/
 package org.eclipse.jdt.internal.corext.refactoring.typeconstraints.types;
 
-import java.util.Map;
+import java.util.Arrays;
 
 import org.eclipse.core.runtime.Assert;
 
@@ -23,6 +23,122 @@ public abstract class HierarchyType extends TType {
 	private HierarchyType[] fInterfaces;
 	private IType fJavaElementType;
 
+	/**
+	 * The transitive supertype closure, computed on first subtype query.
+	 * @since 3.10
+	 */
+	private volatile SuperTypeClosure fSuperTypeClosure;
+
+	/**
+	 * The supertypes of a type, as sorted arrays of type indices.
+	 * <p>
+	 * Generic, raw and parameterized types are type equivalent to each other if their
+	 * erasures are equal, but two parameterized types are only equivalent if they are equal.
+	 * The closure therefore keeps the indices of the supertypes themselves as well as the
+	 * indices of their erasures.
+	 * </p>
+	 * <p>
+	 * The arrays only hold the supertypes of the type, so the memory needed is proportional to
+	 * the depth of the hierarchy rather than to the number of types in the environment.
+	 * </p>
+	 * @since 3.10
+	 */
+	private static final class SuperTypeClosure {
+		/** Indices of all proper supertypes. */
+		final int[] fTypes;
+		/** Indices of the erasures of generic, raw and parameterized supertypes. */
+		final int[] fErasures;
+		/** Indices of the erasures of generic and raw supertypes. */
+		final int[] fGenericOrRawErasures;
+
+		SuperTypeClosure(HierarchyType superclass, HierarchyType[] interfaces) {
+			IndexCollector types= new IndexCollector();
+			IndexCollector erasures= new IndexCollector();
+			IndexCollector genericOrRawErasures= new IndexCollector();
+			if (superclass != null)
+				add(superclass, types, erasures, genericOrRawErasures);
+			for (int i= 0; i < interfaces.length; i++)
+				add(interfaces[i], types, erasures, genericOrRawErasures);
+			fTypes= types.toSortedArray();
+			fErasures= erasures.toSortedArray();
+			fGenericOrRawErasures= genericOrRawErasures.toSortedArray();
+		}
+
+		private static void add(HierarchyType superType, IndexCollector types, IndexCollector erasures, IndexCollector genericOrRawErasures) {
+			types.add(superType.getIndex());
+			if (superType.isGenericType() || superType.isRawType()) {
+				int erasure= superType.getErasure().getIndex();
+				erasures.add(erasure);
+				genericOrRawErasures.add(erasure);
+			} else if (superType.isParameterizedType()) {
+				erasures.add(superType.getErasure().getIndex());
+			}
+			SuperTypeClosure closure= superType.getSuperTypeClosure();
+			types.addAll(closure.fTypes);
+			erasures.addAll(closure.fErasures);
+			genericOrRawErasures.addAll(closure.fGenericOrRawErasures);
+		}
+
+		boolean contains(HierarchyType type) {
+			if (type.isGenericType() || type.isRawType())
+				return contains(fErasures, type.getErasure().getIndex());
+			if (type.isParameterizedType())
+				return contains(fGenericOrRawErasures, type.getErasure().getIndex()) || contains(fTypes, type.getIndex());
+			return contains(fTypes, type.getIndex());
+		}
+
+		private static boolean contains(int[] indices, int index) {
+			return Arrays.binarySearch(indices, index) >= 0;
+		}
+	}
+
+	/**
+	 * Collects type indices for a {@link SuperTypeClosure}.
+	 * @since 3.10
+	 */
+	private static final class IndexCollector {
+		private static final int[] EMPTY= new int[0];
+
+		private int[] fIndices= EMPTY;
+		private int fSize;
+
+		void add(int index) {
+			ensureCapacity(fSize + 1);
+			fIndices[fSize++]= index;
+		}
+
+		void addAll(int[] indices) {
+			ensureCapacity(fSize + indices.length);
+			System.arraycopy(indices, 0, fIndices, fSize, indices.length);
+			fSize+= indices.length;
+		}
+
+		private void ensureCapacity(int capacity) {
+			if (capacity > fIndices.length) {
+				int[] indices= new int[Math.max(capacity, 2 * fIndices.length)];
+				System.arraycopy(fIndices, 0, indices, 0, fSize);
+				fIndices= indices;
+			}
+		}
+
+		/**
+		 * @return the collected indices, sorted and without duplicates
+		 */
+		int[] toSortedArray() {
+			if (fSize == 0)
+				return EMPTY;
+			Arrays.sort(fIndices, 0, fSize);
+			int size= 1;
+			for (int i= 1; i < fSize; i++) {
+				if (fIndices[i] != fIndices[size - 1])
+					fIndices[size++]= fIndices[i];
+			}
+			int[] result= new int[size];
+			System.arraycopy(fIndices, 0, result, 0, size);
+			return result;
+		}
+	}
+
 	protected HierarchyType(TypeEnvironment environment) {
 		super(environment);
 	}
@@ -58,20 +174,20 @@ public abstract class HierarchyType extends TType {
 	}
 
 	public boolean isSubType(HierarchyType other) {
-		if (getEnvironment() == other.getEnvironment()) {
-			Map<TypeTuple, Boolean> cache= getEnvironment().getSubTypeCache();
-			TypeTuple key= new TypeTuple(this, other);
-			Boolean value= cache.get(key);
-			if (value != null)
-				return value.booleanValue();
-			boolean isSub= doIsSubType(other);
-			value= Boolean.valueOf(isSub);
-			cache.put(key, value);
-			return isSub;
-		}
+		if (getEnvironment() == other.getEnvironment())
+			return getSuperTypeClosure().contains(other);
 		return doIsSubType(other);
 	}
 
+	private SuperTypeClosure getSuperTypeClosure() {
+		SuperTypeClosure closure= fSuperTypeClosure;
+		if (closure == null) {
+			closure= new SuperTypeClosure(fSuperclass, fInterfaces);
+			fSuperTypeClosure= closure;
+		}
+		return closure;
+	}
+
 	private boolean doIsSubType(HierarchyType other) {
 		if (fSuperclass != null && (other.isTypeEquivalentTo(fSuperclass) || fSuperclass.doIsSubType(other)))
 			return true;
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2000, 2011 IBM Corporation and others.
+ * Copyright (c) 2000, 2014 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -71,6 +71,11 @@ public abstract class TType {
 	private String fBindingKey;
 	private int fModifiers;
 	private int fFlags;
+	/**
+	 * The index of this type in its environment, or <code>-1</code> if not assigned yet.
+	 * @since 3.10
+	 */
+	private int fIndex= -1;
 
 	/**
 	 * Creates a new type with the given environment as an owner.
@@ -139,6 +144,23 @@ public abstract class TType {
 		return fEnvironment;
 	}
 
+	/**
+	 * Returns the index of this type in its environment. Indices are dense and
+	 * assigned on first request; equal types of the same environment share an index.
+	 *
+	 * @return the type's index
+	 * @see TypeEnvironment#getIndexedType(int)
+	 * @since 3.10
+	 */
+	public final int getIndex() {
+		int index= fIndex;
+		if (index == -1) {
+			index= fEnvironment.computeIndex(this);
+			fIndex= index;
+		}
+		return index;
+	}
+
 	/**
 	 * Returns the key of the binding from which this type
 	 * got constructed.
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2000, 2012 IBM Corporation and others.
+ * Copyright (c) 2000, 2014 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -13,7 +13,6 @@ package org.eclipse.jdt.internal.corext.refactoring.typeconstraints.types;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -39,6 +38,10 @@ import org.eclipse.jdt.internal.ui.javaeditor.ASTProvider;
  * A type environment comprises a set of {@link TType}s that stand for Java {@link ITypeBinding}s.
  * In contrast to type bindings, TTypes of the same type environment also work across project boundaries and
  * across compiler environments, i.e. a type environment can handle bindings from multiple {@link ASTParser} sessions.
+ * <p>
+ * Types may be created and indexed concurrently, e.g. by several threads that collect
+ * type constraints. Subtype information is only safe to query once all types have been created.
+ * </p>
  * 
  * @see TType
  */
@@ -103,7 +106,7 @@ public class TypeEnvironment {
 		"java.lang.Double",  //$NON-NLS-1$
 		"java.lang.Byte"};  //$NON-NLS-1$
 
-	private TType OBJECT_TYPE= null;
+	private volatile TType OBJECT_TYPE= null;
 
 	private List<Map<TType, ArrayType>>      fArrayTypes= new ArrayList<Map<TType, ArrayType>>();
 	private Map<IJavaElement, StandardType>  fStandardTypes= new HashMap<IJavaElement, StandardType>();
@@ -116,14 +119,16 @@ public class TypeEnvironment {
 	private Map<TType, SuperWildcardType>    fSuperWildcardTypes= new HashMap<TType, SuperWildcardType>();
 	private UnboundWildcardType fUnboundWildcardType= null;
 
-	private static final int MAX_ENTRIES= 1024;
-	private Map<TypeTuple, Boolean> fSubTypeCache= new LinkedHashMap<TypeTuple, Boolean>(50, 0.75f, true) {
-		private static final long serialVersionUID= 1L;
-		@Override
-		protected boolean removeEldestEntry(Map.Entry<TypeTuple, Boolean> eldest) {
-			return size() > MAX_ENTRIES;
-		}
-	};
+	/**
+	 * Map from TType to its index in {@link #fIndexedTypes}. Guarded by <code>this</code>.
+	 * @since 3.10
+	 */
+	private Map<TType, Integer> fTypeIndices= new HashMap<TType, Integer>();
+	/**
+	 * The types that have been assigned an index, in index order. Guarded by <code>this</code>.
+	 * @since 3.10
+	 */
+	private List<TType> fIndexedTypes= new ArrayList<TType>();
 
 	/**
 	 * Map from TType to its known subtypes, or <code>null</code> iff subtype
@@ -182,11 +187,44 @@ public class TypeEnvironment {
 		fRemoveCapures= removeCapures;
 	}
 
-	Map<TypeTuple, Boolean> getSubTypeCache() {
-		return fSubTypeCache;
+	/**
+	 * Returns the index of the given type in this environment. The type may also stem
+	 * from another environment, in which case it shares the index of the equal type of
+	 * this environment.
+	 *
+	 * @param type the type
+	 * @return the dense index of the type
+	 * @see TType#getIndex()
+	 * @since 3.10
+	 */
+	public int getIndex(TType type) {
+		if (type.getEnvironment() == this)
+			return type.getIndex();
+		return computeIndex(type);
+	}
+
+	/**
+	 * Returns the type with the given index.
+	 *
+	 * @param index an index previously returned by {@link #getIndex(TType)}
+	 * @return the type with the given index
+	 * @since 3.10
+	 */
+	public synchronized TType getIndexedType(int index) {
+		return fIndexedTypes.get(index);
+	}
+
+	synchronized int computeIndex(TType type) {
+		Integer index= fTypeIndices.get(type);
+		if (index == null) {
+			index= Integer.valueOf(fIndexedTypes.size());
+			fTypeIndices.put(type, index);
+			fIndexedTypes.add(type);
+		}
+		return index.intValue();
 	}
 
-	public TType create(ITypeBinding binding) {
+	public synchronized TType create(ITypeBinding binding) {
 		if (binding.isPrimitive()) {
 			return createPrimitiveType(binding);
 		} else if (binding.isArray()) {
@@ -241,7 +279,7 @@ public class TypeEnvironment {
 		return OBJECT_TYPE;
 	}
 
-	public void initializeJavaLangObject(IJavaProject project) {
+	public synchronized void initializeJavaLangObject(IJavaProject project) {
 		if (OBJECT_TYPE != null)
 			return;
 		
@@ -338,7 +376,15 @@ public class TypeEnvironment {
 		return result;
 	}
 
-	public ArrayType createArrayType(TType elementType, int dimensions) {
+	/**
+	 * Returns the array type with the given element type and dimensions. This method
+	 * may be called concurrently.
+	 *
+	 * @param elementType the element type, which must not be an array type
+	 * @param dimensions the dimensions
+	 * @return the array type
+	 */
+	public synchronized ArrayType createArrayType(TType elementType, int dimensions) {
 		Assert.isTrue(! elementType.isArrayType());
 		Assert.isTrue(! elementType.isAnonymous());
 		Assert.isTrue(dimensions > 0);
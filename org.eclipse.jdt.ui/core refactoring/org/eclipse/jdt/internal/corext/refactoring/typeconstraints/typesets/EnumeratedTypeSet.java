@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2000, 2011 IBM Corporation and others.
+ * Copyright (c) 2000, 2014 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -10,19 +10,27 @@
  *******************************************************************************/
 package org.eclipse.jdt.internal.corext.refactoring.typeconstraints.typesets;
 
+import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Iterator;
-import java.util.LinkedHashSet;
-import java.util.Set;
+import java.util.List;
 
 import org.eclipse.core.runtime.Assert;
 
 import org.eclipse.jdt.internal.corext.refactoring.typeconstraints.types.ArrayType;
 import org.eclipse.jdt.internal.corext.refactoring.typeconstraints.types.TType;
+import org.eclipse.jdt.internal.corext.refactoring.typeconstraints.types.TypeEnvironment;
 import org.eclipse.jdt.internal.corext.refactoring.typeconstraints2.TTypes;
 
 /**
  * A type-safe wrapper for {@code Set<TType>} that also adds {@code TType}-specific
  * functionality, e.g. subTypes() and superTypes().
+ * <p>
+ * Membership is kept as a bit set of {@link TypeEnvironment#getIndex(TType) type indices},
+ * so that containment tests, unions and intersections do not need to hash the members.
+ * Iteration follows insertion order. Removing a member only clears its index; the member list
+ * is compacted once on its next use.
+ * </p>
  */
 public class EnumeratedTypeSet extends TypeSet {
 	static private int sCount= 0;
@@ -36,9 +44,24 @@ public class EnumeratedTypeSet extends TypeSet {
 	}
 
 	/**
-	 * Set containing the TTypes in this EnumeratedTypeSet.
+	 * The TTypes in this EnumeratedTypeSet, in insertion order. May still contain removed
+	 * members if {@link #fHasRemovedMembers} is set, use {@link #members()} to read it.
 	 */
-	Set<TType> fMembers= new LinkedHashSet<TType>();
+	private List<TType> fMembers= new ArrayList<TType>();
+
+	/**
+	 * Tells whether {@link #fMembers} contains members whose index has been cleared.
+	 * @since 3.10
+	 */
+	private boolean fHasRemovedMembers;
+
+	/**
+	 * The indices of the members in {@link #fTypeEnvironment}.
+	 * @since 3.10
+	 */
+	private BitSet fIndices= new BitSet();
+
+	private final TypeEnvironment fTypeEnvironment;
 
 	/**
 	 * Constructs a new EnumeratedTypeSet with the members of Set s in it.
@@ -49,8 +72,9 @@ public class EnumeratedTypeSet extends TypeSet {
 	 */
 	public EnumeratedTypeSet(Iterator<TType> types, TypeSetEnvironment typeSetEnvironment) {
 		super(typeSetEnvironment);
+		fTypeEnvironment= typeSetEnvironment.getTypeEnvironment();
 		while (types.hasNext()) {
-			fMembers.add(types.next());
+			add(types.next());
 		}
 		sCount++;
 	}
@@ -62,6 +86,7 @@ public class EnumeratedTypeSet extends TypeSet {
 	 */
 	public EnumeratedTypeSet(TypeSetEnvironment typeSetEnvironment) {
 		super(typeSetEnvironment);
+		fTypeEnvironment= typeSetEnvironment.getTypeEnvironment();
 		sCount++;
 	}
 
@@ -73,8 +98,9 @@ public class EnumeratedTypeSet extends TypeSet {
 	 */
 	public EnumeratedTypeSet(TType t, TypeSetEnvironment typeSetEnvironment) {
 		super(typeSetEnvironment);
+		fTypeEnvironment= typeSetEnvironment.getTypeEnvironment();
 		Assert.isNotNull(t);
-		fMembers.add(t);
+		add(t);
 		sCount++;
 	}
 
@@ -92,19 +118,19 @@ public class EnumeratedTypeSet extends TypeSet {
 		if (o instanceof EnumeratedTypeSet) {
 			EnumeratedTypeSet other= (EnumeratedTypeSet) o;
 
-			return fMembers.equals(other.fMembers);
+			return fIndices.equals(other.fIndices);
 		} else if (o instanceof SingletonTypeSet) {
 			SingletonTypeSet other= (SingletonTypeSet) o;
 
-			return (fMembers.size() == 1) && fMembers.contains(other.anyMember());
+			return (members().size() == 1) && contains(other.anyMember());
 		} else if (o instanceof TypeSet) {
 			TypeSet other= (TypeSet) o;
 
 			for(Iterator<TType> otherIter= other.iterator(); otherIter.hasNext(); ) {
-				if (!fMembers.contains(otherIter.next()))
+				if (!contains(otherIter.next()))
 					return false;
 			}
-			for(Iterator<TType> myIter= fMembers.iterator(); myIter.hasNext(); ) {
+			for(Iterator<TType> myIter= members().iterator(); myIter.hasNext(); ) {
 				if (!other.contains(myIter.next()))
 					return false;
 			}
@@ -115,7 +141,7 @@ public class EnumeratedTypeSet extends TypeSet {
 
 	@Override
 	public int hashCode() {
-		return 37 + fMembers.hashCode();
+		return 37 + fIndices.hashCode();
 	}
 
 	/**
@@ -149,8 +175,9 @@ public class EnumeratedTypeSet extends TypeSet {
 			// More than an optimization: the universe never contains array types, so
 			// if s2 has array types, the following will retain them, as it should.
 			EnumeratedTypeSet ets2= (EnumeratedTypeSet) s2;
-			fMembers= new LinkedHashSet<TType>();
-			fMembers.addAll(ets2.fMembers);
+			fMembers= new ArrayList<TType>(ets2.members());
+			fIndices= (BitSet) ets2.fIndices.clone();
+			fHasRemovedMembers= false;
 		} else
 			retainAll(s2);
 	}
@@ -164,7 +191,7 @@ public class EnumeratedTypeSet extends TypeSet {
 		if (isUniverse())
 			return makeClone(); // subtypes(universe) = universe
 
-		if (fMembers.contains(getJavaLangObject()))
+		if (contains(getJavaLangObject()))
 			return getTypeSetEnvironment().getUniverseTypeSet();
 
 		return getTypeSetEnvironment().createSubTypesSet(this);
@@ -197,7 +224,8 @@ public class EnumeratedTypeSet extends TypeSet {
 	public TypeSet makeClone() {
 		EnumeratedTypeSet result= new EnumeratedTypeSet(getTypeSetEnvironment());
 
-		result.fMembers.addAll(fMembers);
+		result.fMembers.addAll(members());
+		result.fIndices.or(fIndices);
 		result.initComplete();
 		return result;
 	}
@@ -206,17 +234,16 @@ public class EnumeratedTypeSet extends TypeSet {
 	 * @see java.util.Set#size()
 	 */
 	public int size() {
-		return fMembers.size();
+		return members().size();
 	}
 
 	/* (non-Javadoc)
 	 * @see java.util.Set#clear()
 	 */
 	public void clear() {
-		if (isUniverse())
-			fMembers= new LinkedHashSet<TType>();
-		else
-			fMembers.clear();
+		fMembers.clear();
+		fIndices.clear();
+		fHasRemovedMembers= false;
 	}
 
 	/* (non-Javadoc)
@@ -224,14 +251,14 @@ public class EnumeratedTypeSet extends TypeSet {
 	 */
 	@Override
 	public boolean isEmpty() {
-		return fMembers.isEmpty();
+		return members().isEmpty();
 	}
 
 	/* (non-Javadoc)
 	 * @see java.util.Set#toArray()
 	 */
 	public TType[] toArray() {
-		return fMembers.toArray(new TType[fMembers.size()]);
+		return members().toArray(new TType[members().size()]);
 	}
 
 	/* (non-Javadoc)
@@ -240,7 +267,12 @@ public class EnumeratedTypeSet extends TypeSet {
 	public boolean add(TType t) {
 		// Doesn't make sense to do here what other methods do (copy-and-modify)
 		Assert.isTrue(!isUniverse(), "Someone's trying to expand the universe!"); //$NON-NLS-1$
-		return fMembers.add(t);
+		int index= fTypeEnvironment.getIndex(t);
+		if (fIndices.get(index))
+			return false;
+		fIndices.set(index);
+		members().add(t); // compacts first, so that a member removed before is not listed twice
+		return true;
 	}
 
 	/* (non-Javadoc)
@@ -250,37 +282,59 @@ public class EnumeratedTypeSet extends TypeSet {
 	public boolean contains(TType t) {
 		if (isUniverse())
 			return true;
-		return fMembers.contains(t);
+		return fIndices.get(fTypeEnvironment.getIndex(t));
 	}
 
 	/* (non-Javadoc)
 	 * @see java.util.Set#remove(java.lang.Object)
 	 */
 	public boolean remove(TType t) {
-		if (isUniverse())
-			fMembers= cloneSet(fMembers);
-		return fMembers.remove(t);
+		int index= fTypeEnvironment.getIndex(t);
+		if (!fIndices.get(index))
+			return false;
+		fIndices.clear(index);
+		fHasRemovedMembers= true;
+		return true;
 	}
 
-	private Set<TType> cloneSet(Set<TType> members) {
-		Set<TType> result= new LinkedHashSet<TType>();
-		result.addAll(members);
-		return result;
+	/**
+	 * Returns the members in insertion order, first removing all members whose index is no
+	 * longer contained in {@link #fIndices}.
+	 *
+	 * @return the members
+	 * @since 3.10
+	 */
+	private List<TType> members() {
+		if (fHasRemovedMembers) {
+			List<TType> members= new ArrayList<TType>(fIndices.cardinality());
+			for (Iterator<TType> iter= fMembers.iterator(); iter.hasNext();) {
+				TType t= iter.next();
+				if (fIndices.get(fTypeEnvironment.getIndex(t)))
+					members.add(t);
+			}
+			fMembers= members;
+			fHasRemovedMembers= false;
+		}
+		return fMembers;
 	}
 
 	/* (non-Javadoc)
 	 * @see java.util.Set#addAll(java.util.Collection)
 	 */
 	public boolean addAll(TypeSet s) {
-		if (s instanceof EnumeratedTypeSet) {
-			EnumeratedTypeSet ets= (EnumeratedTypeSet) s;
+		EnumeratedTypeSet ets= s.enumerate();
 
-			return fMembers.addAll(ets.fMembers);
-		} else {
-			EnumeratedTypeSet ets= s.enumerate();
+		if (!hasMembersNotIn(ets, this))
+			return false;
+		for (Iterator<TType> iter= ets.members().iterator(); iter.hasNext();)
+			add(iter.next());
+		return true;
+	}
 
-			return fMembers.addAll(ets.fMembers);
-		}
+	private static boolean hasMembersNotIn(EnumeratedTypeSet s1, EnumeratedTypeSet s2) {
+		BitSet missing= (BitSet) s1.fIndices.clone();
+		missing.andNot(s2.fIndices);
+		return !missing.isEmpty();
 	}
 
 	@Override
@@ -304,16 +358,18 @@ public class EnumeratedTypeSet extends TypeSet {
 			return false;
 		EnumeratedTypeSet ets= s.enumerate();
 
-		return fMembers.containsAll(ets.fMembers);
+		return !hasMembersNotIn(ets, this);
 	}
 
 	/* (non-Javadoc)
 	 * @see java.util.Set#removeAll(java.util.Collection)
 	 */
 	public boolean removeAll(EnumeratedTypeSet s) {
-		if (isUniverse())
-			fMembers= cloneSet(fMembers);
-		return fMembers.removeAll(s.fMembers);
+		if (!fIndices.intersects(s.fIndices))
+			return false;
+		fIndices.andNot(s.fIndices);
+		fHasRemovedMembers= true;
+		return true;
 	}
 
 	/* (non-Javadoc)
@@ -325,10 +381,18 @@ public class EnumeratedTypeSet extends TypeSet {
 		EnumeratedTypeSet ets= (EnumeratedTypeSet) s;
 
 		if (isUniverse()) {
-			fMembers= cloneSet(ets.fMembers);
+			fMembers= new ArrayList<TType>(ets.members());
+			fIndices= (BitSet) ets.fIndices.clone();
+			fHasRemovedMembers= false;
 			return true;
-		} else
-			return fMembers.retainAll(ets.fMembers);
+		}
+		BitSet retained= (BitSet) fIndices.clone();
+		retained.and(ets.fIndices);
+		if (retained.cardinality() == members().size())
+			return false;
+		fIndices= retained;
+		fHasRemovedMembers= true;
+		return true;
 	}
 
 	/* (non-Javadoc)
@@ -336,7 +400,7 @@ public class EnumeratedTypeSet extends TypeSet {
 	 */
 	@Override
 	public boolean isSingleton() {
-		return fMembers.size() == 1;
+		return members().size() == 1;
 	}
 
 	/* (non-Javadoc)
@@ -344,7 +408,7 @@ public class EnumeratedTypeSet extends TypeSet {
 	 */
 	@Override
 	public TType anyMember() {
-		return fMembers.iterator().next();
+		return members().iterator().next();
 	}
 
 	/* (non-Javadoc)
@@ -352,27 +416,27 @@ public class EnumeratedTypeSet extends TypeSet {
 	 */
 	@Override
 	public TypeSet upperBound() {
-		if (fMembers.size() == 1)
-			return new SingletonTypeSet(fMembers.iterator().next(), getTypeSetEnvironment());
-		if (fMembers.contains(getJavaLangObject()))
+		if (members().size() == 1)
+			return new SingletonTypeSet(members().iterator().next(), getTypeSetEnvironment());
+		if (contains(getJavaLangObject()))
 			return new SingletonTypeSet(getJavaLangObject(), getTypeSetEnvironment());
 
 		EnumeratedTypeSet result= new EnumeratedTypeSet(getTypeSetEnvironment());
 
 		// Add to result each element of fMembers that has no proper supertype in fMembers
-		result.fMembers.addAll(fMembers);
-		for(Iterator<TType> iter= fMembers.iterator(); iter.hasNext(); ) {
+		result.addAll(this);
+		for(Iterator<TType> iter= members().iterator(); iter.hasNext(); ) {
 			TType t= iter.next();
 
 			if (t.isArrayType()) {
 				ArrayType at= (ArrayType) t;
 				int numDims= at.getDimensions();
 				for(Iterator<TType> subIter=TTypes.getAllSubTypesIterator(at.getElementType()); subIter.hasNext(); ) {
-					result.fMembers.remove(TTypes.createArrayType(subIter.next(), numDims));
+					result.remove(TTypes.createArrayType(subIter.next(), numDims));
 				}
 			} else {
 				for (Iterator<TType> iterator= TTypes.getAllSubTypesIterator(t); iterator.hasNext();) {
-					result.fMembers.remove(iterator.next());
+					result.remove(iterator.next());
 				}
 			}
 		}
@@ -385,21 +449,21 @@ public class EnumeratedTypeSet extends TypeSet {
 	 */
 	@Override
 	public TypeSet lowerBound() {
-		if (fMembers.size() == 1)
-			return new SingletonTypeSet(fMembers.iterator().next(), getTypeSetEnvironment());
+		if (members().size() == 1)
+			return new SingletonTypeSet(members().iterator().next(), getTypeSetEnvironment());
 
 		EnumeratedTypeSet result= new EnumeratedTypeSet(getTypeSetEnvironment());
 
 		// Add to result each element of fMembers that has no proper subtype in fMembers
-		result.fMembers.addAll(fMembers);
+		result.addAll(this);
 
-		for(Iterator<TType> iter= fMembers.iterator(); iter.hasNext(); ) {
+		for(Iterator<TType> iter= members().iterator(); iter.hasNext(); ) {
 			TType t= iter.next();
 
 			// java.lang.Object is only in the lower bound if fMembers consists
 			// of only java.lang.Object, but that case is handled above.
 			if (t.equals(getJavaLangObject())) {
-				result.fMembers.remove(t);
+				result.remove(t);
 				continue;
 			}
 
@@ -407,11 +471,11 @@ public class EnumeratedTypeSet extends TypeSet {
 				ArrayType at= (ArrayType) t;
 				int numDims= at.getDimensions();
 				for(Iterator<TType> superIter=TTypes.getAllSuperTypesIterator(at.getElementType()); superIter.hasNext(); ) {
-					result.fMembers.remove(TTypes.createArrayType(superIter.next(), numDims));
+					result.remove(TTypes.createArrayType(superIter.next(), numDims));
 				}
 			} else {
 				for (Iterator<TType> iterator= TTypes.getAllSuperTypesIterator(t); iterator.hasNext();) {
-					result.fMembers.remove(iterator.next());
+					result.remove(iterator.next());
 				}
 			}
 		}
@@ -426,7 +490,7 @@ public class EnumeratedTypeSet extends TypeSet {
 	 */
 	@Override
 	public boolean hasUniqueLowerBound() {
-		return fMembers.size() == 1;
+		return members().size() == 1;
 	}
 
 	/* (non-Javadoc)
@@ -434,7 +498,7 @@ public class EnumeratedTypeSet extends TypeSet {
 	 */
 	@Override
 	public boolean hasUniqueUpperBound() {
-		return fMembers.size() == 1;
+		return members().size() == 1;
 	}
 
 	/* (non-Javadoc)
@@ -442,8 +506,8 @@ public class EnumeratedTypeSet extends TypeSet {
 	 */
 	@Override
 	public TType uniqueLowerBound() {
-		if (fMembers.size() == 1)
-			return fMembers.iterator().next();
+		if (members().size() == 1)
+			return members().iterator().next();
 		return null;
 	}
 
@@ -452,8 +516,8 @@ public class EnumeratedTypeSet extends TypeSet {
 	 */
 	@Override
 	public TType uniqueUpperBound() {
-		if (fMembers.size() == 1)
-			return fMembers.iterator().next();
+		if (members().size() == 1)
+			return members().iterator().next();
 		return null;
 	}
 
@@ -462,7 +526,7 @@ public class EnumeratedTypeSet extends TypeSet {
 	 */
 	@Override
 	public Iterator<TType> iterator() {
-		return fMembers.iterator();
+		return members().iterator();
 	}
 
 	/**
@@ -506,7 +570,7 @@ public class EnumeratedTypeSet extends TypeSet {
 	}
 
 	public void initComplete() {
-		Assert.isTrue(! fMembers.isEmpty());
+		Assert.isTrue(! members().isEmpty());
 	}
 
 }
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2005, 2011 IBM Corporation and others.
+ * Copyright (c) 2005, 2014 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -39,6 +39,14 @@ public class TypeSetEnvironment {
 		fEmptyTypeSet= new EmptyTypeSet(this);
 	}
 
+	/**
+	 * @return the type environment of this type set environment
+	 * @since 3.10
+	 */
+	public TypeEnvironment getTypeEnvironment() {
+		return fTypeEnvironment;
+	}
+
 	public TType getJavaLangObject() {
 		return fTypeEnvironment.getJavaLangObject();
 	}
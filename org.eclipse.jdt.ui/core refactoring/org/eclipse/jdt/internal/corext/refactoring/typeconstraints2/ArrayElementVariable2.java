@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2005, 2011 IBM Corporation and others.
+ * Copyright (c) 2005, 2014 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -44,4 +44,12 @@ public final class ArrayElementVariable2 extends ConstraintVariable2 {
 		return fParentCv == other2.fParentCv;
 	}
 
+	/**
+	 * @return the constraint variable of the array
+	 * @since 3.10
+	 */
+	public ConstraintVariable2 getParentConstraintVariable() {
+		return fParentCv;
+	}
+
 }
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2000, 2011 IBM Corporation and others.
+ * Copyright (c) 2000, 2014 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -47,6 +47,19 @@ public final class CollectionElementVariable2 extends ConstraintVariable2 {
 		fDeclarationTypeVariableIndex= declarationTypeVariableIndex;
 	}
 
+	/**
+	 * @param parentCv the parent constraint variable
+	 * @param typeVariableKey the binding key of the type variable for this constraint
+	 * @param declarationTypeVariableIndex
+	 * @since 3.10
+	 */
+	public CollectionElementVariable2(ConstraintVariable2 parentCv, String typeVariableKey, int declarationTypeVariableIndex) {
+		super(null);
+		fParentCv= parentCv;
+		fTypeVariableKey= typeVariableKey;
+		fDeclarationTypeVariableIndex= declarationTypeVariableIndex;
+	}
+
 	/*
 	 * @see java.lang.Object#hashCode()
 	 */
@@ -78,6 +91,14 @@ public final class CollectionElementVariable2 extends ConstraintVariable2 {
 		return fParentCv;
 	}
 
+	/**
+	 * @return the binding key of the type variable for this constraint
+	 * @since 3.10
+	 */
+	public String getTypeVariableKey() {
+		return fTypeVariableKey;
+	}
+
 	public ICompilationUnit getCompilationUnit() {
 		if (fParentCv instanceof ISourceConstraintVariable)
 			return ((ISourceConstraintVariable) fParentCv).getCompilationUnit();
@@ -0,0 +1,253 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.jdt.internal.corext.refactoring.util;
+
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.OperationCanceledException;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
+
+import org.eclipse.jdt.core.ICompilationUnit;
+
+/**
+ * Processes a set of compilation units in worker jobs. The workers and the calling thread take
+ * the next compilation unit until all are done. The results are stored by index, so they do not
+ * depend on the execution order.
+ * <p>
+ * If processing a unit fails or the progress monitor is canceled, all workers stop, the results
+ * produced so far are {@link #discard(Object) discarded} and the failure is rethrown, or an
+ * {@link OperationCanceledException} is thrown. Progress is only reported from the calling
+ * thread.
+ * </p>
+ *
+ * @param <T> the type of the results
+ * @since 3.10
+ */
+public abstract class ParallelUnitProcessor<T> {
+
+	/**
+	 * The number of compilation units from which on a worker is worth its start-up cost.
+	 */
+	public static final int MIN_UNITS_PER_WORKER= 10;
+
+	private final String fJobName;
+	private final ICompilationUnit[] fUnits;
+	private final T[] fResults;
+	/** Tells whether processing is over. Only set to <code>true</code> while holding the lock. */
+	private volatile boolean fCanceled;
+
+	// guarded by this
+	private int fNext;
+	private int fProcessed;
+	private int fReported;
+	private int fRunningWorkers;
+	private CoreException fCoreException;
+	private RuntimeException fRuntimeException;
+
+	/**
+	 * Creates a processor.
+	 *
+	 * @param jobName the name of the worker jobs
+	 * @param units the compilation units to process
+	 * @param results the array to store the results in, with the length of <code>units</code>
+	 */
+	protected ParallelUnitProcessor(String jobName, ICompilationUnit[] units, T[] results) {
+		fJobName= jobName;
+		fUnits= units;
+		fResults= results;
+	}
+
+	/**
+	 * Returns the number of worker jobs to use in addition to the calling thread.
+	 *
+	 * @param unitCount the number of compilation units to process
+	 * @param minUnitsPerWorker the number of compilation units from which on a worker is used
+	 * @return the number of workers, <code>0</code> to process the units sequentially
+	 */
+	public static int getWorkerCount(int unitCount, int minUnitsPerWorker) {
+		return Math.max(0, Math.min(Runtime.getRuntime().availableProcessors(), unitCount / minUnitsPerWorker) - 1);
+	}
+
+	/**
+	 * Processes a compilation unit. Called from several threads at once, but only once per unit.
+	 *
+	 * @param unit the compilation unit
+	 * @return the result, must not be <code>null</code>
+	 * @throws CoreException if processing failed
+	 */
+	protected abstract T process(ICompilationUnit unit) throws CoreException;
+
+	/**
+	 * Discards a result when processing has been aborted. Called from the calling thread. The
+	 * default implementation does nothing.
+	 *
+	 * @param result the result
+	 */
+	protected void discard(T result) {
+		// nothing to release
+	}
+
+	/**
+	 * Processes all compilation units.
+	 *
+	 * @param workers the number of worker jobs to use in addition to the calling thread
+	 * @param pm the progress monitor, which is worked once per unit
+	 * @return the results, by the index of their unit
+	 * @throws CoreException if processing a unit failed
+	 * @throws OperationCanceledException if the progress monitor has been canceled
+	 */
+	public T[] run(int workers, IProgressMonitor pm) throws CoreException {
+		Job[] jobs= new Job[workers];
+		for (int i= 0; i < workers; i++) {
+			jobs[i]= new Job(fJobName) {
+				@Override
+				protected IStatus run(IProgressMonitor monitor) {
+					if (!workerStarted())
+						return Status.OK_STATUS;
+					try {
+						processUnits(null);
+					} finally {
+						workerDone();
+					}
+					return Status.OK_STATUS;
+				}
+			};
+			jobs[i].setSystem(true);
+			jobs[i].schedule();
+		}
+
+		try {
+			processUnits(pm);
+			synchronized (this) {
+				while (fRunningWorkers > 0) {
+					if (pm.isCanceled())
+						fCanceled= true;
+					reportProgress(pm);
+					wait(100);
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			for (int i= 0; i < jobs.length; i++)
+				jobs[i].cancel();
+			synchronized (this) {
+				// workers that have not started yet will not start any more, the others check
+				// for cancellation before every unit, so this does not take long
+				fCanceled= true;
+				while (fRunningWorkers > 0) {
+					try {
+						wait(100);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						break;
+					}
+				}
+			}
+		}
+		synchronized (this) {
+			reportProgress(pm);
+			if (fCoreException == null && fRuntimeException == null && fProcessed == fUnits.length)
+				return fResults;
+		}
+		discardResults();
+		synchronized (this) {
+			if (fCoreException != null)
+				throw fCoreException;
+			if (fRuntimeException != null)
+				throw fRuntimeException;
+		}
+		throw new OperationCanceledException();
+	}
+
+	/**
+	 * Processes units until all are processed, processing failed or has been canceled.
+	 *
+	 * @param pm the progress monitor of the calling thread, or <code>null</code> in a worker
+	 */
+	private void processUnits(IProgressMonitor pm) {
+		while (!fCanceled) {
+			if (pm != null) {
+				synchronized (this) {
+					if (pm.isCanceled()) {
+						fCanceled= true;
+						return;
+					}
+					reportProgress(pm);
+				}
+			}
+			int index;
+			synchronized (this) {
+				if (fNext == fUnits.length || fCoreException != null || fRuntimeException != null)
+					return;
+				index= fNext++;
+			}
+			try {
+				T result= process(fUnits[index]);
+				synchronized (this) {
+					fResults[index]= result;
+					fProcessed++;
+				}
+			} catch (CoreException e) {
+				synchronized (this) {
+					if (fCoreException == null && fRuntimeException == null)
+						fCoreException= e;
+				}
+			} catch (RuntimeException e) {
+				synchronized (this) {
+					if (fCoreException == null && fRuntimeException == null)
+						fRuntimeException= e;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Reports the units processed since the last call. Must only be called by the calling thread
+	 * while holding the lock.
+	 *
+	 * @param pm the progress monitor of the calling thread
+	 */
+	private void reportProgress(IProgressMonitor pm) {
+		pm.worked(fProcessed - fReported);
+		fReported= fProcessed;
+	}
+
+	/**
+	 * Registers a worker that starts to process units.
+	 *
+	 * @return <code>false</code> if the worker must not start since processing is over
+	 */
+	private synchronized boolean workerStarted() {
+		if (fCanceled)
+			return false;
+		fRunningWorkers++;
+		return true;
+	}
+
+	private synchronized void workerDone() {
+		fRunningWorkers--;
+		notifyAll();
+	}
+
+	private void discardResults() {
+		for (int i= 0; i < fResults.length; i++) {
+			T result;
+			synchronized (this) {
+				result= fResults[i];
+			}
+			if (result != null)
+				discard(result);
+		}
+	}
+}
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2000, 2011 IBM Corporation and others.
+ * Copyright (c) 2000, 2014 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -133,14 +133,17 @@ public class QualifiedNameFinder {
 		TextSearchEngine engine= TextSearchEngine.create();
 		Pattern searchPattern= PatternConstructor.createPattern(pattern, true, false);
 
-		engine.search(createScope(filePatterns, root), collector, searchPattern, monitor);
+		engine.search(createScope(pattern, filePatterns, root), collector, searchPattern, monitor);
 	}
 
-	private static TextSearchScope createScope(String filePatterns, IProject root) {
+	private static TextSearchScope createScope(String pattern, String filePatterns, IProject root) {
 		HashSet<IProject> res= new HashSet<IProject>();
 		res.add(root);
 		addReferencingProjects(root, res);
-		IResource[] resArr= res.toArray(new IResource[res.size()]);
+		// only search the files that may contain the name, unless the index is not up to date
+		IResource[] resArr= QualifiedNameIndex.getInstance().getCandidates(pattern, res);
+		if (resArr == null)
+			resArr= res.toArray(new IResource[res.size()]);
 		Pattern filePattern= getFilePattern(filePatterns);
 
 		return TextSearchScope.newSearchScope(resArr, filePattern, false);
@@ -0,0 +1,725 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.jdt.internal.corext.refactoring.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IPath;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.OperationCanceledException;
+import org.eclipse.core.runtime.Path;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
+
+import org.eclipse.core.resources.IContainer;
+import org.eclipse.core.resources.IFile;
+import org.eclipse.core.resources.IProject;
+import org.eclipse.core.resources.IResource;
+import org.eclipse.core.resources.IResourceChangeEvent;
+import org.eclipse.core.resources.IResourceChangeListener;
+import org.eclipse.core.resources.IResourceDelta;
+import org.eclipse.core.resources.IResourceDeltaVisitor;
+import org.eclipse.core.resources.IResourceProxy;
+import org.eclipse.core.resources.IResourceProxyVisitor;
+import org.eclipse.core.resources.IWorkspaceRoot;
+import org.eclipse.core.resources.ResourcesPlugin;
+
+import org.eclipse.core.filebuffers.FileBuffers;
+import org.eclipse.core.filebuffers.IFileBuffer;
+import org.eclipse.core.filebuffers.ITextFileBufferManager;
+
+import org.eclipse.jdt.core.JavaCore;
+
+import org.eclipse.jdt.internal.corext.refactoring.RefactoringCoreMessages;
+
+import org.eclipse.jdt.internal.ui.JavaPlugin;
+
+/**
+ * A workspace-wide index of the qualified names occurring in text files, used by the
+ * {@link QualifiedNameFinder} to restrict its text search to the files that may contain a
+ * qualified name.
+ * <p>
+ * A qualified name only matches at the start of a maximal sequence of Java identifier parts and
+ * dots, and it has to end with an identifier. For every such sequence in a file, the index
+ * therefore records all prefixes that end before a dot or at the end of the sequence.
+ * </p>
+ * <p>
+ * Only files whose content type is known to be text are tokenized. Files that are no text files
+ * are never candidates, since the finder skips them. Java-like files, files with an unknown
+ * content type and files with more than {@value #MAX_FILE_NAMES} names are not tokenized and
+ * always reported as candidates. So are all files added once the index holds
+ * {@value #MAX_INDEXED_NAMES} names, which bounds the memory used by the index.
+ * </p>
+ * <p>
+ * The index is persisted in the plug-in state location together with the modification stamps of
+ * the files, so that only files changed in the meantime have to be read again on startup. It is
+ * kept up to date from resource deltas by a background job. Files that are waiting to be indexed
+ * and files with unsaved changes in a file buffer are always candidates. While projects are opened
+ * or closed and before the index has been loaded, {@link #getCandidates(String, Set)} returns
+ * <code>null</code> and clients have to search all files.
+ * </p>
+ *
+ * @since 3.10
+ */
+public class QualifiedNameIndex {
+
+	private static class QualifiedNameIndexDeltaListener implements IResourceChangeListener, IResourceDeltaVisitor {
+
+		private boolean fChanged;
+
+		public void resourceChanged(IResourceChangeEvent event) {
+			IResourceDelta delta= event.getDelta();
+			if (delta == null)
+				return;
+			fChanged= false;
+			try {
+				delta.accept(this);
+			} catch (CoreException e) {
+				JavaPlugin.log(e);
+			}
+			if (fChanged)
+				QualifiedNameIndex.getInstance().scheduleUpdate();
+		}
+
+		public boolean visit(IResourceDelta delta) throws CoreException {
+			IResource resource= delta.getResource();
+			QualifiedNameIndex index= QualifiedNameIndex.getInstance();
+			switch (resource.getType()) {
+				case IResource.PROJECT:
+					if (delta.getKind() != IResourceDelta.CHANGED || (delta.getFlags() & IResourceDelta.OPEN) != 0) {
+						index.addPendingContainer(resource.getFullPath());
+						fChanged= true;
+						return false;
+					}
+					return true;
+				case IResource.FILE:
+					if (delta.getKind() == IResourceDelta.CHANGED && (delta.getFlags() & (IResourceDelta.CONTENT | IResourceDelta.REPLACED
+							| IResourceDelta.ENCODING | IResourceDelta.DERIVED_CHANGED | IResourceDelta.TYPE)) == 0)
+						return false;
+					index.addPendingFile(resource.getFullPath());
+					fChanged= true;
+					return false;
+				case IResource.FOLDER:
+					if ((delta.getFlags() & IResourceDelta.DERIVED_CHANGED) != 0) {
+						index.addPendingContainer(resource.getFullPath());
+						fChanged= true;
+						return false;
+					}
+					return true;
+				default:
+					return true;
+			}
+		}
+	}
+
+	private class UpdateJob extends Job {
+		public UpdateJob() {
+			super(RefactoringCoreMessages.QualifiedNameIndex_update_job);
+		}
+		@Override
+		protected IStatus run(IProgressMonitor monitor) {
+			try {
+				update(monitor);
+			} catch (OperationCanceledException e) {
+				return Status.CANCEL_STATUS;
+			} catch (CoreException e) {
+				JavaPlugin.log(e);
+			}
+			return Status.OK_STATUS;
+		}
+	}
+
+	/**
+	 * An indexed file.
+	 */
+	private static final class Entry {
+		final long fStamp;
+		/**
+		 * The qualified names in the file, or <code>null</code> if the file is not tokenized and
+		 * always a candidate.
+		 */
+		final String[] fNames;
+
+		Entry(long stamp, String[] names) {
+			fStamp= stamp;
+			fNames= names;
+		}
+	}
+
+	private static final String FILENAME= "QualifiedNameIndex.dat"; //$NON-NLS-1$
+	private static final int VERSION= 2;
+
+	/**
+	 * The length of the longest indexed sequence. Files with longer sequences are not tokenized.
+	 */
+	private static final int MAX_NAME_LENGTH= 1024;
+
+	/**
+	 * The maximal number of names indexed for a file. Files with more names are not tokenized.
+	 */
+	private static final int MAX_FILE_NAMES= 5000;
+
+	/**
+	 * The maximal number of names indexed for all files together. Files added beyond this limit
+	 * are not tokenized.
+	 */
+	private static final int MAX_INDEXED_NAMES= 200000;
+
+	private static final String[] NO_NAMES= new String[0];
+
+	private static QualifiedNameIndex fgInstance;
+
+	private final QualifiedNameIndexDeltaListener fDeltaListener;
+	private final UpdateJob fUpdateJob;
+
+	// all fields below are guarded by this
+	private boolean fReady;
+	private final Set<IPath> fPendingFiles= new LinkedHashSet<IPath>();
+	private final Set<IPath> fPendingContainers= new LinkedHashSet<IPath>();
+	/** The file that is currently being indexed, or <code>null</code>. */
+	private IPath fCurrentFile;
+	/** The container that is currently being re-indexed, or <code>null</code>. */
+	private IPath fCurrentContainer;
+
+	private final Map<IPath, Entry> fFiles= new HashMap<IPath, Entry>();
+	/** The files containing a qualified name, keyed by the qualified name. */
+	private final Map<String, Set<IPath>> fNameFiles= new HashMap<String, Set<IPath>>();
+	/** The files that are not tokenized. */
+	private final Set<IPath> fUntokenizedFiles= new HashSet<IPath>();
+	/** The number of names indexed for all files together. */
+	private int fIndexedNames;
+
+	public static synchronized QualifiedNameIndex getInstance() {
+		if (fgInstance == null)
+			fgInstance= new QualifiedNameIndex();
+		return fgInstance;
+	}
+
+	public static synchronized void shutdown() {
+		if (fgInstance == null)
+			return;
+		fgInstance.doShutdown();
+		fgInstance= null;
+	}
+
+	private QualifiedNameIndex() {
+		fDeltaListener= new QualifiedNameIndexDeltaListener();
+		ResourcesPlugin.getWorkspace().addResourceChangeListener(fDeltaListener, IResourceChangeEvent.POST_CHANGE);
+		fUpdateJob= new UpdateJob();
+		fUpdateJob.setSystem(true);
+		fUpdateJob.setPriority(Job.DECORATE);
+		fUpdateJob.schedule();
+	}
+
+	/**
+	 * Returns the files in the given projects that may contain the given qualified name.
+	 *
+	 * @param qualifiedName the qualified name
+	 * @param projects the projects to search
+	 * @return the candidate files, or <code>null</code> if the index is not up to date and all
+	 *         files have to be searched
+	 */
+	public IFile[] getCandidates(String qualifiedName, Set<IProject> projects) {
+		if (!isQualifiedName(qualifiedName))
+			return null;
+
+		Set<String> projectNames= new HashSet<String>();
+		for (Iterator<IProject> iter= projects.iterator(); iter.hasNext();)
+			projectNames.add(iter.next().getName());
+
+		Set<IPath> paths= new LinkedHashSet<IPath>();
+		synchronized (this) {
+			if (!fReady || !fPendingContainers.isEmpty() || fCurrentContainer != null)
+				return null;
+			Set<IPath> files= fNameFiles.get(qualifiedName);
+			if (files != null)
+				paths.addAll(files);
+			paths.addAll(fUntokenizedFiles);
+			paths.addAll(fPendingFiles);
+			if (fCurrentFile != null)
+				paths.add(fCurrentFile);
+		}
+		IFileBuffer[] buffers= FileBuffers.getTextFileBufferManager().getFileBuffers();
+		for (int i= 0; i < buffers.length; i++) {
+			IPath location= buffers[i].getLocation();
+			if (location != null && buffers[i].isDirty())
+				paths.add(location);
+		}
+
+		IWorkspaceRoot root= ResourcesPlugin.getWorkspace().getRoot();
+		List<IFile> result= new ArrayList<IFile>();
+		for (Iterator<IPath> iter= paths.iterator(); iter.hasNext();) {
+			IPath path= iter.next();
+			if (path.segmentCount() < 2 || !projectNames.contains(path.segment(0)))
+				continue;
+			IFile file= root.getFile(path);
+			if (file.exists())
+				result.add(file);
+		}
+		return result.toArray(new IFile[result.size()]);
+	}
+
+	/**
+	 * Waits until the pending updates of the index have been processed. For testing purposes
+	 * only.
+	 *
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	public void join() throws InterruptedException {
+		fUpdateJob.join();
+	}
+
+	private static boolean isQualifiedName(String name) {
+		if (name.length() == 0 || name.charAt(0) == '.' || name.charAt(name.length() - 1) == '.')
+			return false;
+		for (int i= 0; i < name.length(); i++) {
+			char ch= name.charAt(i);
+			if (ch != '.' && !Character.isJavaIdentifierPart(ch))
+				return false;
+		}
+		return true;
+	}
+
+	private synchronized void addPendingFile(IPath path) {
+		fPendingFiles.add(path);
+	}
+
+	private synchronized void addPendingContainer(IPath path) {
+		fPendingContainers.add(path);
+	}
+
+	private void scheduleUpdate() {
+		fUpdateJob.schedule();
+	}
+
+	private void update(IProgressMonitor monitor) throws CoreException {
+		boolean ready;
+		synchronized (this) {
+			ready= fReady;
+		}
+		if (!ready)
+			initialize(monitor);
+
+		while (true) {
+			IPath path;
+			synchronized (this) {
+				fCurrentFile= null;
+				fCurrentContainer= null;
+				Iterator<IPath> iter;
+				if (!fPendingContainers.isEmpty()) {
+					iter= fPendingContainers.iterator();
+					path= iter.next();
+					fCurrentContainer= path;
+				} else if (!fPendingFiles.isEmpty()) {
+					iter= fPendingFiles.iterator();
+					path= iter.next();
+					fCurrentFile= path;
+				} else {
+					break;
+				}
+				iter.remove();
+			}
+			if (monitor.isCanceled()) {
+				synchronized (this) {
+					// keep the element pending
+					if (fCurrentContainer != null)
+						fPendingContainers.add(fCurrentContainer);
+					else
+						fPendingFiles.add(fCurrentFile);
+					fCurrentFile= null;
+					fCurrentContainer= null;
+				}
+				throw new OperationCanceledException();
+			}
+			IPath container;
+			synchronized (this) {
+				container= fCurrentContainer;
+			}
+			if (container != null)
+				updateContainer(path);
+			else
+				updateFile(path);
+		}
+	}
+
+	/**
+	 * Loads the persisted index and compares it with the workspace. Files that have been changed
+	 * or added since the index has been saved become pending.
+	 *
+	 * @param monitor the progress monitor
+	 * @throws CoreException if the workspace cannot be visited
+	 */
+	private void initialize(IProgressMonitor monitor) throws CoreException {
+		final Map<IPath, Entry> loaded= load();
+		final Map<IPath, Entry> valid= new HashMap<IPath, Entry>();
+		final Set<IPath> changed= new LinkedHashSet<IPath>();
+		IProject[] projects= ResourcesPlugin.getWorkspace().getRoot().getProjects();
+		for (int i= 0; i < projects.length; i++) {
+			if (monitor.isCanceled())
+				throw new OperationCanceledException();
+			if (!projects[i].isAccessible())
+				continue;
+			projects[i].accept(new IResourceProxyVisitor() {
+				public boolean visit(IResourceProxy proxy) throws CoreException {
+					if (!isIndexed(proxy))
+						return false;
+					if (proxy.getType() != IResource.FILE)
+						return true;
+					IPath path= proxy.requestFullPath();
+					Entry entry= loaded.get(path);
+					if (entry != null && entry.fStamp == proxy.getModificationStamp())
+						valid.put(path, entry);
+					else
+						changed.add(path);
+					return false;
+				}
+			}, IResource.NONE);
+		}
+
+		synchronized (this) {
+			for (Iterator<Map.Entry<IPath, Entry>> iter= valid.entrySet().iterator(); iter.hasNext();) {
+				Map.Entry<IPath, Entry> entry= iter.next();
+				add(entry.getKey(), entry.getValue());
+			}
+			changed.addAll(fPendingFiles);
+			fPendingFiles.clear();
+			fPendingFiles.addAll(changed);
+			fReady= true;
+		}
+	}
+
+	private static boolean isIndexed(IResourceProxy proxy) {
+		if (proxy.isDerived())
+			return false;
+		if (proxy.getType() == IResource.FOLDER && proxy.requestFullPath().segmentCount() == 2) {
+			// see QualifiedNameFinder.ResultCollector#acceptFile(IFile)
+			String name= proxy.getName();
+			return !name.startsWith(".refactorings") && !name.startsWith(".deprecations"); //$NON-NLS-1$ //$NON-NLS-2$
+		}
+		return true;
+	}
+
+	private static boolean isIndexed(IFile file) {
+		if (!file.exists() || file.isDerived(IResource.CHECK_ANCESTORS) || file.isTeamPrivateMember(IResource.CHECK_ANCESTORS)
+				|| file.isHidden(IResource.CHECK_ANCESTORS))
+			return false;
+		String segment= file.getProjectRelativePath().segment(0);
+		return !segment.startsWith(".refactorings") && !segment.startsWith(".deprecations"); //$NON-NLS-1$ //$NON-NLS-2$
+	}
+
+	private void updateContainer(IPath path) throws CoreException {
+		final Set<IPath> files= new HashSet<IPath>();
+		IResource container= ResourcesPlugin.getWorkspace().getRoot().findMember(path);
+		if (container instanceof IContainer && container.isAccessible()) {
+			container.accept(new IResourceProxyVisitor() {
+				public boolean visit(IResourceProxy proxy) throws CoreException {
+					if (!isIndexed(proxy))
+						return false;
+					if (proxy.getType() != IResource.FILE)
+						return true;
+					files.add(proxy.requestFullPath());
+					return false;
+				}
+			}, IResource.NONE);
+		}
+
+		synchronized (this) {
+			List<IPath> removed= new ArrayList<IPath>();
+			for (Iterator<IPath> iter= fFiles.keySet().iterator(); iter.hasNext();) {
+				IPath file= iter.next();
+				if (path.isPrefixOf(file))
+					removed.add(file);
+			}
+			for (int i= 0; i < removed.size(); i++)
+				remove(removed.get(i));
+			fPendingFiles.addAll(files);
+		}
+	}
+
+	private void updateFile(IPath path) {
+		IFile file= ResourcesPlugin.getWorkspace().getRoot().getFile(path);
+		Entry entry= null;
+		if (isIndexed(file)) {
+			// read the file outside of the lock
+			long stamp= file.getModificationStamp();
+			ITextFileBufferManager manager= FileBuffers.getTextFileBufferManager();
+			if (JavaCore.isJavaLikeFileName(file.getName())) {
+				entry= new Entry(stamp, null);
+			} else if (manager.isTextFileLocation(path, true)) {
+				entry= new Entry(stamp, readNames(file));
+			} else if (manager.isTextFileLocation(path, false)) {
+				// the finder searches files with an unknown content type, but they may be archives
+				// or other binary files that are not worth tokenizing
+				entry= new Entry(stamp, null);
+			} else {
+				entry= new Entry(stamp, NO_NAMES);
+			}
+		}
+		synchronized (this) {
+			remove(path);
+			if (entry != null)
+				add(path, entry);
+		}
+	}
+
+	/**
+	 * Returns the qualified names that may be found in the given file.
+	 *
+	 * @param file the file
+	 * @return the names, or <code>null</code> if the file could not be tokenized or has too many
+	 *         names
+	 */
+	private static String[] readNames(IFile file) {
+		Set<String> names= new HashSet<String>();
+		Reader reader= null;
+		try {
+			reader= new InputStreamReader(new BufferedInputStream(file.getContents(true)), file.getCharset());
+			char[] buffer= new char[8192];
+			StringBuffer name= new StringBuffer();
+			boolean first= true;
+			int count;
+			while ((count= reader.read(buffer)) != -1) {
+				int start= 0;
+				if (first && count > 0) {
+					first= false;
+					// skip the byte order mark, the text search does not see it either
+					if (buffer[0] == '\uFEFF')
+						start= 1;
+				}
+				for (int i= start; i < count; i++) {
+					char ch= buffer[i];
+					if (ch == '.' || Character.isJavaIdentifierPart(ch)) {
+						if (name.length() == MAX_NAME_LENGTH)
+							return null;
+						name.append(ch);
+					} else if (name.length() > 0) {
+						addNames(name, names);
+						name.setLength(0);
+						if (names.size() > MAX_FILE_NAMES)
+							return null;
+					}
+				}
+			}
+			addNames(name, names);
+			if (names.size() > MAX_FILE_NAMES)
+				return null;
+		} catch (IOException e) {
+			return null;
+		} catch (CoreException e) {
+			return null;
+		} finally {
+			if (reader != null) {
+				try {
+					reader.close();
+				} catch (IOException e) {
+					// ignore
+				}
+			}
+		}
+		return names.toArray(new String[names.size()]);
+	}
+
+	private static void addNames(StringBuffer sequence, Set<String> names) {
+		int length= sequence.length();
+		// a qualified name preceded by a dot is not a match
+		if (length == 0 || sequence.charAt(0) == '.')
+			return;
+		String string= sequence.toString();
+		for (int i= 1; i < length; i++) {
+			if (string.charAt(i) == '.' && string.charAt(i - 1) != '.')
+				names.add(string.substring(0, i));
+		}
+		if (string.charAt(length - 1) != '.')
+			names.add(string);
+	}
+
+	private void add(IPath path, Entry entry) {
+		String[] names= entry.fNames;
+		if (names != null && fIndexedNames + names.length > MAX_INDEXED_NAMES) {
+			entry= new Entry(entry.fStamp, null);
+			names= null;
+		}
+		fFiles.put(path, entry);
+		if (names == null) {
+			fUntokenizedFiles.add(path);
+			return;
+		}
+		fIndexedNames+= names.length;
+		for (int i= 0; i < names.length; i++) {
+			Set<IPath> files= fNameFiles.get(names[i]);
+			if (files == null) {
+				files= new HashSet<IPath>(4);
+				fNameFiles.put(names[i], files);
+			}
+			files.add(path);
+		}
+	}
+
+	private void remove(IPath path) {
+		Entry entry= fFiles.remove(path);
+		if (entry == null)
+			return;
+		String[] names= entry.fNames;
+		if (names == null) {
+			fUntokenizedFiles.remove(path);
+			return;
+		}
+		fIndexedNames-= names.length;
+		for (int i= 0; i < names.length; i++) {
+			Set<IPath> files= fNameFiles.get(names[i]);
+			if (files != null) {
+				files.remove(path);
+				if (files.isEmpty())
+					fNameFiles.remove(names[i]);
+			}
+		}
+	}
+
+	//---- Persistence ---------------------------------------------------------------------------
+
+	private static File getIndexFile() {
+		return JavaPlugin.getDefault().getStateLocation().append(FILENAME).toFile();
+	}
+
+	private static Map<IPath, Entry> load() {
+		Map<IPath, Entry> result= new HashMap<IPath, Entry>();
+		File file= getIndexFile();
+		if (!file.isFile())
+			return result;
+		DataInputStream in= null;
+		try {
+			in= new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+			if (in.readInt() != VERSION)
+				return result;
+			String[] names= new String[in.readInt()];
+			for (int i= 0; i < names.length; i++)
+				names[i]= in.readUTF();
+			int fileCount= in.readInt();
+			for (int i= 0; i < fileCount; i++) {
+				IPath path= new Path(in.readUTF());
+				long stamp= in.readLong();
+				int nameCount= in.readInt();
+				String[] fileNames= null;
+				if (nameCount >= 0) {
+					fileNames= new String[nameCount];
+					for (int k= 0; k < nameCount; k++)
+						fileNames[k]= names[in.readInt()];
+				}
+				result.put(path, new Entry(stamp, fileNames));
+			}
+			return result;
+		} catch (IOException e) {
+			return new HashMap<IPath, Entry>();
+		} catch (ArrayIndexOutOfBoundsException e) {
+			return new HashMap<IPath, Entry>();
+		} finally {
+			if (in != null) {
+				try {
+					in.close();
+				} catch (IOException e) {
+					// ignore
+				}
+			}
+		}
+	}
+
+	private void save() {
+		List<IPath> paths= new ArrayList<IPath>();
+		List<Entry> entries= new ArrayList<Entry>();
+		Map<String, Integer> names= new HashMap<String, Integer>();
+		List<String> nameList= new ArrayList<String>();
+		synchronized (this) {
+			if (!fReady)
+				return;
+			for (Iterator<Map.Entry<IPath, Entry>> iter= fFiles.entrySet().iterator(); iter.hasNext();) {
+				Map.Entry<IPath, Entry> entry= iter.next();
+				// pending files are read again anyway, their stamp may not have changed
+				if (fPendingFiles.contains(entry.getKey()))
+					continue;
+				paths.add(entry.getKey());
+				entries.add(entry.getValue());
+			}
+		}
+		for (int i= 0; i < entries.size(); i++) {
+			String[] fileNames= entries.get(i).fNames;
+			if (fileNames == null)
+				continue;
+			for (int k= 0; k < fileNames.length; k++) {
+				if (!names.containsKey(fileNames[k])) {
+					names.put(fileNames[k], new Integer(nameList.size()));
+					nameList.add(fileNames[k]);
+				}
+			}
+		}
+
+		File file= getIndexFile();
+		DataOutputStream out= null;
+		try {
+			out= new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+			out.writeInt(VERSION);
+			out.writeInt(nameList.size());
+			for (int i= 0; i < nameList.size(); i++)
+				out.writeUTF(nameList.get(i));
+			out.writeInt(entries.size());
+			for (int i= 0; i < entries.size(); i++) {
+				Entry entry= entries.get(i);
+				out.writeUTF(paths.get(i).toString());
+				out.writeLong(entry.fStamp);
+				if (entry.fNames == null) {
+					out.writeInt(-1);
+				} else {
+					out.writeInt(entry.fNames.length);
+					for (int k= 0; k < entry.fNames.length; k++)
+						out.writeInt(names.get(entry.fNames[k]).intValue());
+				}
+			}
+			out.close();
+			out= null;
+		} catch (IOException e) {
+			JavaPlugin.log(e);
+			file.delete();
+		} finally {
+			if (out != null) {
+				try {
+					out.close();
+				} catch (IOException e) {
+					// ignore
+				}
+				file.delete();
+			}
+		}
+	}
+
+	private void doShutdown() {
+		ResourcesPlugin.getWorkspace().removeResourceChangeListener(fDeltaListener);
+		fUpdateJob.cancel();
+		save();
+	}
+}
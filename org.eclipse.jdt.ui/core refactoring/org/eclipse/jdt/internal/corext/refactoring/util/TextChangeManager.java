@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2000, 2011 IBM Corporation and others.
+ * Copyright (c) 2000, 2014 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -25,10 +25,15 @@ import org.eclipse.jdt.core.refactoring.CompilationUnitChange;
 /**
  * A <code>TextChangeManager</code> manages associations between <code>ICompilationUnit</code>
  * or <code>IFile</code> and <code>TextChange</code> objects.
+ * <p>
+ * The manager can be accessed from several threads. The managed text changes are not thread
+ * safe, so each of them must only be modified by one thread at a time.
+ * </p>
  */
 public class TextChangeManager {
 
-	private Map<ICompilationUnit, TextChange> fMap= new HashMap<ICompilationUnit, TextChange>(10);
+	/** Guarded by <code>this</code>. */
+	private final Map<ICompilationUnit, TextChange> fMap= new HashMap<ICompilationUnit, TextChange>(10);
 
 	private final boolean fKeepExecutedTextEdits;
 
@@ -47,7 +52,7 @@ public class TextChangeManager {
 	 * @param cu the compilation unit (key)
 	 * @param change the change associated with the compilation unit
 	 */
-	public void manage(ICompilationUnit cu, TextChange change) {
+	public synchronized void manage(ICompilationUnit cu, TextChange change) {
 		fMap.put(cu, change);
 	}
 
@@ -58,7 +63,7 @@ public class TextChangeManager {
 	 * @param cu the compilation unit for which the text buffer change is requested
 	 * @return the text change associated with the given compilation unit.
 	 */
-	public TextChange get(ICompilationUnit cu) {
+	public synchronized TextChange get(ICompilationUnit cu) {
 		TextChange result= fMap.get(cu);
 		if (result == null) {
 			result= new CompilationUnitChange(cu.getElementName(), cu);
@@ -75,7 +80,7 @@ public class TextChangeManager {
 	 * @param unit the key determining the <tt>TextChange</tt> to be removed.
 	 * @return the removed <tt>TextChange</tt>.
 	 */
-	public TextChange remove(ICompilationUnit unit) {
+	public synchronized TextChange remove(ICompilationUnit unit) {
 		return fMap.remove(unit);
 	}
 
@@ -84,7 +89,7 @@ public class TextChangeManager {
 	 *
 	 * @return all text changes managed by this instance
 	 */
-	public TextChange[] getAllChanges(){
+	public synchronized TextChange[] getAllChanges(){
 		Set<ICompilationUnit> cuSet= fMap.keySet();
 		ICompilationUnit[] cus= cuSet.toArray(new ICompilationUnit[cuSet.size()]);
 		// sort by cu name:
@@ -108,14 +113,14 @@ public class TextChangeManager {
 	 *
 	 * @return all compilation units managed by this instance
 	 */
-	public ICompilationUnit[] getAllCompilationUnits(){
+	public synchronized ICompilationUnit[] getAllCompilationUnits(){
 		return fMap.keySet().toArray(new ICompilationUnit[fMap.keySet().size()]);
 	}
 
 	/**
 	 * Clears all associations between resources and text changes.
 	 */
-	public void clear() {
+	public synchronized void clear() {
 		fMap.clear();
 	}
 
@@ -125,7 +130,7 @@ public class TextChangeManager {
 	 * @param cu the compilation unit
 	 * @return <code>true</code> if any text changes are managed for the specified compilation unit and <code>false</code> otherwise
 	 */
-	public boolean containsChangesIn(ICompilationUnit cu){
+	public synchronized boolean containsChangesIn(ICompilationUnit cu){
 		return fMap.containsKey(cu);
 	}
 }
@@ -0,0 +1,464 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.jdt.internal.jarinjarloader;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLDecoder;
+import java.security.CodeSource;
+import java.security.ProtectionDomain;
+import java.security.SecureClassLoader;
+import java.security.cert.Certificate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.jar.Attributes;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * This class will be compiled into the binary jar-in-jar-loader.zip. This ZIP is used for the
+ * "Runnable JAR File Exporter"
+ *
+ * Loads the classes of the Rsrc-Class-Path directly from the outer JAR file. The ZIP directories
+ * of the outer JAR and of all nested JARs are read once into an index, so that a class is found
+ * with a single lookup and read with a single seek. This requires that the outer JAR is a local
+ * file and that the nested JARs are stored uncompressed, which is how the Runnable JAR File
+ * Exporter writes them. Signed nested JARs are not supported.
+ *
+ * Resources are returned with the same "rsrc:" URLs as by a URLClassLoader on the Rsrc-Class-Path,
+ * but their streams are read from the index as well.
+ *
+ * @since 3.10
+ */
+public class RsrcIndexClassLoader extends SecureClassLoader {
+
+	private static final int LOCAL_HEADER_SIGNATURE= 0x04034b50;
+	private static final int LOCAL_HEADER_SIZE= 30;
+	private static final int CENTRAL_HEADER_SIGNATURE= 0x02014b50;
+	private static final int CENTRAL_HEADER_SIZE= 46;
+	private static final int END_HEADER_SIGNATURE= 0x06054b50;
+	private static final int END_HEADER_SIZE= 22;
+	private static final int MAX_COMMENT_SIZE= 0xFFFF;
+	private static final int METHOD_STORED= 0;
+	private static final int METHOD_DEFLATED= 8;
+
+	/**
+	 * A class path element: the outer JAR, or a JAR nested in it.
+	 */
+	private static class Source {
+		final URL baseURL;
+		final CodeSource codeSource;
+		Manifest manifest;
+		boolean manifestRead;
+
+		Source(URL baseURL) {
+			this.baseURL= baseURL;
+			this.codeSource= new CodeSource(baseURL, (Certificate[]) null);
+		}
+	}
+
+	/**
+	 * An entry of a source, or of the outer JAR.
+	 */
+	private static class Entry {
+		final Source source;
+		final long localHeaderOffset;
+		final int method;
+		final int compressedSize;
+		final int size;
+		/** The entry with the same name in a later source, or <code>null</code> */
+		Entry next;
+
+		Entry(Source source, long localHeaderOffset, int method, int compressedSize, int size) {
+			this.source= source;
+			this.localHeaderOffset= localHeaderOffset;
+			this.method= method;
+			this.compressedSize= compressedSize;
+			this.size= size;
+		}
+	}
+
+	private final RandomAccessFile file;
+
+	/**
+	 * Maps entry names to the entry of the first source containing it (element type:
+	 * <code>String -> Entry</code>)
+	 */
+	private final Map entries= new HashMap();
+
+	/**
+	 * Creates a class loader for the given Rsrc-Class-Path.
+	 *
+	 * @param rsrcClassPath the paths of the nested JARs or directories
+	 * @return the class loader, or <code>null</code> if the class path cannot be indexed
+	 */
+	public static ClassLoader create(String[] rsrcClassPath) {
+		File jarFile= getOuterJarFile();
+		if (jarFile == null)
+			return null;
+		RsrcIndexClassLoader loader= null;
+		try {
+			loader= new RsrcIndexClassLoader(new RandomAccessFile(jarFile, "r")); //$NON-NLS-1$
+			if (loader.index(rsrcClassPath))
+				return loader;
+		} catch (IOException e) {
+			// fall back to the URLClassLoader
+		}
+		if (loader != null)
+			loader.close();
+		return null;
+	}
+
+	private static File getOuterJarFile() {
+		try {
+			ProtectionDomain domain= RsrcIndexClassLoader.class.getProtectionDomain();
+			CodeSource codeSource= domain.getCodeSource();
+			if (codeSource == null || codeSource.getLocation() == null)
+				return null;
+			URL location= codeSource.getLocation();
+			if (!"file".equals(location.getProtocol())) //$NON-NLS-1$
+				return null;
+			File file= new File(URLDecoder.decode(location.getFile(), JIJConstants.UTF8_ENCODING));
+			return file.isFile() ? file : null;
+		} catch (SecurityException e) {
+			return null;
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+	private RsrcIndexClassLoader(RandomAccessFile file) {
+		super(null);
+		this.file= file;
+	}
+
+	private void close() {
+		try {
+			file.close();
+		} catch (IOException e) {
+			// ignore
+		}
+	}
+
+	/**
+	 * Reads the ZIP directories of the class path elements.
+	 *
+	 * @param rsrcClassPath the Rsrc-Class-Path
+	 * @return <code>false</code> if an element cannot be indexed
+	 * @throws IOException if the outer JAR cannot be read
+	 */
+	private boolean index(String[] rsrcClassPath) throws IOException {
+		Map outerEntries= new HashMap();
+		if (!readDirectory(0, file.length(), null, outerEntries))
+			return false;
+
+		for (int i= 0; i < rsrcClassPath.length; i++) {
+			String rsrcPath= rsrcClassPath[i];
+			Map sourceEntries= new HashMap();
+			Source source;
+			if (rsrcPath.endsWith(JIJConstants.PATH_SEPARATOR)) {
+				source= new Source(new URL(JIJConstants.INTERNAL_URL_PROTOCOL_WITH_COLON + rsrcPath));
+				String prefix= rsrcPath.equals(JIJConstants.CURRENT_DIR) ? "" : rsrcPath; //$NON-NLS-1$
+				for (java.util.Iterator iter= outerEntries.entrySet().iterator(); iter.hasNext();) {
+					Map.Entry mapEntry= (Map.Entry) iter.next();
+					String name= (String) mapEntry.getKey();
+					if (name.startsWith(prefix) && name.length() > prefix.length()) {
+						Entry entry= (Entry) mapEntry.getValue();
+						sourceEntries.put(name.substring(prefix.length()), new Entry(source, entry.localHeaderOffset, entry.method, entry.compressedSize, entry.size));
+					}
+				}
+			} else {
+				source= new Source(new URL(JIJConstants.JAR_INTERNAL_URL_PROTOCOL_WITH_COLON + rsrcPath + JIJConstants.JAR_INTERNAL_SEPARATOR));
+				Entry jarEntry= (Entry) outerEntries.get(rsrcPath);
+				if (jarEntry == null)
+					continue; // like URLClassLoader, ignore missing JARs
+				if (jarEntry.method != METHOD_STORED)
+					return false;
+				long start= getDataOffset(jarEntry);
+				if (!readDirectory(start, jarEntry.size, source, sourceEntries))
+					return false;
+			}
+			addEntries(sourceEntries);
+		}
+		return true;
+	}
+
+	private void addEntries(Map sourceEntries) {
+		for (java.util.Iterator iter= sourceEntries.entrySet().iterator(); iter.hasNext();) {
+			Map.Entry mapEntry= (Map.Entry) iter.next();
+			Entry entry= (Entry) entries.get(mapEntry.getKey());
+			if (entry == null) {
+				entries.put(mapEntry.getKey(), mapEntry.getValue());
+			} else {
+				while (entry.next != null)
+					entry= entry.next;
+				entry.next= (Entry) mapEntry.getValue();
+			}
+		}
+	}
+
+	/**
+	 * Reads the central directory of the ZIP archive at the given range of the outer JAR.
+	 *
+	 * @param start the offset of the archive
+	 * @param length the length of the archive
+	 * @param source the source of the entries
+	 * @param result the map to add the entries to, keyed by name
+	 * @return <code>false</code> if the archive is not supported
+	 * @throws IOException if the outer JAR cannot be read
+	 */
+	private boolean readDirectory(long start, long length, Source source, Map result) throws IOException {
+		if (length < END_HEADER_SIZE)
+			return false;
+
+		// find the end of central directory record, it is followed by a comment of up to 64K
+		int tailLength= (int) Math.min(length, END_HEADER_SIZE + MAX_COMMENT_SIZE);
+		byte[] tail= new byte[tailLength];
+		file.seek(start + length - tailLength);
+		file.readFully(tail);
+		int end= -1;
+		for (int i= tailLength - END_HEADER_SIZE; i >= 0; i--) {
+			if (getInt(tail, i) == END_HEADER_SIGNATURE) {
+				end= i;
+				break;
+			}
+		}
+		if (end == -1)
+			return false;
+
+		int count= getShort(tail, end + 10);
+		long directorySize= getInt(tail, end + 12) & 0xFFFFFFFFL;
+		long directoryOffset= getInt(tail, end + 16) & 0xFFFFFFFFL;
+		if (count == 0xFFFF || directoryOffset == 0xFFFFFFFFL || directoryOffset + directorySize > length)
+			return false; // ZIP64
+
+		byte[] directory= new byte[(int) directorySize];
+		file.seek(start + directoryOffset);
+		file.readFully(directory);
+		int position= 0;
+		for (int i= 0; i < count; i++) {
+			if (position + CENTRAL_HEADER_SIZE > directory.length || getInt(directory, position) != CENTRAL_HEADER_SIGNATURE)
+				return false;
+			int flags= getShort(directory, position + 8);
+			int method= getShort(directory, position + 10);
+			int compressedSize= getInt(directory, position + 20);
+			int size= getInt(directory, position + 24);
+			int nameLength= getShort(directory, position + 28);
+			int extraLength= getShort(directory, position + 30);
+			int commentLength= getShort(directory, position + 32);
+			long localHeaderOffset= getInt(directory, position + 42) & 0xFFFFFFFFL;
+			if ((flags & 1) != 0 || compressedSize < 0 || size < 0 || localHeaderOffset >= length)
+				return false; // encrypted or too large
+			if (method != METHOD_STORED && method != METHOD_DEFLATED)
+				return false;
+			String name= new String(directory, position + CENTRAL_HEADER_SIZE, nameLength, JIJConstants.UTF8_ENCODING);
+			if (source != null && isSignatureFile(name))
+				return false;
+			if (!result.containsKey(name))
+				result.put(name, new Entry(source, start + localHeaderOffset, method, compressedSize, size));
+			position+= CENTRAL_HEADER_SIZE + nameLength + extraLength + commentLength;
+		}
+		return true;
+	}
+
+	private static boolean isSignatureFile(String name) {
+		if (!name.startsWith("META-INF/") || name.indexOf('/', 9) != -1) //$NON-NLS-1$
+			return false;
+		String upperCase= name.toUpperCase();
+		return upperCase.endsWith(".SF") || upperCase.endsWith(".RSA") || upperCase.endsWith(".DSA") || upperCase.endsWith(".EC"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+	}
+
+	/**
+	 * Returns the offset of the data of the given entry. The caller must hold the file lock.
+	 *
+	 * @param entry the entry
+	 * @return the offset in the outer JAR
+	 * @throws IOException if the local header is invalid
+	 */
+	private long getDataOffset(Entry entry) throws IOException {
+		byte[] header= new byte[LOCAL_HEADER_SIZE];
+		file.seek(entry.localHeaderOffset);
+		file.readFully(header);
+		if (getInt(header, 0) != LOCAL_HEADER_SIGNATURE)
+			throw new IOException("Invalid local header"); //$NON-NLS-1$
+		return entry.localHeaderOffset + LOCAL_HEADER_SIZE + getShort(header, 26) + getShort(header, 28);
+	}
+
+	private byte[] read(Entry entry) throws IOException {
+		byte[] data= new byte[entry.compressedSize];
+		synchronized (file) {
+			file.seek(getDataOffset(entry));
+			file.readFully(data);
+		}
+		if (entry.method == METHOD_STORED)
+			return data;
+
+		byte[] result= new byte[entry.size];
+		// a dummy byte is needed at the end of the input when using the "nowrap" option
+		byte[] input= new byte[data.length + 1];
+		System.arraycopy(data, 0, input, 0, data.length);
+		Inflater inflater= new Inflater(true);
+		try {
+			inflater.setInput(input);
+			int length= 0;
+			while (length < result.length) {
+				int inflated= inflater.inflate(result, length, result.length - length);
+				if (inflated == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary()))
+					break;
+				length+= inflated;
+			}
+			if (length != result.length)
+				throw new IOException("Invalid compressed data"); //$NON-NLS-1$
+		} catch (DataFormatException e) {
+			throw new IOException(e.getMessage());
+		} finally {
+			inflater.end();
+		}
+		return result;
+	}
+
+	private static int getShort(byte[] bytes, int offset) {
+		return (bytes[offset] & 0xFF) | (bytes[offset + 1] & 0xFF) << 8;
+	}
+
+	private static int getInt(byte[] bytes, int offset) {
+		return getShort(bytes, offset) | getShort(bytes, offset + 2) << 16;
+	}
+
+	protected Class findClass(String name) throws ClassNotFoundException {
+		String path= name.replace('.', '/').concat(".class"); //$NON-NLS-1$
+		Entry entry= (Entry) entries.get(path);
+		if (entry == null)
+			throw new ClassNotFoundException(name);
+		byte[] bytes;
+		try {
+			bytes= read(entry);
+		} catch (IOException e) {
+			throw new ClassNotFoundException(name, e);
+		}
+		int lastDot= name.lastIndexOf('.');
+		if (lastDot != -1)
+			definePackage(name.substring(0, lastDot), entry.source);
+		return defineClass(name, bytes, 0, bytes.length, entry.source.codeSource);
+	}
+
+	/**
+	 * Defines the given package with the attributes from the manifest of the given source, like
+	 * URLClassLoader does.
+	 *
+	 * @param packageName the package name
+	 * @param source the source
+	 */
+	private void definePackage(String packageName, Source source) {
+		if (getPackage(packageName) != null)
+			return;
+		Manifest manifest= getManifest(source);
+		String path= packageName.replace('.', '/').concat(JIJConstants.PATH_SEPARATOR);
+		try {
+			if (manifest == null) {
+				definePackage(packageName, null, null, null, null, null, null, null);
+			} else {
+				URL sealBase= "true".equalsIgnoreCase(getAttribute(manifest, path, Attributes.Name.SEALED)) ? source.baseURL : null; //$NON-NLS-1$
+				definePackage(packageName,
+						getAttribute(manifest, path, Attributes.Name.SPECIFICATION_TITLE),
+						getAttribute(manifest, path, Attributes.Name.SPECIFICATION_VERSION),
+						getAttribute(manifest, path, Attributes.Name.SPECIFICATION_VENDOR),
+						getAttribute(manifest, path, Attributes.Name.IMPLEMENTATION_TITLE),
+						getAttribute(manifest, path, Attributes.Name.IMPLEMENTATION_VERSION),
+						getAttribute(manifest, path, Attributes.Name.IMPLEMENTATION_VENDOR),
+						sealBase);
+			}
+		} catch (IllegalArgumentException e) {
+			// already defined
+		}
+	}
+
+	private static String getAttribute(Manifest manifest, String path, Attributes.Name name) {
+		Attributes attributes= manifest.getAttributes(path);
+		if (attributes != null && attributes.getValue(name) != null)
+			return attributes.getValue(name);
+		return manifest.getMainAttributes().getValue(name);
+	}
+
+	private Manifest getManifest(Source source) {
+		synchronized (source) {
+			if (!source.manifestRead) {
+				source.manifestRead= true;
+				Entry entry= (Entry) entries.get(JarFile.MANIFEST_NAME);
+				while (entry != null && entry.source != source)
+					entry= entry.next;
+				if (entry != null) {
+					try {
+						source.manifest= new Manifest(new ByteArrayInputStream(read(entry)));
+					} catch (IOException e) {
+						// no package attributes
+					}
+				}
+			}
+			return source.manifest;
+		}
+	}
+
+	protected URL findResource(String name) {
+		Entry entry= (Entry) entries.get(name);
+		if (entry == null)
+			return null;
+		return getURL(entry, name);
+	}
+
+	protected Enumeration findResources(String name) {
+		List urls= new ArrayList();
+		for (Entry entry= (Entry) entries.get(name); entry != null; entry= entry.next) {
+			URL url= getURL(entry, name);
+			if (url != null)
+				urls.add(url);
+		}
+		return Collections.enumeration(urls);
+	}
+
+	private static URL getURL(Entry entry, String name) {
+		try {
+			return new URL(entry.source.baseURL, name);
+		} catch (MalformedURLException e) {
+			return null;
+		}
+	}
+
+	public InputStream getResourceAsStream(String name) {
+		URL url= getResource(name);
+		if (url == null)
+			return null;
+		Entry entry= (Entry) entries.get(name);
+		if (entry != null && url.toExternalForm().equals(String.valueOf(getURL(entry, name)))) {
+			try {
+				return new ByteArrayInputStream(read(entry));
+			} catch (IOException e) {
+				// fall back to the URL
+			}
+		}
+		try {
+			return url.openStream();
+		} catch (IOException e) {
+			return null;
+		}
+	}
+}
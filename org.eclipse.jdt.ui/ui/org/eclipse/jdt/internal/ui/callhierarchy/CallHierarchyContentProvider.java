@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2000, 2012 IBM Corporation and others.
+ * Copyright (c) 2000, 2014 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -12,6 +12,7 @@
 package org.eclipse.jdt.internal.ui.callhierarchy;
 
 import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.eclipse.swt.widgets.Display;
 
@@ -63,6 +64,11 @@ public class CallHierarchyContentProvider implements ITreeContentProvider {
     private DeferredTreeContentManager fManager;
     private CallHierarchyViewPart fPart;
 
+    /**
+     * The number of deferred fetches that are running. Siblings are fetched concurrently.
+     */
+    private final AtomicInteger fFetching= new AtomicInteger();
+
     private class MethodWrapperRunnable implements IRunnableWithProgress {
         private MethodWrapper fMethodWrapper;
         private MethodWrapper[] fCalls= null;
@@ -458,7 +464,7 @@ public class CallHierarchyContentProvider implements ITreeContentProvider {
      *
      */
     public void doneFetching() {
-        if (fPart != null) {
+        if (fFetching.decrementAndGet() == 0 && fPart != null) {
             fPart.setCancelEnabled(false);
         }
     }
@@ -467,7 +473,7 @@ public class CallHierarchyContentProvider implements ITreeContentProvider {
      *
      */
     public void startFetching() {
-        if (fPart != null) {
+        if (fFetching.getAndIncrement() == 0 && fPart != null) {
             fPart.setCancelEnabled(true);
         }
     }
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2000, 2011 IBM Corporation and others.
+ * Copyright (c) 2000, 2014 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -25,6 +25,11 @@ import org.eclipse.jdt.internal.corext.callhierarchy.MethodWrapper;
 import org.eclipse.jdt.internal.ui.JavaPlugin;
 
 public class DeferredMethodWrapper extends MethodWrapperWorkbenchAdapter implements IDeferredWorkbenchAdapter {
+    /**
+     * The maximum number of call searches that run concurrently.
+     */
+    private static final int MAX_CONCURRENT_SEARCHES= Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+
     private final CallHierarchyContentProvider fProvider;
 
     /**
@@ -111,7 +116,11 @@ public class DeferredMethodWrapper extends MethodWrapperWorkbenchAdapter impleme
      * @see org.eclipse.ui.progress.IDeferredWorkbenchAdapter#getRule()
      */
     public ISchedulingRule getRule(Object o) {
-        return new BatchSimilarSchedulingRule("org.eclipse.jdt.ui.callhierarchy.methodwrapper"); //$NON-NLS-1$
+        // Searches for the same member share a rule, so that the later ones find the cached calls.
+        // The other searches are spread over a bounded number of rules, so that siblings are searched in parallel.
+        String key= ((DeferredMethodWrapper) o).getMethodWrapper().getMethodCall().getKey();
+        int slot= (key.hashCode() & Integer.MAX_VALUE) % MAX_CONCURRENT_SEARCHES;
+        return new BatchSimilarSchedulingRule("org.eclipse.jdt.ui.callhierarchy.methodwrapper" + slot); //$NON-NLS-1$
     }
 
     /*
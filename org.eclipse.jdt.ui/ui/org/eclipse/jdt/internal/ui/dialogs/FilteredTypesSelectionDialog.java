@@ -98,6 +98,7 @@ import org.eclipse.jdt.internal.corext.util.Strings;
 import org.eclipse.jdt.internal.corext.util.TypeFilter;
 import org.eclipse.jdt.internal.corext.util.TypeInfoFilter;
 import org.eclipse.jdt.internal.corext.util.TypeInfoRequestorAdapter;
+import org.eclipse.jdt.internal.corext.util.TypeNameIndex;
 
 import org.eclipse.jdt.launching.IVMInstall;
 import org.eclipse.jdt.launching.IVMInstallType;
@@ -258,6 +259,9 @@ public class FilteredTypesSelectionDialog extends FilteredItemsSelectionDialog i
 
 		fTypeInfoUtil= new TypeInfoUtil(extension != null ? extension.getImageProvider() : null);
 
+		// starts loading the type name index in the background
+		TypeNameIndex.getInstance();
+
 		fTypeInfoLabelProvider= new TypeItemLabelProvider();
 		
 		setListLabelProvider(fTypeInfoLabelProvider);
@@ -569,6 +573,8 @@ public class FilteredTypesSelectionDialog extends FilteredItemsSelectionDialog i
 		typeSearchFilter.setMatchEverythingMode(true);
 
 		try {
+			if (typeSearchFilter.searchIndex(requestor, progressMonitor))
+				return;
 			engine.searchAllTypeNames(packPattern == null ? null : packPattern.toCharArray(),
 					typeSearchFilter.getPackageFlags(),
 					typePattern.toCharArray(),
@@ -1218,6 +1224,19 @@ public class FilteredTypesSelectionDialog extends FilteredItemsSelectionDialog i
 			return fTypeInfoFilter.matchesFilterExtension(type);
 		}
 
+		/**
+		 * Reports the matching types from the {@link TypeNameIndex}.
+		 *
+		 * @param requestor the requestor to report the matches to
+		 * @param monitor the progress monitor
+		 * @return <code>true</code> if the matches have been reported, <code>false</code>
+		 *         if the search scope is not the workspace or the index is not up to date
+		 *         and the search engine has to be used instead
+		 */
+		public boolean searchIndex(TypeNameMatchRequestor requestor, IProgressMonitor monitor) {
+			return TypeNameIndex.getInstance().search(fTypeInfoFilter, requestor, monitor);
+		}
+
 		/**
 		 * Set filter to "match everything" mode.
 		 *
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2000, 2011 IBM Corporation and others.
+ * Copyright (c) 2000, 2014 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -87,6 +87,22 @@ public abstract class AbstractCleanUp implements ICleanUp {
 		return null;
 	}
 
+	/**
+	 * Tells whether {@link #createFix(CleanUpContext)} may be called concurrently for different
+	 * compilation units. Otherwise, calls to {@link #createFix(CleanUpContext)} are serialized.
+	 * Subclasses may override to return <code>true</code> if they keep no state while creating
+	 * fixes, or synchronize access to it.
+	 * <p>
+	 * The default implementation returns <code>false</code>.
+	 * </p>
+	 * 
+	 * @return <code>true</code> if fixes can be created concurrently
+	 * @since 3.10
+	 */
+	public boolean canCreateFixesConcurrently() {
+		return false;
+	}
+
 	/*
 	 * @see org.eclipse.jdt.ui.cleanup.ICleanUp#checkPostConditions(org.eclipse.core.runtime.IProgressMonitor)
 	 * @since 3.5
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2007, 2009 IBM Corporation and others.
+ * Copyright (c) 2007, 2014 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -8,87 +8,556 @@
  * Contributors:
  *     IBM Corporation - initial API and implementation
  *     Ferenc Hechler <ferenc_hechler@users.sourceforge.net> - [jar exporter] Deploy java application as executable jar - https://bugs.eclipse.org/bugs/show_bug.cgi?id=83258
- *     Ferenc Hechler <ferenc_hechler@users.sourceforge.net> - [jar application] ANT build file does not create Class-Path Entry in Manifest - https://bugs.eclipse.org/bugs/show_bug.cgi?id=220257 
+ *     Ferenc Hechler <ferenc_hechler@users.sourceforge.net> - [jar application] ANT build file does not create Class-Path Entry in Manifest - https://bugs.eclipse.org/bugs/show_bug.cgi?id=220257
  *     Ferenc Hechler <ferenc_hechler@users.sourceforge.net> - [jar exporter] export directory entries in "Runnable JAR File" - https://bugs.eclipse.org/bugs/show_bug.cgi?id=243163
  *     Ferenc Hechler <ferenc_hechler@users.sourceforge.net> - [jar application] add Jar-in-Jar ClassLoader option - https://bugs.eclipse.org/bugs/show_bug.cgi?id=219530
  *******************************************************************************/
 package org.eclipse.jdt.internal.ui.jarpackagerfat;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.jar.JarEntry;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 
 import org.eclipse.swt.widgets.Shell;
 
+import org.eclipse.core.filesystem.EFS;
+import org.eclipse.core.filesystem.IFileInfo;
+
+import org.eclipse.core.runtime.Assert;
 import org.eclipse.core.runtime.CoreException;
 import org.eclipse.core.runtime.IPath;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.NullProgressMonitor;
+import org.eclipse.core.runtime.OperationCanceledException;
 import org.eclipse.core.runtime.Path;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
+
+import org.eclipse.core.resources.IContainer;
+import org.eclipse.core.resources.IFile;
+import org.eclipse.core.resources.IProject;
+import org.eclipse.core.resources.IResource;
+import org.eclipse.core.resources.ResourcesPlugin;
+
+import org.eclipse.ltk.core.refactoring.RefactoringCore;
+import org.eclipse.ltk.core.refactoring.RefactoringDescriptor;
+import org.eclipse.ltk.core.refactoring.RefactoringDescriptorProxy;
 
 import org.eclipse.jdt.internal.corext.util.Messages;
 
 import org.eclipse.jdt.ui.jarpackager.JarPackageData;
-import org.eclipse.jdt.ui.jarpackager.JarWriter3;
 
+import org.eclipse.jdt.internal.ui.JavaPlugin;
 import org.eclipse.jdt.internal.ui.jarpackager.JarPackagerMessages;
 import org.eclipse.jdt.internal.ui.jarpackager.JarPackagerUtil;
 import org.eclipse.jdt.internal.ui.viewsupport.BasicElementLabels;
 
 
 /**
+ * Creates the JAR file of a runnable JAR export.
+ * <p>
+ * Entries are written in the order in which they are added, but their content is read, checksummed
+ * and compressed by worker jobs. Entries of a library whose compression already matches the
+ * compression of the exported JAR are copied without inflating and deflating them. Large entries
+ * are streamed in the calling thread.
+ * </p>
+ * <p>
+ * Duplicate entries are reported by the method adding them. Problems reading the content of an
+ * entry that is computed by a worker job fail the export: {@link #close()} deletes the incomplete
+ * JAR and reports the first such problem.
+ * </p>
+ *
  * @since 3.4
  */
-public class JarWriter4 extends JarWriter3 {
+public class JarWriter4 {
+
+	/**
+	 * Entries up to this size are computed by the worker jobs and buffered until they are written.
+	 */
+	private static final int MAX_BUFFERED_ENTRY_SIZE= 512 * 1024;
+
+	/**
+	 * The maximal number of entries that are computed or waiting to be written.
+	 */
+	private static final int MAX_PENDING_ENTRIES= 256;
+
+	/**
+	 * The maximal total size of the entries that are computed or waiting to be written.
+	 */
+	private static final long MAX_PENDING_BYTES= 8 * 1024 * 1024;
+
+	/**
+	 * Time in ms a worker job waits for more entries before it ends.
+	 */
+	private static final long WORKER_IDLE_TIME= 50;
+
+	private static final int STREAM_BUFFER_SIZE= 64 * 1024;
+
+	/**
+	 * An entry that has been added but not yet written.
+	 */
+	private static abstract class PendingEntry {
+
+		protected final String fName;
+		protected final long fTime;
+
+		PendingEntry(String name, long time) {
+			fName= name;
+			fTime= time;
+		}
+
+		/**
+		 * Waits until the entry can be written.
+		 *
+		 * @throws IOException if the content of the entry could not be read
+		 */
+		void await() throws IOException {
+			// ready by default
+		}
+
+		boolean isDone() {
+			return true;
+		}
+
+		/**
+		 * Returns the number of bytes buffered for this entry until it is written.
+		 *
+		 * @return the expected buffer size
+		 */
+		long getBufferSize() {
+			return 0;
+		}
+
+		abstract void writeTo(ZipChannelWriter writer) throws IOException;
+	}
+
+	private static class DirectoryEntry extends PendingEntry {
+
+		private static final byte[] NO_CONTENT= new byte[0];
+
+		DirectoryEntry(String name, long time) {
+			super(name, time);
+		}
+
+		@Override
+		void writeTo(ZipChannelWriter writer) throws IOException {
+			writer.writeEntry(fName, ZipEntry.STORED, fTime, 0, 0, NO_CONTENT, 0);
+		}
+	}
+
+	/**
+	 * An entry copied without change from a library.
+	 */
+	private static class TransferredEntry extends PendingEntry {
+
+		private final ZipArchiveIndex fIndex;
+		private final ZipArchiveIndex.RawEntry fEntry;
+
+		TransferredEntry(String name, long time, ZipArchiveIndex index, ZipArchiveIndex.RawEntry entry) {
+			super(name, time);
+			fIndex= index;
+			fEntry= entry;
+		}
+
+		@Override
+		void writeTo(ZipChannelWriter writer) throws IOException {
+			long position= fIndex.getDataPosition(fEntry);
+			writer.transferEntry(fName, fEntry.method, fTime, fEntry.crc, fEntry.compressedSize, fEntry.size, fIndex.getChannel(), position);
+		}
+	}
+
+	/**
+	 * An entry whose content is read and compressed by a worker.
+	 */
+	private static abstract class ComputedEntry extends PendingEntry {
+
+		private final int fMethod;
+		private final long fSizeHint;
+
+		private boolean fDone;
+		private Exception fFailure;
+		private byte[] fData;
+		private int fLength;
+		private long fCrc;
+		private long fSize;
+
+		ComputedEntry(String name, int method, long time, long sizeHint) {
+			super(name, time);
+			fMethod= method;
+			fSizeHint= sizeHint;
+		}
+
+		abstract InputStream openContent() throws IOException, CoreException;
+
+		/**
+		 * Reads and compresses the content.
+		 *
+		 * @param deflater the deflater to use
+		 */
+		void compute(Deflater deflater) {
+			byte[] data= null;
+			int length= 0;
+			long crcValue= 0;
+			long size= 0;
+			Exception failure= null;
+			try {
+				InputStream content= openContent();
+				try {
+					data= readFully(content, fSizeHint);
+				} finally {
+					content.close();
+				}
+				size= data.length;
+				CRC32 crc= new CRC32();
+				crc.update(data);
+				crcValue= crc.getValue();
+				length= data.length;
+				if (fMethod == ZipEntry.DEFLATED) {
+					deflater.reset();
+					deflater.setInput(data);
+					deflater.finish();
+					byte[] compressed= new byte[Math.max(64, data.length / 2)];
+					length= 0;
+					while (!deflater.finished()) {
+						if (length == compressed.length) {
+							byte[] grown= new byte[compressed.length * 2];
+							System.arraycopy(compressed, 0, grown, 0, length);
+							compressed= grown;
+						}
+						length+= deflater.deflate(compressed, length, compressed.length - length);
+					}
+					data= compressed;
+				}
+			} catch (IOException e) {
+				failure= e;
+			} catch (CoreException e) {
+				failure= e;
+			} catch (RuntimeException e) {
+				failure= e;
+			}
+			synchronized (this) {
+				fData= data;
+				fLength= length;
+				fCrc= crcValue;
+				fSize= size;
+				fFailure= failure;
+				fDone= true;
+				notifyAll();
+			}
+		}
+
+		@Override
+		synchronized boolean isDone() {
+			return fDone;
+		}
+
+		@Override
+		long getBufferSize() {
+			return fSizeHint;
+		}
+
+		@Override
+		synchronized void await() throws IOException {
+			while (!fDone) {
+				try {
+					wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new InterruptedIOException();
+				}
+			}
+			if (fFailure != null)
+				throw createEntryException(fName, fFailure);
+		}
+
+		@Override
+		void writeTo(ZipChannelWriter writer) throws IOException {
+			writer.writeEntry(fName, fMethod, fTime, fCrc, fSize, fData, fLength);
+			fData= null;
+		}
+	}
+
+	/**
+	 * Signals that the content of a pending entry could not be read. The message already names the
+	 * entry.
+	 */
+	private static class EntryException extends IOException {
+
+		private static final long serialVersionUID= 1L;
+
+		private final Exception fCause;
+
+		EntryException(String message, Exception cause) {
+			super(message);
+			fCause= cause;
+		}
+
+		@Override
+		public Throwable getCause() {
+			return fCause;
+		}
+	}
+
+	/**
+	 * The entries waiting to be computed, and the worker jobs computing them.
+	 */
+	private static class EntryWorkQueue {
+
+		private final LinkedList<ComputedEntry> fEntries= new LinkedList<ComputedEntry>();
+		private final int fMaxWorkers;
+		private final String fJobName;
+		private int fRunningWorkers;
+
+		EntryWorkQueue(int maxWorkers, String jobName) {
+			fMaxWorkers= maxWorkers;
+			fJobName= jobName;
+		}
+
+		synchronized void submit(ComputedEntry entry) {
+			fEntries.add(entry);
+			if (fRunningWorkers < fMaxWorkers && fRunningWorkers < fEntries.size()) {
+				fRunningWorkers++;
+				new EntryWorkerJob(this).schedule();
+			} else {
+				notify();
+			}
+		}
+
+		/**
+		 * Returns the next entry to compute. Ends the calling worker if there is none.
+		 *
+		 * @return the entry, or <code>null</code> if the worker has to end
+		 */
+		synchronized ComputedEntry next() {
+			if (fEntries.isEmpty()) {
+				try {
+					wait(WORKER_IDLE_TIME);
+				} catch (InterruptedException e) {
+					// end the worker
+				}
+			}
+			if (fEntries.isEmpty()) {
+				fRunningWorkers--;
+				return null;
+			}
+			return fEntries.removeFirst();
+		}
+
+		/**
+		 * Removes the entries that have not been started, e.g. because the JAR is closed.
+		 *
+		 * @return the removed entries
+		 */
+		synchronized List<ComputedEntry> clear() {
+			List<ComputedEntry> result= new ArrayList<ComputedEntry>(fEntries);
+			fEntries.clear();
+			return result;
+		}
+	}
+
+	private static class EntryWorkerJob extends Job {
+
+		private final EntryWorkQueue fQueue;
+
+		EntryWorkerJob(EntryWorkQueue queue) {
+			super(queue.fJobName);
+			fQueue= queue;
+			setSystem(true);
+		}
+
+		@Override
+		protected IStatus run(IProgressMonitor monitor) {
+			Deflater deflater= new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+			try {
+				ComputedEntry entry= fQueue.next();
+				while (entry != null) {
+					entry.compute(deflater);
+					entry= fQueue.next();
+				}
+			} finally {
+				deflater.end();
+			}
+			return Status.OK_STATUS;
+		}
+	}
 
 	private final JarPackageData fJarPackage;
 
+	private final ZipChannelWriter fWriter;
+
+	private final Set<String> fDirectories= new HashSet<String>();
+
+	/**
+	 * The entries in the order in which they will be written.
+	 */
+	private final LinkedList<PendingEntry> fPendingEntries= new LinkedList<PendingEntry>();
+
+	/**
+	 * The total buffer size of the pending entries.
+	 */
+	private long fPendingBytes;
+
+	/**
+	 * The first problem reading the content of a pending entry, or <code>null</code>. Fails the
+	 * export when the JAR is closed.
+	 */
+	private IOException fEntryFailure;
+
+	/**
+	 * The work queue of the worker jobs, or <code>null</code> if entries are computed in the
+	 * calling thread.
+	 */
+	private final EntryWorkQueue fWorkQueue;
+
+	private final Deflater fDeflater= new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+
+	private final byte[] fStreamBuffer= new byte[STREAM_BUFFER_SIZE];
+
+	private final byte[] fDeflateBuffer= new byte[STREAM_BUFFER_SIZE];
+
+	/** The library whose entries are being added, or <code>null</code> */
+	private ZipFile fArchive;
+	/** The index of {@link #fArchive}, or <code>null</code> if not available */
+	private ZipArchiveIndex fArchiveIndex;
+
+	private boolean fClosed;
+
+	/**
+	 * Creates an instance which is used to create a JAR based on the given JarPackage.
+	 *
+	 * @param jarPackage the JAR specification
+	 * @param parent the shell used to display question dialogs, or <code>null</code> if
+	 *            "false/no/cancel" is the answer and no dialog should be shown
+	 * @throws CoreException to signal any other unusual termination. This can also be used to
+	 *             return information in the status object.
+	 */
 	public JarWriter4(JarPackageData jarPackage, Shell parent) throws CoreException {
-		super(jarPackage, parent);
+		Assert.isNotNull(jarPackage, "The JAR specification is null"); //$NON-NLS-1$
 		fJarPackage= jarPackage;
+		Assert.isTrue(fJarPackage.isValid(), "The JAR package specification is invalid"); //$NON-NLS-1$
+		if (!canCreateJar(parent))
+			throw new OperationCanceledException();
+
+		int workers= Runtime.getRuntime().availableProcessors();
+		if (workers > 1) {
+			String jobName= Messages.format(JarPackagerMessages.JarFileExportOperation_exporting, BasicElementLabels.getPathLabel(fJarPackage.getAbsoluteJarLocation(), true));
+			fWorkQueue= new EntryWorkQueue(workers, jobName);
+		} else {
+			fWorkQueue= null;
+		}
+		try {
+			fWriter= new ZipChannelWriter(fJarPackage.getAbsoluteJarLocation().toFile());
+		} catch (IOException exception) {
+			fDeflater.end();
+			throw JarPackagerUtil.createCoreException(exception.getLocalizedMessage(), exception);
+		}
+		try {
+			if (fJarPackage.usesManifest() && fJarPackage.areGeneratedFilesExported()) {
+				Manifest manifest= fJarPackage.getManifestProvider().create(fJarPackage);
+				ByteArrayOutputStream content= new ByteArrayOutputStream();
+				manifest.write(content);
+				addEntry(JarFile.MANIFEST_NAME, new ByteArrayInputStream(content.toByteArray()), System.currentTimeMillis(), fJarPackage.isCompressed());
+			}
+			String comment= jarPackage.getComment();
+			if (comment != null)
+				fWriter.setComment(comment);
+			if (fJarPackage.isRefactoringAware()) {
+				Assert.isTrue(fJarPackage.areDirectoryEntriesIncluded());
+				addDirectories(JarPackagerUtil.getMetaEntry());
+				addHistory(fJarPackage, JarPackagerUtil.getRefactoringsEntry(), new NullProgressMonitor());
+			}
+		} catch (IOException exception) {
+			abort();
+			throw JarPackagerUtil.createCoreException(exception.getLocalizedMessage(), exception);
+		} catch (CoreException exception) {
+			abort();
+			throw exception;
+		}
 	}
 
 	public void addZipEntry(ZipEntry zipEntry, ZipFile zipFile, String path) throws IOException {
 		if (fJarPackage.areDirectoryEntriesIncluded())
 			addDirectories(path);
 
-		JarEntry newEntry= new JarEntry(path.replace(File.separatorChar, '/'));
-
-		if (fJarPackage.isCompressed())
-			newEntry.setMethod(ZipEntry.DEFLATED);
-			// Entry is filled automatically.
-		else {
-			newEntry.setMethod(ZipEntry.STORED);
-			newEntry.setSize(zipEntry.getSize());
-			newEntry.setCrc(zipEntry.getCrc());
-		}
-
+		String name= path.replace(File.separatorChar, '/');
+		int method= fJarPackage.isCompressed() ? ZipEntry.DEFLATED : ZipEntry.STORED;
 		long lastModified= System.currentTimeMillis();
 
-		// Set modification time
-		newEntry.setTime(lastModified);
+		ZipArchiveIndex index= getArchiveIndex(zipFile);
+		ZipArchiveIndex.RawEntry rawEntry= index != null ? index.getEntry(zipEntry.getName()) : null;
+		if (rawEntry != null && rawEntry.method == method) {
+			fWriter.reserve(name);
+			addPendingEntry(new TransferredEntry(name, lastModified, index, rawEntry));
+			return;
+		}
 
-		addEntry(newEntry, zipFile.getInputStream(zipEntry));
+		final ZipFile archive= zipFile;
+		final ZipEntry archiveEntry= zipEntry;
+		addComputedEntry(new ComputedEntry(name, method, lastModified, zipEntry.getSize()) {
+			@Override
+			InputStream openContent() throws IOException {
+				return archive.getInputStream(archiveEntry);
+			}
+		});
 	}
 
 	public void addZipEntryStream(ZipEntry zipEntry, InputStream is, String path) throws IOException {
 		if (fJarPackage.areDirectoryEntriesIncluded())
 			addDirectories(path);
-		JarEntry newEntry= new JarEntry(path.replace(File.separatorChar, '/'));
-		if (fJarPackage.isCompressed())
-			newEntry.setMethod(ZipEntry.DEFLATED);
-		// Entry is filled automatically.
-		else {
-			newEntry.setMethod(ZipEntry.STORED);
-			newEntry.setSize(zipEntry.getSize());
-			newEntry.setCrc(zipEntry.getCrc());
+		addEntry(path.replace(File.separatorChar, '/'), is, System.currentTimeMillis(), fJarPackage.isCompressed());
+	}
+
+	/**
+	 * Adds an uncompressed entry with the content of the given file, regardless of whether the JAR
+	 * package is compressed. Nested JARs are stored, so that the jar-in-jar loader can read their
+	 * entries in place. The file is read only once.
+	 *
+	 * @param file the file to add
+	 * @param path the path of the entry
+	 * @throws IOException if the entry cannot be written
+	 * @since 3.10
+	 */
+	public void addStoredFile(File file, String path) throws IOException {
+		if (fJarPackage.areDirectoryEntriesIncluded())
+			addDirectories(path);
+		addEntry(path.replace(File.separatorChar, '/'), new FileInputStream(file), System.currentTimeMillis(), false);
+	}
+
+	/**
+	 * Writes the passed resource to the current archive.
+	 *
+	 * @param resource the file to be written
+	 * @param destinationPath the path for the file inside the archive
+	 * @throws CoreException to signal any other unusual termination. This can also be used to
+	 *             return information in the status object.
+	 */
+	public void write(IFile resource, IPath destinationPath) throws CoreException {
+		try {
+			if (fJarPackage.areDirectoryEntriesIncluded())
+				addDirectories(resource, destinationPath);
+			addFile(resource, destinationPath);
+		} catch (IOException ex) {
+			throw createWriteException(ex, resource.getFullPath());
 		}
-		long lastModified= System.currentTimeMillis();
-		// Set modification time
-		newEntry.setTime(lastModified);
-		addEntry(newEntry, is);
 	}
 
 	public void write(File file, IPath destinationPath) throws CoreException {
@@ -96,32 +565,430 @@ public class JarWriter4 extends JarWriter3 {
 			addFile(file, destinationPath);
 		} catch (IOException ex) {
 			// Ensure full path is visible
-			String message= null;
-			IPath path= new Path(file.getAbsolutePath());
-			if (ex.getLocalizedMessage() != null)
-				message= Messages.format(JarPackagerMessages.JarWriter_writeProblemWithMessage,
-						new Object[] { BasicElementLabels.getPathLabel(path, false), ex.getLocalizedMessage() });
-			else
-				message= Messages.format(JarPackagerMessages.JarWriter_writeProblem, BasicElementLabels.getPathLabel(path, false));
-			throw JarPackagerUtil.createCoreException(message, ex);
+			throw createWriteException(ex, new Path(file.getAbsolutePath()));
+		}
+	}
+
+	/**
+	 * Writes all pending entries. Entries of a library must be flushed before the library is
+	 * closed.
+	 *
+	 * @throws IOException if an entry cannot be written
+	 * @since 3.10
+	 */
+	public void flush() throws IOException {
+		try {
+			writePendingEntries(0);
+		} finally {
+			closeArchiveIndex();
+		}
+	}
+
+	/**
+	 * Closes the archive and does all required cleanup.
+	 *
+	 * @throws CoreException to signal any other unusual termination. This can also be used to
+	 *             return information in the status object.
+	 */
+	public void close() throws CoreException {
+		if (fClosed)
+			return;
+		try {
+			flush();
+			if (fEntryFailure != null) {
+				// do not leave a JAR that silently lacks entries
+				abort();
+				fJarPackage.getAbsoluteJarLocation().toFile().delete();
+				throw createWriteException(fEntryFailure, fJarPackage.getAbsoluteJarLocation());
+			}
+			fClosed= true;
+			fDeflater.end();
+			fWriter.close();
+			registerInWorkspaceIfNeeded();
+		} catch (IOException ex) {
+			abort();
+			throw JarPackagerUtil.createCoreException(ex.getLocalizedMessage(), ex);
+		}
+	}
+
+	private void abort() {
+		fClosed= true;
+		if (fWorkQueue != null)
+			fWorkQueue.clear();
+		fPendingEntries.clear();
+		fPendingBytes= 0;
+		closeArchiveIndex();
+		fDeflater.end();
+		fWriter.abort();
+	}
+
+	private static EntryException createEntryException(String name, Exception failure) {
+		IPath path= new Path(name);
+		String message;
+		if (failure.getLocalizedMessage() != null)
+			message= Messages.format(JarPackagerMessages.JarWriter_writeProblemWithMessage, new Object[] { BasicElementLabels.getPathLabel(path, false), failure.getLocalizedMessage() });
+		else
+			message= Messages.format(JarPackagerMessages.JarWriter_writeProblem, BasicElementLabels.getPathLabel(path, false));
+		return new EntryException(message, failure);
+	}
+
+	private CoreException createWriteException(IOException ex, IPath path) {
+		if (ex instanceof EntryException)
+			return JarPackagerUtil.createCoreException(ex.getMessage(), (Exception) ex.getCause());
+		String message= null;
+		if (ex.getLocalizedMessage() != null)
+			message= Messages.format(JarPackagerMessages.JarWriter_writeProblemWithMessage, new Object[] { BasicElementLabels.getPathLabel(path, false), ex.getLocalizedMessage() });
+		else
+			message= Messages.format(JarPackagerMessages.JarWriter_writeProblem, BasicElementLabels.getPathLabel(path, false));
+		return JarPackagerUtil.createCoreException(message, ex);
+	}
+
+	private void addFile(final IFile resource, IPath path) throws IOException, CoreException {
+		long lastModified= System.currentTimeMillis();
+		long size= -1;
+		URI locationURI= resource.getLocationURI();
+		if (locationURI != null) {
+			IFileInfo info= EFS.getStore(locationURI).fetchInfo();
+			if (info.exists()) {
+				lastModified= info.getLastModified();
+				size= info.getLength();
+			}
 		}
+
+		String name= path.toString().replace(File.separatorChar, '/');
+		int method= fJarPackage.isCompressed() ? ZipEntry.DEFLATED : ZipEntry.STORED;
+		addComputedEntry(new ComputedEntry(name, method, lastModified, size) {
+			@Override
+			InputStream openContent() throws CoreException {
+				return resource.getContents(false);
+			}
+		});
 	}
 
-	private void addFile(File file, IPath path) throws IOException {
+	private void addFile(final File file, IPath path) throws IOException {
 		if (fJarPackage.areDirectoryEntriesIncluded())
-			addDirectories(path);
+			addDirectories(path.toString());
+
+		String name= path.toString().replace(File.separatorChar, '/');
+		int method= fJarPackage.isCompressed() ? ZipEntry.DEFLATED : ZipEntry.STORED;
+		addComputedEntry(new ComputedEntry(name, method, file.lastModified(), file.length()) {
+			@Override
+			InputStream openContent() throws IOException {
+				return new FileInputStream(file);
+			}
+		});
+	}
+
+	private void addEntry(String name, InputStream content, long time, boolean compressed) throws IOException {
+		try {
+			fWriter.reserve(name);
+		} catch (IOException e) {
+			content.close();
+			throw e;
+		}
+		writeEntry(name, content, time, compressed ? ZipEntry.DEFLATED : ZipEntry.STORED);
+	}
+
+	/**
+	 * Adds an entry that is computed by a worker job, or streamed if it is large.
+	 *
+	 * @param entry the entry
+	 * @throws IOException if the entry cannot be written
+	 */
+	private void addComputedEntry(ComputedEntry entry) throws IOException {
+		fWriter.reserve(entry.fName);
+		if (fWorkQueue == null || entry.fSizeHint < 0 || entry.fSizeHint > MAX_BUFFERED_ENTRY_SIZE) {
+			InputStream content;
+			try {
+				content= entry.openContent();
+			} catch (IOException e) {
+				fWriter.unreserve(entry.fName);
+				throw e;
+			} catch (CoreException e) {
+				fWriter.unreserve(entry.fName);
+				throw createEntryException(entry.fName, e);
+			}
+			writeEntry(entry.fName, content, entry.fTime, entry.fMethod);
+			return;
+		}
+		fWorkQueue.submit(entry);
+		addPendingEntry(entry);
+	}
+
+	private void addPendingEntry(PendingEntry entry) throws IOException {
+		fPendingEntries.add(entry);
+		fPendingBytes+= entry.getBufferSize();
+		writePendingEntries(MAX_PENDING_ENTRIES);
+	}
+
+	/**
+	 * Writes the pending entries that are done, and waits for more until no more than the given
+	 * number of entries, and no more than {@link #MAX_PENDING_BYTES}, are pending. Entries whose
+	 * content cannot be read are left out and remembered in {@link #fEntryFailure}.
+	 *
+	 * @param maxPending the number of entries that may stay pending
+	 * @throws IOException if an entry cannot be written
+	 */
+	private void writePendingEntries(int maxPending) throws IOException {
+		while (!fPendingEntries.isEmpty()) {
+			PendingEntry entry= fPendingEntries.getFirst();
+			if (fPendingEntries.size() <= maxPending && fPendingBytes <= MAX_PENDING_BYTES && !entry.isDone())
+				break;
+			fPendingEntries.removeFirst();
+			fPendingBytes-= entry.getBufferSize();
+			try {
+				entry.await();
+			} catch (IOException e) {
+				fWriter.unreserve(entry.fName);
+				if (fEntryFailure == null)
+					fEntryFailure= e;
+				continue;
+			}
+			entry.writeTo(fWriter);
+		}
+	}
+
+	/**
+	 * Writes an entry in the calling thread, after all pending entries.
+	 *
+	 * @param name the reserved entry name
+	 * @param content the content, will be closed
+	 * @param time the modification time
+	 * @param method the compression method
+	 * @throws IOException if the entry cannot be written
+	 */
+	private void writeEntry(String name, InputStream content, long time, int method) throws IOException {
+		try {
+			writePendingEntries(0);
+			fWriter.openEntry(name, method, time);
+			CRC32 crc= new CRC32();
+			long size= 0;
+			long compressedSize= 0;
+			try {
+				if (method == ZipEntry.DEFLATED)
+					fDeflater.reset();
+				int count;
+				while ((count= content.read(fStreamBuffer, 0, fStreamBuffer.length)) != -1) {
+					crc.update(fStreamBuffer, 0, count);
+					size+= count;
+					if (method == ZipEntry.DEFLATED) {
+						fDeflater.setInput(fStreamBuffer, 0, count);
+						while (!fDeflater.needsInput())
+							compressedSize+= deflate();
+					} else {
+						fWriter.write(fStreamBuffer, 0, count);
+						compressedSize+= count;
+					}
+				}
+				if (method == ZipEntry.DEFLATED) {
+					fDeflater.finish();
+					while (!fDeflater.finished())
+						compressedSize+= deflate();
+				}
+			} catch (IOException e) {
+				fWriter.abortEntry();
+				throw e;
+			} catch (RuntimeException e) {
+				fWriter.abortEntry();
+				throw e;
+			}
+			fWriter.closeEntry(crc.getValue(), compressedSize, size);
+		} finally {
+			content.close();
+		}
+	}
+
+	private int deflate() throws IOException {
+		int count= fDeflater.deflate(fDeflateBuffer, 0, fDeflateBuffer.length);
+		fWriter.write(fDeflateBuffer, 0, count);
+		return count;
+	}
+
+	private ZipArchiveIndex getArchiveIndex(ZipFile zipFile) throws IOException {
+		if (zipFile != fArchive) {
+			flush();
+			fArchive= zipFile;
+			fArchiveIndex= ZipArchiveIndex.open(new File(zipFile.getName()));
+		}
+		return fArchiveIndex;
+	}
+
+	private void closeArchiveIndex() {
+		if (fArchiveIndex != null)
+			fArchiveIndex.close();
+		fArchiveIndex= null;
+		fArchive= null;
+	}
 
-		JarEntry newEntry= new JarEntry(path.toString().replace(File.separatorChar, '/'));
+	/**
+	 * Creates the directory entries for the given path and adds them to the current archive.
+	 *
+	 * @param destPath the path to add
+	 * @throws IOException if an I/O error has occurred
+	 */
+	private void addDirectories(String destPath) throws IOException {
+		String path= destPath.replace(File.separatorChar, '/');
+		int lastSlash= path.lastIndexOf('/');
+		List<String> directories= new ArrayList<String>(2);
+		while (lastSlash != -1) {
+			path= path.substring(0, lastSlash + 1);
+			if (!fDirectories.add(path))
+				break;
+			directories.add(path);
+			lastSlash= path.lastIndexOf('/', lastSlash - 1);
+		}
+
+		long timeStamp= System.currentTimeMillis();
+		for (int i= directories.size() - 1; i >= 0; --i) {
+			String directory= directories.get(i);
+			fWriter.reserve(directory);
+			addPendingEntry(new DirectoryEntry(directory, timeStamp));
+		}
+	}
+
+	/**
+	 * Creates the directory entries for the given path and adds them to the current archive.
+	 *
+	 * @param resource the resource for which the parent directories are to be added
+	 * @param destinationPath the path to add
+	 * @throws IOException if an I/O error has occurred
+	 * @throws CoreException if accessing the resource fails
+	 */
+	private void addDirectories(IResource resource, IPath destinationPath) throws IOException, CoreException {
+		String path= destinationPath.toString().replace(File.separatorChar, '/');
+		int lastSlash= path.lastIndexOf('/');
+		List<DirectoryEntry> directories= new ArrayList<DirectoryEntry>(2);
+		while (lastSlash != -1) {
+			path= path.substring(0, lastSlash + 1);
+			if (!fDirectories.add(path))
+				break;
+
+			IContainer parent= resource.getParent();
+			long timeStamp= System.currentTimeMillis();
+			URI location= parent.getLocationURI();
+			if (location != null) {
+				IFileInfo info= EFS.getStore(location).fetchInfo();
+				if (info.exists())
+					timeStamp= info.getLastModified();
+			}
+			directories.add(new DirectoryEntry(path, timeStamp));
+
+			lastSlash= path.lastIndexOf('/', lastSlash - 1);
+		}
+
+		for (int i= directories.size() - 1; i >= 0; --i) {
+			DirectoryEntry directory= directories.get(i);
+			fWriter.reserve(directory.fName);
+			addPendingEntry(directory);
+		}
+	}
 
-		if (fJarPackage.isCompressed())
-			newEntry.setMethod(ZipEntry.DEFLATED);
-			// Entry is filled automatically.
-		else {
-			newEntry.setMethod(ZipEntry.STORED);
-			JarPackagerUtil.calculateCrcAndSize(newEntry, new FileInputStream(file), new byte[4096]);
+	/**
+	 * Adds the refactoring history.
+	 *
+	 * @param data the jar package data
+	 * @param path the path of the refactoring history file within the archive
+	 * @param monitor the progress monitor to use
+	 * @throws IOException if the history could not be written
+	 * @throws CoreException if an error occurs while transforming the refactorings
+	 */
+	private void addHistory(final JarPackageData data, final String path, final IProgressMonitor monitor) throws IOException, CoreException {
+		final RefactoringDescriptorProxy[] proxies= data.getRefactoringDescriptors();
+		Arrays.sort(proxies, new Comparator<RefactoringDescriptorProxy>() {
+
+			public final int compare(final RefactoringDescriptorProxy first, final RefactoringDescriptorProxy second) {
+				final long delta= first.getTimeStamp() - second.getTimeStamp();
+				if (delta > 0)
+					return 1;
+				else if (delta < 0)
+					return -1;
+				return 0;
+			}
+		});
+		ByteArrayOutputStream output= new ByteArrayOutputStream();
+		RefactoringCore.getHistoryService().writeRefactoringDescriptors(proxies, output, RefactoringDescriptor.NONE, false, monitor);
+		addEntry(path, new ByteArrayInputStream(output.toByteArray()), System.currentTimeMillis(), data.isCompressed());
+	}
+
+	/**
+	 * Checks if the JAR file can be overwritten. If the JAR package setting does not allow to
+	 * overwrite the JAR then a dialog will ask the user again.
+	 *
+	 * @param parent the parent for the dialog, or <code>null</code> if no dialog should be
+	 *            presented
+	 * @return <code>true</code> if it is OK to create the JAR
+	 */
+	private boolean canCreateJar(Shell parent) {
+		File file= fJarPackage.getAbsoluteJarLocation().toFile();
+		if (file.exists()) {
+			if (!file.canWrite())
+				return false;
+			if (fJarPackage.allowOverwrite())
+				return true;
+			return parent != null && JarPackagerUtil.askForOverwritePermission(parent, fJarPackage.getAbsoluteJarLocation(), true);
 		}
 
-		newEntry.setTime(file.lastModified());
-		addEntry(newEntry, new FileInputStream(file));
+		// Test if directory exists
+		String path= file.getAbsolutePath();
+		int separatorIndex= path.lastIndexOf(File.separator);
+		if (separatorIndex == -1) // i.e.- default directory, which is fine
+			return true;
+		File directory= new File(path.substring(0, separatorIndex));
+		if (!directory.exists()) {
+			if (JarPackagerUtil.askToCreateDirectory(parent, directory))
+				return directory.mkdirs();
+			else
+				return false;
+		}
+		return true;
+	}
+
+	private void registerInWorkspaceIfNeeded() {
+		IPath jarPath= fJarPackage.getAbsoluteJarLocation();
+		IProject[] projects= ResourcesPlugin.getWorkspace().getRoot().getProjects();
+		for (int i= 0; i < projects.length; i++) {
+			IProject project= projects[i];
+			// The Jar is always put into the local file system. So it can only be
+			// part of a project if the project is local as well. So using getLocation
+			// is currently save here.
+			IPath projectLocation= project.getLocation();
+			if (projectLocation != null && projectLocation.isPrefixOf(jarPath)) {
+				try {
+					jarPath= jarPath.removeFirstSegments(projectLocation.segmentCount());
+					jarPath= jarPath.removeLastSegments(1);
+					IResource containingFolder= project.findMember(jarPath);
+					if (containingFolder != null && containingFolder.isAccessible())
+						containingFolder.refreshLocal(IResource.DEPTH_ONE, null);
+				} catch (CoreException ex) {
+					// don't refresh the folder but log the problem
+					JavaPlugin.log(ex);
+				}
+			}
+		}
+	}
+
+	private static byte[] readFully(InputStream content, long sizeHint) throws IOException {
+		byte[] buffer= new byte[sizeHint >= 0 ? (int) sizeHint : STREAM_BUFFER_SIZE];
+		int length= 0;
+		while (true) {
+			if (length == buffer.length) {
+				int next= content.read();
+				if (next == -1)
+					return buffer;
+				byte[] grown= new byte[Math.max(buffer.length * 2, STREAM_BUFFER_SIZE)];
+				System.arraycopy(buffer, 0, grown, 0, length);
+				buffer= grown;
+				buffer[length++]= (byte) next;
+			}
+			int count= content.read(buffer, length, buffer.length - length);
+			if (count == -1)
+				break;
+			length+= count;
+		}
+		if (length == buffer.length)
+			return buffer;
+		byte[] result= new byte[length];
+		System.arraycopy(buffer, 0, result, 0, length);
+		return result;
 	}
 }
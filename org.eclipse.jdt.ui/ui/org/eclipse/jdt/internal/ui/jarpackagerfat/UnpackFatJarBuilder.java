@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2007, 2011 IBM Corporation and others.
+ * Copyright (c) 2007, 2014 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -69,16 +69,25 @@ public class UnpackFatJarBuilder extends FatJarBuilder {
 	 * {@inheritDoc}
 	 */
 	public void writeArchive(ZipFile jarFile, IProgressMonitor progressMonitor) {
-		Enumeration<? extends ZipEntry> jarEntriesEnum= jarFile.entries();
-		while (jarEntriesEnum.hasMoreElements()) {
-			ZipEntry jarEntry= jarEntriesEnum.nextElement();
-			if (!jarEntry.isDirectory()) {
-				String entryName= jarEntry.getName();
-				addFile(entryName, jarEntry, jarFile);
+		try {
+			Enumeration<? extends ZipEntry> jarEntriesEnum= jarFile.entries();
+			while (jarEntriesEnum.hasMoreElements()) {
+				ZipEntry jarEntry= jarEntriesEnum.nextElement();
+				if (!jarEntry.isDirectory()) {
+					String entryName= jarEntry.getName();
+					addFile(entryName, jarEntry, jarFile);
+				}
+				progressMonitor.worked(1);
+				if (progressMonitor.isCanceled())
+					throw new OperationCanceledException();
+			}
+		} finally {
+			// the entries are read by worker jobs, they must be written before the archive is closed
+			try {
+				getJarWriter().flush();
+			} catch (IOException ex) {
+				addWarning(Messages.format(FatJarPackagerMessages.FatJarBuilder_error_readingArchiveFile, new Object[] { BasicElementLabels.getResourceName(jarFile.getName()), ex.getLocalizedMessage() }), ex);
 			}
-			progressMonitor.worked(1);
-			if (progressMonitor.isCanceled())
-				throw new OperationCanceledException();
 		}
 	}
 
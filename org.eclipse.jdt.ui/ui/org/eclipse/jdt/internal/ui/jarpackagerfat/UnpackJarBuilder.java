@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2008, 2013 IBM Corporation and others.
+ * Copyright (c) 2008, 2014 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -17,8 +17,7 @@ import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -179,17 +178,17 @@ public class UnpackJarBuilder extends FatJarBuilder {
 	}
 
 	private void copyFile(File src, File dest) {
-		InputStream in= null;
-		OutputStream out= null;
+		FileInputStream in= null;
+		FileOutputStream out= null;
 		try {
 			in= new FileInputStream(src);
 			out= new FileOutputStream(dest);
-			byte[] buf= new byte[4096];
-			int cnt= in.read(buf);
-			while (cnt > 0) {
-				out.write(buf, 0, cnt);
-				cnt= in.read(buf);
-			}
+			FileChannel source= in.getChannel();
+			FileChannel target= out.getChannel();
+			long size= source.size();
+			long position= 0;
+			while (position < size)
+				position+= source.transferTo(position, size - position, target);
 		} catch (RuntimeException e) {
 			throw new RuntimeException(e);
 		} catch (FileNotFoundException e) {
@@ -0,0 +1,194 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.jdt.internal.ui.jarpackagerfat;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+
+/**
+ * The central directory of a ZIP archive in the local file system, giving access to the
+ * compressed content of its entries. This allows to copy entries to another archive without
+ * inflating and deflating them.
+ *
+ * @since 3.10
+ */
+class ZipArchiveIndex {
+
+	private static final int LOCAL_HEADER_SIGNATURE= 0x04034b50;
+	private static final int LOCAL_HEADER_SIZE= 30;
+	private static final int CENTRAL_HEADER_SIGNATURE= 0x02014b50;
+	private static final int CENTRAL_HEADER_SIZE= 46;
+	private static final int END_HEADER_SIGNATURE= 0x06054b50;
+	private static final int END_HEADER_SIZE= 22;
+	private static final int MAX_COMMENT_SIZE= 0xFFFF;
+
+	/**
+	 * An entry of the archive.
+	 */
+	static class RawEntry {
+		final int method;
+		final long crc;
+		final long compressedSize;
+		final long size;
+		private final long fLocalHeaderOffset;
+
+		RawEntry(int method, long crc, long compressedSize, long size, long localHeaderOffset) {
+			this.method= method;
+			this.crc= crc;
+			this.compressedSize= compressedSize;
+			this.size= size;
+			fLocalHeaderOffset= localHeaderOffset;
+		}
+	}
+
+	private final FileInputStream fInput;
+	private final FileChannel fChannel;
+	private final Map<String, RawEntry> fEntries= new HashMap<String, RawEntry>();
+
+	private ZipArchiveIndex(FileInputStream input) {
+		fInput= input;
+		fChannel= input.getChannel();
+	}
+
+	/**
+	 * Reads the central directory of the given archive.
+	 *
+	 * @param file the archive
+	 * @return the index, or <code>null</code> if the archive is not supported, e.g. because it
+	 *         uses ZIP64 or encryption
+	 */
+	public static ZipArchiveIndex open(File file) {
+		ZipArchiveIndex index= null;
+		try {
+			index= new ZipArchiveIndex(new FileInputStream(file));
+			if (index.readDirectory())
+				return index;
+		} catch (IOException e) {
+			// fall through, the entries are read through java.util.zip
+		}
+		if (index != null)
+			index.close();
+		return null;
+	}
+
+	/**
+	 * Returns the entry with the given name.
+	 *
+	 * @param name the name of the entry
+	 * @return the entry, or <code>null</code> if it does not exist
+	 */
+	public RawEntry getEntry(String name) {
+		return fEntries.get(name);
+	}
+
+	public FileChannel getChannel() {
+		return fChannel;
+	}
+
+	/**
+	 * Returns the position of the compressed content of the given entry.
+	 *
+	 * @param entry the entry
+	 * @return the position in the {@link #getChannel() channel}
+	 * @throws IOException if the local header is invalid
+	 */
+	public long getDataPosition(RawEntry entry) throws IOException {
+		ByteBuffer header= read(entry.fLocalHeaderOffset, LOCAL_HEADER_SIZE);
+		if (header.getInt(0) != LOCAL_HEADER_SIGNATURE)
+			throw new IOException("Invalid local header"); //$NON-NLS-1$
+		return entry.fLocalHeaderOffset + LOCAL_HEADER_SIZE + (header.getShort(26) & 0xFFFF) + (header.getShort(28) & 0xFFFF);
+	}
+
+	public void close() {
+		try {
+			fInput.close();
+		} catch (IOException e) {
+			// ignore
+		}
+	}
+
+	private boolean readDirectory() throws IOException {
+		long length= fChannel.size();
+		if (length < END_HEADER_SIZE)
+			return false;
+
+		// find the end of central directory record, it is followed by a comment of up to 64K
+		int tailLength= (int) Math.min(length, END_HEADER_SIZE + MAX_COMMENT_SIZE);
+		ByteBuffer tail= read(length - tailLength, tailLength);
+		int end= -1;
+		for (int i= tailLength - END_HEADER_SIZE; i >= 0; i--) {
+			if (tail.getInt(i) == END_HEADER_SIGNATURE) {
+				end= i;
+				break;
+			}
+		}
+		if (end == -1)
+			return false;
+
+		int count= tail.getShort(end + 10) & 0xFFFF;
+		long directorySize= tail.getInt(end + 12) & 0xFFFFFFFFL;
+		long directoryOffset= tail.getInt(end + 16) & 0xFFFFFFFFL;
+		if (count == 0xFFFF || directoryOffset == 0xFFFFFFFFL || directoryOffset + directorySize > length)
+			return false; // ZIP64
+
+		ByteBuffer directory= read(directoryOffset, (int) directorySize);
+		int position= 0;
+		for (int i= 0; i < count; i++) {
+			if (position + CENTRAL_HEADER_SIZE > directory.limit() || directory.getInt(position) != CENTRAL_HEADER_SIGNATURE)
+				return false;
+			int flags= directory.getShort(position + 8) & 0xFFFF;
+			int method= directory.getShort(position + 10) & 0xFFFF;
+			long crc= directory.getInt(position + 16) & 0xFFFFFFFFL;
+			long compressedSize= directory.getInt(position + 20) & 0xFFFFFFFFL;
+			long size= directory.getInt(position + 24) & 0xFFFFFFFFL;
+			int nameLength= directory.getShort(position + 28) & 0xFFFF;
+			int extraLength= directory.getShort(position + 30) & 0xFFFF;
+			int commentLength= directory.getShort(position + 32) & 0xFFFF;
+			long localHeaderOffset= directory.getInt(position + 42) & 0xFFFFFFFFL;
+			if ((flags & 1) != 0 || compressedSize == 0xFFFFFFFFL || size == 0xFFFFFFFFL || localHeaderOffset >= length)
+				return false; // encrypted or ZIP64
+			if (position + CENTRAL_HEADER_SIZE + nameLength > directory.limit())
+				return false;
+			if (method == ZipEntry.STORED || method == ZipEntry.DEFLATED) {
+				byte[] name= new byte[nameLength];
+				directory.position(position + CENTRAL_HEADER_SIZE);
+				directory.get(name);
+				fEntries.put(getString(name), new RawEntry(method, crc, compressedSize, size, localHeaderOffset));
+			}
+			position+= CENTRAL_HEADER_SIZE + nameLength + extraLength + commentLength;
+		}
+		return true;
+	}
+
+	private ByteBuffer read(long position, int length) throws IOException {
+		ByteBuffer buffer= ByteBuffer.allocate(length);
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+		while (buffer.hasRemaining()) {
+			if (fChannel.read(buffer, position + buffer.position()) < 0)
+				throw new IOException("Unexpected end of archive"); //$NON-NLS-1$
+		}
+		buffer.clear();
+		return buffer;
+	}
+
+	private static String getString(byte[] bytes) throws UnsupportedEncodingException {
+		// java.util.zip uses UTF-8 also for names without the language encoding flag
+		return new String(bytes, "UTF-8"); //$NON-NLS-1$
+	}
+}
@@ -0,0 +1,501 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.jdt.internal.ui.jarpackagerfat;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+/**
+ * Writes a ZIP archive through a file channel and a large direct buffer.
+ * <p>
+ * In contrast to {@link java.util.zip.ZipOutputStream}, entries are written with content that has
+ * already been compressed, either by the caller or by the archive it is copied from. Sizes and CRC
+ * of an entry are always known when its local header is written, or patched into the header when
+ * the entry has been streamed. No data descriptors are written.
+ * </p>
+ * <p>
+ * Archives with more than 65535 entries get a ZIP64 end of central directory record. Entries and
+ * archives of 4 GB or more are not supported.
+ * </p>
+ *
+ * @since 3.10
+ */
+class ZipChannelWriter {
+
+	private static final int LOCAL_HEADER_SIGNATURE= 0x04034b50;
+	private static final int LOCAL_HEADER_SIZE= 30;
+	private static final int CENTRAL_HEADER_SIGNATURE= 0x02014b50;
+	private static final int CENTRAL_HEADER_SIZE= 46;
+	private static final int END_HEADER_SIGNATURE= 0x06054b50;
+	private static final int ZIP64_END_HEADER_SIGNATURE= 0x06064b50;
+	private static final int ZIP64_LOCATOR_SIGNATURE= 0x07064b50;
+	private static final int VERSION_STORED= 10;
+	private static final int VERSION_DEFLATED= 20;
+	private static final int VERSION_ZIP64= 45;
+	private static final int FLAG_UTF8= 0x0800;
+	private static final long MAX_SIZE= 0xFFFFFFFFL;
+	private static final int MAX_COUNT= 0xFFFF;
+
+	/**
+	 * The extra field marking the first entry of a JAR, as written by
+	 * {@link java.util.jar.JarOutputStream}.
+	 */
+	private static final byte[] JAR_MAGIC= new byte[] { (byte) 0xFE, (byte) 0xCA, 0, 0 };
+	private static final byte[] NO_EXTRA= new byte[0];
+
+	private static final int BUFFER_SIZE= 1024 * 1024;
+
+	/**
+	 * Entries up to this size are copied through the buffer, larger ones are transferred from
+	 * channel to channel.
+	 */
+	private static final int SMALL_TRANSFER_SIZE= 64 * 1024;
+
+	private static class CentralEntry {
+		final byte[] name;
+		final byte[] extra;
+		final int method;
+		final int dosTime;
+		final long offset;
+		long crc;
+		long compressedSize;
+		long size;
+
+		CentralEntry(byte[] name, byte[] extra, int method, int dosTime, long offset) {
+			this.name= name;
+			this.extra= extra;
+			this.method= method;
+			this.dosTime= dosTime;
+			this.offset= offset;
+		}
+	}
+
+	private final RandomAccessFile fFile;
+	private final FileChannel fChannel;
+	private final ByteBuffer fBuffer;
+	private final List<CentralEntry> fEntries= new ArrayList<CentralEntry>();
+	private final Set<String> fNames= new HashSet<String>();
+	private final Calendar fCalendar= new GregorianCalendar();
+
+	/** The number of bytes written, including the ones still in the buffer */
+	private long fPosition;
+	/** The entry whose content is being streamed, or <code>null</code> */
+	private CentralEntry fOpenEntry;
+	private byte[] fComment;
+
+	/**
+	 * Creates the archive, overwriting an existing file.
+	 *
+	 * @param file the archive file
+	 * @throws IOException if the file cannot be created
+	 */
+	public ZipChannelWriter(File file) throws IOException {
+		fFile= new RandomAccessFile(file, "rw"); //$NON-NLS-1$
+		try {
+			fFile.setLength(0);
+		} catch (IOException e) {
+			fFile.close();
+			throw e;
+		}
+		fChannel= fFile.getChannel();
+		fBuffer= ByteBuffer.allocateDirect(BUFFER_SIZE);
+		fBuffer.order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	/**
+	 * Reserves the name of an entry. Entries must be reserved before they are written, which
+	 * allows to report duplicates before the content of an entry is computed.
+	 *
+	 * @param name the entry name
+	 * @throws ZipException if an entry with this name has already been reserved, with the same
+	 *             message as thrown by {@link java.util.zip.ZipOutputStream}
+	 */
+	public void reserve(String name) throws ZipException {
+		if (!fNames.add(name))
+			throw new ZipException("duplicate entry: " + name); //$NON-NLS-1$
+	}
+
+	/**
+	 * Releases the name of an entry that has been reserved but will not be written.
+	 *
+	 * @param name the entry name
+	 */
+	public void unreserve(String name) {
+		fNames.remove(name);
+	}
+
+	public void setComment(String comment) throws IOException {
+		fComment= getBytes(comment);
+		if (fComment.length > MAX_COUNT)
+			throw new ZipException("ZIP file comment too long"); //$NON-NLS-1$
+	}
+
+	/**
+	 * Writes an entry whose content is available in memory.
+	 *
+	 * @param name the reserved entry name
+	 * @param method {@link ZipEntry#STORED} or {@link ZipEntry#DEFLATED}
+	 * @param time the modification time
+	 * @param crc the CRC-32 of the uncompressed content
+	 * @param size the size of the uncompressed content
+	 * @param data the content, compressed with the given method
+	 * @param length the length of the content in <code>data</code>
+	 * @throws IOException if the entry cannot be written
+	 */
+	public void writeEntry(String name, int method, long time, long crc, long size, byte[] data, int length) throws IOException {
+		CentralEntry entry= beginEntry(name, method, time, crc, length, size);
+		try {
+			write(data, 0, length);
+		} catch (IOException e) {
+			rollback(entry);
+			throw e;
+		}
+		fEntries.add(entry);
+	}
+
+	/**
+	 * Writes an entry whose content is copied unchanged from the given channel.
+	 *
+	 * @param name the reserved entry name
+	 * @param method the compression method of the content
+	 * @param time the modification time
+	 * @param crc the CRC-32 of the uncompressed content
+	 * @param compressedSize the length of the content in the source channel
+	 * @param size the size of the uncompressed content
+	 * @param source the channel to copy from
+	 * @param position the position of the content in the source channel
+	 * @throws IOException if the entry cannot be written
+	 */
+	public void transferEntry(String name, int method, long time, long crc, long compressedSize, long size, FileChannel source, long position) throws IOException {
+		CentralEntry entry= beginEntry(name, method, time, crc, compressedSize, size);
+		try {
+			transfer(name, source, position, compressedSize);
+		} catch (IOException e) {
+			rollback(entry);
+			throw e;
+		}
+		fEntries.add(entry);
+	}
+
+	private void transfer(String name, FileChannel source, long position, long compressedSize) throws IOException {
+		if (compressedSize <= SMALL_TRANSFER_SIZE) {
+			// read small entries into the buffer to keep writes large
+			ensureCapacity((int) compressedSize);
+			int limit= fBuffer.limit();
+			fBuffer.limit(fBuffer.position() + (int) compressedSize);
+			try {
+				while (fBuffer.hasRemaining()) {
+					if (source.read(fBuffer, position + compressedSize - fBuffer.remaining()) <= 0)
+						throw new ZipException("Unexpected end of archive: " + name); //$NON-NLS-1$
+				}
+			} finally {
+				fBuffer.limit(limit);
+			}
+		} else {
+			flushBuffer();
+			long transferred= 0;
+			while (transferred < compressedSize) {
+				long count= source.transferTo(position + transferred, compressedSize - transferred, fChannel);
+				if (count <= 0)
+					throw new ZipException("Unexpected end of archive: " + name); //$NON-NLS-1$
+				transferred+= count;
+			}
+		}
+		fPosition+= compressedSize;
+	}
+
+	/**
+	 * Starts an entry whose content is streamed with {@link #write(byte[], int, int)} and whose
+	 * size and CRC are only known after the content has been written.
+	 *
+	 * @param name the reserved entry name
+	 * @param method the compression method of the content
+	 * @param time the modification time
+	 * @throws IOException if the header cannot be written
+	 * @see #closeEntry(long, long, long)
+	 */
+	public void openEntry(String name, int method, long time) throws IOException {
+		fOpenEntry= beginEntry(name, method, time, 0, 0, 0);
+	}
+
+	/**
+	 * Completes the entry started with {@link #openEntry(String, int, long)}.
+	 *
+	 * @param crc the CRC-32 of the uncompressed content
+	 * @param compressedSize the number of bytes written
+	 * @param size the size of the uncompressed content
+	 * @throws IOException if the header cannot be updated
+	 */
+	public void closeEntry(long crc, long compressedSize, long size) throws IOException {
+		CentralEntry entry= fOpenEntry;
+		fOpenEntry= null;
+		try {
+			checkSize(entry, compressedSize, size);
+		} catch (ZipException e) {
+			rollback(entry);
+			throw e;
+		}
+		entry.crc= crc;
+		entry.compressedSize= compressedSize;
+		entry.size= size;
+
+		flushBuffer();
+		ByteBuffer patch= ByteBuffer.allocate(12);
+		patch.order(ByteOrder.LITTLE_ENDIAN);
+		patch.putInt((int) crc);
+		patch.putInt((int) compressedSize);
+		patch.putInt((int) size);
+		patch.flip();
+		long position= entry.offset + 14;
+		while (patch.hasRemaining())
+			position+= fChannel.write(patch, position);
+		fEntries.add(entry);
+	}
+
+	/**
+	 * Removes the entry started with {@link #openEntry(String, int, long)} from the archive, e.g.
+	 * because its content could not be read.
+	 *
+	 * @throws IOException if the archive cannot be truncated
+	 */
+	public void abortEntry() throws IOException {
+		CentralEntry entry= fOpenEntry;
+		fOpenEntry= null;
+		if (entry != null)
+			rollback(entry);
+	}
+
+	/**
+	 * Writes content of the current entry.
+	 *
+	 * @param data the data
+	 * @param offset the offset of the data
+	 * @param length the length of the data
+	 * @throws IOException if the data cannot be written
+	 */
+	public void write(byte[] data, int offset, int length) throws IOException {
+		while (length > 0) {
+			if (!fBuffer.hasRemaining())
+				flushBuffer();
+			int count= Math.min(length, fBuffer.remaining());
+			fBuffer.put(data, offset, count);
+			offset+= count;
+			length-= count;
+			fPosition+= count;
+		}
+	}
+
+	/**
+	 * Writes the central directory and closes the file.
+	 *
+	 * @throws IOException if the archive cannot be completed
+	 */
+	public void close() throws IOException {
+		try {
+			long directoryOffset= fPosition;
+			for (int i= 0, size= fEntries.size(); i < size; i++) {
+				CentralEntry entry= fEntries.get(i);
+				ensureCapacity(CENTRAL_HEADER_SIZE + entry.name.length + entry.extra.length);
+				fBuffer.putInt(CENTRAL_HEADER_SIGNATURE);
+				fBuffer.putShort((short) getVersion(entry.method));
+				fBuffer.putShort((short) getVersion(entry.method));
+				fBuffer.putShort((short) FLAG_UTF8);
+				fBuffer.putShort((short) entry.method);
+				fBuffer.putInt(entry.dosTime);
+				fBuffer.putInt((int) entry.crc);
+				fBuffer.putInt((int) entry.compressedSize);
+				fBuffer.putInt((int) entry.size);
+				fBuffer.putShort((short) entry.name.length);
+				fBuffer.putShort((short) entry.extra.length);
+				fBuffer.putShort((short) 0); // comment length
+				fBuffer.putShort((short) 0); // disk number
+				fBuffer.putShort((short) 0); // internal attributes
+				fBuffer.putInt(0); // external attributes
+				fBuffer.putInt((int) entry.offset);
+				fBuffer.put(entry.name);
+				fBuffer.put(entry.extra);
+				fPosition+= CENTRAL_HEADER_SIZE + entry.name.length + entry.extra.length;
+			}
+			long directorySize= fPosition - directoryOffset;
+			if (directoryOffset >= MAX_SIZE || directorySize >= MAX_SIZE)
+				throw new ZipException("Archive too large"); //$NON-NLS-1$
+
+			int count= fEntries.size();
+			if (count >= MAX_COUNT)
+				writeZip64End(count, directoryOffset, directorySize);
+
+			byte[] comment= fComment != null ? fComment : NO_EXTRA;
+			ensureCapacity(22 + comment.length);
+			fBuffer.putInt(END_HEADER_SIGNATURE);
+			fBuffer.putShort((short) 0); // number of this disk
+			fBuffer.putShort((short) 0); // disk with the central directory
+			fBuffer.putShort((short) Math.min(count, MAX_COUNT));
+			fBuffer.putShort((short) Math.min(count, MAX_COUNT));
+			fBuffer.putInt((int) directorySize);
+			fBuffer.putInt((int) directoryOffset);
+			fBuffer.putShort((short) comment.length);
+			fBuffer.put(comment);
+			flushBuffer();
+		} finally {
+			fFile.close();
+		}
+	}
+
+	/**
+	 * Closes the file without completing the archive.
+	 */
+	public void abort() {
+		try {
+			fFile.close();
+		} catch (IOException e) {
+			// ignore, the archive is broken anyway
+		}
+	}
+
+	private void writeZip64End(int count, long directoryOffset, long directorySize) throws IOException {
+		long endOffset= fPosition;
+		ensureCapacity(56 + 20);
+		fBuffer.putInt(ZIP64_END_HEADER_SIGNATURE);
+		fBuffer.putLong(44); // size of the remaining record
+		fBuffer.putShort((short) VERSION_ZIP64);
+		fBuffer.putShort((short) VERSION_ZIP64);
+		fBuffer.putInt(0); // number of this disk
+		fBuffer.putInt(0); // disk with the central directory
+		fBuffer.putLong(count);
+		fBuffer.putLong(count);
+		fBuffer.putLong(directorySize);
+		fBuffer.putLong(directoryOffset);
+
+		fBuffer.putInt(ZIP64_LOCATOR_SIGNATURE);
+		fBuffer.putInt(0); // disk with the ZIP64 end record
+		fBuffer.putLong(endOffset);
+		fBuffer.putInt(1); // total number of disks
+		fPosition+= 56 + 20;
+	}
+
+	private CentralEntry beginEntry(String name, int method, long time, long crc, long compressedSize, long size) throws IOException {
+		if (!fNames.contains(name))
+			throw new IllegalStateException("Entry not reserved: " + name); //$NON-NLS-1$
+		if (method != ZipEntry.STORED && method != ZipEntry.DEFLATED)
+			throw new ZipException("Invalid compression method: " + name); //$NON-NLS-1$
+		if (fPosition >= MAX_SIZE)
+			throw new ZipException("Archive too large"); //$NON-NLS-1$
+
+		byte[] nameBytes= getBytes(name);
+		byte[] extra= fPosition == 0 ? JAR_MAGIC : NO_EXTRA;
+		CentralEntry entry= new CentralEntry(nameBytes, extra, method, toDosTime(time), fPosition);
+		checkSize(entry, compressedSize, size);
+		entry.crc= crc;
+		entry.compressedSize= compressedSize;
+		entry.size= size;
+
+		ensureCapacity(LOCAL_HEADER_SIZE + nameBytes.length + extra.length);
+		fBuffer.putInt(LOCAL_HEADER_SIGNATURE);
+		fBuffer.putShort((short) getVersion(method));
+		fBuffer.putShort((short) FLAG_UTF8);
+		fBuffer.putShort((short) method);
+		fBuffer.putInt(entry.dosTime);
+		fBuffer.putInt((int) crc);
+		fBuffer.putInt((int) compressedSize);
+		fBuffer.putInt((int) size);
+		fBuffer.putShort((short) nameBytes.length);
+		fBuffer.putShort((short) extra.length);
+		fBuffer.put(nameBytes);
+		fBuffer.put(extra);
+		fPosition+= LOCAL_HEADER_SIZE + nameBytes.length + extra.length;
+		return entry;
+	}
+
+	private static void checkSize(CentralEntry entry, long compressedSize, long size) throws ZipException {
+		if (compressedSize >= MAX_SIZE || size >= MAX_SIZE)
+			throw new ZipException("Entry too large: " + getString(entry.name)); //$NON-NLS-1$
+		if (entry.method == ZipEntry.STORED && compressedSize != size)
+			throw new ZipException("Invalid size of stored entry: " + getString(entry.name)); //$NON-NLS-1$
+	}
+
+	private static int getVersion(int method) {
+		return method == ZipEntry.DEFLATED ? VERSION_DEFLATED : VERSION_STORED;
+	}
+
+	private void ensureCapacity(int length) throws IOException {
+		if (fBuffer.remaining() < length)
+			flushBuffer();
+	}
+
+	/**
+	 * Removes the given, incompletely written entry from the end of the archive. Its name can be
+	 * reserved again.
+	 *
+	 * @param entry the entry
+	 * @throws IOException if the archive cannot be truncated
+	 */
+	private void rollback(CentralEntry entry) throws IOException {
+		unreserve(getString(entry.name));
+		long flushed= fPosition - fBuffer.position();
+		if (entry.offset >= flushed) {
+			fBuffer.position((int) (entry.offset - flushed));
+		} else {
+			fBuffer.clear();
+			fChannel.truncate(entry.offset);
+			fChannel.position(entry.offset);
+		}
+		fPosition= entry.offset;
+	}
+
+	private void flushBuffer() throws IOException {
+		fBuffer.flip();
+		while (fBuffer.hasRemaining())
+			fChannel.write(fBuffer);
+		fBuffer.clear();
+	}
+
+	private int toDosTime(long time) {
+		fCalendar.setTimeInMillis(time);
+		int year= fCalendar.get(Calendar.YEAR);
+		if (year < 1980)
+			return (1 << 21) | (1 << 16);
+		return (year - 1980) << 25
+				| (fCalendar.get(Calendar.MONTH) + 1) << 21
+				| fCalendar.get(Calendar.DAY_OF_MONTH) << 16
+				| fCalendar.get(Calendar.HOUR_OF_DAY) << 11
+				| fCalendar.get(Calendar.MINUTE) << 5
+				| fCalendar.get(Calendar.SECOND) >> 1;
+	}
+
+	private static byte[] getBytes(String string) {
+		try {
+			return string.getBytes("UTF-8"); //$NON-NLS-1$
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e.getMessage());
+		}
+	}
+
+	private static String getString(byte[] bytes) {
+		try {
+			return new String(bytes, "UTF-8"); //$NON-NLS-1$
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e.getMessage());
+		}
+	}
+}
@@ -0,0 +1,298 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.jdt.internal.ui.javaeditor;
+
+import java.lang.ref.SoftReference;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.eclipse.core.resources.IResource;
+
+import org.eclipse.jface.text.IDocument;
+import org.eclipse.jface.text.IDocumentExtension4;
+
+import org.eclipse.jdt.core.ElementChangedEvent;
+import org.eclipse.jdt.core.IBuffer;
+import org.eclipse.jdt.core.IElementChangedListener;
+import org.eclipse.jdt.core.IJavaElement;
+import org.eclipse.jdt.core.IJavaElementDelta;
+import org.eclipse.jdt.core.IMember;
+import org.eclipse.jdt.core.ITypeRoot;
+import org.eclipse.jdt.core.JavaCore;
+import org.eclipse.jdt.core.JavaModelException;
+import org.eclipse.jdt.core.dom.CompilationUnit;
+
+
+/**
+ * Keeps the shared ASTs of recently active Java editors, so that switching
+ * back to an editor or asking for the AST of a visible, but inactive editor
+ * does not create the AST again.
+ * <p>
+ * An AST is returned as long as the contents of its Java element have not
+ * been modified since it was created. Since the bindings of an AST depend on
+ * other elements, the ASTs of all other elements are evicted when a Java
+ * element delta reports a structural change, for example of a member
+ * signature, of the classpath, or a compilation unit that has been added or
+ * removed. The ASTs are softly referenced, and the least recently used ones
+ * are evicted when there are too many of them, or when their sources get too
+ * large.
+ * </p>
+ * <p>
+ * This class is thread safe.
+ * </p>
+ *
+ * @since 3.10
+ */
+public final class ASTCache {
+
+	/**
+	 * The maximal number of cached ASTs.
+	 */
+	public static final int MAX_ENTRIES= 4;
+
+	/**
+	 * The maximal total source length of the cached ASTs, in characters.
+	 */
+	public static final int MAX_WEIGHT= 2 * 1024 * 1024;
+
+	/**
+	 * The delta flags of a change that can affect the bindings of other
+	 * compilation units.
+	 */
+	private static final int DEPENDENCY_CHANGE_FLAGS= IJavaElementDelta.F_MODIFIERS | IJavaElementDelta.F_SUPER_TYPES
+			| IJavaElementDelta.F_ANNOTATIONS | IJavaElementDelta.F_ADDED_TO_CLASSPATH | IJavaElementDelta.F_REMOVED_FROM_CLASSPATH
+			| IJavaElementDelta.F_CLASSPATH_CHANGED | IJavaElementDelta.F_RESOLVED_CLASSPATH_CHANGED | IJavaElementDelta.F_ARCHIVE_CONTENT_CHANGED
+			| IJavaElementDelta.F_OPENED | IJavaElementDelta.F_CLOSED;
+
+	private static final class Entry {
+
+		private final SoftReference<CompilationUnit> fAST;
+		private final long fStamp;
+		private final int fWeight;
+
+		Entry(CompilationUnit ast, long stamp) {
+			fAST= new SoftReference<CompilationUnit>(ast);
+			fStamp= stamp;
+			fWeight= ast.getLength();
+		}
+	}
+
+
+	/** The cache entries, least recently used first */
+	private final LinkedHashMap<ITypeRoot, Entry> fEntries= new LinkedHashMap<ITypeRoot, Entry>(16, 0.75f, true);
+	private int fWeight;
+	private final IElementChangedListener fElementChangedListener= new IElementChangedListener() {
+		public void elementChanged(ElementChangedEvent event) {
+			synchronized (ASTCache.this) {
+				if (fEntries.isEmpty())
+					return;
+			}
+			Set<ITypeRoot> changedElements= new HashSet<ITypeRoot>();
+			if (!collectDependencyChanges(event.getDelta(), changedElements))
+				evictAllBut(null);
+			else if (changedElements.size() == 1)
+				evictAllBut(changedElements.iterator().next());
+			else if (!changedElements.isEmpty())
+				evictAllBut(null);
+		}
+	};
+
+
+	/**
+	 * Starts listening for changes that invalidate the cached ASTs.
+	 */
+	void install() {
+		JavaCore.addElementChangedListener(fElementChangedListener, ElementChangedEvent.POST_CHANGE | ElementChangedEvent.POST_RECONCILE);
+	}
+
+	/**
+	 * Stops listening for changes and removes all ASTs from the cache.
+	 */
+	void dispose() {
+		JavaCore.removeElementChangedListener(fElementChangedListener);
+		clear();
+	}
+
+	/**
+	 * Collects the type roots with changes that can affect the bindings of
+	 * other compilation units. Body changes are not reported by fine grained
+	 * deltas, whereas the content flag of a member denotes a change of its
+	 * type, return type, parameters or exceptions.
+	 *
+	 * @param delta the Java element delta
+	 * @param changedElements the set to which the changed type roots are added
+	 * @return <code>false</code> if the delta contains a change that is not
+	 *         local to a type root, for example of the classpath or an added
+	 *         or removed compilation unit
+	 */
+	private static boolean collectDependencyChanges(IJavaElementDelta delta, Set<ITypeRoot> changedElements) {
+		IJavaElement element= delta.getElement();
+		int flags= delta.getFlags();
+		boolean isMember= element instanceof IMember;
+		boolean isTypeRoot= element instanceof ITypeRoot;
+
+		if (delta.getKind() != IJavaElementDelta.CHANGED || (flags & DEPENDENCY_CHANGE_FLAGS) != 0
+				|| (isMember && (flags & IJavaElementDelta.F_CONTENT) != 0)
+				|| (isTypeRoot && (flags & IJavaElementDelta.F_CONTENT) != 0 && (flags & IJavaElementDelta.F_FINE_GRAINED) == 0)) {
+			if (!isMember)
+				return false;
+			changedElements.add(((IMember)element).getTypeRoot());
+			return true;
+		}
+
+		IJavaElementDelta[] children= delta.getAffectedChildren();
+		for (int i= 0; i < children.length; i++) {
+			if (!collectDependencyChanges(children[i], changedElements))
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Removes the ASTs of all Java elements except the given one from the
+	 * cache. The AST of the changed element itself is validated against its
+	 * modification stamp.
+	 *
+	 * @param changedElement the Java element to keep, or <code>null</code>
+	 */
+	private synchronized void evictAllBut(ITypeRoot changedElement) {
+		for (Iterator<Map.Entry<ITypeRoot, Entry>> iter= fEntries.entrySet().iterator(); iter.hasNext();) {
+			Map.Entry<ITypeRoot, Entry> mapEntry= iter.next();
+			if (!mapEntry.getKey().equals(changedElement)) {
+				iter.remove();
+				fWeight-= mapEntry.getValue().fWeight;
+			}
+		}
+	}
+
+
+	/**
+	 * Returns the modification stamp of the contents of the given Java
+	 * element.
+	 *
+	 * @param element the Java element, or <code>null</code>
+	 * @return the modification stamp or
+	 *         {@link IDocumentExtension4#UNKNOWN_MODIFICATION_STAMP} if unknown
+	 */
+	public static long getModificationStamp(ITypeRoot element) {
+		if (element == null || !element.isOpen())
+			return IDocumentExtension4.UNKNOWN_MODIFICATION_STAMP;
+
+		try {
+			IBuffer buffer= element.getBuffer();
+			if (buffer instanceof DocumentAdapter) {
+				IDocument document= ((DocumentAdapter)buffer).getDocument();
+				if (document instanceof IDocumentExtension4)
+					return ((IDocumentExtension4)document).getModificationStamp();
+			}
+		} catch (JavaModelException e) {
+			return IDocumentExtension4.UNKNOWN_MODIFICATION_STAMP;
+		}
+
+		IResource resource= element.getResource();
+		if (resource != null)
+			return resource.getModificationStamp();
+		return IDocumentExtension4.UNKNOWN_MODIFICATION_STAMP;
+	}
+
+	/**
+	 * Returns the cached AST for the given Java element, provided the
+	 * element has not been modified since the AST was cached.
+	 *
+	 * @param element the Java element
+	 * @return the AST or <code>null</code> if none is cached
+	 */
+	public CompilationUnit get(ITypeRoot element) {
+		Entry entry;
+		synchronized (this) {
+			entry= fEntries.get(element);
+		}
+		if (entry == null)
+			return null;
+
+		CompilationUnit ast= entry.fAST.get();
+		if (ast != null && entry.fStamp == getModificationStamp(element))
+			return ast;
+
+		synchronized (this) {
+			if (fEntries.get(element) == entry)
+				remove(element);
+		}
+		return null;
+	}
+
+	/**
+	 * Caches the given AST for the given Java element.
+	 *
+	 * @param element the Java element
+	 * @param ast the AST
+	 * @param stamp the modification stamp of the contents from which the AST
+	 *            has been created
+	 */
+	public synchronized void put(ITypeRoot element, CompilationUnit ast, long stamp) {
+		Entry entry= new Entry(ast, stamp);
+		if (entry.fWeight > MAX_WEIGHT) {
+			remove(element);
+			return;
+		}
+
+		Entry previous= fEntries.put(element, entry);
+		if (previous != null)
+			fWeight-= previous.fWeight;
+		fWeight+= entry.fWeight;
+
+		for (Iterator<Entry> iter= fEntries.values().iterator(); iter.hasNext() && (fEntries.size() > MAX_ENTRIES || fWeight > MAX_WEIGHT);) {
+			Entry eldest= iter.next();
+			iter.remove();
+			fWeight-= eldest.fWeight;
+		}
+	}
+
+	/**
+	 * Removes the AST of the given Java element from the cache.
+	 *
+	 * @param element the Java element, or <code>null</code>
+	 * @return the removed AST or <code>null</code> if none was cached
+	 */
+	public synchronized CompilationUnit remove(ITypeRoot element) {
+		Entry entry= fEntries.remove(element);
+		if (entry == null)
+			return null;
+
+		fWeight-= entry.fWeight;
+		return entry.fAST.get();
+	}
+
+	/**
+	 * Tells whether the given AST is cached.
+	 *
+	 * @param ast the AST
+	 * @return <code>true</code> if the AST is cached
+	 */
+	public synchronized boolean contains(CompilationUnit ast) {
+		for (Iterator<Entry> iter= fEntries.values().iterator(); iter.hasNext();) {
+			if (iter.next().fAST.get() == ast)
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Removes all ASTs from the cache.
+	 */
+	public synchronized void clear() {
+		fEntries.clear();
+		fWeight= 0;
+	}
+}
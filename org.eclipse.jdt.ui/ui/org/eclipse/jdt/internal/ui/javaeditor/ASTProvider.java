@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2000, 2011 IBM Corporation and others.
+ * Copyright (c) 2000, 2014 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -48,6 +48,8 @@ import org.eclipse.jdt.internal.ui.JavaPlugin;
 /**
  * Provides a shared AST for clients. The shared AST is
  * the AST of the active Java editor's input element.
+ * The ASTs of recently active editors are cached as well,
+ * see {@link ASTCache}.
  *
  * @since 3.0
  */
@@ -110,6 +112,8 @@ public final class ASTProvider {
 
 				activeJavaEditorChanged(null);
 			}
+			if (isJavaEditor(ref))
+				javaEditorClosed(ref.getPart(false));
 		}
 
 		/*
@@ -210,8 +214,11 @@ public final class ASTProvider {
 
 
 	private ITypeRoot fReconcilingJavaElement;
+	private long fReconcilingStamp;
 	private ITypeRoot fActiveJavaElement;
 	private CompilationUnit fAST;
+	private long fASTStamp;
+	private final ASTCache fASTCache= new ASTCache();
 	private ActivationListener fActivationListener;
 	private Object fReconcileLock= new Object();
 	private Object fWaitLock= new Object();
@@ -248,6 +255,8 @@ public final class ASTProvider {
 		IWorkbenchWindow[] windows= PlatformUI.getWorkbench().getWorkbenchWindows();
 		for (int i= 0, length= windows.length; i < length; i++)
 			windows[i].getPartService().addPartListener(fActivationListener);
+
+		fASTCache.install();
 	}
 
 	void activeJavaEditorChanged(IWorkbenchPart editor) {
@@ -256,10 +265,23 @@ public final class ASTProvider {
 		if (editor instanceof JavaEditor)
 			javaElement= ((JavaEditor)editor).getInputJavaElement();
 
+		long cachedStamp= ASTCache.getModificationStamp(javaElement);
+		CompilationUnit cachedAST= javaElement != null ? fASTCache.get(javaElement) : null;
+
 		synchronized (this) {
+			if (fAST != null && fActiveJavaElement != null && !fActiveJavaElement.equals(javaElement))
+				fASTCache.put(fActiveJavaElement, fAST, fASTStamp);
+
 			fActiveEditor= editor;
 			fActiveJavaElement= javaElement;
-			cache(null, javaElement);
+			cache(null, javaElement, 0);
+
+			// the AST has been evicted if the element is about to be reconciled
+			if (cachedAST != null && fASTCache.remove(javaElement) == cachedAST) {
+				if (DEBUG)
+					System.out.println(getThreadName() + " - " + DEBUG_PREFIX + "reusing cached AST: " + toString(cachedAST) + " for: " + toString(javaElement)); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+				cache(cachedAST, javaElement, cachedStamp);
+			}
 		}
 
 		if (DEBUG)
@@ -276,15 +298,25 @@ public final class ASTProvider {
 		}
 	}
 
+	/**
+	 * Removes the cached AST of a closed Java editor's input element.
+	 *
+	 * @param editor the closed editor
+	 */
+	void javaEditorClosed(IWorkbenchPart editor) {
+		if (editor instanceof JavaEditor)
+			fASTCache.remove(((JavaEditor)editor).getInputJavaElement());
+	}
+
 	/**
 	 * Returns whether the given compilation unit AST is
 	 * cached by this AST provided.
 	 *
 	 * @param ast the compilation unit AST
-	 * @return <code>true</code> if the given AST is the cached one
+	 * @return <code>true</code> if the given AST is a cached one
 	 */
 	public boolean isCached(CompilationUnit ast) {
-		return ast != null && fAST == ast;
+		return ast != null && (fAST == ast || fASTCache.contains(ast));
 	}
 
 	/**
@@ -313,11 +345,15 @@ public final class ASTProvider {
 		if (DEBUG)
 			System.out.println(getThreadName() + " - " + DEBUG_PREFIX + "about to reconcile: " + toString(javaElement)); //$NON-NLS-1$ //$NON-NLS-2$
 
+		// the contents may change while reconciling, the AST reflects the contents from before
+		long stamp= ASTCache.getModificationStamp(javaElement);
 		synchronized (fReconcileLock) {
 			fReconcilingJavaElement= javaElement;
+			fReconcilingStamp= stamp;
 			fIsReconciling= true;
 		}
-		cache(null, javaElement);
+		fASTCache.remove(javaElement);
+		cache(null, javaElement, 0);
 	}
 
 	/**
@@ -333,7 +369,7 @@ public final class ASTProvider {
 
 		fAST= null;
 
-		cache(null, null);
+		cache(null, null, 0);
 	}
 
 	/**
@@ -372,22 +408,32 @@ public final class ASTProvider {
 	 *
 	 * @param ast the ast
 	 * @param javaElement the java element
+	 * @param stamp the modification stamp of the contents from which the AST has been created
 	 */
-	private synchronized void cache(CompilationUnit ast, ITypeRoot javaElement) {
+	private synchronized void cache(CompilationUnit ast, ITypeRoot javaElement, long stamp) {
 
 		if (fActiveJavaElement != null && !fActiveJavaElement.equals(javaElement)) {
-			if (DEBUG && javaElement != null) // don't report call from disposeAST()
-				System.out.println(getThreadName() + " - " + DEBUG_PREFIX + "don't cache AST for inactive: " + toString(javaElement)); //$NON-NLS-1$ //$NON-NLS-2$
+			if (ast != null) {
+				// reconciled while inactive, keep it for when the editor gets activated
+				if (DEBUG)
+					System.out.println(getThreadName() + " - " + DEBUG_PREFIX + "caching AST: " + toString(ast) + " for inactive: " + toString(javaElement)); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+				fASTCache.put(javaElement, ast, stamp);
+			}
 			return;
 		}
 
 		if (DEBUG && (javaElement != null || ast != null)) // don't report call from disposeAST()
 			System.out.println(getThreadName() + " - " + DEBUG_PREFIX + "caching AST: " + toString(ast) + " for: " + toString(javaElement)); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
 
+		// an AST which is cached again keeps the stamp of its contents
+		if (ast != null && ast == fAST)
+			stamp= fASTStamp;
+
 		if (fAST != null)
 			disposeAST();
 
 		fAST= ast;
+		fASTStamp= ast != null ? stamp : 0;
 
 		// Signal AST change
 		synchronized (fWaitLock) {
@@ -434,6 +480,16 @@ public final class ASTProvider {
 			}
 		}
 
+		if (!isActiveElement) {
+			CompilationUnit cachedAST= fASTCache.get(input);
+			if (cachedAST != null) {
+				if (DEBUG)
+					System.out.println(getThreadName() + " - " + DEBUG_PREFIX + "returning cached AST of inactive element:" + toString(cachedAST) + " for: " + input.getElementName()); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+
+				return cachedAST;
+			}
+		}
+
 		final boolean canReturnNull= waitFlag == SharedASTProvider.WAIT_NO || (waitFlag == SharedASTProvider.WAIT_ACTIVE_ONLY && !(isActiveElement && fAST == null));
 		boolean isReconciling= false;
 		final ITypeRoot activeElement;
@@ -475,6 +531,10 @@ public final class ASTProvider {
 			return null;
 
 
+		// editors and hovers of visible, but inactive editors ask for the same AST again
+		final boolean cacheAST= !isActiveElement && isEditorWorkingCopy(input);
+		final long stamp= cacheAST ? ASTCache.getModificationStamp(input) : 0;
+
 		CompilationUnit ast= null;
 		try {
 			ast= createAST(input, progressMonitor);
@@ -493,11 +553,27 @@ public final class ASTProvider {
 					return fAST;
 				} else
 					reconciled(ast, input, null);
-			}
+			} else if (cacheAST && ast != null)
+				fASTCache.put(input, ast, stamp);
 		}
 		return ast;
 	}
 
+	/**
+	 * Tells whether the given Java element is the primary working copy of a
+	 * compilation unit, which is the case while it is open in an editor.
+	 *
+	 * @param javaElement the Java element
+	 * @return <code>true</code> if the element is a primary working copy
+	 */
+	private static boolean isEditorWorkingCopy(ITypeRoot javaElement) {
+		if (!(javaElement instanceof ICompilationUnit))
+			return false;
+
+		ICompilationUnit cu= (ICompilationUnit)javaElement;
+		return cu.isWorkingCopy() && cu.getOwner() == null;
+	}
+
 	/**
 	 * Tells whether the given Java element is the one
 	 * reported as currently being reconciled.
@@ -587,6 +663,7 @@ public final class ASTProvider {
 		fActivationListener= null;
 
 		disposeAST();
+		fASTCache.dispose();
 
 		synchronized (fWaitLock) {
 			fWaitLock.notifyAll();
@@ -621,7 +698,7 @@ public final class ASTProvider {
 
 				return;
 			}
-			cache(ast, javaElement);
+			cache(ast, javaElement, fReconcilingStamp);
 		}
 	}
 
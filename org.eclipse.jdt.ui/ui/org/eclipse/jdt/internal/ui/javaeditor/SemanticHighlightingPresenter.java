@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2000, 2011 IBM Corporation and others.
+ * Copyright (c) 2000, 2014 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -271,6 +271,25 @@ public class SemanticHighlightingPresenter implements ITextPresentationListener,
 		}
 	}
 
+	/**
+	 * Adds all current positions starting in the given range to the given list.
+	 * <p>
+	 * NOTE: Called from background thread.
+	 * </p>
+	 *
+	 * @param list The list
+	 * @param offset The range offset
+	 * @param length The range length
+	 * @since 3.10
+	 */
+	public void addAllPositions(List<Position> list, int offset, int length) {
+		synchronized (fPositionLock) {
+			int first= computeIndexAtOffset(fPositions, offset);
+			int last= computeIndexAtOffset(fPositions, offset + length);
+			list.addAll(fPositions.subList(first, last));
+		}
+	}
+
 	/**
 	 * Create a text presentation in the background.
 	 * <p>
@@ -386,6 +405,37 @@ public class SemanticHighlightingPresenter implements ITextPresentationListener,
 				List<Position> oldPositions= fPositions;
 				int newSize= Math.max(fPositions.size() + addedPositions.length - removedPositions.length, 10);
 
+				/*
+				 * Only the positions between the first and the last added or removed position
+				 * need to be merged, the others are copied. Deleted positions outside of this
+				 * range are dropped by a later update.
+				 */
+				int first= 0;
+				int last= oldPositions.size();
+				if (addedPositions.length + removedPositions.length > 0) {
+					int minStart= Integer.MAX_VALUE;
+					int maxStart= Integer.MIN_VALUE;
+					if (addedPositions.length > 0) {
+						minStart= addedPositions[0].getOffset();
+						maxStart= addedPositions[addedPositions.length - 1].getOffset();
+					}
+					for (int i= 0; i < removedPositions.length; i++) {
+						int offset= removedPositions[i].getOffset();
+						minStart= Math.min(minStart, offset);
+						maxStart= Math.max(maxStart, offset);
+					}
+					first= computeIndexAtOffset(oldPositions, minStart);
+					last= computeIndexAfterOffset(oldPositions, maxStart);
+					for (int i= 0; i < removedPositions.length; i++) {
+						int index= indexOf(oldPositions, removedPositions[i]);
+						if (index != -1 && (index < first || index >= last)) {
+							first= 0;
+							last= oldPositions.size();
+							break;
+						}
+					}
+				}
+
 				/*
 				 * The following loop is a kind of merge sort: it merges two List<Position>, each
 				 * sorted by position.offset, into one new list. The first of the two is the
@@ -394,9 +444,10 @@ public class SemanticHighlightingPresenter implements ITextPresentationListener,
 				 * is stored in newPositions.
 				 */
 				List<Position> newPositions= new ArrayList<Position>(newSize);
+				newPositions.addAll(oldPositions.subList(0, first));
 				Position position= null;
 				Position addedPosition= null;
-				for (int i= 0, j= 0, n= oldPositions.size(), m= addedPositions.length; i < n || position != null || j < m || addedPosition != null;) {
+				for (int i= first, j= 0, n= last, m= addedPositions.length; i < n || position != null || j < m || addedPosition != null;) {
 					// loop variant: i + j < old(i + j)
 
 					// a) find the next non-deleted Position from the old list
@@ -433,6 +484,7 @@ public class SemanticHighlightingPresenter implements ITextPresentationListener,
 						addedPosition= null;
 					}
 				}
+				newPositions.addAll(oldPositions.subList(last, oldPositions.size()));
 				fPositions= newPositions;
 			}
 		} catch (BadPositionCategoryException e) {
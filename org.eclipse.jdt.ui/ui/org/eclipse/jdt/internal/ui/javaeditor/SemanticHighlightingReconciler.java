@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2000, 2011 IBM Corporation and others.
+ * Copyright (c) 2000, 2014 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -22,7 +22,9 @@ import org.eclipse.core.runtime.IStatus;
 import org.eclipse.core.runtime.Status;
 import org.eclipse.core.runtime.jobs.Job;
 
+import org.eclipse.jface.text.DocumentEvent;
 import org.eclipse.jface.text.IDocument;
+import org.eclipse.jface.text.IDocumentListener;
 import org.eclipse.jface.text.ITextInputListener;
 import org.eclipse.jface.text.Position;
 import org.eclipse.jface.text.TextPresentation;
@@ -32,12 +34,19 @@ import org.eclipse.ui.IWorkbenchPartSite;
 
 import org.eclipse.jdt.core.ITypeRoot;
 import org.eclipse.jdt.core.dom.ASTNode;
+import org.eclipse.jdt.core.dom.AbstractTypeDeclaration;
+import org.eclipse.jdt.core.dom.Block;
+import org.eclipse.jdt.core.dom.BodyDeclaration;
 import org.eclipse.jdt.core.dom.BooleanLiteral;
 import org.eclipse.jdt.core.dom.CharacterLiteral;
 import org.eclipse.jdt.core.dom.CompilationUnit;
 import org.eclipse.jdt.core.dom.ConstructorInvocation;
+import org.eclipse.jdt.core.dom.EnumDeclaration;
 import org.eclipse.jdt.core.dom.Expression;
 import org.eclipse.jdt.core.dom.IMethodBinding;
+import org.eclipse.jdt.core.dom.Initializer;
+import org.eclipse.jdt.core.dom.MethodDeclaration;
+import org.eclipse.jdt.core.dom.NodeFinder;
 import org.eclipse.jdt.core.dom.NumberLiteral;
 import org.eclipse.jdt.core.dom.SimpleName;
 import org.eclipse.jdt.core.dom.SuperConstructorInvocation;
@@ -186,8 +195,7 @@ public class SemanticHighlightingReconciler implements IJavaReconcilingListener,
 		 */
 		private void addPosition(int offset, int length, Highlighting highlighting) {
 			boolean isExisting= false;
-			// TODO: use binary search
-			for (int i= 0, n= fRemovedPositions.size(); i < n; i++) {
+			for (int i= computeIndexAtOffset(offset), n= fRemovedPositions.size(); i < n && fRemovedOffsets[i] == offset; i++) {
 				HighlightedPosition position= (HighlightedPosition) fRemovedPositions.get(i);
 				if (position == null)
 					continue;
@@ -211,8 +219,7 @@ public class SemanticHighlightingReconciler implements IJavaReconcilingListener,
 		 * @param length The range length
 		 */
 		private void retainPositions(int offset, int length) {
-			// TODO: use binary search
-			for (int i= 0, n= fRemovedPositions.size(); i < n; i++) {
+			for (int i= computeIndexAtOffset(offset), n= fRemovedPositions.size(); i < n && fRemovedOffsets[i] <= offset + length; i++) {
 				HighlightedPosition position= (HighlightedPosition) fRemovedPositions.get(i);
 				if (position != null && position.isContained(offset, length)) {
 					fRemovedPositions.set(i, null);
@@ -220,6 +227,143 @@ public class SemanticHighlightingReconciler implements IJavaReconcilingListener,
 				}
 			}
 		}
+
+		/**
+		 * Returns the index of the first removed position with an offset equal or greater than the given offset.
+		 * @param offset The offset
+		 * @return The index
+		 */
+		private int computeIndexAtOffset(int offset) {
+			int i= -1;
+			int j= fRemovedPositions.size();
+			while (j - i > 1) {
+				int k= (i + j) >> 1;
+				if (fRemovedOffsets[k] >= offset)
+					j= k;
+				else
+					i= k;
+			}
+			return j;
+		}
+	}
+
+	/**
+	 * A range of the document that contains all modifications since a point in time.
+	 *
+	 * @since 3.10
+	 */
+	private static class DirtyRegion {
+
+		/** The region offset, <code>-1</code> if the region is empty */
+		private int fOffset= -1;
+		/** The region end offset, exclusive */
+		private int fEnd;
+
+		/**
+		 * @return <code>true</code> iff the document has not been modified
+		 */
+		public boolean isEmpty() {
+			return fOffset == -1;
+		}
+
+		/**
+		 * Adds the modification of the given event to this region.
+		 * @param event The document event
+		 */
+		public void include(DocumentEvent event) {
+			shift(event);
+			String text= event.getText();
+			add(event.getOffset(), event.getOffset() + (text == null ? 0 : text.length()));
+		}
+
+		/**
+		 * Updates this region for the modification of the given event, without adding it.
+		 * @param event The document event
+		 */
+		public void shift(DocumentEvent event) {
+			if (fOffset == -1)
+				return;
+
+			int offset= event.getOffset();
+			int end= offset + event.getLength();
+			String text= event.getText();
+			int delta= (text == null ? 0 : text.length()) - event.getLength();
+			if (fEnd <= offset)
+				return;
+
+			if (fOffset >= end) {
+				fOffset+= delta;
+				fEnd+= delta;
+			} else {
+				fOffset= Math.min(fOffset, offset);
+				fEnd= fEnd >= end ? fEnd + delta : end + delta;
+			}
+		}
+
+		/**
+		 * Adds the given region to this region.
+		 * @param region The region
+		 */
+		public void add(DirtyRegion region) {
+			if (!region.isEmpty())
+				add(region.fOffset, region.fEnd);
+		}
+
+		private void add(int offset, int end) {
+			if (fOffset == -1) {
+				fOffset= offset;
+				fEnd= end;
+			} else {
+				fOffset= Math.min(fOffset, offset);
+				fEnd= Math.max(fEnd, end);
+			}
+		}
+	}
+
+	/**
+	 * Tracks the modifications of the document.
+	 *
+	 * @since 3.10
+	 */
+	private class DirtyRegionTracker implements IDocumentListener, ITextInputListener {
+
+		/*
+		 * @see org.eclipse.jface.text.IDocumentListener#documentAboutToBeChanged(org.eclipse.jface.text.DocumentEvent)
+		 */
+		public void documentAboutToBeChanged(DocumentEvent event) {
+		}
+
+		/*
+		 * @see org.eclipse.jface.text.IDocumentListener#documentChanged(org.eclipse.jface.text.DocumentEvent)
+		 */
+		public void documentChanged(DocumentEvent event) {
+			synchronized (fDirtyRegionLock) {
+				fDirtyRegion.include(event);
+				if (fJobDirtyRegion != null)
+					fJobDirtyRegion.shift(event);
+			}
+		}
+
+		/*
+		 * @see org.eclipse.jface.text.ITextInputListener#inputDocumentAboutToBeChanged(org.eclipse.jface.text.IDocument, org.eclipse.jface.text.IDocument)
+		 */
+		public void inputDocumentAboutToBeChanged(IDocument oldInput, IDocument newInput) {
+			if (oldInput != null)
+				oldInput.removeDocumentListener(this);
+		}
+
+		/*
+		 * @see org.eclipse.jface.text.ITextInputListener#inputDocumentChanged(org.eclipse.jface.text.IDocument, org.eclipse.jface.text.IDocument)
+		 */
+		public void inputDocumentChanged(IDocument oldInput, IDocument newInput) {
+			synchronized (fDirtyRegionLock) {
+				fDirtyRegion= new DirtyRegion();
+				fJobDirtyRegion= null;
+				fOutline= null;
+			}
+			if (newInput != null)
+				newInput.addDocumentListener(this);
+		}
 	}
 
 	/** Position collector */
@@ -242,6 +386,44 @@ public class SemanticHighlightingReconciler implements IJavaReconcilingListener,
 	private List<Position> fRemovedPositions= new ArrayList<Position>();
 	/** Number of removed positions */
 	private int fNOfRemovedPositions;
+	/**
+	 * Offsets of the removed positions when reconciling started, in the order of the positions
+	 * @since 3.10
+	 */
+	private int[] fRemovedOffsets= new int[0];
+
+	/**
+	 * Dirty region tracker
+	 * @since 3.10
+	 */
+	private DirtyRegionTracker fDirtyRegionTracker;
+	/**
+	 * Dirty region lock, guards the dirty regions and the outline
+	 * @since 3.10
+	 */
+	private final Object fDirtyRegionLock= new Object();
+	/**
+	 * Modifications since the highlighted positions have been computed
+	 * @since 3.10
+	 */
+	private DirtyRegion fDirtyRegion= new DirtyRegion();
+	/**
+	 * Modifications reconciled by the current reconcile, <code>null</code> if none
+	 * @since 3.10
+	 */
+	private DirtyRegion fJobDirtyRegion;
+	/**
+	 * The ranges of the declarations of the AST the highlighted positions have been computed from,
+	 * see {@link #computeOutline(CompilationUnit)}, <code>null</code> if the next reconcile has to
+	 * compute all positions
+	 * @since 3.10
+	 */
+	private int[] fOutline;
+	/**
+	 * The length of the AST the highlighted positions have been computed from
+	 * @since 3.10
+	 */
+	private int fOutlineLength;
 
 	/** Background job */
 	private Job fJob;
@@ -283,6 +465,20 @@ public class SemanticHighlightingReconciler implements IJavaReconcilingListener,
 	 * @see org.eclipse.jdt.internal.ui.text.java.IJavaReconcilingListener#reconciled(CompilationUnit, boolean, IProgressMonitor)
 	 */
 	public void reconciled(CompilationUnit ast, boolean forced, IProgressMonitor progressMonitor) {
+		reconciled(ast, forced, true, progressMonitor);
+	}
+
+	/**
+	 * Reconciles the highlighted positions with the given AST.
+	 *
+	 * @param ast the AST
+	 * @param forced <code>true</code> iff this reconciling was forced
+	 * @param isCurrent <code>true</code> iff the AST reflects all document modifications so far,
+	 *            later modifications cancel the reconciling
+	 * @param progressMonitor the progress monitor
+	 * @since 3.10
+	 */
+	private void reconciled(CompilationUnit ast, boolean forced, boolean isCurrent, IProgressMonitor progressMonitor) {
 		// ensure at most one thread can be reconciling at any time
 		synchronized (fReconcileLock) {
 			if (fIsReconciling)
@@ -290,10 +486,27 @@ public class SemanticHighlightingReconciler implements IJavaReconcilingListener,
 			else
 				fIsReconciling= true;
 		}
+
+		DirtyRegion dirtyRegion= null;
+		int[] previousOutline;
+		int previousLength;
+		synchronized (fDirtyRegionLock) {
+			previousOutline= fOutline;
+			previousLength= fOutlineLength;
+			if (isCurrent) {
+				// the job dirty region is updated by modifications while reconciling, which cancel it
+				dirtyRegion= new DirtyRegion();
+				dirtyRegion.add(fDirtyRegion);
+				fJobDirtyRegion= fDirtyRegion;
+				fDirtyRegion= new DirtyRegion();
+			}
+		}
+
 		fJobPresenter= fPresenter;
 		fJobSemanticHighlightings= fSemanticHighlightings;
 		fJobHighlightings= fHighlightings;
 
+		boolean isUpdated= false;
 		try {
 			if (fJobPresenter == null || fJobSemanticHighlightings == null || fJobHighlightings == null)
 				return;
@@ -303,11 +516,12 @@ public class SemanticHighlightingReconciler implements IJavaReconcilingListener,
 			if (ast == null || fJobPresenter.isCanceled())
 				return;
 
-			ASTNode[] subtrees= getAffectedSubtrees(ast);
+			int[] outline= computeOutline(ast);
+			ASTNode[] subtrees= getAffectedSubtrees(ast, forced ? null : dirtyRegion, previousOutline, previousLength, outline);
 			if (subtrees.length == 0)
 				return;
 
-			startReconcilingPositions();
+			startReconcilingPositions(subtrees);
 
 			if (!fJobPresenter.isCanceled()) {
 				fJobDeprecatedMemberHighlighting= null;
@@ -325,11 +539,29 @@ public class SemanticHighlightingReconciler implements IJavaReconcilingListener,
 			if (!fJobPresenter.isCanceled())
 				textPresentation= fJobPresenter.createPresentation(fAddedPositions, fRemovedPositions);
 
-			if (!fJobPresenter.isCanceled())
-				updatePresentation(textPresentation, fAddedPositions, fRemovedPositions);
+			if (!fJobPresenter.isCanceled()) {
+				synchronized (fDirtyRegionLock) {
+					fOutline= isCurrent ? outline : null;
+					fOutlineLength= ast.getLength();
+				}
+				if (fAddedPositions.isEmpty() && fRemovedPositions.isEmpty())
+					isUpdated= true;
+				else
+					isUpdated= updatePresentation(textPresentation, fAddedPositions, fRemovedPositions);
+			}
 
 			stopReconcilingPositions();
 		} finally {
+			synchronized (fDirtyRegionLock) {
+				if (!isUpdated) {
+					// the positions are unchanged, keep the modifications for the next reconcile
+					fOutline= previousOutline;
+					fOutlineLength= previousLength;
+					if (fJobDirtyRegion != null)
+						fDirtyRegion.add(fJobDirtyRegion);
+				}
+				fJobDirtyRegion= null;
+			}
 			fJobPresenter= null;
 			fJobSemanticHighlightings= null;
 			fJobHighlightings= null;
@@ -341,20 +573,135 @@ public class SemanticHighlightingReconciler implements IJavaReconcilingListener,
 	}
 
 	/**
+	 * Returns the subtrees that may be affected by the document changes.
+	 * <p>
+	 * Modifications inside the body of a method or initializer only affect the highlighting of
+	 * that declaration, as long as the declarations around it are unchanged. In all other cases,
+	 * the whole AST is affected.
+	 * </p>
+	 *
 	 * @param node Root node
+	 * @param dirtyRegion the document changes since the previous AST, or <code>null</code> if unknown
+	 * @param previousOutline the outline of the previous AST, or <code>null</code> if unknown
+	 * @param previousLength the length of the previous AST
+	 * @param outline the outline of the given AST
 	 * @return Array of subtrees that may be affected by past document changes
 	 */
-	private ASTNode[] getAffectedSubtrees(ASTNode node) {
-		// TODO: only return nodes which are affected by document changes - would require an 'anchor' concept for taking distant effects into account
-		return new ASTNode[] { node };
+	private ASTNode[] getAffectedSubtrees(CompilationUnit node, DirtyRegion dirtyRegion, int[] previousOutline, int previousLength, int[] outline) {
+		if (dirtyRegion == null || dirtyRegion.isEmpty() || previousOutline == null)
+			return new ASTNode[] { node };
+
+		int offset= dirtyRegion.fOffset;
+		int end= dirtyRegion.fEnd;
+		ASTNode declaration= NodeFinder.perform(node, offset, end - offset);
+		while (declaration != null) {
+			Block body= null;
+			if (declaration instanceof MethodDeclaration)
+				body= ((MethodDeclaration) declaration).getBody();
+			else if (declaration instanceof Initializer)
+				body= ((Initializer) declaration).getBody();
+			if (body != null && body.getStartPosition() < offset && end < body.getStartPosition() + body.getLength())
+				break;
+			declaration= declaration.getParent();
+		}
+
+		if (declaration == null || !isOutlineUnchanged(previousOutline, outline, node.getLength() - previousLength, offset, end))
+			return new ASTNode[] { node };
+
+		return new ASTNode[] { declaration };
+	}
+
+	/**
+	 * Returns the ranges of the types of the given AST and of their members, in the order they
+	 * appear in the AST.
+	 *
+	 * @param ast the AST
+	 * @return the offsets and lengths of the declarations
+	 * @since 3.10
+	 */
+	private static int[] computeOutline(CompilationUnit ast) {
+		List<ASTNode> declarations= new ArrayList<ASTNode>();
+		List<AbstractTypeDeclaration> types= ast.types();
+		addDeclarations(types, declarations);
+		int[] outline= new int[2 * declarations.size()];
+		for (int i= 0, n= declarations.size(); i < n; i++) {
+			ASTNode declaration= declarations.get(i);
+			outline[2 * i]= declaration.getStartPosition();
+			outline[2 * i + 1]= declaration.getLength();
+		}
+		return outline;
+	}
+
+	private static void addDeclarations(List<? extends ASTNode> nodes, List<ASTNode> declarations) {
+		for (int i= 0, n= nodes.size(); i < n; i++) {
+			ASTNode node= nodes.get(i);
+			declarations.add(node);
+			if (node instanceof EnumDeclaration) {
+				List<ASTNode> constants= ((EnumDeclaration) node).enumConstants();
+				declarations.addAll(constants);
+			}
+			if (node instanceof AbstractTypeDeclaration) {
+				List<BodyDeclaration> members= ((AbstractTypeDeclaration) node).bodyDeclarations();
+				addDeclarations(members, declarations);
+			}
+		}
+	}
+
+	/**
+	 * Tells whether all declarations outside of the dirty region are unchanged, i.e. the
+	 * declarations before it are at the same positions, the declarations after it have been
+	 * moved by the length delta, and the declarations enclosing it have changed their length
+	 * by the length delta.
+	 *
+	 * @param previousOutline the outline of the previous AST
+	 * @param outline the outline of the current AST
+	 * @param delta the length delta
+	 * @param offset the dirty region offset
+	 * @param end the dirty region end offset, exclusive
+	 * @return <code>true</code> iff the outlines match
+	 * @since 3.10
+	 */
+	private static boolean isOutlineUnchanged(int[] previousOutline, int[] outline, int delta, int offset, int end) {
+		if (previousOutline.length != outline.length)
+			return false;
+
+		for (int i= 0; i < outline.length; i+= 2) {
+			int start= outline[i];
+			int length= outline[i + 1];
+			int previousStart= previousOutline[i];
+			int previousLength= previousOutline[i + 1];
+			if (start + length <= offset) {
+				if (start != previousStart || length != previousLength)
+					return false;
+			} else if (start >= end) {
+				if (start != previousStart + delta || length != previousLength)
+					return false;
+			} else if (start > offset || start + length < end || start != previousStart || length != previousLength + delta) {
+				return false;
+			}
+		}
+		return true;
 	}
 
 	/**
 	 * Start reconciling positions.
+	 *
+	 * @param subtrees the AST subtrees
 	 */
-	private void startReconcilingPositions() {
-		fJobPresenter.addAllPositions(fRemovedPositions);
+	private void startReconcilingPositions(ASTNode[] subtrees) {
+		if (subtrees.length == 1 && subtrees[0] instanceof CompilationUnit) {
+			fJobPresenter.addAllPositions(fRemovedPositions);
+		} else {
+			for (int i= 0, n= subtrees.length; i < n; i++)
+				fJobPresenter.addAllPositions(fRemovedPositions, subtrees[i].getStartPosition(), subtrees[i].getLength());
+		}
 		fNOfRemovedPositions= fRemovedPositions.size();
+
+		// the positions do not move while reconciling, since modifications cancel reconciling
+		if (fRemovedOffsets.length < fNOfRemovedPositions)
+			fRemovedOffsets= new int[Math.max(fNOfRemovedPositions, 2 * fRemovedOffsets.length)];
+		for (int i= 0; i < fNOfRemovedPositions; i++)
+			fRemovedOffsets[i]= fRemovedPositions.get(i).getOffset();
 	}
 
 	/**
@@ -363,10 +710,6 @@ public class SemanticHighlightingReconciler implements IJavaReconcilingListener,
 	 * @param subtrees the AST subtrees
 	 */
 	private void reconcilePositions(ASTNode[] subtrees) {
-		// FIXME: remove positions not covered by subtrees
-
-
-
 		for (int i= 0, n= subtrees.length; i < n; i++)
 			subtrees[i].accept(fCollector);
 		List<Position> oldPositions= fRemovedPositions;
@@ -385,29 +728,42 @@ public class SemanticHighlightingReconciler implements IJavaReconcilingListener,
 	 * @param textPresentation the text presentation
 	 * @param addedPositions the added positions
 	 * @param removedPositions the removed positions
+	 * @return <code>true</code> iff the update has been posted
 	 */
-	private void updatePresentation(TextPresentation textPresentation, List<Position> addedPositions, List<Position> removedPositions) {
-		Runnable runnable= fJobPresenter.createUpdateRunnable(textPresentation, addedPositions, removedPositions);
+	private boolean updatePresentation(TextPresentation textPresentation, List<Position> addedPositions, List<Position> removedPositions) {
+		final Runnable runnable= fJobPresenter.createUpdateRunnable(textPresentation, addedPositions, removedPositions);
 		if (runnable == null)
-			return;
+			return false;
 
 		JavaEditor editor= fEditor;
 		if (editor == null)
-			return;
+			return false;
 
 		IWorkbenchPartSite site= editor.getSite();
 		if (site == null)
-			return;
+			return false;
 
 		Shell shell= site.getShell();
 		if (shell == null || shell.isDisposed())
-			return;
+			return false;
 
 		Display display= shell.getDisplay();
 		if (display == null || display.isDisposed())
-			return;
+			return false;
 
-		display.asyncExec(runnable);
+		final SemanticHighlightingPresenter presenter= fJobPresenter;
+		display.asyncExec(new Runnable() {
+			public void run() {
+				if (presenter.isCanceled()) {
+					// the positions will not be updated, the next reconcile has to compute all of them
+					synchronized (fDirtyRegionLock) {
+						fOutline= null;
+					}
+				}
+				runnable.run();
+			}
+		});
+		return true;
 	}
 
 	/**
@@ -435,6 +791,12 @@ public class SemanticHighlightingReconciler implements IJavaReconcilingListener,
 		fEditor= editor;
 		fSourceViewer= sourceViewer;
 
+		fDirtyRegionTracker= new DirtyRegionTracker();
+		fSourceViewer.addTextInputListener(fDirtyRegionTracker);
+		IDocument document= fSourceViewer.getDocument();
+		if (document != null)
+			document.addDocumentListener(fDirtyRegionTracker);
+
 		if (fEditor instanceof CompilationUnitEditor) {
 			((CompilationUnitEditor)fEditor).addReconcileListener(this);
 		} else if (fEditor == null) {
@@ -458,6 +820,14 @@ public class SemanticHighlightingReconciler implements IJavaReconcilingListener,
 			fEditor= null;
 		}
 
+		if (fDirtyRegionTracker != null) {
+			fSourceViewer.removeTextInputListener(fDirtyRegionTracker);
+			IDocument document= fSourceViewer.getDocument();
+			if (document != null)
+				document.removeDocumentListener(fDirtyRegionTracker);
+			fDirtyRegionTracker= null;
+		}
+
 		fSourceViewer= null;
 		fSemanticHighlightings= null;
 		fHighlightings= null;
@@ -492,7 +862,7 @@ public class SemanticHighlightingReconciler implements IJavaReconcilingListener,
 						if (monitor.isCanceled())
 							return Status.CANCEL_STATUS;
 						CompilationUnit ast= SharedASTProvider.getAST(element, SharedASTProvider.WAIT_YES, monitor);
-						reconciled(ast, false, monitor);
+						reconciled(ast, false, false, monitor);
 						synchronized (fJobLock) {
 							// allow the job to be gc'ed
 							if (fJob == this)
@@ -534,6 +904,9 @@ public class SemanticHighlightingReconciler implements IJavaReconcilingListener,
 	 * @since 3.2
 	 */
 	public void refresh() {
+		synchronized (fDirtyRegionLock) {
+			fOutline= null;
+		}
 		scheduleJob();
 	}
 }
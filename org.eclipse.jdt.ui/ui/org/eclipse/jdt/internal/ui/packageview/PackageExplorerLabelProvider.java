@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2000, 2011 IBM Corporation and others.
+ * Copyright (c) 2000, 2014 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -30,7 +30,9 @@ import org.eclipse.jdt.core.IPackageFragment;
 
 import org.eclipse.jdt.ui.JavaElementLabels;
 
+import org.eclipse.jdt.internal.ui.JavaPlugin;
 import org.eclipse.jdt.internal.ui.viewsupport.AppearanceAwareLabelProvider;
+import org.eclipse.jdt.internal.ui.viewsupport.ImageDescriptorRegistry;
 import org.eclipse.jdt.internal.ui.viewsupport.JavaElementImageProvider;
 
 /**
@@ -132,7 +134,9 @@ public class PackageExplorerLabelProvider extends AppearanceAwareLabelProvider {
 
 			Image result= fWorkingSetImages.get(image);
 			if (result == null) {
-				result= image.createImage();
+				result= JavaPlugin.getImageDescriptorRegistry().acquire(image);
+				if (result == null)
+					return null;
 				fWorkingSetImages.put(image, result);
 			}
 			return decorateImage(result, element);
@@ -148,8 +152,9 @@ public class PackageExplorerLabelProvider extends AppearanceAwareLabelProvider {
 	@Override
 	public void dispose() {
 		if (fWorkingSetImages != null) {
-			for (Iterator<Image> iter= fWorkingSetImages.values().iterator(); iter.hasNext();) {
-				iter.next().dispose();
+			ImageDescriptorRegistry registry= JavaPlugin.getImageDescriptorRegistry();
+			for (Iterator<ImageDescriptor> iter= fWorkingSetImages.keySet().iterator(); iter.hasNext();) {
+				registry.release(iter.next());
 			}
 		}
 		super.dispose();
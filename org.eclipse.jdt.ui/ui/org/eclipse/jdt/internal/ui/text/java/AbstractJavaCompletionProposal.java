@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2005, 2013 IBM Corporation and others.
+ * Copyright (c) 2005, 2014 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -294,6 +294,31 @@ public abstract class AbstractJavaCompletionProposal implements IJavaCompletionP
 		return fProposalInfo;
 	}
 
+	/**
+	 * Resolves the additional proposal info in advance, so that showing it later does not need to
+	 * access the Java model or the Javadoc. Only info that is available from local sources is
+	 * resolved, see {@link ProposalInfo#hasLocalInfo()}.
+	 * <p>
+	 * Called from a background job.
+	 * </p>
+	 *
+	 * @param monitor a progress monitor
+	 * @since 3.10
+	 */
+	void prefetchProposalInfo(IProgressMonitor monitor) {
+		ProposalInfo info= getProposalInfo();
+		if (info == null)
+			return;
+		try {
+			if (!info.hasLocalInfo())
+				return;
+		} catch (JavaModelException e) {
+			// the info is computed when the proposal gets selected
+			return;
+		}
+		info.getInfo(monitor);
+	}
+
 	/**
 	 * Sets the cursor position relative to the insertion offset. By default this is the length of
 	 * the completion string (Cursor positioned after the completion)
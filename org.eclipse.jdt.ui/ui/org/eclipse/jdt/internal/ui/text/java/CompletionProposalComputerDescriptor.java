@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2005, 2012 IBM Corporation and others.
+ * Copyright (c) 2005, 2014 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -126,9 +126,24 @@ final class CompletionProposalComputerDescriptor {
 	 * We start timing execution after the first session because the first may take
 	 * longer due to plug-in activation and initialization.
 	 */
-	private boolean fIsReportingDelay= false;
-	/** The start of the last operation. */
-	private long fStart;
+	private volatile boolean fIsReportingDelay= false;
+	/**
+	 * The time taken by the most recent completed <code>computeCompletionProposals</code> call, in
+	 * milliseconds.
+	 * @since 3.10
+	 */
+	private volatile long fLastLatency;
+	/**
+	 * The sum of the times taken by all completed <code>computeCompletionProposals</code> calls,
+	 * in milliseconds.
+	 * @since 3.10
+	 */
+	private long fTotalLatency;
+	/**
+	 * The number of completed <code>computeCompletionProposals</code> calls.
+	 * @since 3.10
+	 */
+	private int fLatencyCount;
 	/**
 	 * Tells whether we tried to load the computer.
 	 * @since 3.4
@@ -329,9 +344,11 @@ final class CompletionProposalComputerDescriptor {
 				return Collections.emptyList();
 
 			try {
+				long start= System.currentTimeMillis();
 				PerformanceStats stats= startMeter(context, computer);
 				List<ICompletionProposal> proposals= computer.computeCompletionProposals(context, monitor);
-				stopMeter(stats, COMPUTE_COMPLETION_PROPOSALS);
+				stopMeter(stats, COMPUTE_COMPLETION_PROPOSALS, start);
+				recordLatency(System.currentTimeMillis() - start);
 
 				if (proposals != null) {
 					fLastError= computer.getErrorMessage();
@@ -376,9 +393,10 @@ final class CompletionProposalComputerDescriptor {
 			if (computer == null) // not active yet
 				return Collections.emptyList();
 
+			long start= System.currentTimeMillis();
 			PerformanceStats stats= startMeter(context, computer);
 			List<IContextInformation> proposals= computer.computeContextInformation(context, monitor);
-			stopMeter(stats, COMPUTE_CONTEXT_INFORMATION);
+			stopMeter(stats, COMPUTE_CONTEXT_INFORMATION, start);
 
 			if (proposals != null) {
 				fLastError= computer.getErrorMessage();
@@ -419,9 +437,10 @@ final class CompletionProposalComputerDescriptor {
 			if (computer == null) // not active yet
 				return;
 
+			long start= System.currentTimeMillis();
 			PerformanceStats stats= startMeter(SESSION_STARTED, computer);
 			computer.sessionStarted();
-			stopMeter(stats, SESSION_ENDED);
+			stopMeter(stats, SESSION_ENDED, start);
 
 			return;
 		} catch (InvalidRegistryObjectException x) {
@@ -452,9 +471,10 @@ final class CompletionProposalComputerDescriptor {
 			if (computer == null) // not active yet
 				return;
 
+			long start= System.currentTimeMillis();
 			PerformanceStats stats= startMeter(SESSION_ENDED, computer);
 			computer.sessionEnded();
-			stopMeter(stats, SESSION_ENDED);
+			stopMeter(stats, SESSION_ENDED, start);
 
 			return;
 		} catch (InvalidRegistryObjectException x) {
@@ -477,14 +497,10 @@ final class CompletionProposalComputerDescriptor {
 			stats= null;
 		}
 
-		if (fIsReportingDelay) {
-			fStart= System.currentTimeMillis();
-		}
-
 		return stats;
 	}
 
-	private void stopMeter(final PerformanceStats stats, String operation) {
+	private void stopMeter(final PerformanceStats stats, String operation, long start) {
 		if (MEASURE_PERFORMANCE) {
 			stats.endRun();
 			if (stats.isFailure()) {
@@ -496,13 +512,42 @@ final class CompletionProposalComputerDescriptor {
 
 		if (fIsReportingDelay) {
 			long current= System.currentTimeMillis();
-			if (current - fStart > MAX_DELAY) {
+			if (current - start > MAX_DELAY) {
 				IStatus status= createPerformanceStatus(operation);
 				fRegistry.informUser(this, status);
 			}
 		}
 	}
 
+	private synchronized void recordLatency(long latency) {
+		fLastLatency= latency;
+		fTotalLatency+= latency;
+		fLatencyCount++;
+	}
+
+	/**
+	 * Returns the time taken by the most recent completed
+	 * {@link #computeCompletionProposals(ContentAssistInvocationContext, IProgressMonitor)} call.
+	 *
+	 * @return the latency in milliseconds, or <code>0</code> if no call has completed yet
+	 * @since 3.10
+	 */
+	public long getLastLatency() {
+		return fLastLatency;
+	}
+
+	/**
+	 * Returns the average time taken by the completed
+	 * {@link #computeCompletionProposals(ContentAssistInvocationContext, IProgressMonitor)} calls.
+	 *
+	 * @return the average latency in milliseconds, or <code>0</code> if no call has completed
+	 *         yet
+	 * @since 3.10
+	 */
+	public synchronized long getAverageLatency() {
+		return fLatencyCount == 0 ? 0 : fTotalLatency / fLatencyCount;
+	}
+
 	private IStatus createExceptionStatus(InvalidRegistryObjectException x) {
 		// extension has become invalid - log & disable
 		String blame= createBlameMessage();
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2005, 2011 IBM Corporation and others.
+ * Copyright (c) 2005, 2014 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -15,11 +15,11 @@ import java.io.StringReader;
 import java.io.StringWriter;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
-import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -61,7 +61,24 @@ import org.eclipse.jdt.internal.ui.JavaUIException;
 import org.eclipse.jdt.internal.ui.JavaUIStatus;
 
 /**
- * An LRU cache for code assist.
+ * A frequency and recency based ranking of the types selected in code assist.
+ * <p>
+ * For every left hand side (expected type), the history keeps a score per right hand side
+ * (selected type). Each selection adds one to the weight of the selected type, and all weights
+ * decay with a half-life of {@link #HALF_LIFE} selections. The score is stored as the binary
+ * logarithm of the weight shifted by the time of the last update, which does not change while
+ * the weight decays. This makes updates and rank lookups constant time operations.
+ * </p>
+ * <p>
+ * By default, the history tracks up to {@link #DEFAULT_TRACKED_LHS} left hand sides with up to
+ * {@link #DEFAULT_TRACKED_RHS} right hand sides each. Types whose weight has decayed below
+ * 2<sup>-{@link #PRUNE_THRESHOLD}</sup> are dropped when the history is stored.
+ * </p>
+ * <p>
+ * A loaded history keeps the right hand sides of a left hand side in their XML form until the
+ * left hand side is first looked up, so that the first code assist does not have to convert the
+ * entire history.
+ * </p>
  *
  * @since 3.2
  */
@@ -79,6 +96,11 @@ public final class ContentAssistHistory {
 		private static final String ATTRIBUTE_NAME= "name"; //$NON-NLS-1$
 		private static final String ATTRIBUTE_MAX_LHS= "maxLHS"; //$NON-NLS-1$
 		private static final String ATTRIBUTE_MAX_RHS= "maxRHS"; //$NON-NLS-1$
+		private static final String ATTRIBUTE_VERSION= "version"; //$NON-NLS-1$
+		private static final String ATTRIBUTE_TIME= "time"; //$NON-NLS-1$
+		private static final String ATTRIBUTE_SCORE= "score"; //$NON-NLS-1$
+		private static final String ATTRIBUTE_LAST_USE= "lastUse"; //$NON-NLS-1$
+		private static final String VERSION= "2"; //$NON-NLS-1$
 
 		public void store(ContentAssistHistory history, StreamResult result) throws CoreException {
 			try {
@@ -87,21 +109,24 @@ public final class ContentAssistHistory {
 				Document document= builder.newDocument();
 
 				Element rootElement = document.createElement(NODE_ROOT);
+				rootElement.setAttribute(ATTRIBUTE_VERSION, VERSION);
 				rootElement.setAttribute(ATTRIBUTE_MAX_LHS, Integer.toString(history.fMaxLHS));
 				rootElement.setAttribute(ATTRIBUTE_MAX_RHS, Integer.toString(history.fMaxRHS));
+				rootElement.setAttribute(ATTRIBUTE_TIME, Long.toString(history.fTime));
 				document.appendChild(rootElement);
 
-				for (Iterator<String> leftHandSides= history.fLHSCache.keySet().iterator(); leftHandSides.hasNext();) {
-					String lhs= leftHandSides.next();
+				for (Iterator<Entry<String, RHSScores>> leftHandSides= history.fLHSCache.entrySet().iterator(); leftHandSides.hasNext();) {
+					Entry<String, RHSScores> lhsEntry= leftHandSides.next();
 					Element lhsElement= document.createElement(NODE_LHS);
-					lhsElement.setAttribute(ATTRIBUTE_NAME, lhs);
+					lhsElement.setAttribute(ATTRIBUTE_NAME, lhsEntry.getKey());
 					rootElement.appendChild(lhsElement);
 
-					MRUSet<String> rightHandSides= history.fLHSCache.get(lhs);
-					for (Iterator<String> rhsIterator= rightHandSides.iterator(); rhsIterator.hasNext();) {
-						String rhs= rhsIterator.next();
+					for (Iterator<Entry<String, Score>> rightHandSides= lhsEntry.getValue().fScores.entrySet().iterator(); rightHandSides.hasNext();) {
+						Entry<String, Score> rhsEntry= rightHandSides.next();
 						Element rhsElement= document.createElement(NODE_RHS);
-						rhsElement.setAttribute(ATTRIBUTE_NAME, rhs);
+						rhsElement.setAttribute(ATTRIBUTE_NAME, rhsEntry.getKey());
+						rhsElement.setAttribute(ATTRIBUTE_SCORE, Double.toString(rhsEntry.getValue().fScore));
+						rhsElement.setAttribute(ATTRIBUTE_LAST_USE, Long.toString(rhsEntry.getValue().fLastUse));
 						lhsElement.appendChild(rhsElement);
 					}
 				}
@@ -137,10 +162,16 @@ public final class ContentAssistHistory {
 			if (root == null || !root.getNodeName().equalsIgnoreCase(NODE_ROOT))
 				return null;
 
-			int maxLHS= parseNaturalInt(root.getAttribute(ATTRIBUTE_MAX_LHS), DEFAULT_TRACKED_LHS);
-			int maxRHS= parseNaturalInt(root.getAttribute(ATTRIBUTE_MAX_RHS), DEFAULT_TRACKED_RHS);
+			// the limits of histories stored by previous versions were defaults, not user choices
+			boolean isCurrentVersion= VERSION.equals(root.getAttribute(ATTRIBUTE_VERSION));
+			int maxLHS= isCurrentVersion ? parseNaturalInt(root.getAttribute(ATTRIBUTE_MAX_LHS), DEFAULT_TRACKED_LHS) : DEFAULT_TRACKED_LHS;
+			int maxRHS= isCurrentVersion ? parseNaturalInt(root.getAttribute(ATTRIBUTE_MAX_RHS), DEFAULT_TRACKED_RHS) : DEFAULT_TRACKED_RHS;
+			// early builds of this version stored unbounded histories
+			maxLHS= Math.min(maxLHS, DEFAULT_TRACKED_LHS);
+			maxRHS= Math.min(maxRHS, DEFAULT_TRACKED_RHS);
 
 			ContentAssistHistory history= new ContentAssistHistory(maxLHS, maxRHS);
+			history.fTime= parseLong(root.getAttribute(ATTRIBUTE_TIME), 0);
 
 			NodeList list= root.getChildNodes();
 			int length= list.getLength();
@@ -150,19 +181,19 @@ public final class ContentAssistHistory {
 					Element lhsElement= (Element) lhsNode;
 					if (lhsElement.getNodeName().equalsIgnoreCase(NODE_LHS)) {
 						String lhs= lhsElement.getAttribute(ATTRIBUTE_NAME);
-						if (lhs != null) {
-							Set<String> cache= history.getCache(lhs);
-							NodeList children= lhsElement.getChildNodes();
-							int nRHS= children.getLength();
-							for (int j= 0; j < nRHS; j++) {
-								Node rhsNode= children.item(j);
-								if (rhsNode.getNodeType() == Node.ELEMENT_NODE) {
-									Element rhsElement= (Element) rhsNode;
-									if (rhsElement.getNodeName().equalsIgnoreCase(NODE_RHS)) {
-										String rhs= rhsElement.getAttribute(ATTRIBUTE_NAME);
-										if (rhs != null) {
-											cache.add(rhs);
-										}
+						if (lhs != null && hasRHSElements(lhsElement)) {
+							if (isCurrentVersion) {
+								history.fLHSCache.put(lhs, new RHSScores(maxRHS, lhsElement));
+							} else {
+								// previous versions stored the types ordered by recency
+								RHSScores cache= history.getCache(lhs);
+								NodeList children= lhsElement.getChildNodes();
+								int nRHS= children.getLength();
+								for (int j= 0; j < nRHS; j++) {
+									String rhs= getRHSName(children.item(j));
+									if (rhs != null) {
+										history.fTime++;
+										cache.add(history.intern(rhs), history.fTime);
 									}
 								}
 							}
@@ -174,6 +205,47 @@ public final class ContentAssistHistory {
 			return history;
 		}
 
+		/**
+		 * Converts the right hand sides of a left hand side stored by the current version.
+		 *
+		 * @param lhsElement the element of the left hand side
+		 * @param scores the scores to add the right hand sides to
+		 * @param history the history that owns the scores
+		 * @since 3.10
+		 */
+		static void loadScores(Element lhsElement, RHSScores scores, ContentAssistHistory history) {
+			NodeList children= lhsElement.getChildNodes();
+			int nRHS= children.getLength();
+			for (int j= 0; j < nRHS; j++) {
+				Node rhsNode= children.item(j);
+				String rhs= getRHSName(rhsNode);
+				if (rhs != null) {
+					Element rhsElement= (Element) rhsNode;
+					double score= parseDouble(rhsElement.getAttribute(ATTRIBUTE_SCORE), 0);
+					long lastUse= parseLong(rhsElement.getAttribute(ATTRIBUTE_LAST_USE), 0);
+					scores.put(history.intern(rhs), score, lastUse);
+				}
+			}
+		}
+
+		private static boolean hasRHSElements(Element lhsElement) {
+			NodeList children= lhsElement.getChildNodes();
+			for (int j= 0, nRHS= children.getLength(); j < nRHS; j++) {
+				if (getRHSName(children.item(j)) != null)
+					return true;
+			}
+			return false;
+		}
+
+		private static String getRHSName(Node rhsNode) {
+			if (rhsNode.getNodeType() != Node.ELEMENT_NODE || !rhsNode.getNodeName().equalsIgnoreCase(NODE_RHS))
+				return null;
+			String rhs= ((Element) rhsNode).getAttribute(ATTRIBUTE_NAME);
+			if (rhs == null || rhs.length() == 0)
+				return null;
+			return rhs;
+		}
+
 		private int parseNaturalInt(String attribute, int defaultValue) {
 			try {
 				int integer= Integer.parseInt(attribute);
@@ -185,6 +257,22 @@ public final class ContentAssistHistory {
 			}
 		}
 
+		private static long parseLong(String attribute, long defaultValue) {
+			try {
+				return Long.parseLong(attribute);
+			} catch (NumberFormatException e) {
+				return defaultValue;
+			}
+		}
+
+		private static double parseDouble(String attribute, double defaultValue) {
+			try {
+				return Double.parseDouble(attribute);
+			} catch (NumberFormatException e) {
+				return defaultValue;
+			}
+		}
+
 		private JavaUIException createException(Exception e, String message) {
 			return new JavaUIException(JavaUIStatus.createError(IStatus.ERROR, message, e));
 		}
@@ -231,68 +319,166 @@ public final class ContentAssistHistory {
 	}
 
 	/**
-	 * Most recently used variant with capped size that orders the elements by addition.
-	 * This is implemented by always removing an element before it gets added back.
+	 * The score of a right hand side.
 	 *
-	 * @since 3.2
+	 * @since 3.10
 	 */
-	private static final class MRUSet<E> extends LinkedHashSet<E> {
-		private static final long serialVersionUID= 1L;
+	private static final class Score {
+		/**
+		 * The binary logarithm of the weight at time 0, see {@link ContentAssistHistory}.
+		 */
+		double fScore;
+		long fLastUse;
+
+		Score(double score, long lastUse) {
+			fScore= score;
+			fLastUse= lastUse;
+		}
+	}
+
+	/**
+	 * The scores of the right hand sides of one left hand side. If the number of right hand sides
+	 * is bounded, the least recently selected one is dropped.
+	 *
+	 * @since 3.10
+	 */
+	private static final class RHSScores {
+		final Map<String, Score> fScores= new HashMap<String, Score>();
 		private final int fMaxSize;
+		double fMaxScore= Double.NEGATIVE_INFINITY;
+		/**
+		 * The stored right hand sides that have not been converted yet, or <code>null</code>.
+		 */
+		private Element fElement;
+
+		RHSScores(int maxSize) {
+			this(maxSize, null);
+		}
+
+		RHSScores(int maxSize, Element element) {
+			fMaxSize= maxSize;
+			fElement= element;
+		}
 
 		/**
-		 * Creates a new <code>MRUSet</code> with the given size.
+		 * Converts the stored right hand sides, if not done yet.
 		 *
-		 * @param maxSize the maximum size of the cache, must be &gt; 0
+		 * @param owner the history that owns the scores
+		 * @return <code>true</code> if there are scores
 		 */
-		public MRUSet(int maxSize) {
-			Assert.isLegal(maxSize > 0);
-			fMaxSize= maxSize;
+		boolean ensureLoaded(ContentAssistHistory owner) {
+			if (fElement != null) {
+				Element element= fElement;
+				fElement= null;
+				ReaderWriter.loadScores(element, this, owner);
+			}
+			return !fScores.isEmpty();
 		}
 
-		/*
-		 * @see java.util.HashSet#add(java.lang.Object)
+		void add(String rhs, long time) {
+			double now= (double) time / HALF_LIFE;
+			Score score= fScores.get(rhs);
+			if (score == null) {
+				put(rhs, now, time);
+			} else {
+				// log2(2^(score - now) + 1) + now, the decayed weight plus one
+				score.fScore= now + Math.log(Math.pow(2, score.fScore - now) + 1) / LN_2;
+				score.fLastUse= time;
+				fMaxScore= Math.max(fMaxScore, score.fScore);
+			}
+		}
+
+		void put(String rhs, double value, long lastUse) {
+			fScores.put(rhs, new Score(value, lastUse));
+			fMaxScore= Math.max(fMaxScore, value);
+			if (fScores.size() > fMaxSize)
+				removeLeastRecentlyUsed();
+		}
+
+		/**
+		 * Returns the rank of the given right hand side.
+		 *
+		 * @param rhs the right hand side
+		 * @return the rank in (0.0,&nbsp;1.0], or zero if the type is not remembered
 		 */
-		@Override
-		public boolean add(E o) {
-			if (remove(o)) {
-				super.add(o);
-				return false;
+		float getRank(String rhs) {
+			Score score= fScores.get(rhs);
+			if (score == null)
+				return 0.0F;
+			return Math.max(Float.MIN_VALUE, (float) Math.pow(2, score.fScore - fMaxScore));
+		}
+
+		List<String> getTypes() {
+			List<Entry<String, Score>> entries= new ArrayList<Entry<String, Score>>(fScores.entrySet());
+			Collections.sort(entries, new Comparator<Entry<String, Score>>() {
+				public int compare(Entry<String, Score> e1, Entry<String, Score> e2) {
+					return Double.compare(e1.getValue().fScore, e2.getValue().fScore);
+				}
+			});
+			List<String> types= new ArrayList<String>(entries.size());
+			for (int i= 0, size= entries.size(); i < size; i++)
+				types.add(entries.get(i).getKey());
+			return types;
+		}
+
+		void prune(long time) {
+			double threshold= (double) time / HALF_LIFE - PRUNE_THRESHOLD;
+			for (Iterator<Score> it= fScores.values().iterator(); it.hasNext();) {
+				if (it.next().fScore < threshold)
+					it.remove();
 			}
+			updateMaxScore();
+		}
 
-			if (size() >= fMaxSize)
-				remove(this.iterator().next());
+		private void removeLeastRecentlyUsed() {
+			String eldest= null;
+			long eldestUse= Long.MAX_VALUE;
+			for (Iterator<Entry<String, Score>> it= fScores.entrySet().iterator(); it.hasNext();) {
+				Entry<String, Score> entry= it.next();
+				if (entry.getValue().fLastUse < eldestUse) {
+					eldest= entry.getKey();
+					eldestUse= entry.getValue().fLastUse;
+				}
+			}
+			fScores.remove(eldest);
+			updateMaxScore();
+		}
 
-			super.add(o);
-			return true;
+		private void updateMaxScore() {
+			fMaxScore= Double.NEGATIVE_INFINITY;
+			for (Iterator<Score> it= fScores.values().iterator(); it.hasNext();)
+				fMaxScore= Math.max(fMaxScore, it.next().fScore);
 		}
 	}
 
 	/**
-	 * A ranking of the most recently selected types.
+	 * A ranking of the types selected for a left hand side.
 	 *
 	 * @since 3.2
 	 */
 	public static final class RHSHistory {
-		private final LinkedHashMap<String, Integer> fHistory;
+		private final ContentAssistHistory fOwner;
+		private final RHSScores fScores;
 		private List<String> fList;
 
-		RHSHistory(LinkedHashMap<String, Integer> history) {
-			fHistory= history;
+		RHSHistory(ContentAssistHistory owner, RHSScores scores) {
+			fOwner= owner;
+			fScores= scores;
 		}
 
 		/**
-		 * Returns the rank of a type in the history in [0.0,&nbsp;1.0]. The rank of the most
-		 * recently selected type is 1.0, the rank of any type that is not remembered is zero.
+		 * Returns the rank of a type in the history in [0.0,&nbsp;1.0]. The rank of the highest
+		 * ranked type is 1.0, the rank of any type that is not remembered is zero.
 		 *
 		 * @param type the fully qualified type name to get the rank for
 		 * @return the rank of <code>type</code>
 		 */
 		public float getRank(String type) {
-			if (fHistory == null)
+			if (fScores == null)
 				return 0.0F;
-			Integer integer= fHistory.get(type);
-			return integer == null ? 0.0F : integer.floatValue() / fHistory.size();
+			synchronized (fOwner) {
+				return fScores.getRank(type);
+			}
 		}
 
 		/**
@@ -301,28 +487,44 @@ public final class ContentAssistHistory {
 		 * @return the size of the history
 		 */
 		public int size() {
-			return fHistory == null ? 0 : fHistory.size();
+			if (fScores == null)
+				return 0;
+			synchronized (fOwner) {
+				return fScores.fScores.size();
+			}
 		}
 
 		/**
-		 * Returns the list of remembered types ordered by recency. The first element is the
-		 * <i>least</i>, the last element the <i>most</i> recently remembered type.
+		 * Returns the list of remembered types ordered by rank. The first element is the
+		 * <i>lowest</i>, the last element the <i>highest</i> ranked type.
 		 *
 		 * @return the list of remembered types as fully qualified type names
 		 */
 		public List<String> getTypes() {
-			if (fHistory == null)
+			if (fScores == null)
 				return Collections.emptyList();
 			if (fList == null) {
-				fList= Collections.unmodifiableList(new ArrayList<String>(fHistory.keySet()));
+				synchronized (fOwner) {
+					fList= Collections.unmodifiableList(fScores.getTypes());
+				}
 			}
 			return fList;
 		}
 	}
 
-	private static final RHSHistory EMPTY_HISTORY= new RHSHistory(null);
-	private static final int DEFAULT_TRACKED_LHS= 100;
-	private static final int DEFAULT_TRACKED_RHS= 10;
+	/**
+	 * The number of selections after which the weight of a selection has halved.
+	 */
+	private static final int HALF_LIFE= 64;
+	/**
+	 * The number of half-lifes after which a type that has been selected once is forgotten.
+	 */
+	private static final int PRUNE_THRESHOLD= 16;
+	private static final double LN_2= Math.log(2);
+
+	private static final RHSHistory EMPTY_HISTORY= new RHSHistory(null, null);
+	private static final int DEFAULT_TRACKED_LHS= 1000;
+	private static final int DEFAULT_TRACKED_RHS= 100;
 
 	private static final Set<String> UNCACHEABLE;
 	static {
@@ -334,9 +536,17 @@ public final class ContentAssistHistory {
 		UNCACHEABLE= Collections.unmodifiableSet(uncacheable);
 	}
 
-	private final LinkedHashMap<String, MRUSet<String>> fLHSCache;
+	private final LinkedHashMap<String, RHSScores> fLHSCache;
+	/**
+	 * Type names shared by the right hand sides of all left hand sides.
+	 */
+	private final Map<String, String> fNames= new HashMap<String, String>();
 	private final int fMaxLHS;
 	private final int fMaxRHS;
+	/**
+	 * The number of selections so far.
+	 */
+	private long fTime;
 
 	/**
 	 * Creates a new history.
@@ -349,12 +559,11 @@ public final class ContentAssistHistory {
 		Assert.isLegal(maxRHS > 0);
 		fMaxLHS= maxLHS;
 		fMaxRHS= maxRHS;
-		fLHSCache= new MRUMap<String, MRUSet<String>>(fMaxLHS);
+		fLHSCache= new MRUMap<String, RHSScores>(fMaxLHS);
 	}
 
 	/**
-	 * Creates a new history, equivalent to
-	 * <code>ContentAssistHistory(DEFAULT_TRACKED_LHS, DEFAULT_TRACKED_RHS})</code>.
+	 * Creates a new history, using the default size limits.
 	 */
 	public ContentAssistHistory() {
 		this(DEFAULT_TRACKED_LHS, DEFAULT_TRACKED_RHS);
@@ -378,10 +587,14 @@ public final class ContentAssistHistory {
 			if (hierarchy.contains(lhs)) {
 				// TODO remember for every member of the LHS hierarchy or not? Yes for now.
 				IType[] allLHSides= hierarchy.getAllSupertypes(lhs);
-				String rhsQualifiedName= rhs.getFullyQualifiedName();
-				for (int i= 0; i < allLHSides.length; i++)
-					rememberInternal(allLHSides[i], rhsQualifiedName);
-				rememberInternal(lhs, rhsQualifiedName);
+				String[] lhsQualifiedNames= new String[allLHSides.length + 1];
+				for (int i= 0; i < allLHSides.length; i++) {
+					if (isCacheableLHS(allLHSides[i], allLHSides[i].getFullyQualifiedName()))
+						lhsQualifiedNames[i]= allLHSides[i].getFullyQualifiedName();
+				}
+				if (isCacheableLHS(lhs, lhs.getFullyQualifiedName()))
+					lhsQualifiedNames[allLHSides.length]= lhs.getFullyQualifiedName();
+				rememberInternal(lhsQualifiedNames, rhs.getFullyQualifiedName());
 			}
 		} catch (JavaModelException x) {
 			JavaPlugin.log(x);
@@ -389,25 +602,17 @@ public final class ContentAssistHistory {
 	}
 
 	/**
-	 * Returns the {@link RHSHistory history} of the types that have been selected most recently as
-	 * right hand sides for the given type.
+	 * Returns the {@link RHSHistory history} of the types that have been selected as right hand
+	 * sides for the given type. The rank of a type is computed in constant time.
 	 *
 	 * @param lhs the fully qualified type name of an expected type for which right hand sides are
 	 *        requested, or <code>null</code>
 	 * @return the right hand side history for the given type
 	 */
-	public RHSHistory getHistory(String lhs) {
-		MRUSet<String> rhsCache= fLHSCache.get(lhs);
-		if (rhsCache != null) {
-			int count= rhsCache.size();
-			LinkedHashMap<String, Integer> history= new LinkedHashMap<String, Integer>((int) (count / 0.75));
-			int rank= 1;
-			for (Iterator<String> it= rhsCache.iterator(); it.hasNext(); rank++) {
-				String type= it.next();
-				history.put(type, new Integer(rank));
-			}
-			return new RHSHistory(history);
-		}
+	public synchronized RHSHistory getHistory(String lhs) {
+		RHSScores rhsCache= getLoadedCache(lhs);
+		if (rhsCache != null)
+			return new RHSHistory(this, rhsCache);
 		return EMPTY_HISTORY;
 	}
 
@@ -415,22 +620,27 @@ public final class ContentAssistHistory {
 	 * Returns a read-only map from {@link IType} to {@link RHSHistory}, where each value is the
 	 * history for the key type (see {@link #getHistory(String)}.
 	 *
-	 * @return the set of remembered right hand sides ordered by least recent selection
+	 * @return the set of remembered right hand sides ordered by rank
 	 */
-	public Map<String, RHSHistory> getEntireHistory() {
+	public synchronized Map<String, RHSHistory> getEntireHistory() {
 		HashMap<String, RHSHistory> map= new HashMap<String, RHSHistory>((int) (fLHSCache.size() / 0.75));
-		for ( Iterator<Entry<String, MRUSet<String>>> it= fLHSCache.entrySet().iterator(); it.hasNext();) {
-			Entry<String, MRUSet<String>> entry= it.next();
-			String lhs= entry.getKey();
-			map.put(lhs, getHistory(lhs));
+		for ( Iterator<Entry<String, RHSScores>> it= fLHSCache.entrySet().iterator(); it.hasNext();) {
+			Entry<String, RHSScores> entry= it.next();
+			if (entry.getValue().ensureLoaded(this))
+				map.put(entry.getKey(), new RHSHistory(this, entry.getValue()));
+			else
+				it.remove();
 		}
 		return Collections.unmodifiableMap(map);
 	}
 
-	private void rememberInternal(IType lhs, String rhsQualifiedName) throws JavaModelException {
-		String lhsQualifiedName= lhs.getFullyQualifiedName();
-		if (isCacheableLHS(lhs, lhsQualifiedName))
-			getCache(lhsQualifiedName).add(rhsQualifiedName);
+	private synchronized void rememberInternal(String[] lhsQualifiedNames, String rhsQualifiedName) {
+		fTime++;
+		String rhs= intern(rhsQualifiedName);
+		for (int i= 0; i < lhsQualifiedNames.length; i++) {
+			if (lhsQualifiedNames[i] != null)
+				getCache(lhsQualifiedNames[i]).add(rhs, fTime);
+		}
 	}
 
 	private boolean isCacheableLHS(IType type, String qualifiedName) throws JavaModelException {
@@ -441,16 +651,62 @@ public final class ContentAssistHistory {
 		return !type.isInterface() && !Flags.isAbstract(type.getFlags());
 	}
 
-	private Set<String> getCache(String lhs) {
-		MRUSet<String> rhsCache= fLHSCache.get(lhs);
+	private RHSScores getCache(String lhs) {
+		RHSScores rhsCache= fLHSCache.get(lhs);
 		if (rhsCache == null) {
-			rhsCache= new MRUSet<String>(fMaxRHS);
+			rhsCache= new RHSScores(fMaxRHS);
 			fLHSCache.put(lhs, rhsCache);
+		} else {
+			rhsCache.ensureLoaded(this);
 		}
 
 		return rhsCache;
 	}
 
+	/**
+	 * Returns the scores of the given left hand side, converting stored scores if needed.
+	 * Left hand sides without any right hand side are removed.
+	 *
+	 * @param lhs the left hand side
+	 * @return the scores, or <code>null</code> if none
+	 */
+	private RHSScores getLoadedCache(String lhs) {
+		RHSScores rhsCache= fLHSCache.get(lhs);
+		if (rhsCache == null)
+			return null;
+		if (rhsCache.ensureLoaded(this))
+			return rhsCache;
+		fLHSCache.remove(lhs);
+		return null;
+	}
+
+	private String intern(String name) {
+		String result= fNames.get(name);
+		if (result == null) {
+			fNames.put(name, name);
+			result= name;
+		}
+		return result;
+	}
+
+	/**
+	 * Drops the types that have not been selected for a long time.
+	 */
+	private synchronized void prune() {
+		fNames.clear();
+		for (Iterator<RHSScores> it= fLHSCache.values().iterator(); it.hasNext();) {
+			RHSScores scores= it.next();
+			scores.ensureLoaded(this);
+			scores.prune(fTime);
+			if (scores.fScores.isEmpty()) {
+				it.remove();
+			} else {
+				for (Iterator<String> names= scores.fScores.keySet().iterator(); names.hasNext();)
+					intern(names.next());
+			}
+		}
+	}
+
 	private IProgressMonitor getProgressMonitor() {
 		return new NullProgressMonitor();
 	}
@@ -466,7 +722,10 @@ public final class ContentAssistHistory {
 	 */
 	public static void store(ContentAssistHistory history, Preferences preferences, String key) throws CoreException {
 		StringWriter writer= new StringWriter();
-		new ReaderWriter().store(history, new StreamResult(writer));
+		synchronized (history) {
+			history.prune();
+			new ReaderWriter().store(history, new StreamResult(writer));
+		}
 		preferences.setValue(key, writer.toString());
 	}
 
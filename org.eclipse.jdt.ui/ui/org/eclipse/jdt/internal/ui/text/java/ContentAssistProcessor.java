@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2005, 2013 IBM Corporation and others.
+ * Copyright (c) 2005, 2014 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -19,11 +19,14 @@ import java.util.Comparator;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.WeakHashMap;
 
 import org.eclipse.swt.SWT;
 import org.eclipse.swt.events.SelectionAdapter;
 import org.eclipse.swt.events.SelectionEvent;
+import org.eclipse.swt.graphics.Point;
 import org.eclipse.swt.layout.GridData;
 import org.eclipse.swt.layout.GridLayout;
 import org.eclipse.swt.widgets.Button;
@@ -35,10 +38,14 @@ import org.eclipse.swt.widgets.Shell;
 import org.eclipse.core.runtime.Assert;
 import org.eclipse.core.runtime.CoreException;
 import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
 import org.eclipse.core.runtime.InvalidRegistryObjectException;
 import org.eclipse.core.runtime.NullProgressMonitor;
 import org.eclipse.core.runtime.Platform;
+import org.eclipse.core.runtime.Status;
 import org.eclipse.core.runtime.SubProgressMonitor;
+import org.eclipse.core.runtime.jobs.ISchedulingRule;
+import org.eclipse.core.runtime.jobs.Job;
 
 import org.eclipse.jface.action.LegacyActionTools;
 import org.eclipse.jface.bindings.TriggerSequence;
@@ -70,6 +77,7 @@ import org.eclipse.jdt.internal.corext.util.Messages;
 
 import org.eclipse.jdt.ui.PreferenceConstants;
 import org.eclipse.jdt.ui.text.java.ContentAssistInvocationContext;
+import org.eclipse.jdt.ui.text.java.JavaContentAssistInvocationContext;
 
 import org.eclipse.jdt.internal.ui.JavaPlugin;
 import org.eclipse.jdt.internal.ui.JavaUIMessages;
@@ -175,6 +183,8 @@ public class ContentAssistProcessor implements IContentAssistProcessor {
 			for (CompletionProposalCategory cat : getCategoriesToNotify()) {
 				cat.sessionEnded();
 			}
+			fPrefetcher.stop();
+			fLastProposals= null;
 
 			fCategoryIteration= null;
 			fRepetition= -1;
@@ -195,6 +205,15 @@ public class ContentAssistProcessor implements IContentAssistProcessor {
 		 * @see org.eclipse.jface.text.contentassist.ICompletionListener#selectionChanged(org.eclipse.jface.text.contentassist.ICompletionProposal, boolean)
 		 */
 		public void selectionChanged(ICompletionProposal proposal, boolean smartToggle) {
+			ICompletionProposal[] proposals= fLastProposals;
+			if (proposals == null)
+				return;
+			for (int i= 0; i < proposals.length; i++) {
+				if (proposals[i] == proposal) {
+					fPrefetcher.prefetch(proposals, i + 1);
+					return;
+				}
+			}
 		}
 
 		/*
@@ -208,6 +227,173 @@ public class ContentAssistProcessor implements IContentAssistProcessor {
 
 	private static final boolean DEBUG= "true".equalsIgnoreCase(Platform.getDebugOption("org.eclipse.jdt.ui/debug/ResultCollector"));  //$NON-NLS-1$//$NON-NLS-2$
 
+	/**
+	 * Preference key that enables the concurrent computation of completion proposals. In
+	 * concurrent mode, all proposal computers run in parallel and the proposals of computers that
+	 * exceed their time budget are left out.
+	 *
+	 * @since 3.10
+	 */
+	private static final String PREF_CONCURRENT_COMPUTATION= "content_assist_concurrent_computation"; //$NON-NLS-1$
+
+	/**
+	 * Preference key for the time in milliseconds that a proposal computer may take in concurrent
+	 * mode.
+	 *
+	 * @since 3.10
+	 */
+	private static final String PREF_COMPUTER_TIME_BUDGET= "content_assist_computer_time_budget"; //$NON-NLS-1$
+
+	/**
+	 * The time budget used if {@link #PREF_COMPUTER_TIME_BUDGET} is not set.
+	 *
+	 * @since 3.10
+	 */
+	private static final int DEFAULT_COMPUTER_TIME_BUDGET= 1000;
+
+	/**
+	 * The number of proposals whose additional info is prefetched ahead of the selection.
+	 *
+	 * @since 3.10
+	 */
+	private static final int PREFETCH_COUNT= 10;
+
+	/**
+	 * A job that resolves the additional info of the proposals that are shown next, so that it
+	 * is available without delay once a proposal gets selected.
+	 *
+	 * @since 3.10
+	 */
+	private static final class ProposalInfoPrefetcher extends Job {
+
+		private static final AbstractJavaCompletionProposal[] NO_PROPOSALS= new AbstractJavaCompletionProposal[0];
+
+		private volatile AbstractJavaCompletionProposal[] fProposals= NO_PROPOSALS;
+
+		ProposalInfoPrefetcher() {
+			super(JavaTextMessages.ContentAssistProcessor_computing_proposals);
+			setSystem(true);
+			setPriority(SHORT);
+		}
+
+		/**
+		 * Prefetches the additional info of up to {@link #PREFETCH_COUNT} proposals starting at
+		 * the given index. A prefetch that is still running is canceled.
+		 *
+		 * @param proposals the proposals in the order in which they are shown
+		 * @param start the index of the first proposal to prefetch
+		 */
+		void prefetch(ICompletionProposal[] proposals, int start) {
+			List<AbstractJavaCompletionProposal> prefetched= new ArrayList<AbstractJavaCompletionProposal>(PREFETCH_COUNT);
+			int end= Math.min(proposals.length, start + PREFETCH_COUNT);
+			for (int i= start; i < end; i++) {
+				if (proposals[i] instanceof AbstractJavaCompletionProposal)
+					prefetched.add((AbstractJavaCompletionProposal) proposals[i]);
+			}
+			cancel();
+			fProposals= prefetched.toArray(new AbstractJavaCompletionProposal[prefetched.size()]);
+			if (!prefetched.isEmpty())
+				schedule();
+		}
+
+		void stop() {
+			cancel();
+			fProposals= NO_PROPOSALS;
+		}
+
+		@Override
+		protected IStatus run(IProgressMonitor monitor) {
+			AbstractJavaCompletionProposal[] proposals= fProposals;
+			for (int i= 0; i < proposals.length; i++) {
+				if (monitor.isCanceled())
+					return Status.CANCEL_STATUS;
+				proposals[i].prefetchProposalInfo(monitor);
+			}
+			return Status.OK_STATUS;
+		}
+	}
+
+	/**
+	 * A job that computes the proposals of a single computer in concurrent mode.
+	 * <p>
+	 * Computers keep state per instance, so a job that has been canceled but is still running must
+	 * not overlap with the job of the next invocation. All jobs of a computer therefore use the same
+	 * {@link ComputerRule}.
+	 * </p>
+	 *
+	 * @since 3.10
+	 */
+	private static final class ComputerJob extends Job {
+
+		private final CompletionProposalCategory fCategory;
+		private final CompletionProposalComputerDescriptor fDescriptor;
+		private final ContentAssistInvocationContext fContext;
+		private final Point fSelection;
+		private final Object fLock;
+		/** The computed proposals, or <code>null</code> if not yet done. Guarded by <code>fLock</code>. */
+		private List<ICompletionProposal> fResult;
+		/** The error message of the computer after computing the proposals. Guarded by <code>fLock</code>. */
+		private String fErrorMessage;
+
+		ComputerJob(CompletionProposalCategory category, CompletionProposalComputerDescriptor descriptor, ContentAssistInvocationContext context, Point selection, Object lock) {
+			super(JavaTextMessages.ContentAssistProcessor_computing_proposals);
+			fCategory= category;
+			fDescriptor= descriptor;
+			fContext= context;
+			fSelection= selection;
+			fLock= lock;
+			setSystem(true);
+			setRule(getComputerRule(descriptor));
+		}
+
+		@Override
+		protected IStatus run(IProgressMonitor monitor) {
+			if (monitor.isCanceled())
+				return Status.CANCEL_STATUS;
+			List<ICompletionProposal> result= fDescriptor.computeCompletionProposals(fContext, monitor);
+			String errorMessage= fDescriptor.getErrorMessage();
+			synchronized (fLock) {
+				fResult= result;
+				fErrorMessage= errorMessage;
+				fLock.notifyAll();
+			}
+			return Status.OK_STATUS;
+		}
+	}
+
+	/**
+	 * A scheduling rule that lets only one {@link ComputerJob} of a computer run at a time.
+	 *
+	 * @since 3.10
+	 */
+	private static final class ComputerRule implements ISchedulingRule {
+		public boolean contains(ISchedulingRule rule) {
+			return rule == this;
+		}
+
+		public boolean isConflicting(ISchedulingRule rule) {
+			return rule == this;
+		}
+	}
+
+	/**
+	 * The scheduling rules of the computers, see {@link ComputerJob}.
+	 *
+	 * @since 3.10
+	 */
+	private static final Map<CompletionProposalComputerDescriptor, ISchedulingRule> fgComputerRules= new WeakHashMap<CompletionProposalComputerDescriptor, ISchedulingRule>();
+
+	private static ISchedulingRule getComputerRule(CompletionProposalComputerDescriptor descriptor) {
+		synchronized (fgComputerRules) {
+			ISchedulingRule rule= fgComputerRules.get(descriptor);
+			if (rule == null) {
+				rule= new ComputerRule();
+				fgComputerRules.put(descriptor, rule);
+			}
+			return rule;
+		}
+	}
+
 	/**
 	 * Dialog settings key for the "all categories are disabled" warning dialog. See
 	 * {@link OptionalMessageDialog}.
@@ -253,6 +439,21 @@ public class ContentAssistProcessor implements IContentAssistProcessor {
 	 */
 	private boolean fNeedsSortingAfterFiltering;
 
+	/**
+	 * The proposals returned by the last computation, in the order in which they are shown, or
+	 * <code>null</code> if no session is active or the popup sorts the proposals itself.
+	 *
+	 * @since 3.10
+	 */
+	private volatile ICompletionProposal[] fLastProposals;
+
+	/**
+	 * The job that prefetches the additional info of the proposals shown next.
+	 *
+	 * @since 3.10
+	 */
+	private final ProposalInfoPrefetcher fPrefetcher= new ProposalInfoPrefetcher();
+
 
 	public ContentAssistProcessor(ContentAssistant assistant, String partition) {
 		Assert.isNotNull(partition);
@@ -291,6 +492,14 @@ public class ContentAssistProcessor implements IContentAssistProcessor {
 		long filter= DEBUG ? System.currentTimeMillis() : 0;
 
 		ICompletionProposal[] result= proposals.toArray(new ICompletionProposal[proposals.size()]);
+		if (fNeedsSortingAfterFiltering) {
+			// the popup shows the proposals in the order of the sorter, which is not known here
+			fLastProposals= null;
+			fPrefetcher.stop();
+		} else {
+			fLastProposals= result;
+			fPrefetcher.prefetch(result, 0);
+		}
 		monitor.done();
 
 		if (DEBUG) {
@@ -318,6 +527,12 @@ public class ContentAssistProcessor implements IContentAssistProcessor {
 	 * @return the list of proposals
 	 */
 	private List<ICompletionProposal> collectProposals(ITextViewer viewer, int offset, IProgressMonitor monitor, ContentAssistInvocationContext context) {
+		IPreferenceStore store= JavaPlugin.getDefault().getPreferenceStore();
+		if (store.getBoolean(PREF_CONCURRENT_COMPUTATION)) {
+			int budget= store.getInt(PREF_COMPUTER_TIME_BUDGET);
+			return collectProposalsConcurrently(viewer, offset, monitor, budget > 0 ? budget : DEFAULT_COMPUTER_TIME_BUDGET);
+		}
+
 		boolean needsSortingAfterFiltering= false;
 		List<ICompletionProposal> proposals= new ArrayList<ICompletionProposal>();
 		List<CompletionProposalCategory> providers= getCategories();
@@ -328,10 +543,129 @@ public class ContentAssistProcessor implements IContentAssistProcessor {
 			if (fErrorMessage == null)
 				fErrorMessage= cat.getErrorMessage();
 		}
+		updateSortingAfterFiltering(needsSortingAfterFiltering);
+		return proposals;
+	}
+
+	/**
+	 * Collects the proposals by running all computers in parallel. Waits until all computers are
+	 * done or the time budget has expired, and returns the proposals of the computers that are
+	 * done, in the same order as {@link #collectProposals(ITextViewer, int, IProgressMonitor, ContentAssistInvocationContext)}
+	 * would. Computers that are still running are canceled, their proposals are dropped.
+	 * <p>
+	 * The invocation contexts compute their values lazily and are not thread-safe, so every
+	 * computer gets its own context. The values that have to be computed in the UI thread are
+	 * computed before the jobs are scheduled, see {@link #prepareContext(ContentAssistInvocationContext)}.
+	 * </p>
+	 * <p>
+	 * The proposals are not merged as the computers complete: the content assistant shows the
+	 * proposals only once this method has returned, and it cannot add proposals to an open popup.
+	 * Merging in the order of the categories keeps the list deterministic instead.
+	 * </p>
+	 *
+	 * @param viewer the text viewer
+	 * @param offset the offset
+	 * @param monitor the progress monitor
+	 * @param budget the time in milliseconds a computer may take
+	 * @return the list of proposals
+	 * @since 3.10
+	 */
+	private List<ICompletionProposal> collectProposalsConcurrently(ITextViewer viewer, int offset, IProgressMonitor monitor, long budget) {
+		// the selection is read here as computers must not access the widget from their jobs
+		Point selection= viewer.getSelectedRange();
+		// loads the history, which is not thread-safe, before the computers use it
+		JavaPlugin.getDefault().getContentAssistHistory();
+		Object lock= new Object();
+		List<ComputerJob> jobs= new ArrayList<ComputerJob>();
+		List<CompletionProposalCategory> providers= getCategories();
+		for (CompletionProposalCategory cat : providers) {
+			for (CompletionProposalComputerDescriptor desc : cat.getProposalComputerDescriptors(fPartition)) {
+				ContentAssistInvocationContext context= createContext(viewer, offset);
+				prepareContext(context);
+				jobs.add(new ComputerJob(cat, desc, context, selection, lock));
+			}
+		}
+		for (ComputerJob job : jobs)
+			job.schedule();
+
+		long deadline= System.currentTimeMillis() + budget;
+		boolean needsSortingAfterFiltering= false;
+		List<ICompletionProposal> proposals= new ArrayList<ICompletionProposal>();
+		synchronized (lock) {
+			try {
+				while (!isDone(jobs) && !monitor.isCanceled()) {
+					long remaining= deadline - System.currentTimeMillis();
+					if (remaining <= 0)
+						break;
+					lock.wait(remaining);
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+
+			for (ComputerJob job : jobs) {
+				List<ICompletionProposal> computed= job.fResult;
+				if (computed == null) {
+					job.cancel();
+					if (DEBUG)
+						System.err.println("Code Assist (timeout):\t" + job.fDescriptor.getId()); //$NON-NLS-1$
+					continue;
+				}
+				if (DEBUG)
+					System.err.println("Code Assist (" + job.fDescriptor.getId() + "):\t" + job.fDescriptor.getLastLatency()); //$NON-NLS-1$ //$NON-NLS-2$
+				proposals.addAll(computed);
+				needsSortingAfterFiltering= needsSortingAfterFiltering || (job.fCategory.isSortingAfterFilteringNeeded() && !computed.isEmpty());
+				if (fErrorMessage == null)
+					fErrorMessage= job.fErrorMessage;
+			}
+		}
+		monitor.worked(providers.size());
+		updateSortingAfterFiltering(needsSortingAfterFiltering);
+		return proposals;
+	}
+
+	/**
+	 * Computes the values of the given context that must be computed in the UI thread, before the
+	 * context is passed to a computer that runs in a job.
+	 *
+	 * @param context the invocation context
+	 * @since 3.10
+	 */
+	private static void prepareContext(ContentAssistInvocationContext context) {
+		if (context instanceof JavaContentAssistInvocationContext) {
+			// accesses the editor input
+			((JavaContentAssistInvocationContext) context).getCompilationUnit();
+		}
+	}
+
+	private static boolean isDone(List<ComputerJob> jobs) {
+		for (ComputerJob job : jobs) {
+			if (job.fResult == null)
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the selected range of the given viewer. Proposal computers must use this method
+	 * instead of {@link ITextViewer#getSelectedRange()}, as they do not run in the UI thread in
+	 * concurrent mode.
+	 *
+	 * @param viewer the text viewer of the invocation context
+	 * @return the selected range, see {@link ITextViewer#getSelectedRange()}
+	 * @since 3.10
+	 */
+	public static Point getSelectedRange(ITextViewer viewer) {
+		Job job= Job.getJobManager().currentJob();
+		if (job instanceof ComputerJob)
+			return ((ComputerJob) job).fSelection;
+		return viewer.getSelectedRange();
+	}
+
+	private void updateSortingAfterFiltering(boolean needsSortingAfterFiltering) {
 		if (fNeedsSortingAfterFiltering && !needsSortingAfterFiltering)
 			fAssistant.setSorter(null);
 		fNeedsSortingAfterFiltering= needsSortingAfterFiltering;
-		return proposals;
 	}
 
 	/**
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2005, 2012 IBM Corporation and others.
+ * Copyright (c) 2005, 2014 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -45,6 +45,13 @@ import org.eclipse.jdt.internal.ui.text.Symbols;
  * @since 3.2
  */
 public class JavaTypeCompletionProposalComputer extends JavaCompletionProposalComputer {
+
+	/**
+	 * The maximum number of types from the content assist history that are proposed in addition to
+	 * the types found by code assist.
+	 */
+	private static final int MAX_HISTORY_TYPES= 10;
+
 	/*
 	 * @see org.eclipse.jdt.internal.ui.text.java.JavaCompletionProposalComputer#createCollector(org.eclipse.jdt.ui.text.java.JavaContentAssistInvocationContext)
 	 */
@@ -89,6 +96,9 @@ public class JavaTypeCompletionProposalComputer extends JavaCompletionProposalCo
 
 					// insert history types
 					List<String> history= JavaPlugin.getDefault().getContentAssistHistory().getHistory(expectedType.getFullyQualifiedName()).getTypes();
+					// the history is ordered by rank, only insert the highest ranked types
+					if (history.size() > MAX_HISTORY_TYPES)
+						history= history.subList(history.size() - MAX_HISTORY_TYPES, history.size());
 					relevance-= history.size() + 1;
 					for (Iterator<String> it= history.iterator(); it.hasNext();) {
 						String type= it.next();
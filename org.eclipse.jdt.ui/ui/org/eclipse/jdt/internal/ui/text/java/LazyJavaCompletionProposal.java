@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2000, 2013 IBM Corporation and others.
+ * Copyright (c) 2000, 2014 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -165,7 +165,7 @@ public class LazyJavaCompletionProposal extends AbstractJavaCompletionProposal {
 	 *         exists
 	 */
 	@Override
-	protected final ProposalInfo getProposalInfo() {
+	protected final synchronized ProposalInfo getProposalInfo() {
 		if (!fProposalInfoComputed)
 			setProposalInfo(computeProposalInfo());
 		return super.getProposalInfo();
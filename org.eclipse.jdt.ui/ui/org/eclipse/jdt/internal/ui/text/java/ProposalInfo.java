@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2000, 2013 IBM Corporation and others.
+ * Copyright (c) 2000, 2014 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -17,6 +17,7 @@ import org.eclipse.jdt.core.IJavaElement;
 import org.eclipse.jdt.core.IMember;
 import org.eclipse.jdt.core.IPackageDeclaration;
 import org.eclipse.jdt.core.IPackageFragment;
+import org.eclipse.jdt.core.IPackageFragmentRoot;
 import org.eclipse.jdt.core.JavaModelException;
 
 import org.eclipse.jdt.internal.corext.javadoc.JavaDocLocations;
@@ -52,11 +53,14 @@ public class ProposalInfo {
 	/**
 	 * Gets the text for this proposal info formatted as HTML, or
 	 * <code>null</code> if no text is available.
+	 * <p>
+	 * This method may be called from a background thread to prefetch the text.
+	 * </p>
 	 *
 	 * @param monitor a progress monitor
 	 * @return the additional info text
 	 */
-	public final String getInfo(IProgressMonitor monitor) {
+	public final synchronized String getInfo(IProgressMonitor monitor) {
 		if (!fJavadocResolved) {
 			fJavadocResolved= true;
 			fJavadoc= computeInfo(monitor);
@@ -64,6 +68,26 @@ public class ProposalInfo {
 		return fJavadoc;
 	}
 
+	/**
+	 * Returns whether the text can be computed from local sources. This is not the case for
+	 * elements of binary roots without source attachment, whose Javadoc may have to be fetched
+	 * from a Javadoc location on the network.
+	 *
+	 * @return <code>true</code> if the Java element is in a source folder or in a binary root with
+	 *         source attachment
+	 * @throws JavaModelException if accessing the java model fails
+	 * @since 3.10
+	 */
+	boolean hasLocalInfo() throws JavaModelException {
+		IJavaElement element= getJavaElement();
+		if (element == null)
+			return false;
+		IPackageFragmentRoot root= (IPackageFragmentRoot) element.getAncestor(IJavaElement.PACKAGE_FRAGMENT_ROOT);
+		if (root == null)
+			return false;
+		return root.getKind() == IPackageFragmentRoot.K_SOURCE || root.getSourceAttachmentPath() != null;
+	}
+
 	/**
 	 * Gets the text for this proposal info formatted as HTML, or
 	 * <code>null</code> if no text is available.
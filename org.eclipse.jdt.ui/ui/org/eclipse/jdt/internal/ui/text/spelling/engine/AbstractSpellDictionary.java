@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2000, 2011 IBM Corporation and others.
+ * Copyright (c) 2000, 2014 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -11,26 +11,29 @@
 package org.eclipse.jdt.internal.ui.text.spelling.engine;
 
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.UnsupportedEncodingException;
+import java.net.JarURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.net.URLConnection;
 import java.nio.charset.Charset;
 import java.nio.charset.CharsetDecoder;
 import java.nio.charset.CodingErrorAction;
 import java.nio.charset.MalformedInputException;
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
-import java.util.Map;
 import java.util.Set;
 
+import org.eclipse.osgi.service.datalocation.Location;
+
+import org.eclipse.core.runtime.FileLocator;
 import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Platform;
 import org.eclipse.core.runtime.Status;
 
 import org.eclipse.core.resources.ResourcesPlugin;
@@ -52,52 +55,6 @@ import org.eclipse.jdt.internal.ui.viewsupport.BasicElementLabels;
  */
 public abstract class AbstractSpellDictionary implements ISpellDictionary {
 
-	/**
-	 * Byte array wrapper
-	 * @since 3.6
-	 */
-	private static class ByteArrayWrapper {
-
-		private static int hashCode(byte[] array) {
-			int prime= 31;
-			if (array == null)
-				return 0;
-			int result= 1;
-			for (int index= 0; index < array.length; index++) {
-				result= prime * result + array[index];
-			}
-			return result;
-		}
-
-		private byte[] byteArray;
-
-		public ByteArrayWrapper(byte[] byteArray) {
-			this.byteArray= byteArray;
-		}
-		@Override
-		public int hashCode() {
-			final int prime= 31;
-			int result= 1;
-			result= prime * result + ByteArrayWrapper.hashCode(byteArray);
-			return result;
-		}
-
-		@Override
-		public boolean equals(Object obj) {
-			if (this == obj)
-				return true;
-			if (obj == null)
-				return false;
-			if (!(obj instanceof ByteArrayWrapper))
-				return false;
-			ByteArrayWrapper other= (ByteArrayWrapper)obj;
-			if (!Arrays.equals(byteArray, other.byteArray))
-				return false;
-			return true;
-		}
-	}
-
-	
 	/**
 	 * Canonical name for UTF-8 encoding
 	 * @since 3.6
@@ -119,17 +76,42 @@ public abstract class AbstractSpellDictionary implements ISpellDictionary {
 	 */
 	protected static final float LOAD_FACTOR= 0.85f;
 
+	/**
+	 * The maximal number of candidates considered per phonetic hash, see
+	 * https://bugs.eclipse.org/bugs/show_bug.cgi?id=195357
+	 * @since 3.10
+	 */
+	private static final int MAX_CANDIDATES= 500;
+
+	/**
+	 * The folder containing the precompiled dictionaries
+	 * @since 3.10
+	 */
+	private static final String PRECOMPILED_FOLDER= "dictionaries"; //$NON-NLS-1$
+
+	/**
+	 * The file extension of precompiled dictionaries
+	 * @since 3.10
+	 */
+	private static final String PRECOMPILED_EXTENSION= ".dictionary.bin"; //$NON-NLS-1$
+
 	/** The phonetic distance algorithm */
 	private IPhoneticDistanceAlgorithm fDistanceAlgorithm= new DefaultPhoneticDistanceAlgorithm();
 
 	/** The mapping from phonetic hashes to word lists */
-	private final Map<ByteArrayWrapper, Object> fHashBuckets= new HashMap<ByteArrayWrapper, Object>(getInitialSize(), LOAD_FACTOR);
+	private final PhoneticWordTable fHashBuckets= new PhoneticWordTable(getInitialSize());
+
+	/**
+	 * The memory mapped precompiled word list, or <code>null</code> if none
+	 * @since 3.10
+	 */
+	private volatile PrecompiledWordTable fPrecompiledWords;
 
 	/** The phonetic hash provider */
 	private IPhoneticHashProvider fHashProvider= new DefaultPhoneticHashProvider();
 
 	/** Is the dictionary already loaded? */
-	private boolean fLoaded= false;
+	private volatile boolean fLoaded= false;
 	/**
 	 * Must the dictionary be loaded?
 	 * @since 3.2
@@ -157,17 +139,36 @@ public abstract class AbstractSpellDictionary implements ISpellDictionary {
 	 *
 	 * @param hash
 	 *                   The hash to retrieve the candidates of
-	 * @return Array of candidates for the phonetic hash
+	 * @param max
+	 *                   The maximal number of candidates to return
+	 * @return Array of UTF-8 encoded candidates for the phonetic hash, or <code>null</code> if
+	 *               there are none
 	 */
-	protected final Object getCandidates(final String hash) {
-		ByteArrayWrapper hashBytes;
+	protected final byte[][] getCandidates(final String hash, final int max) {
+		byte[] hashBytes;
 		try {
-			hashBytes= new ByteArrayWrapper(hash.getBytes(UTF_8));
+			hashBytes= hash.getBytes(UTF_8);
 		} catch (UnsupportedEncodingException e) {
 			JavaPlugin.log(e);
 			return null;
 		}
-		return fHashBuckets.get(hashBytes);
+
+		PrecompiledWordTable precompiledWords= fPrecompiledWords;
+		if (precompiledWords == null)
+			return fHashBuckets.getWords(hashBytes, max);
+
+		byte[][] candidates= precompiledWords.getWords(hashBytes, max);
+		if (candidates == null)
+			return fHashBuckets.getWords(hashBytes, max);
+
+		byte[][] added= fHashBuckets.getWords(hashBytes, max - candidates.length);
+		if (added == null)
+			return candidates;
+
+		byte[][] result= new byte[candidates.length + added.length][];
+		System.arraycopy(candidates, 0, result, 0, candidates.length);
+		System.arraycopy(added, 0, result, candidates.length, added.length);
+		return result;
 	}
 
 	/**
@@ -195,36 +196,15 @@ public abstract class AbstractSpellDictionary implements ISpellDictionary {
 
 			hash= hashs.get(index);
 
-			final Object candidates= getCandidates(hash);
+			final byte[][] candidates= getCandidates(hash, MAX_CANDIDATES);
 			if (candidates == null)
 				continue;
-			else if (candidates instanceof byte[]) {
-				String candidate;
-				try {
-					candidate= new String((byte[])candidates, UTF_8);
-				} catch (UnsupportedEncodingException e) {
-					JavaPlugin.log(e);
-					return result;
-				}
-				distance= fDistanceAlgorithm.getDistance(word, candidate);
-				if (distance < DISTANCE_THRESHOLD) {
-					buffer.setLength(0);
-					buffer.append(candidate);
-					if (sentence)
-						buffer.setCharAt(0, Character.toUpperCase(buffer.charAt(0)));
-					result.add(new RankedWordProposal(buffer.toString(), -distance));
-				}
-				continue;
-			}
 
-			@SuppressWarnings("unchecked")
-			final ArrayList<byte[]> candidateList= (ArrayList<byte[]>)candidates;
-			int candidateSize= Math.min(500, candidateList.size()); // see https://bugs.eclipse.org/bugs/show_bug.cgi?id=195357
-			for (int offset= 0; offset < candidateSize; offset++) {
+			for (int offset= 0; offset < candidates.length; offset++) {
 
 				String candidate;
 				try {
-					candidate= new String(candidateList.get(offset), UTF_8);
+					candidate= new String(candidates[offset], UTF_8);
 				} catch (UnsupportedEncodingException e) {
 					JavaPlugin.log(e);
 					return result;
@@ -266,33 +246,16 @@ public abstract class AbstractSpellDictionary implements ISpellDictionary {
 
 		StringBuffer buffer= new StringBuffer(BUFFER_CAPACITY);
 
-		final Object candidates= getCandidates(fHashProvider.getHash(word));
+		final byte[][] candidates= getCandidates(fHashProvider.getHash(word), Integer.MAX_VALUE);
 		if (candidates == null)
 			return;
-		else if (candidates instanceof byte[]) {
-			String candidate;
-			try {
-				candidate= new String((byte[])candidates, UTF_8);
-			} catch (UnsupportedEncodingException e) {
-				JavaPlugin.log(e);
-				return;
-			}
-			distance= fDistanceAlgorithm.getDistance(word, candidate);
-			buffer.append(candidate);
-			if (sentence)
-				buffer.setCharAt(0, Character.toUpperCase(buffer.charAt(0)));
-			result.add(new RankedWordProposal(buffer.toString(), -distance));
-			return;
-		}
 
-		@SuppressWarnings("unchecked")
-		final ArrayList<byte[]> candidateList= (ArrayList<byte[]>)candidates;
-		final ArrayList<RankedWordProposal> matches= new ArrayList<RankedWordProposal>(candidateList.size());
+		final ArrayList<RankedWordProposal> matches= new ArrayList<RankedWordProposal>(candidates.length);
 
-		for (int index= 0; index < candidateList.size(); index++) {
+		for (int index= 0; index < candidates.length; index++) {
 			String candidate;
 			try {
-				candidate= new String(candidateList.get(index), UTF_8);
+				candidate= new String(candidates[index], UTF_8);
 			} catch (UnsupportedEncodingException e) {
 				JavaPlugin.log(e);
 				return;
@@ -325,7 +288,8 @@ public abstract class AbstractSpellDictionary implements ISpellDictionary {
 	 * @since 3.3
 	 */
 	protected boolean isEmpty() {
-		return fHashBuckets.size() == 0;
+		PrecompiledWordTable precompiledWords= fPrecompiledWords;
+		return fHashBuckets.isEmpty() && (precompiledWords == null || precompiledWords.isEmpty());
 	}
 
 	/**
@@ -346,24 +310,35 @@ public abstract class AbstractSpellDictionary implements ISpellDictionary {
 		return fHashProvider;
 	}
 
+	/**
+	 * Loads the dictionary if it is not loaded yet. Once the dictionary is loaded no lock is
+	 * acquired.
+	 *
+	 * @since 3.10
+	 */
+	private void ensureLoaded() {
+		if (fLoaded)
+			return;
+
+		synchronized (this) {
+			if (fLoaded)
+				return;
+			try {
+				fLoaded= load(getURL());
+				if (fLoaded)
+					compact();
+			} catch (MalformedURLException exception) {
+				// Do nothing
+			}
+		}
+	}
+
 	/*
 	 * @see org.eclipse.jdt.internal.ui.text.spelling.engine.ISpellDictionary#getProposals(java.lang.String,boolean)
 	 */
 	public Set<RankedWordProposal> getProposals(final String word, final boolean sentence) {
 
-		try {
-
-			if (!fLoaded) {
-				synchronized (this) {
-					fLoaded= load(getURL());
-					if (fLoaded)
-						compact();
-				}
-			}
-
-		} catch (MalformedURLException exception) {
-			// Do nothing
-		}
+		ensureLoaded();
 
 		final String hash= fHashProvider.getHash(word);
 		final char[] mutators= fHashProvider.getMutators();
@@ -477,30 +452,17 @@ public abstract class AbstractSpellDictionary implements ISpellDictionary {
 	protected final void hashWord(final String word) {
 
 		final String hash= fHashProvider.getHash(word);
-		ByteArrayWrapper hashBytes;
+		byte[] hashBytes;
 		byte[] wordBytes;
 		try {
-			hashBytes= new ByteArrayWrapper(hash.getBytes(UTF_8));
+			hashBytes= hash.getBytes(UTF_8);
 			wordBytes= word.getBytes(UTF_8);
 		} catch (UnsupportedEncodingException e) {
 			JavaPlugin.log(e);
 			return;
 		}
 
-		Object bucket= fHashBuckets.get(hashBytes);
-
-		if (bucket == null) {
-			fHashBuckets.put(hashBytes, wordBytes);
-		} else if (bucket instanceof ArrayList) {
-			@SuppressWarnings("unchecked")
-			ArrayList<byte[]> bucketList= (ArrayList<byte[]>)bucket;
-			bucketList.add(wordBytes);
-		} else {
-			ArrayList<Object> list= new ArrayList<Object>(BUCKET_CAPACITY);
-			list.add(bucket);
-			list.add(wordBytes);
-			fHashBuckets.put(hashBytes, list);
-		}
+		fHashBuckets.add(hashBytes, wordBytes);
 	}
 
 	/*
@@ -508,53 +470,24 @@ public abstract class AbstractSpellDictionary implements ISpellDictionary {
 	 */
 	public boolean isCorrect(String word) {
 		word= stripNonLetters(word);
-		try {
+		ensureLoaded();
 
-			if (!fLoaded) {
-				synchronized (this) {
-					fLoaded= load(getURL());
-					if (fLoaded)
-						compact();
-				}
-			}
-
-		} catch (MalformedURLException exception) {
-			// Do nothing
-		}
-
-		final Object candidates= getCandidates(fHashProvider.getHash(word));
-		if (candidates == null)
-			return false;
-		else if (candidates instanceof byte[]) {
-			String candidate;
-			try {
-				candidate= new String((byte[])candidates, UTF_8);
-			} catch (UnsupportedEncodingException e) {
-				JavaPlugin.log(e);
-				return false;
-			}
-			if (candidate.equals(word) || candidate.equals(word.toLowerCase()))
-				return true;
-			return false;
-		}
-		@SuppressWarnings("unchecked")
-		final ArrayList<byte[]> candidateList= (ArrayList<byte[]>)candidates;
+		byte[] hashBytes;
 		byte[] wordBytes;
 		byte[] lowercaseWordBytes;
 		try {
+			hashBytes= fHashProvider.getHash(word).getBytes(UTF_8);
 			wordBytes= word.getBytes(UTF_8);
 			lowercaseWordBytes= word.toLowerCase().getBytes(UTF_8);
 		} catch (UnsupportedEncodingException e) {
 			JavaPlugin.log(e);
 			return false;
 		}
-		for (int index= 0; index < candidateList.size(); index++) {
-			byte[] candidate= candidateList.get(index);
-			if (Arrays.equals(candidate, wordBytes) || Arrays.equals(candidate, lowercaseWordBytes)) {
-				return true;
-			}
-		}
-		return false;
+		byte[][] words= new byte[][] { wordBytes, lowercaseWordBytes };
+		PrecompiledWordTable precompiledWords= fPrecompiledWords;
+		if (precompiledWords != null && precompiledWords.contains(hashBytes, words))
+			return true;
+		return fHashBuckets.contains(hashBytes, words);
 	}
 
 	/*
@@ -595,12 +528,16 @@ public abstract class AbstractSpellDictionary implements ISpellDictionary {
 	/*
 	 * @see org.eclipse.jdt.ui.text.spelling.engine.ISpellDictionary#isLoaded()
 	 */
-	public synchronized final boolean isLoaded() {
-		return fLoaded || fHashBuckets.size() > 0;
+	public final boolean isLoaded() {
+		return fLoaded || !isEmpty();
 	}
 
 	/**
 	 * Loads a dictionary word list from disk.
+	 * <p>
+	 * The word list is compiled into a binary file which is memory mapped when the dictionary is
+	 * loaded again later on. The binary file is rebuilt when the word list has changed.
+	 * </p>
 	 *
 	 * @param url
 	 *                   The URL of the word list to load
@@ -612,6 +549,18 @@ public abstract class AbstractSpellDictionary implements ISpellDictionary {
 			 return fLoaded;
 
 		if (url != null) {
+			String source= url.toString() + '|' + getEncoding() + '|' + fHashProvider.getClass().getName();
+			long stamp= getModificationStamp(url);
+			File precompiledFile= stamp != -1 ? getPrecompiledFile(source, stamp) : null;
+			if (precompiledFile != null) {
+				PrecompiledWordTable precompiledWords= PrecompiledWordTable.open(precompiledFile, source, stamp);
+				if (precompiledWords != null) {
+					fPrecompiledWords= precompiledWords;
+					fMustLoad= false;
+					return true;
+				}
+			}
+
 			InputStream stream= null;
 			int line= 0;
 			try {
@@ -647,6 +596,8 @@ public abstract class AbstractSpellDictionary implements ISpellDictionary {
 						if (doRead)
 							hashWord(word);
 					}
+					if (precompiledFile != null)
+						precompile(precompiledFile, source, stamp);
 					return true;
 				}
 			} catch (FileNotFoundException ex) {
@@ -679,18 +630,119 @@ public abstract class AbstractSpellDictionary implements ISpellDictionary {
 		return false;
 	}
 
+	/**
+	 * Writes the loaded words to a precompiled dictionary and replaces them by its memory mapped
+	 * content.
+	 *
+	 * @param file the precompiled dictionary file
+	 * @param source the identifier of the word list
+	 * @param stamp the modification stamp of the word list
+	 * @since 3.10
+	 */
+	private void precompile(File file, String source, long stamp) {
+		if (!PrecompiledWordTable.write(file, source, stamp, fHashBuckets))
+			return;
+		deleteOutdatedPrecompiledFiles(file, source);
+
+		PrecompiledWordTable precompiledWords= PrecompiledWordTable.open(file, source, stamp);
+		if (precompiledWords != null) {
+			fPrecompiledWords= precompiledWords;
+			fHashBuckets.clear();
+		}
+	}
+
+	/**
+	 * Deletes the precompiled dictionaries of former versions of a word list. Files which are
+	 * still mapped, for example by another instance sharing the configuration area, cannot be
+	 * deleted on all platforms and are deleted by a later load.
+	 *
+	 * @param file the current precompiled dictionary file
+	 * @param source the identifier of the word list
+	 * @since 3.10
+	 */
+	private static void deleteOutdatedPrecompiledFiles(File file, String source) {
+		File[] files= file.getParentFile().listFiles();
+		if (files == null)
+			return;
+		String prefix= getPrecompiledFilePrefix(source);
+		for (int i= 0; i < files.length; i++) {
+			String name= files[i].getName();
+			if (name.startsWith(prefix) && name.endsWith(PRECOMPILED_EXTENSION) && !files[i].equals(file))
+				files[i].delete();
+		}
+	}
+
+	private static String getPrecompiledFilePrefix(String source) {
+		return Integer.toHexString(source.hashCode()) + '-';
+	}
+
+	/**
+	 * Returns the location of the precompiled dictionary for a version of a word list. Precompiled
+	 * dictionaries are stored in the configuration area, so that they are shared by all
+	 * workspaces, or in the state location of the plug-in if the configuration area is read-only.
+	 * A new version of the word list gets a new file, so that a file is never replaced while it
+	 * is mapped.
+	 *
+	 * @param source the identifier of the word list
+	 * @param stamp the modification stamp of the word list
+	 * @return the file, or <code>null</code> if there is no location for precompiled dictionaries
+	 * @since 3.10
+	 */
+	private static File getPrecompiledFile(String source, long stamp) {
+		String name= getPrecompiledFilePrefix(source) + Long.toHexString(stamp) + PRECOMPILED_EXTENSION;
+
+		Location configuration= Platform.getConfigurationLocation();
+		if (configuration != null && !configuration.isReadOnly()) {
+			URL configurationURL= configuration.getURL();
+			if (configurationURL != null && "file".equals(configurationURL.getProtocol())) { //$NON-NLS-1$
+				File folder= new File(new File(configurationURL.getPath(), JavaUI.ID_PLUGIN), PRECOMPILED_FOLDER);
+				return new File(folder, name);
+			}
+		}
+
+		JavaPlugin plugin= JavaPlugin.getDefault();
+		if (plugin == null)
+			return null;
+		return plugin.getStateLocation().append(PRECOMPILED_FOLDER).append(name).toFile();
+	}
+
+	/**
+	 * Returns a stamp that changes whenever the word list at the given URL changes. Word lists
+	 * inside a JAR are stamped with the JAR file.
+	 *
+	 * @param url the URL of the word list
+	 * @return the stamp, or <code>-1</code> if the word list is not stored in the local file
+	 *         system
+	 * @since 3.10
+	 */
+	private static long getModificationStamp(URL url) {
+		try {
+			URL resolved= FileLocator.resolve(url);
+			if ("jar".equals(resolved.getProtocol())) { //$NON-NLS-1$
+				URLConnection connection= resolved.openConnection();
+				if (!(connection instanceof JarURLConnection))
+					return -1;
+				resolved= ((JarURLConnection)connection).getJarFileURL();
+			}
+			if (!"file".equals(resolved.getProtocol())) //$NON-NLS-1$
+				return -1;
+
+			File file= new File(resolved.getPath());
+			if (!file.isFile())
+				return -1;
+			return file.lastModified() * 31 + file.length();
+		} catch (IOException e) {
+			return -1;
+		}
+	}
+
 	/**
 	 * Compacts the dictionary.
 	 *
 	 * @since 3.3.
 	 */
 	private void compact() {
-		Iterator<Object> iter= fHashBuckets.values().iterator();
-		while (iter.hasNext()) {
-			Object element= iter.next();
-			if (element instanceof ArrayList)
-				((ArrayList<?>)element).trimToSize();
-		}
+		fHashBuckets.trimToSize();
 	}
 
 	/**
@@ -720,6 +772,7 @@ public abstract class AbstractSpellDictionary implements ISpellDictionary {
 		fLoaded= false;
 		fMustLoad= true;
 		fHashBuckets.clear();
+		fPrecompiledWords= null;
 	}
 
 	/*
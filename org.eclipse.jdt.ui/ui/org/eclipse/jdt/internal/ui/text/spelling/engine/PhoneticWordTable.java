@@ -0,0 +1,381 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.jdt.internal.ui.text.spelling.engine;
+
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Compact table that maps phonetic hashes to the words having that hash.
+ * <p>
+ * Hashes and words are stored as UTF-8 bytes in a single contiguous byte arena. The table
+ * is an open addressing hash table of <code>int</code> indices into flat arrays, so that
+ * no object is allocated per word.
+ * </p>
+ * <p>
+ * Modifications are synchronized. Lookups are not: all arrays of a table generation are
+ * only appended to, and the number of keys and words of a generation is published through
+ * volatile fields after the entries have been written. Readers ignore entries beyond the
+ * published counts. Growing the table publishes a new generation.
+ * </p>
+ *
+ * @since 3.10
+ */
+public final class PhoneticWordTable {
+
+	/**
+	 * One generation of the table.
+	 */
+	private static final class Table {
+
+		/** Maps slots to key indices plus one, <code>0</code> for empty slots */
+		final int[] fSlots;
+
+		/** Offsets of the keys in the arena */
+		final int[] fKeyOffsets;
+
+		/** Lengths of the keys */
+		final int[] fKeyLengths;
+
+		/** Hash codes of the keys */
+		final int[] fKeyHashCodes;
+
+		/** Index of the first word of each key */
+		final int[] fFirstWords;
+
+		/** Index of the last word of each key */
+		final int[] fLastWords;
+
+		/** Offsets of the words in the arena */
+		final int[] fWordOffsets;
+
+		/** Lengths of the words */
+		final int[] fWordLengths;
+
+		/** Index of the next word with the same key, or <code>-1</code> */
+		final int[] fNextWords;
+
+		/** The bytes of all keys and words */
+		final byte[] fArena;
+
+		/** The number of used bytes in the arena */
+		int fArenaSize;
+
+		/** The number of published keys */
+		volatile int fKeyCount;
+
+		/** The number of published words */
+		volatile int fWordCount;
+
+		Table(int slots, int keys, int words, int bytes) {
+			fSlots= new int[slots];
+			fKeyOffsets= new int[keys];
+			fKeyLengths= new int[keys];
+			fKeyHashCodes= new int[keys];
+			fFirstWords= new int[keys];
+			fLastWords= new int[keys];
+			fWordOffsets= new int[words];
+			fWordLengths= new int[words];
+			fNextWords= new int[words];
+			fArena= new byte[bytes];
+		}
+
+		Table(Table table, int slots, int keys, int words, int bytes) {
+			this(slots, keys, words, bytes);
+
+			int keyCount= table.fKeyCount;
+			int wordCount= table.fWordCount;
+			System.arraycopy(table.fKeyOffsets, 0, fKeyOffsets, 0, keyCount);
+			System.arraycopy(table.fKeyLengths, 0, fKeyLengths, 0, keyCount);
+			System.arraycopy(table.fKeyHashCodes, 0, fKeyHashCodes, 0, keyCount);
+			System.arraycopy(table.fFirstWords, 0, fFirstWords, 0, keyCount);
+			System.arraycopy(table.fLastWords, 0, fLastWords, 0, keyCount);
+			System.arraycopy(table.fWordOffsets, 0, fWordOffsets, 0, wordCount);
+			System.arraycopy(table.fWordLengths, 0, fWordLengths, 0, wordCount);
+			System.arraycopy(table.fNextWords, 0, fNextWords, 0, wordCount);
+			System.arraycopy(table.fArena, 0, fArena, 0, table.fArenaSize);
+			fArenaSize= table.fArenaSize;
+
+			if (slots == table.fSlots.length) {
+				System.arraycopy(table.fSlots, 0, fSlots, 0, slots);
+			} else {
+				for (int key= 0; key < keyCount; key++) {
+					fSlots[findFreeSlot(fKeyHashCodes[key])]= key + 1;
+				}
+			}
+			fWordCount= wordCount;
+			fKeyCount= keyCount;
+		}
+
+		int findFreeSlot(int hashCode) {
+			int mask= fSlots.length - 1;
+			int slot= hashCode & mask;
+			while (fSlots[slot] != 0)
+				slot= (slot + 1) & mask;
+			return slot;
+		}
+
+		int findKey(byte[] key, int hashCode, int keyCount) {
+			int mask= fSlots.length - 1;
+			int slot= hashCode & mask;
+			int entry;
+			while ((entry= fSlots[slot]) != 0) {
+				int index= entry - 1;
+				if (index < keyCount && fKeyHashCodes[index] == hashCode && matches(fKeyOffsets[index], fKeyLengths[index], key))
+					return index;
+				slot= (slot + 1) & mask;
+			}
+			return -1;
+		}
+
+		boolean matches(int offset, int length, byte[] bytes) {
+			if (length != bytes.length)
+				return false;
+			for (int index= 0; index < length; index++) {
+				if (fArena[offset + index] != bytes[index])
+					return false;
+			}
+			return true;
+		}
+
+		int append(byte[] bytes) {
+			int offset= fArenaSize;
+			System.arraycopy(bytes, 0, fArena, offset, bytes.length);
+			fArenaSize+= bytes.length;
+			return offset;
+		}
+	}
+
+	/** The maximal load of the slots */
+	private static final float LOAD_FACTOR= 0.75f;
+
+	/** The average number of bytes assumed per key and word when sizing the arena */
+	private static final int BYTES_PER_ENTRY= 8;
+
+	/** The initial number of keys */
+	private final int fInitialSize;
+
+	/** The current generation */
+	private volatile Table fTable;
+
+	/**
+	 * Creates a new table.
+	 *
+	 * @param initialSize the expected number of phonetic hashes
+	 */
+	public PhoneticWordTable(int initialSize) {
+		fInitialSize= Math.max(initialSize, 4);
+		fTable= createTable(fInitialSize);
+	}
+
+	private static Table createTable(int size) {
+		return new Table(getSlotCount(size), size, size, 2 * size * BYTES_PER_ENTRY);
+	}
+
+	private static int getSlotCount(int keys) {
+		int slots= 1;
+		while (slots * LOAD_FACTOR <= keys)
+			slots<<= 1;
+		return slots;
+	}
+
+	/**
+	 * Returns the hash code of a phonetic hash. The slot of the hash is taken from the lower bits.
+	 *
+	 * @param bytes the UTF-8 bytes of the phonetic hash
+	 * @return the hash code
+	 */
+	public static int hashCode(byte[] bytes) {
+		int result= 1;
+		for (int index= 0; index < bytes.length; index++)
+			result= 31 * result + bytes[index];
+		// spread the higher bits, since the slot is taken from the lower bits
+		return result ^ (result >>> 16);
+	}
+
+	/**
+	 * Adds a word for the given phonetic hash.
+	 *
+	 * @param hash the UTF-8 bytes of the phonetic hash
+	 * @param word the UTF-8 bytes of the word
+	 */
+	public synchronized void add(byte[] hash, byte[] word) {
+		int hashCode= hashCode(hash);
+		Table table= fTable;
+		int key= table.findKey(hash, hashCode, table.fKeyCount);
+		if (key == -1)
+			table= ensureCapacity(table, 1, hash.length + word.length);
+		else
+			table= ensureCapacity(table, 0, word.length);
+
+		int wordIndex= table.fWordCount;
+		table.fWordOffsets[wordIndex]= table.append(word);
+		table.fWordLengths[wordIndex]= word.length;
+		table.fNextWords[wordIndex]= -1;
+
+		if (key == -1) {
+			key= table.fKeyCount;
+			table.fKeyOffsets[key]= table.append(hash);
+			table.fKeyLengths[key]= hash.length;
+			table.fKeyHashCodes[key]= hashCode;
+			table.fFirstWords[key]= wordIndex;
+			table.fLastWords[key]= wordIndex;
+			table.fSlots[table.findFreeSlot(hashCode)]= key + 1;
+			table.fWordCount= wordIndex + 1;
+			table.fKeyCount= key + 1;
+		} else {
+			table.fNextWords[table.fLastWords[key]]= wordIndex;
+			table.fLastWords[key]= wordIndex;
+			table.fWordCount= wordIndex + 1;
+		}
+	}
+
+	private Table ensureCapacity(Table table, int newKeys, int newBytes) {
+		int keyCount= table.fKeyCount + newKeys;
+		int wordCount= table.fWordCount + 1;
+		int arenaSize= table.fArenaSize + newBytes;
+
+		int slots= table.fSlots.length;
+		if (keyCount > slots * LOAD_FACTOR)
+			slots<<= 1;
+		int keys= table.fKeyOffsets.length;
+		if (keyCount > keys)
+			keys<<= 1;
+		int words= table.fWordOffsets.length;
+		if (wordCount > words)
+			words<<= 1;
+		int bytes= table.fArena.length;
+		while (arenaSize > bytes)
+			bytes<<= 1;
+
+		if (slots == table.fSlots.length && keys == table.fKeyOffsets.length && words == table.fWordOffsets.length && bytes == table.fArena.length)
+			return table;
+
+		Table result= new Table(table, slots, keys, words, bytes);
+		fTable= result;
+		return result;
+	}
+
+	/**
+	 * Returns the words with the given phonetic hash in the order they have been added.
+	 *
+	 * @param hash the UTF-8 bytes of the phonetic hash
+	 * @param max the maximal number of words to return
+	 * @return the UTF-8 bytes of the words, or <code>null</code> if there are none
+	 */
+	public byte[][] getWords(byte[] hash, int max) {
+		Table table= fTable;
+		int wordCount= table.fWordCount;
+		int key= table.findKey(hash, hashCode(hash), table.fKeyCount);
+		if (key == -1)
+			return null;
+
+		int size= 0;
+		for (int word= table.fFirstWords[key]; word != -1 && word < wordCount && size < max; word= table.fNextWords[word])
+			size++;
+		if (size == 0)
+			return null;
+
+		byte[][] result= new byte[size][];
+		int index= 0;
+		for (int word= table.fFirstWords[key]; index < size; word= table.fNextWords[word]) {
+			byte[] bytes= new byte[table.fWordLengths[word]];
+			System.arraycopy(table.fArena, table.fWordOffsets[word], bytes, 0, bytes.length);
+			result[index++]= bytes;
+		}
+		return result;
+	}
+
+	/**
+	 * Tells whether one of the given words has the given phonetic hash.
+	 *
+	 * @param hash the UTF-8 bytes of the phonetic hash
+	 * @param words the UTF-8 bytes of the words to look for
+	 * @return <code>true</code> if any of the words is contained in this table
+	 */
+	public boolean contains(byte[] hash, byte[][] words) {
+		Table table= fTable;
+		int wordCount= table.fWordCount;
+		int key= table.findKey(hash, hashCode(hash), table.fKeyCount);
+		if (key == -1)
+			return false;
+
+		for (int word= table.fFirstWords[key]; word != -1 && word < wordCount; word= table.fNextWords[word]) {
+			for (int index= 0; index < words.length; index++) {
+				if (table.matches(table.fWordOffsets[word], table.fWordLengths[word], words[index]))
+					return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Tells whether this table is empty.
+	 *
+	 * @return <code>true</code> if no word has been added
+	 */
+	public boolean isEmpty() {
+		return fTable.fKeyCount == 0;
+	}
+
+	/**
+	 * Removes all words.
+	 */
+	public synchronized void clear() {
+		fTable= createTable(fInitialSize);
+	}
+
+	/**
+	 * Writes the current content of this table in the layout read by {@link PrecompiledWordTable}:
+	 * the number of slots, keys, words and arena bytes, followed by the slots, the key offsets,
+	 * key lengths, key hash codes and first words, the word offsets, word lengths and next words,
+	 * and the arena.
+	 *
+	 * @param out the output to write to
+	 * @throws IOException if writing fails
+	 * @since 3.10
+	 */
+	public synchronized void write(DataOutput out) throws IOException {
+		Table table= fTable;
+		int keyCount= table.fKeyCount;
+		int wordCount= table.fWordCount;
+		out.writeInt(table.fSlots.length);
+		out.writeInt(keyCount);
+		out.writeInt(wordCount);
+		out.writeInt(table.fArenaSize);
+		write(out, table.fSlots, table.fSlots.length);
+		write(out, table.fKeyOffsets, keyCount);
+		write(out, table.fKeyLengths, keyCount);
+		write(out, table.fKeyHashCodes, keyCount);
+		write(out, table.fFirstWords, keyCount);
+		write(out, table.fWordOffsets, wordCount);
+		write(out, table.fWordLengths, wordCount);
+		write(out, table.fNextWords, wordCount);
+		out.write(table.fArena, 0, table.fArenaSize);
+	}
+
+	private static void write(DataOutput out, int[] array, int length) throws IOException {
+		for (int index= 0; index < length; index++)
+			out.writeInt(array[index]);
+	}
+
+	/**
+	 * Releases the unused capacity of the arrays.
+	 */
+	public synchronized void trimToSize() {
+		Table table= fTable;
+		int keys= Math.max(table.fKeyCount, 1);
+		int words= Math.max(table.fWordCount, 1);
+		int bytes= Math.max(table.fArenaSize, 1);
+		if (keys != table.fKeyOffsets.length || words != table.fWordOffsets.length || bytes != table.fArena.length)
+			fTable= new Table(table, getSlotCount(keys), keys, words, bytes);
+	}
+}
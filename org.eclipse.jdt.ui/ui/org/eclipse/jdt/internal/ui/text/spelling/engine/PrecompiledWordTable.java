@@ -0,0 +1,283 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.jdt.internal.ui.text.spelling.engine;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+
+import org.eclipse.jdt.internal.ui.JavaPlugin;
+
+
+/**
+ * Read-only word table backed by a memory mapped file written from a {@link PhoneticWordTable}.
+ * <p>
+ * The file starts with a header identifying the word list it has been compiled from. Lookups
+ * work directly on the mapped file, nothing is copied into the heap except the returned words.
+ * </p>
+ *
+ * @since 3.10
+ */
+public final class PrecompiledWordTable {
+
+	/** The magic number of precompiled dictionaries */
+	private static final int MAGIC= 0x4A445350;
+
+	/** The version of the file format */
+	private static final int VERSION= 1;
+
+	private final IntBuffer fSlots;
+	private final IntBuffer fKeyOffsets;
+	private final IntBuffer fKeyLengths;
+	private final IntBuffer fKeyHashCodes;
+	private final IntBuffer fFirstWords;
+	private final IntBuffer fWordOffsets;
+	private final IntBuffer fWordLengths;
+	private final IntBuffer fNextWords;
+	private final ByteBuffer fArena;
+	private final int fKeyCount;
+
+	private PrecompiledWordTable(ByteBuffer buffer) {
+		int slotCount= buffer.getInt();
+		fKeyCount= buffer.getInt();
+		int wordCount= buffer.getInt();
+		int arenaSize= buffer.getInt();
+
+		// the slots are probed with a mask and must never be full
+		if (slotCount <= 0 || (slotCount & (slotCount - 1)) != 0 || fKeyCount < 0 || fKeyCount >= slotCount)
+			throw new BufferUnderflowException();
+
+		fSlots= slice(buffer, slotCount).asIntBuffer();
+		fKeyOffsets= slice(buffer, fKeyCount).asIntBuffer();
+		fKeyLengths= slice(buffer, fKeyCount).asIntBuffer();
+		fKeyHashCodes= slice(buffer, fKeyCount).asIntBuffer();
+		fFirstWords= slice(buffer, fKeyCount).asIntBuffer();
+		fWordOffsets= slice(buffer, wordCount).asIntBuffer();
+		fWordLengths= slice(buffer, wordCount).asIntBuffer();
+		fNextWords= slice(buffer, wordCount).asIntBuffer();
+
+		ByteBuffer arena= buffer.slice();
+		if (arena.remaining() != arenaSize)
+			throw new BufferUnderflowException();
+		fArena= arena;
+	}
+
+	private static ByteBuffer slice(ByteBuffer buffer, int ints) {
+		if (ints < 0 || ints > buffer.remaining() / 4)
+			throw new BufferUnderflowException();
+		int length= ints * 4;
+		ByteBuffer result= buffer.slice();
+		result.limit(length);
+		buffer.position(buffer.position() + length);
+		return result;
+	}
+
+	/**
+	 * Opens a precompiled word table.
+	 *
+	 * @param file the file to open
+	 * @param source identifies the word list, the hash provider and the encoding the table has
+	 *            been compiled from
+	 * @param stamp the modification stamp of the word list
+	 * @return the table, or <code>null</code> if the file does not exist, is outdated or is
+	 *         corrupt
+	 */
+	public static PrecompiledWordTable open(File file, String source, long stamp) {
+		if (!file.isFile())
+			return null;
+
+		RandomAccessFile input= null;
+		try {
+			input= new RandomAccessFile(file, "r"); //$NON-NLS-1$
+			FileChannel channel= input.getChannel();
+			ByteBuffer buffer= channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+			if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION)
+				return null;
+
+			int headerLength= buffer.getInt();
+			if (headerLength < 0 || headerLength > buffer.remaining())
+				return null;
+			byte[] header= new byte[headerLength];
+			buffer.get(header);
+			DataInputStream headerInput= new DataInputStream(new ByteArrayInputStream(header));
+			if (!source.equals(headerInput.readUTF()) || stamp != headerInput.readLong())
+				return null;
+
+			return new PrecompiledWordTable(buffer.slice());
+		} catch (IOException exception) {
+			return null;
+		} catch (BufferUnderflowException exception) {
+			return null;
+		} finally {
+			// the mapping stays valid after the file has been closed
+			if (input != null) {
+				try {
+					input.close();
+				} catch (IOException e) {
+				}
+			}
+		}
+	}
+
+	/**
+	 * Writes a word table to a precompiled dictionary file, unless the file already contains a
+	 * valid table compiled from the same word list. The file is never replaced while it is valid,
+	 * since it may be mapped, so its name should be specific to the modification stamp of the word
+	 * list.
+	 *
+	 * @param file the file to write
+	 * @param source identifies the word list, the hash provider and the encoding the table has
+	 *            been compiled from
+	 * @param stamp the modification stamp of the word list
+	 * @param table the table to write
+	 * @return <code>true</code> if the file contains the table compiled from the word list
+	 */
+	public static boolean write(File file, String source, long stamp, PhoneticWordTable table) {
+		if (open(file, source, stamp) != null)
+			return true;
+
+		File directory= file.getParentFile();
+		if (!directory.isDirectory() && !directory.mkdirs())
+			return false;
+
+		File temporary= null;
+		DataOutputStream output= null;
+		try {
+			temporary= File.createTempFile(file.getName(), null, directory);
+			output= new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporary), 64 * 1024));
+
+			ByteArrayOutputStream header= new ByteArrayOutputStream();
+			DataOutputStream headerOutput= new DataOutputStream(header);
+			headerOutput.writeUTF(source);
+			headerOutput.writeLong(stamp);
+			headerOutput.close();
+
+			output.writeInt(MAGIC);
+			output.writeInt(VERSION);
+			output.writeInt(header.size());
+			header.writeTo(output);
+			table.write(output);
+			output.close();
+			output= null;
+
+			if (temporary.renameTo(file))
+				return true;
+			// the existing file is corrupt, replace it unless it is still in use
+			return file.delete() && temporary.renameTo(file);
+		} catch (IOException exception) {
+			JavaPlugin.log(exception);
+			return false;
+		} finally {
+			if (output != null) {
+				try {
+					output.close();
+				} catch (IOException e) {
+				}
+			}
+			if (temporary != null && temporary.exists())
+				temporary.delete();
+		}
+	}
+
+	private int findKey(byte[] key, int hashCode) {
+		int mask= fSlots.limit() - 1;
+		int slot= hashCode & mask;
+		int entry;
+		while ((entry= fSlots.get(slot)) != 0) {
+			int index= entry - 1;
+			if (fKeyHashCodes.get(index) == hashCode && matches(fKeyOffsets.get(index), fKeyLengths.get(index), key))
+				return index;
+			slot= (slot + 1) & mask;
+		}
+		return -1;
+	}
+
+	private boolean matches(int offset, int length, byte[] bytes) {
+		if (length != bytes.length)
+			return false;
+		for (int index= 0; index < length; index++) {
+			if (fArena.get(offset + index) != bytes[index])
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the words with the given phonetic hash.
+	 *
+	 * @param hash the UTF-8 bytes of the phonetic hash
+	 * @param max the maximal number of words to return
+	 * @return the UTF-8 bytes of the words, or <code>null</code> if there are none
+	 */
+	public byte[][] getWords(byte[] hash, int max) {
+		int key= findKey(hash, PhoneticWordTable.hashCode(hash));
+		if (key == -1)
+			return null;
+
+		int size= 0;
+		for (int word= fFirstWords.get(key); word != -1 && size < max; word= fNextWords.get(word))
+			size++;
+		if (size == 0)
+			return null;
+
+		byte[][] result= new byte[size][];
+		int index= 0;
+		for (int word= fFirstWords.get(key); index < size; word= fNextWords.get(word)) {
+			int offset= fWordOffsets.get(word);
+			byte[] bytes= new byte[fWordLengths.get(word)];
+			for (int i= 0; i < bytes.length; i++)
+				bytes[i]= fArena.get(offset + i);
+			result[index++]= bytes;
+		}
+		return result;
+	}
+
+	/**
+	 * Tells whether one of the given words has the given phonetic hash.
+	 *
+	 * @param hash the UTF-8 bytes of the phonetic hash
+	 * @param words the UTF-8 bytes of the words to look for
+	 * @return <code>true</code> if any of the words is contained in this table
+	 */
+	public boolean contains(byte[] hash, byte[][] words) {
+		int key= findKey(hash, PhoneticWordTable.hashCode(hash));
+		if (key == -1)
+			return false;
+
+		for (int word= fFirstWords.get(key); word != -1; word= fNextWords.get(word)) {
+			for (int index= 0; index < words.length; index++) {
+				if (matches(fWordOffsets.get(word), fWordLengths.get(word), words[index]))
+					return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Tells whether this table is empty.
+	 *
+	 * @return <code>true</code> if the table contains no words
+	 */
+	public boolean isEmpty() {
+		return fKeyCount == 0;
+	}
+}
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2000, 2011 IBM Corporation and others.
+ * Copyright (c) 2000, 2014 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -39,6 +39,7 @@ import org.eclipse.jdt.internal.corext.template.java.SWTContextType;
 
 import org.eclipse.jdt.internal.ui.JavaPlugin;
 import org.eclipse.jdt.internal.ui.JavaPluginImages;
+import org.eclipse.jdt.internal.ui.text.java.ContentAssistProcessor;
 
 
 public class TemplateEngine {
@@ -102,7 +103,7 @@ public class TemplateEngine {
 		if (!(fContextType instanceof CompilationUnitContextType))
 			return;
 
-		Point selection= viewer.getSelectedRange();
+		Point selection= ContentAssistProcessor.getSelectedRange(viewer);
 		Position position= new Position(completionPosition, selection.y);
 
 		// remember selected text
@@ -168,7 +169,7 @@ public class TemplateEngine {
 		if (viewer == null)
 			return false;
 
-		Point s= viewer.getSelectedRange();
+		Point s= ContentAssistProcessor.getSelectedRange(viewer);
 		if (s.y == 0)
 			return false;
 
@@ -0,0 +1,70 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.jdt.internal.ui.viewsupport;
+
+import java.util.HashMap;
+import java.util.Iterator;
+
+import org.eclipse.swt.graphics.Image;
+
+import org.eclipse.jface.resource.ImageDescriptor;
+
+/**
+ * The images a label provider has acquired from an {@link ImageDescriptorRegistry}. Each image
+ * is acquired once and all of them are released by {@link #dispose()}, so that the registry can
+ * reclaim the images of a closed view instead of keeping them until shutdown.
+ * <p>
+ * This class is thread safe.
+ * </p>
+ *
+ * @since 3.10
+ */
+public class AcquiredImages {
+
+	private final ImageDescriptorRegistry fRegistry;
+	private final HashMap<ImageDescriptor, Image> fImages= new HashMap<ImageDescriptor, Image>();
+
+	/**
+	 * Creates an empty set of acquired images.
+	 *
+	 * @param registry the registry to acquire the images from
+	 */
+	public AcquiredImages(ImageDescriptorRegistry registry) {
+		fRegistry= registry;
+	}
+
+	/**
+	 * Returns the image for the given descriptor, acquiring it from the registry on first use.
+	 * The image stays valid until {@link #dispose()} is called.
+	 *
+	 * @param descriptor the image descriptor, or <code>null</code> for a missing image descriptor
+	 * @return the image or <code>null</code> if the image descriptor can't create the image
+	 */
+	public synchronized Image get(ImageDescriptor descriptor) {
+		Image image= fImages.get(descriptor);
+		if (image == null) {
+			image= fRegistry.acquire(descriptor);
+			if (image != null)
+				fImages.put(descriptor, image);
+		}
+		return image;
+	}
+
+	/**
+	 * Releases all acquired images.
+	 */
+	public synchronized void dispose() {
+		for (Iterator<ImageDescriptor> iter= fImages.keySet().iterator(); iter.hasNext();) {
+			fRegistry.release(iter.next());
+		}
+		fImages.clear();
+	}
+}
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2000, 2011 IBM Corporation and others.
+ * Copyright (c) 2000, 2014 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -12,6 +12,8 @@ package org.eclipse.jdt.internal.ui.viewsupport;
 
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 import org.eclipse.swt.graphics.Image;
 import org.eclipse.swt.widgets.Display;
@@ -24,11 +26,53 @@ import org.eclipse.ui.PlatformUI;
 
 /**
  * A registry that maps <code>ImageDescriptors</code> to <code>Image</code>.
+ * <p>
+ * Images returned by {@link #get(ImageDescriptor)} are kept until the registry is disposed.
+ * Images returned by {@link #acquire(ImageDescriptor)} are reference counted: once the last
+ * reference has been {@link #release(ImageDescriptor) released}, the image is kept for reuse
+ * among a bounded number of unreferenced images and disposed when it drops out of these.
+ * </p>
+ * <p>
+ * This class is thread safe.
+ * </p>
  */
 public class ImageDescriptorRegistry {
 
-	private HashMap<ImageDescriptor, Image> fRegistry= new HashMap<ImageDescriptor, Image>(10);
-	private Display fDisplay;
+	/**
+	 * The maximal number of images that are kept after their last reference has been released.
+	 *
+	 * @since 3.10
+	 */
+	public static final int MAX_UNREFERENCED= 64;
+
+	/**
+	 * An image managed by the registry.
+	 *
+	 * @since 3.10
+	 */
+	private static final class Entry {
+		final Image fImage;
+		/** Tells whether the image is kept until the registry is disposed. */
+		boolean fPinned;
+		/** The number of references acquired and not yet released. */
+		int fReferences;
+
+		Entry(Image image) {
+			fImage= image;
+		}
+	}
+
+	/** All managed images. Guarded by <code>this</code>. */
+	private final HashMap<ImageDescriptor, Entry> fRegistry= new HashMap<ImageDescriptor, Entry>(10);
+	/**
+	 * The images that are neither pinned nor referenced, least recently released first. Guarded by
+	 * <code>this</code>.
+	 */
+	private final LinkedHashMap<ImageDescriptor, Entry> fUnreferenced= new LinkedHashMap<ImageDescriptor, Entry>(16, 0.75f, true);
+	private final Display fDisplay;
+
+	private long fHits;
+	private long fMisses;
 
 	/**
 	 * Creates a new image descriptor registry for the given display. All images
@@ -41,7 +85,8 @@ public class ImageDescriptorRegistry {
 	}
 
 	/**
-	 * Returns the image associated with the given image descriptor.
+	 * Returns the image associated with the given image descriptor. The image is kept until this
+	 * registry is disposed.
 	 *
 	 * @param descriptor the image descriptor for which the registry manages an image,
 	 *  or <code>null</code> for a missing image descriptor
@@ -52,25 +97,141 @@ public class ImageDescriptorRegistry {
 		if (descriptor == null)
 			descriptor= ImageDescriptor.getMissingImageDescriptor();
 
-		Image result= fRegistry.get(descriptor);
-		if (result != null)
-			return result;
+		Entry entry= getEntry(descriptor, true);
+		return entry == null ? null : entry.fImage;
+	}
 
-		result= descriptor.createImage();
-		if (result != null)
-			fRegistry.put(descriptor, result);
-		return result;
+	/**
+	 * Returns the image associated with the given image descriptor and adds a reference to it.
+	 * The image stays valid until the reference is released with
+	 * {@link #release(ImageDescriptor)}.
+	 *
+	 * @param descriptor the image descriptor for which the registry manages an image,
+	 *  or <code>null</code> for a missing image descriptor
+	 * @return the image associated with the image descriptor or <code>null</code>
+	 *  if the image descriptor can't create the requested image, in which case no reference
+	 *  is added
+	 * @since 3.10
+	 */
+	public Image acquire(ImageDescriptor descriptor) {
+		if (descriptor == null)
+			descriptor= ImageDescriptor.getMissingImageDescriptor();
+
+		Entry entry= getEntry(descriptor, false);
+		return entry == null ? null : entry.fImage;
+	}
+
+	/**
+	 * Releases a reference added by {@link #acquire(ImageDescriptor)}.
+	 *
+	 * @param descriptor the image descriptor passed to <code>acquire</code>
+	 * @since 3.10
+	 */
+	public synchronized void release(ImageDescriptor descriptor) {
+		if (descriptor == null)
+			descriptor= ImageDescriptor.getMissingImageDescriptor();
+
+		Entry entry= fRegistry.get(descriptor);
+		if (entry == null || entry.fReferences == 0)
+			return;
+		if (--entry.fReferences == 0 && !entry.fPinned) {
+			fUnreferenced.put(descriptor, entry);
+			if (fUnreferenced.size() > MAX_UNREFERENCED) {
+				Iterator<Map.Entry<ImageDescriptor, Entry>> iter= fUnreferenced.entrySet().iterator();
+				Map.Entry<ImageDescriptor, Entry> eldest= iter.next();
+				iter.remove();
+				fRegistry.remove(eldest.getKey());
+				eldest.getValue().fImage.dispose();
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of requests that were answered with an existing image.
+	 *
+	 * @return the number of hits
+	 * @since 3.10
+	 */
+	public synchronized long getHitCount() {
+		return fHits;
+	}
+
+	/**
+	 * Returns the number of requests that had to create an image.
+	 *
+	 * @return the number of misses
+	 * @since 3.10
+	 */
+	public synchronized long getMissCount() {
+		return fMisses;
+	}
+
+	/**
+	 * Returns the number of images currently managed by this registry.
+	 *
+	 * @return the number of images
+	 * @since 3.10
+	 */
+	public synchronized int getImageCount() {
+		return fRegistry.size();
 	}
 
 	/**
 	 * Disposes all images managed by this registry.
 	 */
-	public void dispose() {
-		for (Iterator<Image> iter= fRegistry.values().iterator(); iter.hasNext(); ) {
-			Image image= iter.next();
-			image.dispose();
+	public synchronized void dispose() {
+		for (Iterator<Entry> iter= fRegistry.values().iterator(); iter.hasNext(); ) {
+			Entry entry= iter.next();
+			entry.fImage.dispose();
 		}
 		fRegistry.clear();
+		fUnreferenced.clear();
+	}
+
+	/**
+	 * Returns the entry for the given descriptor, creating the image if necessary, and pins or
+	 * references it.
+	 *
+	 * @param descriptor the image descriptor
+	 * @param pin <code>true</code> to pin the entry, <code>false</code> to add a reference
+	 * @return the entry, or <code>null</code> if the image could not be created
+	 */
+	private Entry getEntry(ImageDescriptor descriptor, boolean pin) {
+		synchronized (this) {
+			Entry entry= fRegistry.get(descriptor);
+			if (entry != null) {
+				fHits++;
+				return use(descriptor, entry, pin);
+			}
+			fMisses++;
+		}
+
+		// create the image outside of the lock, composite images can be expensive
+		Image image= descriptor.createImage(fDisplay);
+		if (image == null)
+			return null;
+		Entry entry;
+		synchronized (this) {
+			entry= fRegistry.get(descriptor);
+			if (entry == null) {
+				entry= new Entry(image);
+				fRegistry.put(descriptor, entry);
+				return use(descriptor, entry, pin);
+			}
+			use(descriptor, entry, pin);
+		}
+		// another thread was faster
+		image.dispose();
+		return entry;
+	}
+
+	private Entry use(ImageDescriptor descriptor, Entry entry, boolean pin) {
+		if (pin)
+			entry.fPinned= true;
+		else
+			entry.fReferences++;
+		fUnreferenced.remove(descriptor);
+		return entry;
 	}
 
 	private void hookDisplay() {
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2000, 2010 IBM Corporation and others.
+ * Copyright (c) 2000, 2014 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -79,10 +79,14 @@ public class JavaElementImageProvider {
 		DESC_OBJ_PROJECT= 		 images.getImageDescriptor(IDE.SharedImages.IMG_OBJ_PROJECT);
 	}
 
-	private ImageDescriptorRegistry fRegistry;
+	/**
+	 * The images handed out by this provider. They are released when the provider is disposed,
+	 * so the images of a closed view do not stay in the plug-in's registry.
+	 */
+	private AcquiredImages fImages;
 
 	public JavaElementImageProvider() {
-		fRegistry= null; // lazy initialization
+		fImages= null; // lazy initialization
 	}
 
 	/**
@@ -100,14 +104,14 @@ public class JavaElementImageProvider {
 	private Image getImageLabel(ImageDescriptor descriptor){
 		if (descriptor == null)
 			return null;
-		return getRegistry().get(descriptor);
+		return getImages().get(descriptor);
 	}
 
-	private ImageDescriptorRegistry getRegistry() {
-		if (fRegistry == null) {
-			fRegistry= JavaPlugin.getImageDescriptorRegistry();
+	private synchronized AcquiredImages getImages() {
+		if (fImages == null) {
+			fImages= new AcquiredImages(JavaPlugin.getImageDescriptorRegistry());
 		}
-		return fRegistry;
+		return fImages;
 	}
 
 
@@ -348,7 +352,11 @@ public class JavaElementImageProvider {
 		return JavaPluginImages.DESC_OBJS_PACKAGE;
 	}
 
-	public void dispose() {
+	public synchronized void dispose() {
+		if (fImages != null) {
+			fImages.dispose();
+			fImages= null;
+		}
 	}
 
 	// ---- Methods to compute the adornments flags ---------------------------------
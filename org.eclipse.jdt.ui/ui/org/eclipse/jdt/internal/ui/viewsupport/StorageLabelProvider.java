@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2000, 2011 IBM Corporation and others.
+ * Copyright (c) 2000, 2014 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -11,8 +11,9 @@
 package org.eclipse.jdt.internal.ui.viewsupport;
 
 
+import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 
 import org.eclipse.swt.graphics.Image;
@@ -31,6 +32,8 @@ import org.eclipse.ui.PlatformUI;
 
 import org.eclipse.jdt.core.IJarEntryResource;
 
+import org.eclipse.jdt.internal.ui.JavaPlugin;
+
 /**
  * Standard label provider for IStorage objects.
  * Use this class when you want to present IStorage objects in a viewer.
@@ -39,6 +42,8 @@ public class StorageLabelProvider extends LabelProvider {
 
 	private IEditorRegistry fEditorRegistry= null;
 	private Map<String, Image> fJarImageMap= new HashMap<String, Image>(10);
+	/** The descriptors of the images acquired from the shared registry, one per acquire. */
+	private List<ImageDescriptor> fAcquiredImages= new ArrayList<ImageDescriptor>(10);
 	private Image fDefaultImage;
 
 	private IEditorRegistry getEditorRegistry() {
@@ -76,11 +81,11 @@ public class StorageLabelProvider extends LabelProvider {
 	@Override
 	public void dispose() {
 		if (fJarImageMap != null) {
-			Iterator<Image> each= fJarImageMap.values().iterator();
-			while (each.hasNext()) {
-				Image image= each.next();
-				image.dispose();
+			ImageDescriptorRegistry registry= JavaPlugin.getImageDescriptorRegistry();
+			for (ImageDescriptor descriptor : fAcquiredImages) {
+				registry.release(descriptor);
 			}
+			fAcquiredImages= null;
 			fJarImageMap= null;
 		}
 		fDefaultImage= null;
@@ -129,8 +134,11 @@ public class StorageLabelProvider extends LabelProvider {
 
 		// Get the image from the editor registry
 		ImageDescriptor desc= getEditorRegistry().getImageDescriptor(name);
-		image= desc.createImage();
+		image= JavaPlugin.getImageDescriptorRegistry().acquire(desc);
+		if (image == null)
+			return getDefaultImage();
 
+		fAcquiredImages.add(desc);
 		fJarImageMap.put(key, image);
 
 		return image;
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2000, 2012 IBM Corporation and others.
+ * Copyright (c) 2000, 2014 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -192,7 +192,8 @@ public class JavaElementImageDescriptor extends CompositeImageDescriptor {
 	 */
 	@Override
 	public int hashCode() {
-		return fBaseImage.hashCode() | fFlags | fSize.hashCode();
+		// combine instead of or-ing, so that descriptors of different adornments do not collide
+		return (fBaseImage.hashCode() * 31 + fFlags) * 31 + fSize.hashCode();
 	}
 
 	/* (non-Javadoc)
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2000, 2010 IBM Corporation and others.
+ * Copyright (c) 2000, 2014 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -40,6 +40,7 @@ import org.eclipse.jdt.internal.corext.util.SuperTypeHierarchyCache;
 
 import org.eclipse.jdt.internal.ui.JavaPlugin;
 import org.eclipse.jdt.internal.ui.JavaPluginImages;
+import org.eclipse.jdt.internal.ui.viewsupport.AcquiredImages;
 import org.eclipse.jdt.internal.ui.viewsupport.ImageDescriptorRegistry;
 import org.eclipse.jdt.internal.ui.viewsupport.ImageImageDescriptor;
 
@@ -59,6 +60,7 @@ public class OverrideIndicatorLabelDecorator implements ILabelDecorator, ILightw
 
 	private ImageDescriptorRegistry fRegistry;
 	private boolean fUseNewRegistry= false;
+	private AcquiredImages fImages;
 
 	/**
 	 * Creates a decorator. The decorator creates an own image registry to cache
@@ -92,6 +94,13 @@ public class OverrideIndicatorLabelDecorator implements ILabelDecorator, ILightw
 		return fRegistry;
 	}
 
+	private synchronized AcquiredImages getImages() {
+		if (fImages == null) {
+			fImages= new AcquiredImages(getRegistry());
+		}
+		return fImages;
+	}
+
 
 	/* (non-Javadoc)
 	 * @see ILabelDecorator#decorateText(String, Object)
@@ -111,7 +120,7 @@ public class OverrideIndicatorLabelDecorator implements ILabelDecorator, ILightw
 		if (adornmentFlags != 0) {
 			ImageDescriptor baseImage= new ImageImageDescriptor(image);
 			Rectangle bounds= image.getBounds();
-			return getRegistry().get(new JavaElementImageDescriptor(baseImage, adornmentFlags, new Point(bounds.width, bounds.height)));
+			return getImages().get(new JavaElementImageDescriptor(baseImage, adornmentFlags, new Point(bounds.width, bounds.height)));
 		}
 		return image;
 	}
@@ -248,6 +257,12 @@ public class OverrideIndicatorLabelDecorator implements ILabelDecorator, ILightw
 	 * @see IBaseLabelProvider#dispose()
 	 */
 	public void dispose() {
+		synchronized (this) {
+			if (fImages != null) {
+				fImages.dispose();
+				fImages= null;
+			}
+		}
 		if (fRegistry != null && fUseNewRegistry) {
 			fRegistry.dispose();
 		}
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2000, 2012 IBM Corporation and others.
+ * Copyright (c) 2000, 2014 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -59,6 +59,7 @@ import org.eclipse.jdt.launching.JavaRuntime;
 import org.eclipse.jdt.internal.ui.JavaPlugin;
 import org.eclipse.jdt.internal.ui.JavaPluginImages;
 import org.eclipse.jdt.internal.ui.viewsupport.IProblemChangedListener;
+import org.eclipse.jdt.internal.ui.viewsupport.AcquiredImages;
 import org.eclipse.jdt.internal.ui.viewsupport.ImageDescriptorRegistry;
 import org.eclipse.jdt.internal.ui.viewsupport.ImageImageDescriptor;
 
@@ -120,6 +121,7 @@ public class ProblemsLabelDecorator implements ILabelDecorator, ILightweightLabe
 
 	private ImageDescriptorRegistry fRegistry;
 	private boolean fUseNewRegistry= false;
+	private AcquiredImages fImages;
 	private IProblemChangedListener fProblemChangedListener;
 
 	private ListenerList fListeners;
@@ -152,6 +154,13 @@ public class ProblemsLabelDecorator implements ILabelDecorator, ILightweightLabe
 		return fRegistry;
 	}
 
+	private synchronized AcquiredImages getImages() {
+		if (fImages == null) {
+			fImages= new AcquiredImages(getRegistry());
+		}
+		return fImages;
+	}
+
 
 	/* (non-Javadoc)
 	 * @see ILabelDecorator#decorateText(String, Object)
@@ -171,7 +180,7 @@ public class ProblemsLabelDecorator implements ILabelDecorator, ILightweightLabe
 		if (adornmentFlags != 0) {
 			ImageDescriptor baseImage= new ImageImageDescriptor(image);
 			Rectangle bounds= image.getBounds();
-			return getRegistry().get(new JavaElementImageDescriptor(baseImage, adornmentFlags, new Point(bounds.width, bounds.height)));
+			return getImages().get(new JavaElementImageDescriptor(baseImage, adornmentFlags, new Point(bounds.width, bounds.height)));
 		}
 		return image;
 	}
@@ -436,6 +445,12 @@ public class ProblemsLabelDecorator implements ILabelDecorator, ILightweightLabe
 			JavaPlugin.getDefault().getProblemMarkerManager().removeListener(fProblemChangedListener);
 			fProblemChangedListener= null;
 		}
+		synchronized (this) {
+			if (fImages != null) {
+				fImages.dispose();
+				fImages= null;
+			}
+		}
 		if (fRegistry != null && fUseNewRegistry) {
 			fRegistry.dispose();
 		}
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2007, 2011 IBM Corporation and others.
+ * Copyright (c) 2007, 2014 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -105,7 +105,8 @@ public final class SharedASTProvider {
 
 	/**
 	 * Returns a compilation unit AST for the given Java element. If the element is the input of the
-	 * active Java editor, the AST is the shared AST.
+	 * active Java editor, the AST is the shared AST. The shared ASTs of recently active editors are
+	 * kept as long as their input has not been modified, and are returned for all wait flags.
 	 * <p>
 	 * Clients are not allowed to modify the AST and must not keep any references.
 	 * </p>
@@ -116,9 +117,10 @@ public final class SharedASTProvider {
 	 * @return the AST or <code>null</code>.
 	 *         <dl>
 	 *         <li>If {@link #WAIT_NO} has been specified <code>null</code> is returned if the
-	 *         element is not input of the current Java editor or no AST is available</li>
+	 *         element is not input of the current Java editor and has no recent shared AST, or
+	 *         no AST is available</li>
 	 *         <li>If {@link #WAIT_ACTIVE_ONLY} has been specified <code>null</code> is returned if
-	 *         the element is not input of the current Java editor</li>
+	 *         the element is not input of the current Java editor and has no recent shared AST</li>
 	 *         <li>If {@link #WAIT_YES} has been specified either the shared AST is returned or a
 	 *         new AST is created.</li>
 	 *         <li><code>null</code> will be returned if the operation gets canceled.</li>
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2006, 2008 IBM Corporation and others.
+ * Copyright (c) 2006, 2014 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -10,8 +10,14 @@
  *******************************************************************************/
 package org.eclipse.ltk.core.refactoring.tests.history;
 
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
 import junit.framework.TestCase;
@@ -19,10 +25,20 @@ import junit.framework.TestCase;
 import org.osgi.service.prefs.BackingStoreException;
 
 import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.jobs.IJobChangeEvent;
+import org.eclipse.core.runtime.jobs.IJobManager;
+import org.eclipse.core.runtime.jobs.Job;
+import org.eclipse.core.runtime.jobs.JobChangeAdapter;
 import org.eclipse.core.runtime.preferences.IEclipsePreferences;
 
+import org.eclipse.core.resources.IFile;
 import org.eclipse.core.resources.IFolder;
 import org.eclipse.core.resources.IProject;
+import org.eclipse.core.resources.IResource;
+import org.eclipse.core.resources.IResourceChangeEvent;
+import org.eclipse.core.resources.IResourceChangeListener;
+import org.eclipse.core.resources.IResourceVisitor;
 import org.eclipse.core.resources.ProjectScope;
 import org.eclipse.core.resources.ResourcesPlugin;
 
@@ -38,9 +54,11 @@ import org.eclipse.ltk.core.refactoring.history.RefactoringExecutionEvent;
 import org.eclipse.ltk.core.refactoring.history.RefactoringHistory;
 import org.eclipse.ltk.core.refactoring.history.RefactoringHistoryEvent;
 import org.eclipse.ltk.core.refactoring.tests.util.SimpleTestProject;
+import org.eclipse.ltk.internal.core.refactoring.RefactoringCorePlugin;
 import org.eclipse.ltk.internal.core.refactoring.RefactoringPreferenceConstants;
 import org.eclipse.ltk.internal.core.refactoring.history.RefactoringDescriptorProxyAdapter;
 import org.eclipse.ltk.internal.core.refactoring.history.RefactoringHistoryImplementation;
+import org.eclipse.ltk.internal.core.refactoring.history.RefactoringHistorySerializer;
 import org.eclipse.ltk.internal.core.refactoring.history.RefactoringHistoryService;
 
 public class RefactoringHistoryServiceTests extends TestCase {
@@ -143,6 +161,39 @@ public class RefactoringHistoryServiceTests extends TestCase {
 		}
 	}
 
+	/** Refactoring descriptor proxy which counts how often its descriptor is requested */
+	private static final class CountingDescriptorProxy extends RefactoringDescriptorProxy {
+
+		private final RefactoringDescriptor fDescriptor;
+
+		private int fRequests= 0;
+
+		public CountingDescriptorProxy(RefactoringDescriptor descriptor) {
+			fDescriptor= descriptor;
+		}
+
+		public String getDescription() {
+			return fDescriptor.getDescription();
+		}
+
+		public String getProject() {
+			return fDescriptor.getProject();
+		}
+
+		public synchronized int getRequests() {
+			return fRequests;
+		}
+
+		public long getTimeStamp() {
+			return fDescriptor.getTimeStamp();
+		}
+
+		public synchronized RefactoringDescriptor requestDescriptor(IProgressMonitor monitor) {
+			fRequests++;
+			return fDescriptor;
+		}
+	}
+
 	private static final int BREAKING_NUMBER= 20;
 
 	private static final int COMMON_NUMBER= 20;
@@ -151,6 +202,9 @@ public class RefactoringHistoryServiceTests extends TestCase {
 
 	private static final int CUSTOM_NUMBER= 5;
 
+	/** The size of an entry of the binary history index: the time stamp and the description offset */
+	private static final int INDEX_ENTRY_SIZE= 12;
+
 	private static final int NONE_NUMBER= 10;
 
 	private static final int STAMP_FACTOR= 10000000;
@@ -182,6 +236,52 @@ public class RefactoringHistoryServiceTests extends TestCase {
 		}
 	}
 
+	private RefactoringDescriptorProxy createProxy(int index) {
+		RefactoringDescriptor descriptor= new MockRefactoringDescriptor(fProject.getProject().getName(), "A pending description number " + index, "A pending comment number " + index, RefactoringDescriptor.NONE);
+		descriptor.setTimeStamp((index + 1) * STAMP_FACTOR);
+		return new RefactoringDescriptorProxyAdapter(descriptor);
+	}
+
+	private int getProjectHistoryLength() throws CoreException {
+		return RefactoringHistoryService.getInstance().getProjectHistory(fProject.getProject(), null).getDescriptors().length;
+	}
+
+	private void notifySerializer(RefactoringHistorySerializer serializer, int type, RefactoringDescriptorProxy proxy) {
+		serializer.historyNotification(new RefactoringHistoryEvent(RefactoringHistoryService.getInstance(), type, proxy));
+	}
+
+	private void waitForPendingWrites() throws InterruptedException {
+		Job.getJobManager().join(RefactoringHistorySerializer.FAMILY_WRITE, null);
+	}
+
+	private File getIndexSegmentFile(String extension) {
+		return RefactoringCorePlugin.getDefault().getStateLocation().append(".refactorings.index").append(fProject.getProject().getName() + extension).toFile();
+	}
+
+	private IFile[] getHistoryIndexFiles() throws CoreException {
+		final List files= new ArrayList();
+		fProject.getProject().getFolder(RefactoringHistoryService.NAME_HISTORY_FOLDER).accept(new IResourceVisitor() {
+			public boolean visit(IResource resource) {
+				if (resource.getType() == IResource.FILE && resource.getName().equals(RefactoringHistoryService.NAME_INDEX_FILE))
+					files.add(resource);
+				return true;
+			}
+		});
+		return (IFile[]) files.toArray(new IFile[files.size()]);
+	}
+
+	private int getLineCount(IFile file) throws Exception {
+		BufferedReader reader= new BufferedReader(new InputStreamReader(file.getContents(true), file.getCharset()));
+		try {
+			int count= 0;
+			while (reader.readLine() != null)
+				count++;
+			return count;
+		} finally {
+			reader.close();
+		}
+	}
+
 	private void setSharedRefactoringHistory(boolean shared) throws BackingStoreException, CoreException {
 		final IEclipsePreferences preferences= new ProjectScope(fProject.getProject()).getNode(RefactoringCore.ID_PLUGIN);
 		preferences.put(RefactoringPreferenceConstants.PREFERENCE_SHARED_REFACTORING_HISTORY, Boolean.toString(shared));
@@ -202,6 +302,7 @@ public class RefactoringHistoryServiceTests extends TestCase {
 		IFolder folder= fProject.getProject().getFolder(RefactoringHistoryService.NAME_HISTORY_FOLDER);
 		assertTrue("Refactoring history folder should not exist.", !folder.exists());
 		setUpTestProjectRefactorings();
+		service.flush();
 		assertTrue("Refactoring history folder should exist", folder.exists());
 	}
 
@@ -299,6 +400,81 @@ public class RefactoringHistoryServiceTests extends TestCase {
 		assertEquals("", afterHistory.getDescriptors().length + BREAKING_NUMBER, workspaceHistory.getDescriptors().length);
 	}
 
+	public void testIndexAdd() throws Exception {
+		final IProject project= fProject.getProject();
+		final RefactoringHistoryService service= RefactoringHistoryService.getInstance();
+		assertEquals("Refactoring history has wrong size", TOTAL_PROJECT_NUMBER, service.getProjectHistory(project, null).getDescriptors().length);
+		final File stamps= getIndexSegmentFile(".stamps");
+		final File descriptions= getIndexSegmentFile(".descriptions");
+		assertTrue("Index segment should exist", stamps.isFile() && descriptions.isFile());
+		final long stampsLength= stamps.length();
+		final long descriptionsLength= descriptions.length();
+
+		final RefactoringDescriptor descriptor= executeRefactoring(project.getName(), TOTALZ_HISTORY_NUMBER, RefactoringDescriptor.NONE);
+		service.flush();
+		assertEquals("Index segment should have one more entry", stampsLength + INDEX_ENTRY_SIZE, stamps.length());
+		assertTrue("Description should have been appended", descriptions.length() > descriptionsLength);
+
+		final RefactoringDescriptorProxy[] proxies= service.getProjectHistory(project, null).getDescriptors();
+		assertEquals("Refactoring history has wrong size", TOTAL_PROJECT_NUMBER + 1, proxies.length);
+		assertEquals("Index segment should not have been rebuilt", stampsLength + INDEX_ENTRY_SIZE, stamps.length());
+		assertDescendingSortOrder(proxies);
+		assertEquals("Added refactoring should be the most recent one", (TOTALZ_HISTORY_NUMBER + 1) * STAMP_FACTOR, proxies[0].getTimeStamp());
+		assertEquals("Wrong description", descriptor.getDescription(), proxies[0].getDescription());
+	}
+
+	public void testIndexInvalidation() throws Exception {
+		final IProject project= fProject.getProject();
+		final RefactoringHistoryService service= RefactoringHistoryService.getInstance();
+		assertEquals("Refactoring history has wrong size", TOTAL_PROJECT_NUMBER, service.getProjectHistory(project, null).getDescriptors().length);
+		final File stamps= getIndexSegmentFile(".stamps");
+		assertTrue("Index segment should exist", stamps.isFile());
+
+		// change a history index file like a team provider would
+		project.getFolder(RefactoringHistoryService.NAME_HISTORY_FOLDER).refreshLocal(IResource.DEPTH_INFINITE, null);
+		final IFile[] files= getHistoryIndexFiles();
+		assertTrue("History index files should exist", files.length > 0);
+		final int removed= getLineCount(files[0]);
+		assertTrue("History index file should not be empty", removed > 0);
+		files[0].setContents(new ByteArrayInputStream(new byte[0]), IResource.FORCE, null);
+		assertFalse("Index segment should have been invalidated", stamps.isFile());
+
+		assertEquals("Refactoring history has wrong size", TOTAL_PROJECT_NUMBER - removed, service.getProjectHistory(project, null).getDescriptors().length);
+		assertTrue("Index segment should have been rebuilt", stamps.isFile());
+		assertEquals("Refactoring history has wrong size", TOTAL_PROJECT_NUMBER - removed, service.getProjectHistory(project, null).getDescriptors().length);
+	}
+
+	public void testIndexRemove() throws Exception {
+		final IProject project= fProject.getProject();
+		final RefactoringHistoryService service= RefactoringHistoryService.getInstance();
+		final RefactoringDescriptorProxy[] proxies= service.getProjectHistory(project, null).getDescriptors();
+		assertEquals("Refactoring history has wrong size", TOTAL_PROJECT_NUMBER, proxies.length);
+		final File stamps= getIndexSegmentFile(".stamps");
+		final File descriptions= getIndexSegmentFile(".descriptions");
+		assertTrue("Index segment should exist", stamps.isFile() && descriptions.isFile());
+		final long stampsLength= stamps.length();
+		final long descriptionsLength= descriptions.length();
+
+		final RefactoringDescriptorProxy[] deleted= { proxies[5], proxies[6], proxies[20] };
+		service.deleteRefactoringDescriptors(deleted, null);
+		assertEquals("Entries should have been removed in place", stampsLength - deleted.length * INDEX_ENTRY_SIZE, stamps.length());
+		assertEquals("Descriptions should not have been rewritten", descriptionsLength, descriptions.length());
+
+		final RefactoringDescriptorProxy[] remaining= service.getProjectHistory(project, null).getDescriptors();
+		assertEquals("Refactoring history has wrong size", TOTAL_PROJECT_NUMBER - deleted.length, remaining.length);
+		assertDescendingSortOrder(remaining);
+		for (int index= 0; index < remaining.length; index++) {
+			for (int offset= 0; offset < deleted.length; offset++)
+				assertTrue("Refactoring should have been removed", remaining[index].getTimeStamp() != deleted[offset].getTimeStamp());
+		}
+		assertEquals("Index segment should not have been rebuilt", stampsLength - deleted.length * INDEX_ENTRY_SIZE, stamps.length());
+
+		service.deleteRefactoringDescriptors(remaining, null);
+		assertEquals("Index segment should be empty", stampsLength - proxies.length * INDEX_ENTRY_SIZE, stamps.length());
+		assertEquals("Descriptions should have been discarded", 0, descriptions.length());
+		assertTrue("Refactoring history should be empty", service.getProjectHistory(project, null).isEmpty());
+	}
+
 	public void testPopDescriptor0() throws Exception {
 		final RefactoringHistoryService service= RefactoringHistoryService.getInstance();
 		RefactoringHistory previousWorkspaceHistory= service.getWorkspaceHistory(null);
@@ -706,4 +882,135 @@ public class RefactoringHistoryServiceTests extends TestCase {
 		assertDescendingSortOrder(proxies);
 	}
 
-}
\ No newline at end of file
+	public void testWriteBehind() throws Exception {
+		waitForPendingWrites();
+		final RefactoringHistorySerializer serializer= new RefactoringHistorySerializer();
+		final CountingDescriptorProxy proxy= new CountingDescriptorProxy(createProxy(TOTALZ_HISTORY_NUMBER).requestDescriptor(null));
+		final IJobManager manager= Job.getJobManager();
+		manager.suspend();
+		try {
+			notifySerializer(serializer, RefactoringHistoryEvent.PUSHED, proxy);
+			assertEquals("Write job should have been scheduled", 1, manager.find(RefactoringHistorySerializer.FAMILY_WRITE).length);
+			assertEquals("Refactoring should not have been written yet", TOTAL_PROJECT_NUMBER, getProjectHistoryLength());
+			assertEquals("Refactoring descriptor should not have been resolved yet", 0, proxy.getRequests());
+		} finally {
+			manager.resume();
+		}
+		waitForPendingWrites();
+		assertEquals("Refactoring descriptor should have been resolved once", 1, proxy.getRequests());
+		assertEquals("Refactoring should have been written", TOTAL_PROJECT_NUMBER + 1, getProjectHistoryLength());
+	}
+
+	public void testWriteCoalesced() throws Exception {
+		waitForPendingWrites();
+		final RefactoringHistorySerializer serializer= new RefactoringHistorySerializer();
+		final int[] runs= { 0 };
+		final JobChangeAdapter listener= new JobChangeAdapter() {
+			public void done(IJobChangeEvent event) {
+				if (event.getJob().belongsTo(RefactoringHistorySerializer.FAMILY_WRITE)) {
+					synchronized (runs) {
+						runs[0]++;
+					}
+				}
+			}
+		};
+		final IJobManager manager= Job.getJobManager();
+		manager.addJobChangeListener(listener);
+		try {
+			manager.suspend();
+			try {
+				for (int index= 0; index < 5; index++)
+					notifySerializer(serializer, RefactoringHistoryEvent.PUSHED, createProxy(TOTALZ_HISTORY_NUMBER + index));
+			} finally {
+				manager.resume();
+			}
+			waitForPendingWrites();
+		} finally {
+			manager.removeJobChangeListener(listener);
+		}
+		synchronized (runs) {
+			assertEquals("Pending events should have been written in one batch", 1, runs[0]);
+		}
+		final RefactoringDescriptorProxy[] proxies= RefactoringHistoryService.getInstance().getProjectHistory(fProject.getProject(), null).getDescriptors();
+		assertEquals("Refactorings should have been written", TOTAL_PROJECT_NUMBER + 5, proxies.length);
+		assertDescendingSortOrder(proxies);
+	}
+
+	public void testWriteCanceledByPop() throws Exception {
+		waitForPendingWrites();
+		final RefactoringHistorySerializer serializer= new RefactoringHistorySerializer();
+		final RefactoringDescriptorProxy first= createProxy(TOTALZ_HISTORY_NUMBER);
+		final CountingDescriptorProxy second= new CountingDescriptorProxy(createProxy(TOTALZ_HISTORY_NUMBER + 1).requestDescriptor(null));
+		final IJobManager manager= Job.getJobManager();
+		manager.suspend();
+		try {
+			notifySerializer(serializer, RefactoringHistoryEvent.PUSHED, second);
+			notifySerializer(serializer, RefactoringHistoryEvent.PUSHED, first);
+			notifySerializer(serializer, RefactoringHistoryEvent.POPPED, createProxy(TOTALZ_HISTORY_NUMBER));
+		} finally {
+			manager.resume();
+		}
+		waitForPendingWrites();
+		RefactoringDescriptorProxy[] proxies= RefactoringHistoryService.getInstance().getProjectHistory(fProject.getProject(), null).getDescriptors();
+		assertEquals("Only the refactoring which has not been undone should have been written", TOTAL_PROJECT_NUMBER + 1, proxies.length);
+		assertEquals("Wrong refactoring written", second.getTimeStamp(), proxies[0].getTimeStamp());
+		assertEquals("Refactoring descriptor should have been resolved once", 1, second.getRequests());
+
+		// a refactoring which has already been written is removed again
+		notifySerializer(serializer, RefactoringHistoryEvent.PUSHED, createProxy(TOTALZ_HISTORY_NUMBER + 2));
+		serializer.flush();
+		assertEquals("Refactoring should have been written", TOTAL_PROJECT_NUMBER + 2, getProjectHistoryLength());
+		notifySerializer(serializer, RefactoringHistoryEvent.POPPED, createProxy(TOTALZ_HISTORY_NUMBER + 2));
+		serializer.flush();
+		assertEquals("Refactoring should have been removed", TOTAL_PROJECT_NUMBER + 1, getProjectHistoryLength());
+		waitForPendingWrites();
+		assertEquals("Refactoring should have been removed", TOTAL_PROJECT_NUMBER + 1, getProjectHistoryLength());
+	}
+
+	public void testWriteFlushedBeforeRead() throws Exception {
+		waitForPendingWrites();
+		final RefactoringHistoryService service= RefactoringHistoryService.getInstance();
+		final IProject project= fProject.getProject();
+		final IJobManager manager= Job.getJobManager();
+		manager.suspend();
+		try {
+			final RefactoringDescriptor descriptor= executeRefactoring(project.getName(), TOTALZ_HISTORY_NUMBER, RefactoringDescriptor.NONE);
+			// readers see the pending refactoring without waiting for the write job
+			final RefactoringDescriptorProxy[] proxies= service.getProjectHistory(project, null).getDescriptors();
+			assertEquals("Pending refactoring should have been flushed", TOTAL_PROJECT_NUMBER + 1, proxies.length);
+			assertEquals("Wrong refactoring flushed", descriptor.getDescription(), proxies[0].getDescription());
+			service.deleteRefactoringDescriptors(new RefactoringDescriptorProxy[] { proxies[0]}, null);
+			assertEquals("Refactoring should have been deleted", TOTAL_PROJECT_NUMBER, getProjectHistoryLength());
+		} finally {
+			manager.resume();
+		}
+		// the write job must not resurrect the deleted refactoring
+		waitForPendingWrites();
+		assertEquals("Deleted refactoring should not have been written again", TOTAL_PROJECT_NUMBER, getProjectHistoryLength());
+	}
+
+	public void testWriteFlushedWhileTreeLocked() throws Exception {
+		waitForPendingWrites();
+		final RefactoringHistorySerializer serializer= new RefactoringHistorySerializer();
+		final boolean[] locked= { false };
+		final IResourceChangeListener listener= new IResourceChangeListener() {
+			public void resourceChanged(IResourceChangeEvent event) {
+				locked[0]= ResourcesPlugin.getWorkspace().isTreeLocked();
+				serializer.flush();
+			}
+		};
+		notifySerializer(serializer, RefactoringHistoryEvent.PUSHED, createProxy(TOTALZ_HISTORY_NUMBER));
+		ResourcesPlugin.getWorkspace().addResourceChangeListener(listener, IResourceChangeEvent.POST_CHANGE);
+		try {
+			fProject.getProject().getFile("trigger.txt").create(new ByteArrayInputStream(new byte[0]), true, null);
+		} finally {
+			ResourcesPlugin.getWorkspace().removeResourceChangeListener(listener);
+		}
+		assertTrue("Workspace tree should have been locked during the notification", locked[0]);
+		// the shared history is refreshed in the background once the tree has been unlocked
+		waitForPendingWrites();
+		final IFolder folder= fProject.getProject().getFolder(RefactoringHistoryService.NAME_HISTORY_FOLDER);
+		assertTrue("Shared refactoring history should have been refreshed", folder.isSynchronized(IResource.DEPTH_INFINITE));
+		assertEquals("Refactoring should have been written", TOTAL_PROJECT_NUMBER + 1, getProjectHistoryLength());
+	}
+}
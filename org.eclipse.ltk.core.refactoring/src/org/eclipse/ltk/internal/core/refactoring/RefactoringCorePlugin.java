@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2000, 2008 IBM Corporation and others.
+ * Copyright (c) 2000, 2014 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -28,7 +28,6 @@ import org.eclipse.core.resources.ResourcesPlugin;
 import org.eclipse.ltk.core.refactoring.IRefactoringCoreStatusCodes;
 import org.eclipse.ltk.core.refactoring.IUndoManager;
 import org.eclipse.ltk.core.refactoring.RefactoringCore;
-import org.eclipse.ltk.core.refactoring.history.IRefactoringHistoryListener;
 import org.eclipse.ltk.internal.core.refactoring.history.RefactoringContributionManager;
 import org.eclipse.ltk.internal.core.refactoring.history.RefactoringHistorySerializer;
 import org.eclipse.ltk.internal.core.refactoring.history.RefactoringHistoryService;
@@ -40,7 +39,7 @@ public class RefactoringCorePlugin extends Plugin {
 
 	private static IUndoContext fRefactoringUndoContext;
 
-	private IRefactoringHistoryListener fRefactoringHistoryListener= null;
+	private RefactoringHistorySerializer fRefactoringHistoryListener= null;
 
 	public RefactoringCorePlugin() {
 		fgDefault= this;
@@ -130,8 +129,10 @@ public class RefactoringCorePlugin extends Plugin {
 			fgUndoManager.shutdown();
 		final RefactoringHistoryService service= RefactoringHistoryService.getInstance();
 		service.disconnect();
-		if (fRefactoringHistoryListener != null)
+		if (fRefactoringHistoryListener != null) {
 			service.removeHistoryListener(fRefactoringHistoryListener);
+			fRefactoringHistoryListener.shutdown();
+		}
 		RefactoringContributionManager.getInstance().disconnect();
 		super.stop(context);
 	}
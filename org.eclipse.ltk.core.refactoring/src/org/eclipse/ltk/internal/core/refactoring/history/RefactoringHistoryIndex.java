@@ -0,0 +1,564 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.ltk.internal.core.refactoring.history;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.URI;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.eclipse.core.filesystem.EFS;
+import org.eclipse.core.filesystem.IFileStore;
+
+import org.eclipse.core.runtime.Assert;
+
+import org.eclipse.ltk.core.refactoring.RefactoringDescriptorProxy;
+import org.eclipse.ltk.internal.core.refactoring.IRefactoringSerializationConstants;
+import org.eclipse.ltk.internal.core.refactoring.RefactoringCorePlugin;
+
+/**
+ * Binary index of the refactoring descriptor proxies stored in one refactoring
+ * history location.
+ * <p>
+ * Each history location has its own index segment in the plugin state
+ * location. A segment consists of a stamp file holding fixed-size entries
+ * sorted by time stamp, and an append-only description file holding the
+ * descriptions the entries point to. Time range queries binary search the
+ * stamp file and read only the matching entries. New refactorings are usually
+ * the most recent ones and are appended to both files; older ones are inserted
+ * into the stamp file without rewriting the entries before them. Removed
+ * refactorings are dropped from the stamp file in place.
+ * </p>
+ * <p>
+ * The history files remain the primary store, since shared histories are
+ * exchanged and merged in this format. A segment which does not exist, is
+ * corrupt or has been created for another history location is rebuilt from
+ * the history files.
+ * </p>
+ */
+final class RefactoringHistoryIndex {
+
+	/** The name of the index folder in the plugin state location */
+	private static final String NAME_INDEX_FOLDER= ".refactorings.index"; //$NON-NLS-1$
+
+	/** The extension of the stamp files */
+	private static final String EXTENSION_STAMPS= ".stamps"; //$NON-NLS-1$
+
+	/** The extension of the description files */
+	private static final String EXTENSION_DESCRIPTIONS= ".descriptions"; //$NON-NLS-1$
+
+	/** The magic number of stamp files */
+	private static final int MAGIC= 0x52484958;
+
+	/** The version of the file format */
+	private static final int VERSION= 1;
+
+	/** The size of a stamp file entry: the time stamp and the description offset */
+	private static final int ENTRY_SIZE= 12;
+
+	/** The maximal number of remembered history index files */
+	private static final int MAX_WRITTEN_FILES= 256;
+
+	/** The lock guarding all index files */
+	private static final Object fgLock= new Object();
+
+	/**
+	 * The modification times of the history index files written by the
+	 * refactoring history manager (element type:
+	 * <code>&lt;String, Long&gt;</code>)
+	 */
+	private static final Map fgWrittenFiles= new HashMap();
+
+	/**
+	 * Remembers that the refactoring history manager has written the
+	 * specified history index file. The index segments are already up to date
+	 * with this change.
+	 *
+	 * @param file
+	 *            the history index file
+	 */
+	static void fileWritten(final IFileStore file) {
+		final long modified= file.fetchInfo().getLastModified();
+		if (modified == EFS.NONE)
+			return;
+		synchronized (fgWrittenFiles) {
+			if (fgWrittenFiles.size() >= MAX_WRITTEN_FILES)
+				fgWrittenFiles.clear();
+			fgWrittenFiles.put(file.toURI().toString(), new Long(modified));
+		}
+	}
+
+	/**
+	 * Determines whether the specified history index file has last been
+	 * written by the refactoring history manager.
+	 *
+	 * @param uri
+	 *            the location of the history index file
+	 * @param modified
+	 *            the modification time of the history index file
+	 * @return <code>true</code> if the index segments are up to date with the
+	 *         file, <code>false</code> if the file has been changed by other
+	 *         means
+	 */
+	static boolean isWrittenFile(final URI uri, final long modified) {
+		synchronized (fgWrittenFiles) {
+			final Long written= (Long) fgWrittenFiles.remove(uri.toString());
+			return written != null && written.longValue() == modified;
+		}
+	}
+
+	/**
+	 * Returns the index folder.
+	 *
+	 * @return the index folder
+	 */
+	private static File getIndexFolder() {
+		return RefactoringCorePlugin.getDefault().getStateLocation().append(NAME_INDEX_FOLDER).toFile();
+	}
+
+	/**
+	 * Returns the segment name of the specified project.
+	 *
+	 * @param project
+	 *            the non-empty name of the project, or <code>null</code> for
+	 *            the workspace
+	 * @return the segment name
+	 */
+	private static String getSegmentName(final String project) {
+		return project != null ? project : RefactoringHistoryService.NAME_WORKSPACE_PROJECT;
+	}
+
+	/**
+	 * Discards the index segment of the specified project. The segment is
+	 * rebuilt from the history files when it is next used.
+	 *
+	 * @param project
+	 *            the non-empty name of the project, or <code>null</code> for
+	 *            the workspace
+	 */
+	static void invalidate(final String project) {
+		final String name= getSegmentName(project);
+		final File folder= getIndexFolder();
+		synchronized (fgLock) {
+			new File(folder, name + EXTENSION_STAMPS).delete();
+			new File(folder, name + EXTENSION_DESCRIPTIONS).delete();
+		}
+	}
+
+	/** The description file */
+	private final File fDescriptionFile;
+
+	/** The URI of the indexed history location */
+	private final String fLocation;
+
+	/**
+	 * The non-empty name of the indexed project, or <code>null</code> for
+	 * the workspace
+	 */
+	private final String fProject;
+
+	/** The stamp file */
+	private final File fStampFile;
+
+	/**
+	 * Creates a new refactoring history index.
+	 *
+	 * @param store
+	 *            the indexed history location
+	 * @param project
+	 *            the non-empty name of the indexed project, or
+	 *            <code>null</code> for the workspace
+	 */
+	RefactoringHistoryIndex(final IFileStore store, final String project) {
+		Assert.isNotNull(store);
+		Assert.isTrue(project == null || !"".equals(project)); //$NON-NLS-1$
+		final String name= getSegmentName(project);
+		final File folder= getIndexFolder();
+		fStampFile= new File(folder, name + EXTENSION_STAMPS);
+		fDescriptionFile= new File(folder, name + EXTENSION_DESCRIPTIONS);
+		fLocation= store.toURI().toString();
+		fProject= project;
+	}
+
+	/**
+	 * Adds a refactoring to the index. Nothing happens if the index segment
+	 * does not exist yet, since it will be built from the history files
+	 * including the refactoring.
+	 *
+	 * @param stamp
+	 *            the time stamp of the refactoring
+	 * @param description
+	 *            the description of the refactoring
+	 */
+	void add(final long stamp, final String description) {
+		synchronized (fgLock) {
+			if (!fStampFile.isFile())
+				return;
+			if (!fDescriptionFile.isFile()) {
+				invalidate(fProject);
+				return;
+			}
+			RandomAccessFile stamps= null;
+			RandomAccessFile descriptions= null;
+			boolean valid= false;
+			try {
+				stamps= new RandomAccessFile(fStampFile, "rw"); //$NON-NLS-1$
+				final long header= readHeader(stamps);
+				if (header < 0)
+					return;
+				descriptions= new RandomAccessFile(fDescriptionFile, "rw"); //$NON-NLS-1$
+				final long offset= descriptions.length();
+				if (offset > Integer.MAX_VALUE)
+					return;
+				final byte[] bytes= description.getBytes(IRefactoringSerializationConstants.OUTPUT_ENCODING);
+				descriptions.seek(offset);
+				descriptions.writeInt(bytes.length);
+				descriptions.write(bytes);
+
+				final long length= stamps.length();
+				final int count= (int) ((length - header) / ENTRY_SIZE);
+				final int position= findEntry(stamps, header, count, stamp + 1);
+				final long entry= header + (long) position * ENTRY_SIZE;
+				byte[] tail= null;
+				if (position < count) {
+					tail= new byte[(int) (length - entry)];
+					stamps.seek(entry);
+					stamps.readFully(tail);
+				}
+				stamps.seek(entry);
+				stamps.writeLong(stamp);
+				stamps.writeInt((int) offset);
+				if (tail != null)
+					stamps.write(tail);
+				valid= true;
+			} catch (IOException exception) {
+				RefactoringCorePlugin.log(exception);
+			} finally {
+				close(stamps);
+				close(descriptions);
+				if (!valid)
+					invalidate(fProject);
+			}
+		}
+	}
+
+	/**
+	 * Closes the specified file.
+	 *
+	 * @param file
+	 *            the file to close, or <code>null</code>
+	 */
+	private void close(final RandomAccessFile file) {
+		if (file != null) {
+			try {
+				file.close();
+			} catch (IOException exception) {
+				// Do nothing
+			}
+		}
+	}
+
+	/**
+	 * Returns the position of the first entry whose time stamp is not less
+	 * than the specified one.
+	 *
+	 * @param stamps
+	 *            the stamp file
+	 * @param header
+	 *            the header length of the stamp file
+	 * @param count
+	 *            the number of entries
+	 * @param stamp
+	 *            the time stamp to look for
+	 * @return the entry position, or <code>count</code> if all entries have
+	 *         smaller time stamps
+	 * @throws IOException
+	 *             if an input/output error occurs
+	 */
+	private int findEntry(final RandomAccessFile stamps, final long header, final int count, final long stamp) throws IOException {
+		int low= 0;
+		int high= count;
+		while (low < high) {
+			final int middle= (low + high) >>> 1;
+			stamps.seek(header + (long) middle * ENTRY_SIZE);
+			if (stamps.readLong() < stamp)
+				low= middle + 1;
+			else
+				high= middle;
+		}
+		return low;
+	}
+
+	/**
+	 * Reads the header of the stamp file.
+	 *
+	 * @param stamps
+	 *            the stamp file
+	 * @return the header length, or <code>-1</code> if the stamp file is
+	 *         corrupt or belongs to another history location
+	 * @throws IOException
+	 *             if an input/output error occurs
+	 */
+	private long readHeader(final RandomAccessFile stamps) throws IOException {
+		final long length= stamps.length();
+		if (length < 10)
+			return -1;
+		stamps.seek(0);
+		if (stamps.readInt() != MAGIC || stamps.readInt() != VERSION)
+			return -1;
+		if (!fLocation.equals(stamps.readUTF()))
+			return -1;
+		final long header= stamps.getFilePointer();
+		if ((length - header) % ENTRY_SIZE != 0)
+			return -1;
+		return header;
+	}
+
+	/**
+	 * Reads the refactoring descriptor proxies within the specified time
+	 * range.
+	 *
+	 * @param start
+	 *            the start time stamp, inclusive
+	 * @param end
+	 *            the end time stamp, inclusive
+	 * @param collection
+	 *            the collection of proxies to fill in
+	 * @return <code>true</code> if the proxies have been read,
+	 *         <code>false</code> if the index segment has to be rebuilt first
+	 */
+	boolean readProxies(final long start, final long end, final Collection collection) {
+		synchronized (fgLock) {
+			if (!fStampFile.isFile() || !fDescriptionFile.isFile())
+				return false;
+			RandomAccessFile stamps= null;
+			RandomAccessFile descriptions= null;
+			boolean valid= false;
+			try {
+				stamps= new RandomAccessFile(fStampFile, "r"); //$NON-NLS-1$
+				final long header= readHeader(stamps);
+				if (header < 0)
+					return false;
+				final int count= (int) ((stamps.length() - header) / ENTRY_SIZE);
+				final int first= start > end ? count : findEntry(stamps, header, count, start);
+				final int limit= first == count || end == Long.MAX_VALUE ? count : findEntry(stamps, header, count, end + 1);
+				final int size= limit - first;
+				final byte[] entries= new byte[size * ENTRY_SIZE];
+				stamps.seek(header + (long) first * ENTRY_SIZE);
+				stamps.readFully(entries);
+				descriptions= new RandomAccessFile(fDescriptionFile, "r"); //$NON-NLS-1$
+				final long available= descriptions.length();
+				final RefactoringDescriptorProxy[] proxies= new RefactoringDescriptorProxy[size];
+				for (int index= 0; index < size; index++) {
+					final int position= index * ENTRY_SIZE;
+					final long stamp= getLong(entries, position);
+					final int offset= getInt(entries, position + 8);
+					if (offset < 0 || offset + 4L > available)
+						return false;
+					descriptions.seek(offset);
+					final int length= descriptions.readInt();
+					if (length <= 0 || offset + 4L + length > available)
+						return false;
+					final byte[] bytes= new byte[length];
+					descriptions.readFully(bytes);
+					proxies[index]= new DefaultRefactoringDescriptorProxy(new String(bytes, IRefactoringSerializationConstants.OUTPUT_ENCODING), fProject, stamp);
+				}
+				collection.addAll(Arrays.asList(proxies));
+				valid= true;
+				return true;
+			} catch (IOException exception) {
+				RefactoringCorePlugin.log(exception);
+				return false;
+			} finally {
+				close(stamps);
+				close(descriptions);
+				if (!valid)
+					invalidate(fProject);
+			}
+		}
+	}
+
+	/**
+	 * Rebuilds the index segment from the specified refactoring descriptor
+	 * proxies.
+	 *
+	 * @param proxies
+	 *            all refactoring descriptor proxies of the indexed history
+	 *            location
+	 */
+	void rebuild(final RefactoringDescriptorProxy[] proxies) {
+		final RefactoringDescriptorProxy[] sorted= new RefactoringDescriptorProxy[proxies.length];
+		System.arraycopy(proxies, 0, sorted, 0, proxies.length);
+		RefactoringHistoryManager.sortRefactoringDescriptorsAscending(sorted);
+		synchronized (fgLock) {
+			final File folder= fStampFile.getParentFile();
+			if (!folder.isDirectory() && !folder.mkdirs())
+				return;
+			invalidate(fProject);
+			DataOutputStream stamps= null;
+			DataOutputStream descriptions= null;
+			File temporary= null;
+			try {
+				temporary= File.createTempFile(fStampFile.getName(), null, folder);
+				stamps= new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporary), 16 * 1024));
+				descriptions= new DataOutputStream(new BufferedOutputStream(new FileOutputStream(fDescriptionFile), 16 * 1024));
+				stamps.writeInt(MAGIC);
+				stamps.writeInt(VERSION);
+				stamps.writeUTF(fLocation);
+				for (int index= 0; index < sorted.length; index++) {
+					final byte[] bytes= sorted[index].getDescription().getBytes(IRefactoringSerializationConstants.OUTPUT_ENCODING);
+					stamps.writeLong(sorted[index].getTimeStamp());
+					stamps.writeInt(descriptions.size());
+					descriptions.writeInt(bytes.length);
+					descriptions.write(bytes);
+				}
+				descriptions.close();
+				descriptions= null;
+				stamps.close();
+				stamps= null;
+				// the stamp file is renamed last, so that a partially written segment is never used
+				if (!temporary.renameTo(fStampFile))
+					invalidate(fProject);
+			} catch (IOException exception) {
+				RefactoringCorePlugin.log(exception);
+				invalidate(fProject);
+			} finally {
+				if (stamps != null) {
+					try {
+						stamps.close();
+					} catch (IOException exception) {
+						// Do nothing
+					}
+				}
+				if (descriptions != null) {
+					try {
+						descriptions.close();
+					} catch (IOException exception) {
+						// Do nothing
+					}
+				}
+				if (temporary != null && temporary.exists())
+					temporary.delete();
+			}
+		}
+	}
+
+	/**
+	 * Removes the refactorings with the specified time stamps from the index.
+	 * The entries behind the first removed one are moved up in place, the
+	 * entries before it and the description file are left untouched. The
+	 * descriptions of removed entries remain in the description file until
+	 * the segment is rebuilt, or until no entry is left.
+	 *
+	 * @param proxies
+	 *            the refactoring descriptor proxies to remove
+	 */
+	void remove(final RefactoringDescriptorProxy[] proxies) {
+		if (proxies.length == 0)
+			return;
+		synchronized (fgLock) {
+			if (!fStampFile.isFile())
+				return;
+			if (!fDescriptionFile.isFile()) {
+				invalidate(fProject);
+				return;
+			}
+			final long[] removed= new long[proxies.length];
+			for (int index= 0; index < proxies.length; index++)
+				removed[index]= proxies[index].getTimeStamp();
+			Arrays.sort(removed);
+			RandomAccessFile stamps= null;
+			boolean valid= false;
+			try {
+				stamps= new RandomAccessFile(fStampFile, "rw"); //$NON-NLS-1$
+				final long header= readHeader(stamps);
+				if (header < 0)
+					return;
+				final int count= (int) ((stamps.length() - header) / ENTRY_SIZE);
+				final int first= findEntry(stamps, header, count, removed[0]);
+				final byte[] entries= new byte[(count - first) * ENTRY_SIZE];
+				stamps.seek(header + (long) first * ENTRY_SIZE);
+				stamps.readFully(entries);
+				int kept= 0;
+				for (int index= 0; index < count - first; index++) {
+					final int position= index * ENTRY_SIZE;
+					if (Arrays.binarySearch(removed, getLong(entries, position)) < 0) {
+						if (kept != index)
+							System.arraycopy(entries, position, entries, kept * ENTRY_SIZE, ENTRY_SIZE);
+						kept++;
+					}
+				}
+				if (kept < count - first) {
+					stamps.seek(header + (long) first * ENTRY_SIZE);
+					stamps.write(entries, 0, kept * ENTRY_SIZE);
+					stamps.setLength(header + (long) (first + kept) * ENTRY_SIZE);
+					if (first + kept == 0)
+						truncateDescriptions();
+				}
+				valid= true;
+			} catch (IOException exception) {
+				RefactoringCorePlugin.log(exception);
+			} finally {
+				close(stamps);
+				if (!valid)
+					invalidate(fProject);
+			}
+		}
+	}
+
+	/**
+	 * Discards all descriptions of the description file.
+	 *
+	 * @throws IOException
+	 *             if an input/output error occurs
+	 */
+	private void truncateDescriptions() throws IOException {
+		final RandomAccessFile descriptions= new RandomAccessFile(fDescriptionFile, "rw"); //$NON-NLS-1$
+		try {
+			descriptions.setLength(0);
+		} finally {
+			close(descriptions);
+		}
+	}
+
+	/**
+	 * Returns the big-endian int at the specified position.
+	 *
+	 * @param bytes
+	 *            the bytes
+	 * @param position
+	 *            the position
+	 * @return the int value
+	 */
+	private static int getInt(final byte[] bytes, final int position) {
+		return ((bytes[position] & 0xFF) << 24) | ((bytes[position + 1] & 0xFF) << 16) | ((bytes[position + 2] & 0xFF) << 8) | (bytes[position + 3] & 0xFF);
+	}
+
+	/**
+	 * Returns the big-endian long at the specified position.
+	 *
+	 * @param bytes
+	 *            the bytes
+	 * @param position
+	 *            the position
+	 * @return the long value
+	 */
+	private static long getLong(final byte[] bytes, final int position) {
+		return ((long) getInt(bytes, position) << 32) | (getInt(bytes, position + 4) & 0xFFFFFFFFL);
+	}
+}
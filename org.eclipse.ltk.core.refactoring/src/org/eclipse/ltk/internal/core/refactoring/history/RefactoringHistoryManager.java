@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2005, 2010 IBM Corporation and others.
+ * Copyright (c) 2005, 2014 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -247,6 +247,53 @@ public final class RefactoringHistoryManager {
 		}
 	}
 
+	/**
+	 * Reads refactoring descriptor proxies using the binary index of the
+	 * specified history file store.
+	 * <p>
+	 * If the index does not exist yet or cannot be used, it is built from the
+	 * refactoring history files. This imports histories which have been
+	 * written before the index has been introduced or which have been changed
+	 * by other means, like a team provider.
+	 * </p>
+	 *
+	 * @param index
+	 *            the index of the file store
+	 * @param store
+	 *            the file store to read
+	 * @param project
+	 *            the name of the project, or <code>null</code> for the
+	 *            workspace
+	 * @param collection
+	 *            the collection of proxies to fill in
+	 * @param start
+	 *            the start time stamp, inclusive
+	 * @param end
+	 *            the end time stamp, inclusive
+	 * @param monitor
+	 *            the progress monitor to use
+	 * @throws CoreException
+	 *             if an error occurs
+	 */
+	private static void readRefactoringDescriptorProxies(final RefactoringHistoryIndex index, final IFileStore store, final String project, final Collection collection, final long start, final long end, final IProgressMonitor monitor) throws CoreException {
+		try {
+			monitor.beginTask(RefactoringCoreMessages.RefactoringHistoryService_retrieving_history, 1);
+			if (index.readProxies(start, end, collection))
+				return;
+			final List list= new ArrayList(256);
+			readRefactoringDescriptorProxies(store, project, list, 0, Long.MAX_VALUE, new SubProgressMonitor(monitor, 1), RefactoringCoreMessages.RefactoringHistoryService_retrieving_history);
+			final RefactoringDescriptorProxy[] proxies= (RefactoringDescriptorProxy[]) list.toArray(new RefactoringDescriptorProxy[list.size()]);
+			index.rebuild(proxies);
+			for (int offset= 0; offset < proxies.length; offset++) {
+				final long stamp= proxies[offset].getTimeStamp();
+				if (stamp >= start && stamp <= end)
+					collection.add(proxies[offset]);
+			}
+		} finally {
+			monitor.done();
+		}
+	}
+
 	/**
 	 * Reads refactoring descriptor proxies from the specified input stream.
 	 * <p>
@@ -563,6 +610,7 @@ public final class RefactoringHistoryManager {
 				}
 			}
 		}
+		RefactoringHistoryIndex.fileWritten(file);
 	}
 
 	/**
@@ -783,6 +831,9 @@ public final class RefactoringHistoryManager {
 	/** The history file store */
 	private final IFileStore fHistoryStore;
 
+	/** The binary index of the history file store */
+	private final RefactoringHistoryIndex fIndex;
+
 	/**
 	 * The non-empty name of the managed project, or <code>null</code> for the
 	 * workspace
@@ -803,6 +854,7 @@ public final class RefactoringHistoryManager {
 		Assert.isTrue(name == null || !"".equals(name)); //$NON-NLS-1$
 		fHistoryStore= store;
 		fProjectName= name;
+		fIndex= new RefactoringHistoryIndex(store, name);
 	}
 
 	/**
@@ -870,6 +922,7 @@ public final class RefactoringHistoryManager {
 								writeIndexEntry(index, (RefactoringDescriptorProxy[]) set.toArray(new RefactoringDescriptorProxy[set.size()]), EFS.NONE, new SubProgressMonitor(monitor, 3, SubProgressMonitor.SUPPRESS_SUBTASK_LABEL), RefactoringCoreMessages.RefactoringHistoryService_updating_history);
 							} else
 								writeIndexEntry(index, proxies, EFS.APPEND, new SubProgressMonitor(monitor, 5, SubProgressMonitor.SUPPRESS_SUBTASK_LABEL), RefactoringCoreMessages.RefactoringHistoryService_updating_history);
+							fIndex.add(stamp, descriptor.getDescription());
 						}
 					} catch (ParserConfigurationException exception) {
 						throw createCoreException(exception);
@@ -890,7 +943,8 @@ public final class RefactoringHistoryManager {
 					try {
 						final Document result= transformDescriptor(descriptor, false);
 						writeHistoryEntry(history, result, new SubProgressMonitor(monitor, 1, SubProgressMonitor.SUPPRESS_SUBTASK_LABEL), RefactoringCoreMessages.RefactoringHistoryService_updating_history);
-							writeIndexEntry(index, proxies, EFS.NONE, new SubProgressMonitor(monitor, 1, SubProgressMonitor.SUPPRESS_SUBTASK_LABEL), RefactoringCoreMessages.RefactoringHistoryService_updating_history);
+						writeIndexEntry(index, proxies, EFS.NONE, new SubProgressMonitor(monitor, 1, SubProgressMonitor.SUPPRESS_SUBTASK_LABEL), RefactoringCoreMessages.RefactoringHistoryService_updating_history);
+						fIndex.add(stamp, descriptor.getDescription());
 					} catch (IOException exception) {
 						throw createCoreException(exception);
 					}
@@ -976,10 +1030,10 @@ public final class RefactoringHistoryManager {
 			final Set set= new HashSet();
 			try {
 				if (fHistoryStore.fetchInfo(EFS.NONE, new SubProgressMonitor(monitor, 20, SubProgressMonitor.SUPPRESS_SUBTASK_LABEL)).exists())
-					readRefactoringDescriptorProxies(fHistoryStore, fProjectName, set, start, end, new SubProgressMonitor(monitor, 80), RefactoringCoreMessages.RefactoringHistoryService_retrieving_history);
+					readRefactoringDescriptorProxies(fIndex, fHistoryStore, fProjectName, set, start, end, new SubProgressMonitor(monitor, 80));
 				final IFileStore store= EFS.getLocalFileSystem().getStore(RefactoringCorePlugin.getDefault().getStateLocation()).getChild(RefactoringHistoryService.NAME_HISTORY_FOLDER).getChild(RefactoringHistoryService.NAME_WORKSPACE_PROJECT);
 				if (store.fetchInfo(EFS.NONE, new SubProgressMonitor(monitor, 20, SubProgressMonitor.SUPPRESS_SUBTASK_LABEL)).exists())
-					readRefactoringDescriptorProxies(store, null, set, start, end, new SubProgressMonitor(monitor, 80), RefactoringCoreMessages.RefactoringHistoryService_retrieving_history);
+					readRefactoringDescriptorProxies(fProjectName != null ? new RefactoringHistoryIndex(store, null) : fIndex, store, null, set, start, end, new SubProgressMonitor(monitor, 80));
 			} catch (CoreException exception) {
 				RefactoringCorePlugin.log(exception);
 			}
@@ -1117,9 +1171,13 @@ public final class RefactoringHistoryManager {
 					final Collection collection= (Collection) entry.getValue();
 					removeRefactoringDescriptors((RefactoringDescriptorProxy[]) collection.toArray(new RefactoringDescriptorProxy[collection.size()]), (IPath) entry.getKey(), new SubProgressMonitor(subMonitor, 1), task);
 				}
+			} catch (CoreException exception) {
+				RefactoringHistoryIndex.invalidate(fProjectName);
+				throw exception;
 			} finally {
 				subMonitor.done();
 			}
+			fIndex.remove(proxies);
 		} finally {
 			monitor.done();
 		}
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2005, 2008 IBM Corporation and others.
+ * Copyright (c) 2005, 2014 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -11,13 +11,23 @@
 package org.eclipse.ltk.internal.core.refactoring.history;
 
 import java.net.URI;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import org.eclipse.core.filesystem.EFS;
 import org.eclipse.core.filesystem.IFileStore;
 
 import org.eclipse.core.runtime.Assert;
 import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
 import org.eclipse.core.runtime.NullProgressMonitor;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
 
 import org.eclipse.core.resources.IProject;
 import org.eclipse.core.resources.IResource;
@@ -33,11 +43,167 @@ import org.eclipse.ltk.internal.core.refactoring.RefactoringCorePlugin;
 /**
  * Refactoring history listener which continuously persists the global
  * refactoring history in the different history locations.
+ * <p>
+ * History events are acknowledged immediately and written behind by a
+ * background job, so that performing a refactoring does not wait for the
+ * history files to be updated. Events arriving in short succession are
+ * written in one batch, and refactorings which are undone before they have
+ * been written are not written at all. The refactoring descriptors are only
+ * resolved when the events are written. The pending events are written when
+ * the history is flushed explicitly and when the listener is shut down.
+ * </p>
  *
  * @since 3.2
  */
 public final class RefactoringHistorySerializer implements IRefactoringHistoryListener {
 
+	/** A pending history event */
+	private static final class PendingEvent {
+
+		/** The non-empty project name, or <code>null</code> */
+		private final String fProject;
+
+		/**
+		 * The refactoring descriptor proxy, which is resolved when the event
+		 * is written
+		 */
+		private final RefactoringDescriptorProxy fProxy;
+
+		/** The event type */
+		private final int fType;
+
+		/**
+		 * Creates a new pending event.
+		 *
+		 * @param type
+		 *            the event type
+		 * @param proxy
+		 *            the refactoring descriptor proxy
+		 */
+		private PendingEvent(final int type, final RefactoringDescriptorProxy proxy) {
+			fType= type;
+			fProxy= proxy;
+			final String name= proxy.getProject();
+			fProject= name != null && !"".equals(name) ? name : null; //$NON-NLS-1$
+		}
+
+		/**
+		 * Is this event adding the refactoring which is removed by the
+		 * specified event?
+		 *
+		 * @param event
+		 *            the removing event
+		 * @return <code>true</code> if the events cancel each other out
+		 */
+		private boolean isCanceledBy(final PendingEvent event) {
+			if (fType != RefactoringHistoryEvent.PUSHED || fProxy.getTimeStamp() != event.fProxy.getTimeStamp())
+				return false;
+			return fProject == null ? event.fProject == null : fProject.equals(event.fProject);
+		}
+	}
+
+	/**
+	 * The family of the jobs writing pending events.
+	 * <p>
+	 * For testing purposes only.
+	 * </p>
+	 */
+	public static final Object FAMILY_WRITE= new Object();
+
+	/** The delay in milliseconds before pending events are written */
+	private static final long WRITE_DELAY= 500;
+
+	/** Has the serializer been shut down? */
+	private boolean fClosed= false;
+
+	/** The pending events (element type: <code>PendingEvent</code>) */
+	private final List fPendingEvents= new ArrayList();
+
+	/**
+	 * The projects with shared histories which have to be refreshed (element
+	 * type: <code>IProject</code>)
+	 */
+	private final Set fRefreshProjects= new LinkedHashSet();
+
+	/** The lock serializing the writes of pending events */
+	private final Object fWriteLock= new Object();
+
+	/** The job writing the pending events */
+	private final Job fWriteJob= new Job(RefactoringCoreMessages.RefactoringHistoryService_updating_history) {
+
+		public boolean belongsTo(final Object family) {
+			return family == FAMILY_WRITE;
+		}
+
+		public IStatus run(final IProgressMonitor monitor) {
+			writePendingEvents();
+			refreshProjects();
+			return Status.OK_STATUS;
+		}
+	};
+
+	/**
+	 * Creates a new refactoring history serializer.
+	 */
+	public RefactoringHistorySerializer() {
+		fWriteJob.setSystem(true);
+		fWriteJob.setPriority(Job.SHORT);
+	}
+
+	/**
+	 * Writes all pending history events. When this method returns, all
+	 * events which have been received before have been written to the
+	 * history files.
+	 * <p>
+	 * Shared histories are refreshed in the workspace as well, unless the
+	 * calling thread owns a scheduling rule or the workspace tree is locked,
+	 * for instance while resource change listeners are notified. In this case,
+	 * they are refreshed in the background.
+	 * </p>
+	 */
+	public void flush() {
+		writePendingEvents();
+		if (Job.getJobManager().currentRule() == null && !ResourcesPlugin.getWorkspace().isTreeLocked())
+			refreshProjects();
+		else {
+			synchronized (fRefreshProjects) {
+				if (!fRefreshProjects.isEmpty())
+					fWriteJob.schedule();
+			}
+		}
+	}
+
+	/**
+	 * Returns the history store for the specified project.
+	 *
+	 * @param name
+	 *            the non-empty project name, or <code>null</code> for the
+	 *            workspace
+	 * @param shared
+	 *            a one-element array receiving the project if it has a
+	 *            shared refactoring history
+	 * @return the history store, or <code>null</code> if the project is not
+	 *         accessible
+	 * @throws CoreException
+	 *             if the history store cannot be determined
+	 */
+	private IFileStore getHistoryStore(final String name, final IProject[] shared) throws CoreException {
+		final IFileStore store= EFS.getLocalFileSystem().getStore(RefactoringCorePlugin.getDefault().getStateLocation()).getChild(RefactoringHistoryService.NAME_HISTORY_FOLDER);
+		if (name == null)
+			return store.getChild(RefactoringHistoryService.NAME_WORKSPACE_PROJECT);
+		final IProject project= ResourcesPlugin.getWorkspace().getRoot().getProject(name);
+		if (!project.isAccessible())
+			return null;
+		if (RefactoringHistoryService.hasSharedRefactoringHistory(project)) {
+			final URI uri= project.getLocationURI();
+			if (uri == null)
+				return null;
+			shared[0]= project;
+			return EFS.getStore(uri).getChild(RefactoringHistoryService.NAME_HISTORY_FOLDER);
+		}
+		return store.getChild(name);
+	}
+
 	/**
 	 * {@inheritDoc}
 	 */
@@ -50,68 +216,102 @@ public final class RefactoringHistorySerializer implements IRefactoringHistoryLi
 				final RefactoringDescriptorProxy proxy= event.getDescriptor();
 				final long stamp= proxy.getTimeStamp();
 				if (stamp >= 0) {
-					final String name= proxy.getProject();
-					final IFileStore store= EFS.getLocalFileSystem().getStore(RefactoringCorePlugin.getDefault().getStateLocation()).getChild(RefactoringHistoryService.NAME_HISTORY_FOLDER);
-					if (name != null && !"".equals(name)) { //$NON-NLS-1$
-						final IProject project= ResourcesPlugin.getWorkspace().getRoot().getProject(name);
-						if (project.isAccessible()) {
-							if (RefactoringHistoryService.hasSharedRefactoringHistory(project)) {
-								final URI uri= project.getLocationURI();
-								if (uri != null) {
-									try {
-										processHistoryNotification(EFS.getStore(uri).getChild(RefactoringHistoryService.NAME_HISTORY_FOLDER), event, name);
-									} catch (CoreException exception) {
-										RefactoringCorePlugin.log(exception);
-									} finally {
-										try {
-											project.refreshLocal(IResource.DEPTH_INFINITE, null);
-										} catch (CoreException exception) {
-											RefactoringCorePlugin.log(exception);
-										}
-									}
-								}
-							} else {
-								try {
-									processHistoryNotification(store.getChild(name), event, name);
-								} catch (CoreException exception) {
-									RefactoringCorePlugin.log(exception);
+					final int type= event.getEventType();
+					final PendingEvent pending= new PendingEvent(type, proxy);
+					synchronized (fPendingEvents) {
+						if (type == RefactoringHistoryEvent.POPPED) {
+							for (int index= fPendingEvents.size() - 1; index >= 0; index--) {
+								if (((PendingEvent) fPendingEvents.get(index)).isCanceledBy(pending)) {
+									fPendingEvents.remove(index);
+									return;
 								}
 							}
 						}
-					} else {
-						try {
-							processHistoryNotification(store.getChild(RefactoringHistoryService.NAME_WORKSPACE_PROJECT), event, name);
-						} catch (CoreException exception) {
-							RefactoringCorePlugin.log(exception);
-						}
+						fPendingEvents.add(pending);
+						if (fClosed)
+							return;
 					}
+					fWriteJob.schedule(WRITE_DELAY);
 				}
 			}
 		}
 	}
 
 	/**
-	 * Processes the history event.
-	 *
-	 * @param store
-	 *            the file store
-	 * @param event
-	 *            the history event
-	 * @param name
-	 *            the project name, or <code>null</code>
-	 * @throws CoreException
-	 *             if an error occurs
+	 * Refreshes the projects with shared histories which have been written.
+	 */
+	private void refreshProjects() {
+		final IProject[] projects;
+		synchronized (fRefreshProjects) {
+			projects= (IProject[]) fRefreshProjects.toArray(new IProject[fRefreshProjects.size()]);
+			fRefreshProjects.clear();
+		}
+		for (int index= 0; index < projects.length; index++) {
+			try {
+				if (projects[index].isAccessible())
+					projects[index].getFolder(RefactoringHistoryService.NAME_HISTORY_FOLDER).refreshLocal(IResource.DEPTH_INFINITE, null);
+			} catch (CoreException exception) {
+				RefactoringCorePlugin.log(exception);
+			}
+		}
+	}
+
+	/**
+	 * Shuts down the serializer. All pending events are written, and events
+	 * received afterwards are written when the serializer is flushed.
+	 */
+	public void shutdown() {
+		synchronized (fPendingEvents) {
+			fClosed= true;
+		}
+		fWriteJob.cancel();
+		writePendingEvents();
+		refreshProjects();
+	}
+
+	/**
+	 * Writes the pending events in the order they have been received.
 	 */
-	private void processHistoryNotification(final IFileStore store, final RefactoringHistoryEvent event, final String name) throws CoreException {
-		final RefactoringDescriptorProxy proxy= event.getDescriptor();
-		final int type= event.getEventType();
-		final RefactoringHistoryManager manager= new RefactoringHistoryManager(store, name);
-		final NullProgressMonitor monitor= new NullProgressMonitor();
-		if (type == RefactoringHistoryEvent.PUSHED || type == RefactoringHistoryEvent.ADDED) {
-			final RefactoringDescriptor descriptor= proxy.requestDescriptor(monitor);
-			if (descriptor != null)
-				manager.addRefactoringDescriptor(descriptor, type == RefactoringHistoryEvent.ADDED, monitor);
-		} else if (type == RefactoringHistoryEvent.POPPED)
-			manager.removeRefactoringDescriptors(new RefactoringDescriptorProxy[] { proxy}, monitor, RefactoringCoreMessages.RefactoringHistoryService_updating_history);
+	private void writePendingEvents() {
+		synchronized (fWriteLock) {
+			final PendingEvent[] events;
+			synchronized (fPendingEvents) {
+				events= (PendingEvent[]) fPendingEvents.toArray(new PendingEvent[fPendingEvents.size()]);
+				fPendingEvents.clear();
+			}
+			if (events.length == 0)
+				return;
+			final NullProgressMonitor monitor= new NullProgressMonitor();
+			final Map managers= new HashMap();
+			final Set refresh= new LinkedHashSet();
+			for (int index= 0; index < events.length; index++) {
+				final PendingEvent event= events[index];
+				try {
+					final IProject[] shared= { null };
+					final IFileStore store= getHistoryStore(event.fProject, shared);
+					if (store == null)
+						continue;
+					if (shared[0] != null)
+						refresh.add(shared[0]);
+					// a manager keeps the last history file in memory, which is likely to be written again
+					RefactoringHistoryManager manager= (RefactoringHistoryManager) managers.get(store);
+					if (manager == null) {
+						manager= new RefactoringHistoryManager(store, event.fProject);
+						managers.put(store, manager);
+					}
+					if (event.fType != RefactoringHistoryEvent.POPPED) {
+						final RefactoringDescriptor descriptor= event.fProxy.requestDescriptor(monitor);
+						if (descriptor != null)
+							manager.addRefactoringDescriptor(descriptor, event.fType == RefactoringHistoryEvent.ADDED, monitor);
+					} else
+						manager.removeRefactoringDescriptors(new RefactoringDescriptorProxy[] { event.fProxy}, monitor, RefactoringCoreMessages.RefactoringHistoryService_updating_history);
+				} catch (CoreException exception) {
+					RefactoringCorePlugin.log(exception);
+				}
+			}
+			synchronized (fRefreshProjects) {
+				fRefreshProjects.addAll(refresh);
+			}
+		}
 	}
 }
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2005, 2008 IBM Corporation and others.
+ * Copyright (c) 2005, 2014 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -47,6 +47,7 @@ import org.eclipse.core.runtime.IStatus;
 import org.eclipse.core.runtime.ListenerList;
 import org.eclipse.core.runtime.MultiStatus;
 import org.eclipse.core.runtime.NullProgressMonitor;
+import org.eclipse.core.runtime.Path;
 import org.eclipse.core.runtime.Platform;
 import org.eclipse.core.runtime.SafeRunner;
 import org.eclipse.core.runtime.Status;
@@ -59,6 +60,7 @@ import org.eclipse.core.resources.IResource;
 import org.eclipse.core.resources.IResourceChangeEvent;
 import org.eclipse.core.resources.IResourceChangeListener;
 import org.eclipse.core.resources.IResourceDelta;
+import org.eclipse.core.resources.IResourceDeltaVisitor;
 import org.eclipse.core.resources.ProjectScope;
 import org.eclipse.core.resources.ResourcesPlugin;
 
@@ -250,6 +252,8 @@ public final class RefactoringHistoryService implements IRefactoringHistoryServi
 			final String name= project.getName();
 			final URI uri= project.getLocationURI();
 			if (uri != null) {
+				getInstance().flush();
+				RefactoringHistoryIndex.invalidate(name);
 				try {
 					final IFileStore history= EFS.getLocalFileSystem().getStore(RefactoringCorePlugin.getDefault().getStateLocation()).getChild(NAME_HISTORY_FOLDER);
 					if (enable) {
@@ -417,6 +421,7 @@ public final class RefactoringHistoryService implements IRefactoringHistoryServi
 			monitor= new NullProgressMonitor();
 		try {
 			monitor.beginTask(RefactoringCoreMessages.RefactoringHistoryService_deleting_refactorings, proxies.length + 300);
+			flush();
 			final Map projects= new HashMap();
 			for (int index= 0; index < proxies.length; index++) {
 				String project= proxies[index].getProject();
@@ -531,6 +536,8 @@ public final class RefactoringHistoryService implements IRefactoringHistoryServi
 			monitor.beginTask(RefactoringCoreMessages.RefactoringHistoryService_deleting_refactorings, 100);
 			final String name= project.getName();
 			final IFileStore stateStore= EFS.getLocalFileSystem().getStore(RefactoringCorePlugin.getDefault().getStateLocation());
+			flush();
+			RefactoringHistoryIndex.invalidate(name);
 			if (name.equals(NAME_WORKSPACE_PROJECT)) {
 				final IFileStore metaStore= stateStore.getChild(NAME_HISTORY_FOLDER).getChild(name);
 				metaStore.delete(EFS.NONE, new SubProgressMonitor(monitor, 100));
@@ -569,6 +576,23 @@ public final class RefactoringHistoryService implements IRefactoringHistoryServi
 		}
 	}
 
+	/**
+	 * Writes the pending changes of the refactoring history to the history
+	 * files.
+	 * <p>
+	 * Refactorings are written to the history files in the background after
+	 * they have been performed. Clients which access the history files
+	 * directly have to flush the history first.
+	 * </p>
+	 */
+	public void flush() {
+		final Object[] listeners= fHistoryListeners.getListeners();
+		for (int index= 0; index < listeners.length; index++) {
+			if (listeners[index] instanceof RefactoringHistorySerializer)
+				((RefactoringHistorySerializer) listeners[index]).flush();
+		}
+	}
+
 	private void fireRefactoringExecutionEvent(final RefactoringDescriptorProxy proxy, final int eventType) {
 		Assert.isNotNull(proxy);
 		final Object[] listeners= fExecutionListeners.getListeners();
@@ -653,6 +677,7 @@ public final class RefactoringHistoryService implements IRefactoringHistoryServi
 				monitor= new NullProgressMonitor();
 			try {
 				monitor.beginTask(RefactoringCoreMessages.RefactoringHistoryService_retrieving_history, 120);
+				flush();
 				final String name= project.getName();
 				final RefactoringHistoryManager manager= getManager(name);
 				if (manager != null) {
@@ -818,6 +843,7 @@ public final class RefactoringHistoryService implements IRefactoringHistoryServi
 		if (monitor == null)
 			monitor= new NullProgressMonitor();
 		try {
+			flush();
 			final RefactoringHistoryManager manager= getManager(proxy.getProject());
 			if (manager != null)
 				return manager.requestDescriptor(proxy, monitor);
@@ -892,6 +918,9 @@ public final class RefactoringHistoryService implements IRefactoringHistoryServi
 			final IFileStore historyStore= EFS.getLocalFileSystem().getStore(RefactoringCorePlugin.getDefault().getStateLocation()).getChild(NAME_HISTORY_FOLDER);
 			final String oldName= oldProject.getName();
 			final String newName= newProject.getName();
+			flush();
+			RefactoringHistoryIndex.invalidate(oldName);
+			RefactoringHistoryIndex.invalidate(newName);
 			final IFileStore oldStore= historyStore.getChild(oldName);
 			if (oldStore.fetchInfo(EFS.NONE, new SubProgressMonitor(monitor, 10, SubProgressMonitor.SUPPRESS_SUBTASK_LABEL)).exists()) {
 				final IFileStore newStore= historyStore.getChild(newName);
@@ -906,12 +935,50 @@ public final class RefactoringHistoryService implements IRefactoringHistoryServi
 		}
 	}
 
+	/**
+	 * Determines whether the specified delta of a shared refactoring history
+	 * contains changes to history index files which have not been made by the
+	 * refactoring history manager, for instance by a team provider.
+	 *
+	 * @param delta
+	 *            the delta of the shared refactoring history folder
+	 * @return <code>true</code> if the binary index of the history has to be
+	 *         rebuilt, <code>false</code> otherwise
+	 */
+	private static boolean hasForeignIndexChanges(final IResourceDelta delta) {
+		final boolean[] result= { false };
+		try {
+			delta.accept(new IResourceDeltaVisitor() {
+
+				public boolean visit(final IResourceDelta current) {
+					if (result[0])
+						return false;
+					final IResource resource= current.getResource();
+					if (resource.getType() == IResource.FILE && resource.getName().equalsIgnoreCase(NAME_INDEX_FILE)) {
+						final URI uri= resource.getLocationURI();
+						if (current.getKind() == IResourceDelta.REMOVED || uri == null || !RefactoringHistoryIndex.isWrittenFile(uri, resource.getLocalTimeStamp()))
+							result[0]= true;
+					}
+					return true;
+				}
+			});
+		} catch (CoreException exception) {
+			return true;
+		}
+		return result[0];
+	}
+
 	private void peformResourceChanged(final IResourceChangeEvent event) {
 		final int type= event.getType();
 		if ((type & IResourceChangeEvent.POST_CHANGE) != 0) {
 			final IResourceDelta delta= event.getDelta();
 			if (delta != null) {
 				final IResourceDelta[] deltas= delta.getAffectedChildren();
+				for (int index= 0; index < deltas.length; index++) {
+					final IResourceDelta history= deltas[index].findMember(new Path(NAME_HISTORY_FOLDER));
+					if (history != null && hasForeignIndexChanges(history))
+						RefactoringHistoryIndex.invalidate(deltas[index].getResource().getName());
+				}
 				if (deltas.length == 2) {
 					final IPath toPath= deltas[0].getMovedToPath();
 					final IPath fromPath= deltas[1].getMovedFromPath();